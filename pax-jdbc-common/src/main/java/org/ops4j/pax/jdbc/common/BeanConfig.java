@@ -15,37 +15,156 @@
  */
 package org.ops4j.pax.jdbc.common;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.time.Duration;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 
 /**
  * Configure a java bean from a given Map of properties.
+ * <p>
+ * Setters of each bean class are looked up once and kept with a converter for their parameter type. Supported
+ * parameter types are {@code String}, {@code int}, {@code long}, {@code boolean}, {@code double}, {@code float}
+ * (and their wrappers), enums, {@link Duration} and {@link Properties}. Properties with other parameter types are
+ * ignored.
+ * <p>
+ * Classes with a registered {@link BeanConfigurator} are configured with direct setter calls, reflection is
+ * only used for properties the configurator doesn't know.
  */
 public class BeanConfig {
 
-    private final Object bean;
-    private final Map<String, Method> setters;
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
 
-    private BeanConfig(Object bean) {
-        this.bean = bean;
-        this.setters = findSettersForBean(bean);
+    private static final Map<Class<?>, Function<String, ?>> CONVERTERS = new HashMap<>();
+
+    static {
+        CONVERTERS.put(String.class, value -> value);
+        CONVERTERS.put(int.class, Integer::parseInt);
+        CONVERTERS.put(Integer.class, Integer::valueOf);
+        CONVERTERS.put(long.class, Long::parseLong);
+        CONVERTERS.put(Long.class, Long::valueOf);
+        CONVERTERS.put(boolean.class, Boolean::parseBoolean);
+        CONVERTERS.put(Boolean.class, Boolean::valueOf);
+        CONVERTERS.put(double.class, Double::parseDouble);
+        CONVERTERS.put(Double.class, Double::valueOf);
+        CONVERTERS.put(float.class, Float::parseFloat);
+        CONVERTERS.put(Float.class, Float::valueOf);
+        CONVERTERS.put(Duration.class, BeanConfig::parseDuration);
+        CONVERTERS.put(Properties.class, BeanConfig::parseProperties);
+    }
+
+    private static final ClassValue<Map<String, Setter>> SETTERS = new ClassValue<Map<String, Setter>>() {
+        @Override
+        protected Map<String, Setter> computeValue(Class<?> type) {
+            return findSetters(type);
+        }
+    };
+
+    private static final Map<Class<?>, BeanConfigurator<?>> CONFIGURATORS = new ConcurrentHashMap<>();
+
+    private BeanConfig() {
+    }
+
+    /**
+     * Registers a configurator used for beans of exactly given class.
+     *
+     * @param type bean class
+     * @param configurator configurator for the class
+     * @param <T> bean type
+     */
+    public static <T> void register(Class<T> type, BeanConfigurator<? super T> configurator) {
+        CONFIGURATORS.put(type, configurator);
     }
 
-    private static Map<String, Method> findSettersForBean(Object bean) {
-        Map<String, Method> setters = new HashMap<>();
-        for (Method method : bean.getClass().getMethods()) {
+    private static Map<String, Setter> findSetters(Class<?> type) {
+        Map<String, Setter> setters = new HashMap<>();
+        for (Method method : type.getMethods()) {
             String name = method.getName();
-            if (name.startsWith("set") && method.getParameterTypes().length == 1) {
+            if (name.startsWith("set") && name.length() > 3 && method.getParameterTypes().length == 1) {
+                Setter setter = new Setter(method);
                 String key1 = name.substring(3, 4).toLowerCase() + name.substring(4);
                 String key2 = name.substring(3, 4) + name.substring(4);
-                setters.put(key1, method);
-                setters.put(key2, method);
+                setters.merge(key1, setter, BeanConfig::preferred);
+                setters.merge(key2, setter, BeanConfig::preferred);
             }
         }
-        return setters;
+        return Collections.unmodifiableMap(setters);
+    }
+
+    /**
+     * For overloaded setters prefer the one we can convert a value for, then the one that is not deprecated.
+     */
+    private static Setter preferred(Setter s1, Setter s2) {
+        if ((s1.converter == null) != (s2.converter == null)) {
+            return s1.converter != null ? s1 : s2;
+        }
+        if (s1.deprecated != s2.deprecated) {
+            return s1.deprecated ? s2 : s1;
+        }
+        return s1;
+    }
+
+    private static Function<String, ?> converterFor(Class<?> paramClass) {
+        if (paramClass.isEnum()) {
+            return value -> parseAnyEnum(paramClass, value);
+        }
+        return CONVERTERS.get(paramClass);
+    }
+
+    /**
+     * Parses a {@link Duration}. Plain numbers are seconds, numbers with {@code ms} suffix are milliseconds and
+     * other values are parsed as ISO-8601 durations (e.g. {@code PT1M30S}).
+     */
+    public static Duration parseDuration(String value) {
+        String trimmed = value.trim();
+        if (trimmed.endsWith("ms")) {
+            return Duration.ofMillis(Long.parseLong(trimmed.substring(0, trimmed.length() - 2).trim()));
+        }
+        if (trimmed.matches("-?\\d+")) {
+            return Duration.ofSeconds(Long.parseLong(trimmed));
+        }
+        return Duration.parse(trimmed);
+    }
+
+    /**
+     * Parses {@link Properties} given as {@code key1=value1;key2=value2}.
+     */
+    public static Properties parseProperties(String value) {
+        Properties properties = new Properties();
+        for (String entry : value.split(";")) {
+            int eq = entry.indexOf('=');
+            String key = (eq < 0 ? entry : entry.substring(0, eq)).trim();
+            if (!key.isEmpty()) {
+                properties.setProperty(key, eq < 0 ? "" : entry.substring(eq + 1).trim());
+            }
+        }
+        return properties;
+    }
+
+    /**
+     * Parses an enum constant, falling back to the upper case name.
+     */
+    public static <E extends Enum<E>> E parseEnum(Class<E> type, String value) {
+        String name = value.trim();
+        try {
+            return Enum.valueOf(type, name);
+        } catch (IllegalArgumentException e) {
+            return Enum.valueOf(type, name.toUpperCase(Locale.ROOT));
+        }
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static Object parseAnyEnum(Class<?> type, String value) {
+        return parseEnum((Class) type, value);
     }
 
     /**
@@ -57,11 +176,10 @@ public class BeanConfig {
      *            properties to set.
      */
     public static void configure(Object bean, Properties props) {
-        final Map<String, String> map = new HashMap<>();
+        BeanConfigurator<Object> configurator = configuratorFor(bean);
         for (String key : props.stringPropertyNames()) {
-            map.put(key, props.getProperty(key));
+            trySetProperty(bean, configurator, key, props.getProperty(key));
         }
-        BeanConfig.configure(bean, map);
     }
 
     /**
@@ -73,33 +191,28 @@ public class BeanConfig {
      *            properties to set. The keys in the Map have to match the bean property names.
      */
     public static void configure(Object bean, Map<String, String> props) {
-        BeanConfig beanConfig = new BeanConfig(bean);
-        for (String key : props.keySet()) {
-            beanConfig.trySetProperty(key, props.get(key));
+        BeanConfigurator<Object> configurator = configuratorFor(bean);
+        for (Map.Entry<String, String> entry : props.entrySet()) {
+            trySetProperty(bean, configurator, entry.getKey(), entry.getValue());
         }
     }
 
-    private void trySetProperty(String key, String value) {
+    @SuppressWarnings("unchecked")
+    private static BeanConfigurator<Object> configuratorFor(Object bean) {
+        return (BeanConfigurator<Object>) CONFIGURATORS.get(bean.getClass());
+    }
+
+    private static void trySetProperty(Object bean, BeanConfigurator<Object> configurator, String key, String value) {
         try {
-            Method method = setters.get(key);
-            if (method == null) {
+            if (configurator != null && configurator.set(bean, key, value)) {
+                return;
+            }
+            Setter setter = SETTERS.get(bean.getClass()).get(key);
+            if (setter == null) {
                 throw new IllegalArgumentException("No setter in " + bean.getClass()
                     + " for property " + key);
             }
-            Class<?> paramClass = method.getParameterTypes()[0];
-            if (paramClass == int.class || paramClass == Integer.class) {
-                method.invoke(bean, Integer.parseInt(value));
-            }
-            else if (paramClass == long.class || paramClass == Long.class) {
-                method.invoke(bean, Long.parseLong(value));
-            }
-            else if (paramClass == boolean.class || paramClass == Boolean.class) {
-                method.invoke(bean, Boolean.parseBoolean(value));
-            } else if (paramClass == Duration.class) {
-                method.invoke(bean, Duration.ofSeconds(Long.parseLong(value)));
-            } else if (paramClass == String.class) {
-                method.invoke(bean, value);
-            }
+            setter.set(bean, value);
         }
         catch (Exception e) {
             throw new IllegalArgumentException("Error setting property " + key + ":"
@@ -107,4 +220,53 @@ public class BeanConfig {
         }
     }
 
+    /**
+     * A single setter with the converter for its parameter type.
+     */
+    private static final class Setter {
+
+        private final Method method;
+        private final MethodHandle handle;
+        private final Function<String, ?> converter;
+        private final boolean deprecated;
+
+        Setter(Method method) {
+            this.method = method;
+            this.converter = converterFor(method.getParameterTypes()[0]);
+            this.deprecated = method.isAnnotationPresent(Deprecated.class);
+            this.handle = converter == null ? null : unreflect(method);
+        }
+
+        private static MethodHandle unreflect(Method method) {
+            try {
+                return MethodHandles.publicLookup().unreflect(method).asType(SETTER_TYPE);
+            } catch (IllegalAccessException e) {
+                // e.g. public method declared in a non-public class, use reflection instead
+                return null;
+            }
+        }
+
+        void set(Object bean, String value) throws Exception {
+            if (converter == null) {
+                return;
+            }
+            Object converted = converter.apply(value);
+            if (handle == null) {
+                try {
+                    method.invoke(bean, converted);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+                return;
+            }
+            try {
+                handle.invokeExact(bean, converted);
+            } catch (Exception | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+    }
+
 }
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.common;
+
+/**
+ * Sets properties of a bean of a known class with direct setter calls. Implementations are usually generated by
+ * the {@code ConfiguratorProcessor} for classes listed in {@link GenerateConfigurators} and registered with
+ * {@link BeanConfig#register(Class, BeanConfigurator)}.
+ *
+ * @param <T> type of configured bean
+ */
+public interface BeanConfigurator<T> {
+
+    /**
+     * Sets a single property.
+     *
+     * @param bean bean to configure
+     * @param key property name
+     * @param value property value
+     * @return {@code false} if this configurator doesn't know the property
+     * @throws Exception if the value can't be converted or the setter fails
+     */
+    boolean set(T bean, String key, String value) throws Exception;
+
+}
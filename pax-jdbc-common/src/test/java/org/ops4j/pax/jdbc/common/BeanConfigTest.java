@@ -0,0 +1,157 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.common;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BeanConfigTest {
+
+    @Test
+    public void testParameterTypes() throws Exception {
+        Map<String, String> props = new HashMap<>();
+        props.put("ratio", "0.75");
+        props.put("factor", "1.5");
+        props.put("count", "7");
+        props.put("unit", "SECONDS");
+        props.put("timeout", "250ms");
+        props.put("idleTime", "PT1M");
+        props.put("loginTimeout", "30");
+        props.put("connectionProperties", "a=1; b = 2");
+        props.put("object", "ignored");
+        TypesBean bean = new TypesBean();
+        BeanConfig.configure(bean, props);
+        Assert.assertEquals(0.75d, bean.ratio, 0d);
+        Assert.assertEquals(1.5f, bean.factor, 0f);
+        Assert.assertEquals(Integer.valueOf(7), bean.count);
+        Assert.assertEquals(TimeUnit.SECONDS, bean.unit);
+        Assert.assertEquals(Duration.ofMillis(250), bean.timeout);
+        Assert.assertEquals(Duration.ofMinutes(1), bean.idleTime);
+        Assert.assertEquals(Duration.ofSeconds(30), bean.loginTimeout);
+        Assert.assertEquals("1", bean.connectionProperties.getProperty("a"));
+        Assert.assertEquals("2", bean.connectionProperties.getProperty("b"));
+        Assert.assertNull(bean.object);
+
+        Properties lowerCaseEnum = new Properties();
+        lowerCaseEnum.setProperty("unit", "minutes");
+        BeanConfig.configure(bean, lowerCaseEnum);
+        Assert.assertEquals(TimeUnit.MINUTES, bean.unit);
+    }
+
+    @Test
+    public void testInvalidProperties() {
+        TypesBean bean = new TypesBean();
+        try {
+            BeanConfig.configure(bean, Collections.singletonMap("missing", "1"));
+            Assert.fail("Should fail for missing setter");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage().contains("No setter in " + TypesBean.class));
+        }
+        try {
+            BeanConfig.configure(bean, Collections.singletonMap("count", "x"));
+            Assert.fail("Should fail for invalid number");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getCause() instanceof NumberFormatException);
+        }
+    }
+
+    @Test
+    public void testRegisteredConfigurator() throws Exception {
+        BeanConfig.register(ConfiguredBean.class, (bean, key, value) -> {
+            if ("name".equals(key)) {
+                bean.name = "configured:" + value;
+                return true;
+            }
+            return false;
+        });
+        Map<String, String> props = new HashMap<>();
+        props.put("name", "a");
+        props.put("count", "3");
+        ConfiguredBean bean = new ConfiguredBean();
+        BeanConfig.configure(bean, props);
+        Assert.assertEquals("configured:a", bean.name);
+        // unknown to the configurator, set reflectively
+        Assert.assertEquals(Integer.valueOf(3), bean.getCount());
+    }
+
+    public static class ConfiguredBean extends TypesBean {
+        private String name;
+
+        public void setName(String name) {
+            this.name = name;
+        }
+    }
+
+    public static class TypesBean {
+        private double ratio;
+        private float factor;
+        private Integer count;
+        private TimeUnit unit;
+        private Duration timeout;
+        private Duration idleTime;
+        private Duration loginTimeout;
+        private Properties connectionProperties;
+        private Object object;
+
+        public void setRatio(double ratio) {
+            this.ratio = ratio;
+        }
+
+        public void setFactor(float factor) {
+            this.factor = factor;
+        }
+
+        public Integer getCount() {
+            return count;
+        }
+
+        public void setCount(Integer count) {
+            this.count = count;
+        }
+
+        public void setUnit(TimeUnit unit) {
+            this.unit = unit;
+        }
+
+        public void setTimeout(Duration timeout) {
+            this.timeout = timeout;
+        }
+
+        public void setIdleTime(Duration idleTime) {
+            this.idleTime = idleTime;
+        }
+
+        public void setLoginTimeout(Duration loginTimeout) {
+            this.loginTimeout = loginTimeout;
+        }
+
+        public void setConnectionProperties(Properties connectionProperties) {
+            this.connectionProperties = connectionProperties;
+        }
+
+        public void setObject(Object object) {
+            this.object = object;
+        }
+    }
+
+}
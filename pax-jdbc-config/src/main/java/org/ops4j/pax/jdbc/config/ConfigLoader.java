@@ -20,4 +20,25 @@ public interface ConfigLoader {
     String getName();
 
     String resolve(String key);
+
+    /**
+     * Reports changes of the value of {@code key}. Values of loaders that can not report changes are resolved again
+     * whenever a configuration using them is updated, all other values are cached until they change.
+     *
+     * @param key key as passed to {@link #resolve(String)}
+     * @param onChange called when the value may have changed
+     * @return {@code false} if changes of {@code key} can not be reported
+     */
+    default boolean watch(String key, Runnable onChange) {
+        return false;
+    }
+
+    /**
+     * Stops reporting changes to a callback passed to {@link #watch(String, Runnable)}.
+     *
+     * @param key key as passed to {@link #watch(String, Runnable)}
+     * @param onChange callback as passed to {@link #watch(String, Runnable)}
+     */
+    default void unwatch(String key, Runnable onChange) {
+    }
 }
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.config;
+
+import org.ops4j.pax.jdbc.pool.common.LatencyHistogram;
+
+/**
+ * Statistics of resolving external configuration values such as {@code FILE(/run/secrets/db)}. Registered as OSGi
+ * service by pax-jdbc-config.
+ */
+public interface ConfigLoaderMetrics {
+
+    /**
+     * @return values served from the cache
+     */
+    long getCacheHits();
+
+    /**
+     * @return values resolved by a {@link ConfigLoader}
+     */
+    long getCacheMisses();
+
+    /**
+     * @return share of values served from the cache, {@code 0} before the first value was resolved
+     */
+    double getCacheHitRatio();
+
+    /**
+     * @return cached values dropped because their {@link ConfigLoader} reported a change
+     */
+    long getInvalidations();
+
+    /**
+     * @return time {@link ConfigLoader#resolve(String)} took
+     */
+    LatencyHistogram getLoadLatency();
+
+}
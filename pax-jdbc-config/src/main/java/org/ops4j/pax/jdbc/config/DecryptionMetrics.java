@@ -0,0 +1,61 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.config;
+
+import org.ops4j.pax.jdbc.pool.common.LatencyHistogram;
+
+/**
+ * Statistics of decrypting {@code ENC(...)} configuration values with jasypt {@code StringEncryptor} services.
+ * Registered as OSGi service by pax-jdbc-config.
+ */
+public interface DecryptionMetrics {
+
+    /**
+     * @return values served from the cache
+     */
+    long getCacheHits();
+
+    /**
+     * @return values decrypted by a {@code StringEncryptor}
+     */
+    long getCacheMisses();
+
+    /**
+     * @return share of values served from the cache, {@code 0} before the first value was decrypted
+     */
+    double getCacheHitRatio();
+
+    /**
+     * @return cached values dropped because the cache was full
+     */
+    long getEvictions();
+
+    /**
+     * @return cached values dropped because their {@code StringEncryptor} was unregistered
+     */
+    long getInvalidations();
+
+    /**
+     * @return cached values dropped because pax-jdbc-config stopped
+     */
+    long getClears();
+
+    /**
+     * @return time {@code StringEncryptor.decrypt} took
+     */
+    LatencyHistogram getDecryptLatency();
+
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.config;
+
+import org.ops4j.pax.jdbc.pool.common.LatencyHistogram;
+
+/**
+ * Statistics of closing the DataSources pax-jdbc-config created, to size {@code pax.jdbc.drainTimeout}. Registered
+ * as OSGi service by pax-jdbc-config.
+ */
+public interface DrainMetrics {
+
+    /**
+     * @return DataSources closed so far
+     */
+    long getDrained();
+
+    /**
+     * @return connections that were still borrowed when their DataSource was closed, as far as the pools report them
+     */
+    long getForcedCloses();
+
+    /**
+     * @return time from unregistering a DataSource until its pool was closed
+     */
+    LatencyHistogram getDrainTime();
+
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.config;
+
+import org.ops4j.pax.jdbc.pool.common.LatencyHistogram;
+
+/**
+ * Statistics of the {@code PreHook}s run before DataSources are published, to size
+ * {@code pax.jdbc.preHook.timeout}. Registered as OSGi service by pax-jdbc-config.
+ */
+public interface PreHookMetrics {
+
+    /**
+     * @return hooks that finished successfully
+     */
+    long getSucceeded();
+
+    /**
+     * @return hooks that threw an exception, their DataSource was not published
+     */
+    long getFailed();
+
+    /**
+     * @return hooks that did not finish within {@code pax.jdbc.preHook.timeout}, their DataSource was not published
+     */
+    long getTimedOut();
+
+    /**
+     * @return time the hooks took that finished, successfully or not
+     */
+    LatencyHistogram getDuration();
+
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.config;
+
+/**
+ * Marks the connections borrowed by the current thread as read only, a {@code RoutingDataSource} hands them out from
+ * its replicas. Scopes nest, closing one restores the enclosing scope:
+ *
+ * <pre>
+ * try (ReadOnlyScope scope = ReadOnlyScope.open()) {
+ *     connection = dataSource.getConnection();
+ * }
+ * </pre>
+ */
+public final class ReadOnlyScope implements AutoCloseable {
+
+    private static final ThreadLocal<ReadOnlyScope> CURRENT = new ThreadLocal<>();
+
+    private final ReadOnlyScope enclosing;
+
+    private ReadOnlyScope(ReadOnlyScope enclosing) {
+        this.enclosing = enclosing;
+    }
+
+    public static ReadOnlyScope open() {
+        ReadOnlyScope scope = new ReadOnlyScope(CURRENT.get());
+        CURRENT.set(scope);
+        return scope;
+    }
+
+    /**
+     * @return {@code true} if the current thread is within a read only scope
+     */
+    public static boolean isActive() {
+        return CURRENT.get() != null;
+    }
+
+    @Override
+    public void close() {
+        if (enclosing == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(enclosing);
+        }
+    }
+
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.config;
+
+/**
+ * Counters of the DataSource configuration updates pax-jdbc-config received. Registered as OSGi service by
+ * pax-jdbc-config.
+ */
+public interface UpdateMetrics {
+
+    /**
+     * @return configuration updates received from config admin
+     */
+    long getReceived();
+
+    /**
+     * @return updates replaced by a later update of the same configuration within the quiet period
+     */
+    long getCoalesced();
+
+    /**
+     * @return updates skipped because the configuration did not change
+     */
+    long getUnchanged();
+
+}
@@ -17,10 +17,20 @@ package org.ops4j.pax.jdbc.config.impl;
 
 import java.util.Dictionary;
 import java.util.Hashtable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.sql.CommonDataSource;
 
 import org.ops4j.pax.jdbc.config.ConfigLoader;
+import org.ops4j.pax.jdbc.config.ConfigLoaderMetrics;
+import org.ops4j.pax.jdbc.config.DecryptionMetrics;
+import org.ops4j.pax.jdbc.config.DrainMetrics;
+import org.ops4j.pax.jdbc.config.PreHookMetrics;
+import org.ops4j.pax.jdbc.config.UpdateMetrics;
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Constants;
@@ -31,21 +41,56 @@ import org.osgi.util.tracker.ServiceTracker;
 public class Activator implements BundleActivator {
 
     private static final String FACTORY_PID = "org.ops4j.datasource";
+    // number of DataSources created concurrently
+    private static final String PROVISIONING_THREADS = "org.ops4j.pax.jdbc.config.provisioningThreads";
+    // milliseconds without further updates of a pid before its last update is applied
+    private static final String QUIET_PERIOD = "org.ops4j.pax.jdbc.config.quietPeriod";
+    private static final long DEFAULT_QUIET_PERIOD = 200L;
+    // decrypted values cached per StringEncryptor service
+    private static final String DECRYPTION_CACHE_SIZE = "org.ops4j.pax.jdbc.config.decryptionCacheSize";
 
     private ServiceTracker<?, ?> dataSourceTracker;
 
     private ExternalConfigLoader externalConfigLoader;
+    private FileConfigLoader fileConfigLoader;
     private ServiceRegistration<ConfigLoader> configLoaderRegistration;
+    private ServiceRegistration<ConfigLoaderMetrics> configLoaderMetricsRegistration;
+    private DecryptionCache decryptionCache;
+    private ServiceRegistration<DecryptionMetrics> decryptionMetricsRegistration;
     private DataSourceConfigManager configManager;
     private ServiceRegistration<ManagedServiceFactory> registration;
+    private ServiceRegistration<DrainMetrics> drainMetricsRegistration;
+    private PreHookRunner preHookRunner;
+    private ServiceRegistration<PreHookMetrics> preHookMetricsRegistration;
+    private ServiceRegistration<UpdateMetrics> updateMetricsRegistration;
+    private ExecutorService provisioningExecutor;
 
     @Override
     public void start(BundleContext context) throws Exception {
-        configLoaderRegistration = context.registerService(ConfigLoader.class, new FileConfigLoader(), new Hashtable<>());
+        fileConfigLoader = new FileConfigLoader();
+        configLoaderRegistration = context.registerService(ConfigLoader.class, fileConfigLoader, new Hashtable<>());
         externalConfigLoader = new ExternalConfigLoader(context);
+        configLoaderMetricsRegistration = context.registerService(ConfigLoaderMetrics.class, externalConfigLoader,
+                new Hashtable<>());
         Dictionary<String, String> props = new Hashtable<>();
         props.put(Constants.SERVICE_PID, FACTORY_PID);
-        configManager = new DataSourceConfigManager(context, externalConfigLoader);
+        DrainStats drainStats = new DrainStats();
+        drainMetricsRegistration = context.registerService(DrainMetrics.class, drainStats, new Hashtable<>());
+        preHookRunner = new PreHookRunner();
+        preHookMetricsRegistration = context.registerService(PreHookMetrics.class, preHookRunner, new Hashtable<>());
+        provisioningExecutor = createProvisioningExecutor(context);
+        String quietPeriod = context.getProperty(QUIET_PERIOD);
+        // one service listener for the dependencies of all DataSources
+        ServiceDependencies serviceDependencies = DataSourceConfigManager.createServiceDependencies(context);
+        String decryptionCacheSize = context.getProperty(DECRYPTION_CACHE_SIZE);
+        decryptionCache = new DecryptionCache(context, decryptionCacheSize != null
+                ? Integer.parseInt(decryptionCacheSize.trim()) : DecryptionCache.DEFAULT_MAX_ENTRIES);
+        decryptionMetricsRegistration = context.registerService(DecryptionMetrics.class, decryptionCache,
+                new Hashtable<>());
+        configManager = new DataSourceConfigManager(context, externalConfigLoader, serviceDependencies,
+                decryptionCache, drainStats, preHookRunner, provisioningExecutor,
+                quietPeriod != null ? Long.parseLong(quietPeriod.trim()) : DEFAULT_QUIET_PERIOD);
+        updateMetricsRegistration = context.registerService(UpdateMetrics.class, configManager, new Hashtable<>());
         // this service will track:
         //  - org.ops4j.datasource factory PIDs
         //  - (optionally) org.jasypt.encryption.StringEncryptor services
@@ -65,7 +110,8 @@ public class Activator implements BundleActivator {
         String filter = "(&(pool=*)(!(pax.jdbc.managed=true))" +
                 "(|(objectClass=javax.sql.DataSource)(objectClass=javax.sql.XADataSource)))";
         dataSourceTracker = helper.track(CommonDataSource.class, filter,
-                (ds, reference) -> new DataSourceWrapper(context, externalConfigLoader, ds, reference),
+                (ds, reference) -> new DataSourceWrapper(context, externalConfigLoader, serviceDependencies,
+                        decryptionCache, ds, reference, drainStats, preHookRunner),
                 DataSourceWrapper::close
         );
     }
@@ -76,9 +122,34 @@ public class Activator implements BundleActivator {
             dataSourceTracker.close();
         }
         registration.unregister();
+        updateMetricsRegistration.unregister();
         configManager.destroy();
+        provisioningExecutor.shutdown();
+        preHookMetricsRegistration.unregister();
+        preHookRunner.close();
+        decryptionMetricsRegistration.unregister();
+        decryptionCache.close();
+        drainMetricsRegistration.unregister();
+        configLoaderMetricsRegistration.unregister();
         configLoaderRegistration.unregister();
         externalConfigLoader.destroy();
+        fileConfigLoader.close();
+    }
+
+    private ExecutorService createProvisioningExecutor(BundleContext context) {
+        String configured = context.getProperty(PROVISIONING_THREADS);
+        // creating a pool mostly waits for the database, so use more threads than there are cores
+        int threads = configured != null ? Integer.parseInt(configured.trim())
+                : Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+        AtomicInteger count = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread thread = new Thread(r, "pax-jdbc-config-provisioning-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
     }
 
 }
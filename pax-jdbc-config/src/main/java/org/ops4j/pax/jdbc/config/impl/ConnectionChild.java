@@ -0,0 +1,97 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.config.impl;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Statement, metadata or result set of a connection proxy, returning the proxy and the wrapped statement instead of
+ * the objects they wrap. Closing the connection they lead back to then goes through the proxy.
+ */
+final class ConnectionChild implements InvocationHandler {
+
+    private static final Set<Class<?>> CHILD_TYPES = new HashSet<>(Arrays.asList(Statement.class,
+            PreparedStatement.class, CallableStatement.class, DatabaseMetaData.class, ResultSet.class));
+
+    private final Object target;
+    private final Object connectionProxy;
+    private final Object parentProxy;
+
+    private ConnectionChild(Object target, Object connectionProxy, Object parentProxy) {
+        this.target = target;
+        this.connectionProxy = connectionProxy;
+        this.parentProxy = parentProxy;
+    }
+
+    /**
+     * @param child result of a method of the connection proxy or one of its children
+     * @param type declared return type of the method
+     * @param parentProxy proxy the method was called on
+     * @return the child wrapped if it leads back to the connection, otherwise the child itself
+     */
+    static Object wrap(Object child, Class<?> type, Object connectionProxy, Object parentProxy) {
+        if (child == null || !CHILD_TYPES.contains(type)) {
+            return child;
+        }
+        return Proxy.newProxyInstance(ConnectionChild.class.getClassLoader(), new Class<?>[] { type },
+                new ConnectionChild(child, connectionProxy, parentProxy));
+    }
+
+    /**
+     * @return {@code true} for {@code unwrap} or {@code isWrapperFor} of an interface the proxy implements itself
+     */
+    static boolean isUnwrapToProxy(Object proxy, String methodName, Object[] args) {
+        return ("unwrap".equals(methodName) || "isWrapperFor".equals(methodName)) && args != null
+                && args.length == 1 && args[0] instanceof Class && ((Class<?>) args[0]).isInstance(proxy);
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String methodName = method.getName();
+        if ("equals".equals(methodName) && args.length == 1) {
+            return proxy == args[0];
+        }
+        if ("hashCode".equals(methodName) && args == null) {
+            return System.identityHashCode(proxy);
+        }
+        if ("getConnection".equals(methodName) && args == null) {
+            return connectionProxy;
+        }
+        if ("getStatement".equals(methodName) && args == null && parentProxy instanceof Statement) {
+            return parentProxy;
+        }
+        if (isUnwrapToProxy(proxy, methodName, args)) {
+            return "unwrap".equals(methodName) ? proxy : Boolean.TRUE;
+        }
+        try {
+            return wrap(method.invoke(target, args), method.getReturnType(), connectionProxy, proxy);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+}
@@ -16,39 +16,143 @@
 package org.ops4j.pax.jdbc.config.impl;
 
 import org.jasypt.encryption.StringEncryptor;
+import org.ops4j.pax.jdbc.config.UpdateMetrics;
+import org.ops4j.pax.jdbc.hook.ConnectionInitHook;
 import org.ops4j.pax.jdbc.hook.PreHook;
+import org.ops4j.pax.jdbc.pool.common.LatencyHistogram;
+import org.ops4j.pax.jdbc.pool.common.PoolMetrics;
 import org.ops4j.pax.jdbc.pool.common.PooledDataSourceFactory;
+import org.ops4j.pax.jdbc.pool.common.impl.ConnectionInitializer;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceReference;
 import org.osgi.service.cm.ConfigurationException;
 import org.osgi.service.cm.ManagedServiceFactory;
 import org.osgi.service.jdbc.DataSourceFactory;
-import org.osgi.util.tracker.ServiceTracker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Dictionary;
+import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.sql.DataSource;
 
 /**
  * Watches for DataSource configs in OSGi configuration admin and creates / destroys the trackers
  * for the DataSourceFactories and pooling support
  */
-public class DataSourceConfigManager implements ManagedServiceFactory {
+public class DataSourceConfigManager implements ManagedServiceFactory, UpdateMetrics {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DataSourceConfigManager.class);
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 60L;
 
     private final BundleContext context;
     private final ExternalConfigLoader externalConfigLoader;
 
     /**
-     * Stores one ServiceTracker for DataSourceFactories for each config pid
+     * Stores the service dependencies and the current configuration for each config pid
+     */
+    private final Map<String, ConfigHolder> holders;
+
+    /**
+     * Last configuration of each pid as config admin provided it, resolved again when an external value changes
+     */
+    private final Map<String, Dictionary<String, Object>> configs = new ConcurrentHashMap<>();
+
+    /**
+     * Creates, changes and removes the DataSources of a pid in the order config admin reported the changes, while
+     * different pids are provisioned concurrently
+     */
+    private final KeyedExecutor provisioning;
+
+    /**
+     * Drains DataSources replaced by a swap, so config admin is not blocked while borrowed connections are returned
+     */
+    private final ExecutorService drainExecutor;
+    private final DrainStats drainStats;
+    private final PreHookRunner preHookRunner;
+
+    /**
+     * Physical pools of the DataSources configured to share them
+     */
+    private final SharedPools sharedPools = new SharedPools();
+
+    /**
+     * Shared by all pids, a service event is matched against each distinct filter once
+     */
+    private final ServiceDependencies serviceDependencies;
+    private final DecryptionCache decryptionCache;
+
+    /**
+     * Updates of a pid within this period replace each other, only the last one is provisioned
      */
-    private final Map<String, ServiceTracker<?, ?>> trackers;
+    private final long quietPeriodMillis;
+    private final ScheduledExecutorService debounce;
+    private final Map<String, PendingUpdate> pendingUpdates = new HashMap<>();
+
+    private final LongAdder received = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder unchanged = new LongAdder();
 
     public DataSourceConfigManager(BundleContext context, ExternalConfigLoader externalConfigLoader) {
+        this(context, externalConfigLoader, new DrainStats(), Runnable::run, 0L);
+    }
+
+    public DataSourceConfigManager(BundleContext context, ExternalConfigLoader externalConfigLoader, DrainStats drainStats,
+            Executor provisioningExecutor, long quietPeriodMillis) {
+        this(context, externalConfigLoader, createServiceDependencies(context), new DecryptionCache(context),
+                drainStats, new PreHookRunner(), provisioningExecutor, quietPeriodMillis);
+    }
+
+    /**
+     * @param serviceDependencies tracks the services the DataSources depend on
+     * @param decryptionCache remembers decrypted values across rebuilds of the DataSources
+     * @param preHookRunner runs the pre hooks of the DataSources
+     * @param provisioningExecutor runs the provisioning of DataSources, a direct executor provisions them on the
+     * config admin thread
+     * @param quietPeriodMillis time without further updates of a pid before its last update is provisioned,
+     * {@code 0} provisions every update
+     */
+    public DataSourceConfigManager(BundleContext context, ExternalConfigLoader externalConfigLoader,
+            ServiceDependencies serviceDependencies, DecryptionCache decryptionCache, DrainStats drainStats,
+            PreHookRunner preHookRunner, Executor provisioningExecutor, long quietPeriodMillis) {
         this.context = context;
         this.externalConfigLoader = externalConfigLoader;
-        this.trackers = new HashMap<>();
+        this.serviceDependencies = serviceDependencies;
+        this.decryptionCache = decryptionCache;
+        this.drainStats = drainStats;
+        this.preHookRunner = preHookRunner;
+        this.holders = new ConcurrentHashMap<>();
+        this.provisioning = new KeyedExecutor(provisioningExecutor);
+        this.quietPeriodMillis = quietPeriodMillis;
+        this.debounce = quietPeriodMillis <= 0 ? null : Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "pax-jdbc-config-debounce");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.drainExecutor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "pax-jdbc-config-drain");
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
     @Override
@@ -59,44 +163,101 @@ public class DataSourceConfigManager implements ManagedServiceFactory {
 
     @Override
     public void updated(final String pid, final Dictionary config) throws ConfigurationException {
-        deleted(pid);
         if (config == null) {
+            deleted(pid);
             return;
         }
 
-        Dictionary<String, Object> loadedConfig = externalConfigLoader.resolve(config);
+        configs.put(pid, config);
+
+        // invalid configurations are reported to config admin, everything else runs in the background
+        try {
+            validate(pid, config);
+        } catch (ConfigurationException e) {
+            deleted(pid);
+            throw e;
+        }
+        received.increment();
+        long queued = System.nanoTime();
+        if (debounce == null) {
+            submit(pid, config, queued);
+            return;
+        }
+        PendingUpdate update = new PendingUpdate(pid, config, queued);
+        synchronized (pendingUpdates) {
+            PendingUpdate previous = pendingUpdates.put(pid, update);
+            if (previous != null) {
+                previous.future.cancel(false);
+                coalesced.increment();
+                LOG.debug("Replaced pending update of DataSource configuration {}", pid);
+            }
+            update.future = debounce.schedule(update, quietPeriodMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public long getReceived() {
+        return received.sum();
+    }
+
+    @Override
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
 
-        String seFilter = getStringEncryptorFilter(loadedConfig);
-        String dsfFilter = getDSFFilter(loadedConfig);
-        String pdsfFilter = getPooledDSFFilter(loadedConfig);
-        String phFilter = getPreHookFilter(loadedConfig);
+    @Override
+    public long getUnchanged() {
+        return unchanged.sum();
+    }
 
-        ServiceTrackerHelper helper = ServiceTrackerHelper.helper(context);
-        ServiceTracker<?, ServiceTracker<?, ?>> tracker;
+    private void submit(String pid, Dictionary<String, Object> config, long queued) {
+        provisioning.execute(pid, () -> resolveAndProvision(pid, config, queued));
+        LOG.debug("Queued DataSource configuration {}, {} changes pending", pid, provisioning.pending(pid));
+    }
 
-        if (Objects.nonNull(pdsfFilter)) {
-            tracker = helper.track(StringEncryptor.class, seFilter, se ->
-                    helper.track(PooledDataSourceFactory.class, pdsfFilter, pdsf ->
-                            helper.track(PreHook.class, phFilter, ph ->
-                                    helper.track(DataSourceFactory.class, dsfFilter, dsf ->
-                                                    new DataSourceRegistration(context,
-                                                            new PoolingWrapper(pdsf, dsf),
-                                                            loadedConfig,
-                                                            new Decryptor(se).decrypt(loadedConfig),
-                                                            ph),
-                                            DataSourceRegistration::close))));
+    /**
+     * Resolves the external values of a configuration and provisions it, on the provisioning executor as loading
+     * them may block.
+     */
+    private void resolveAndProvision(String pid, Dictionary<String, Object> config, long queued) {
+        try {
+            provision(pid, createHolder(pid, config), queued);
+        } catch (ConfigurationException e) {
+            LOG.warn("Can not provision DataSource configuration " + pid + ": " + e.getMessage(), e);
+            remove(pid);
+        }
+        // deleted while the configuration was resolved
+        if (!configs.containsKey(pid)) {
+            externalConfigLoader.release(pid);
+        }
+    }
+
+    private void provision(String pid, ConfigHolder holder, long queued) {
+        long start = System.nanoTime();
+        ConfigHolder current = holders.get(pid);
+        // a DataSource that failed to register is retried with the same configuration
+        if (current != null && current.identity.equals(holder.identity) && current.effective.equals(holder.effective)
+                && (current.isRegistered() || current.isPreparing())) {
+            unchanged.increment();
+            LOG.debug("DataSource configuration {} is unchanged", pid);
+            return;
+        }
+        if (current != null && current.identity.equals(holder.identity) && current.reconfigure(holder.config)) {
+            LOG.info("Reconfigured DataSource configuration {} in {} ms after waiting {} ms", pid,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), TimeUnit.NANOSECONDS.toMillis(start - queued));
+            return;
+        }
+        if (current != null && DataSourceRegistration.isSwap(holder.config) && current.isRegistered()) {
+            // the current DataSource keeps serving until the new one is published with a higher ranking
+            holders.remove(pid);
+            holder.replace(current);
         } else {
-            tracker = helper.track(StringEncryptor.class, seFilter, se ->
-                    helper.track(PreHook.class, phFilter, ph ->
-                            helper.track(DataSourceFactory.class, dsfFilter, dsf ->
-                                            new DataSourceRegistration(context,
-                                                    dsf,
-                                                    loadedConfig,
-                                                    new Decryptor(se).decrypt(loadedConfig),
-                                                    ph),
-                                    DataSourceRegistration::close)));
+            remove(pid);
         }
-        trackers.put(pid, tracker);
+        holder.open();
+        holders.put(pid, holder);
+        LOG.info("Provisioned DataSource configuration {} in {} ms after waiting {} ms", pid,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), TimeUnit.NANOSECONDS.toMillis(start - queued));
     }
 
     static String getStringEncryptorFilter(Dictionary<String, Object> config) {
@@ -108,15 +269,86 @@ public class DataSourceConfigManager implements ManagedServiceFactory {
         return null;
     }
 
-    static String getPreHookFilter(Dictionary<String, Object> config) {
-        String preHookName = (String) config.get(PreHook.CONFIG_KEY_NAME);
-        if (preHookName != null) {
-            return andFilter(eqFilter("objectClass", PreHook.class.getName()),
-                    eqFilter(PreHook.KEY_NAME, preHookName));
+    /**
+     * @return names of the pre hooks, {@code ops4j.preHook} is a comma separated list of them
+     */
+    static List<String> getPreHookNames(Dictionary<String, Object> config) {
+        String preHookNames = (String) config.get(PreHook.CONFIG_KEY_NAME);
+        Set<String> names = new LinkedHashSet<>();
+        if (preHookNames != null) {
+            for (String name : preHookNames.split(",")) {
+                if (!name.trim().isEmpty()) {
+                    names.add(name.trim());
+                }
+            }
+        }
+        return new ArrayList<>(names);
+    }
+
+    static List<String> getPreHookFilters(List<String> preHookNames) {
+        List<String> filters = new ArrayList<>();
+        for (String name : preHookNames) {
+            filters.add(andFilter(eqFilter("objectClass", PreHook.class.getName()),
+                    eqFilter(PreHook.KEY_NAME, name)));
+        }
+        return filters;
+    }
+
+    /**
+     * @return the bound pre hooks by name, they were required in the order of {@code preHookNames}
+     */
+    static Map<String, PreHook> getPreHooks(List<String> preHookNames, ServiceDependencies.Dependencies services) {
+        List<PreHook> preHooks = services.getAll(PreHook.class);
+        Map<String, PreHook> byName = new LinkedHashMap<>();
+        for (int i = 0; i < preHookNames.size(); i++) {
+            byName.put(preHookNames.get(i), preHooks.get(i));
+        }
+        return byName;
+    }
+
+    static String getConnectionInitHookFilter(Dictionary<String, Object> config) {
+        String hookName = (String) config.get(ConnectionInitHook.CONFIG_KEY_NAME);
+        if (hookName != null) {
+            return andFilter(eqFilter("objectClass", ConnectionInitHook.class.getName()),
+                    eqFilter(ConnectionInitHook.KEY_NAME, hookName));
         }
         return null;
     }
 
+    /**
+     * @return filters of the primary followed by the replicas of a {@code RoutingDataSource}, empty for other types
+     */
+    static List<String> getRoutingFilters(Dictionary<String, Object> config) throws ConfigurationException {
+        if (!RoutingDataSourceFactory.isRouting(config)) {
+            return new ArrayList<>();
+        }
+        String primary = (String) config.get(RoutingDataSourceFactory.PRIMARY);
+        if (primary == null) {
+            throw new ConfigurationException(RoutingDataSourceFactory.PRIMARY,
+                    "RoutingDataSource requires the name of its primary DataSource");
+        }
+        if (config.get(PooledDataSourceFactory.POOL_KEY) != null) {
+            throw new ConfigurationException(PooledDataSourceFactory.POOL_KEY,
+                    "RoutingDataSource uses the pools of the DataSources it routes to");
+        }
+        if (config.get(RoutingDataSourceFactory.LAG_QUERY) != null
+                && config.get(RoutingDataSourceFactory.MAX_LAG) == null) {
+            throw new ConfigurationException(RoutingDataSourceFactory.MAX_LAG,
+                    "Replica lag query requires the maximum lag in seconds");
+        }
+        List<String> filters = new ArrayList<>();
+        filters.add(getDataSourceFilter(primary));
+        for (String replica : RoutingDataSourceFactory.getReplicaNames(config)) {
+            filters.add(getDataSourceFilter(replica));
+        }
+        return filters;
+    }
+
+    private static String getDataSourceFilter(String name) {
+        return andFilter(eqFilter("objectClass", DataSource.class.getName()),
+                eqFilter(DataSourceRegistration.JNDI_SERVICE_NAME, name));
+    }
+
     static String getPooledDSFFilter(Dictionary<String, Object> config) throws ConfigurationException {
         String pool = (String) config.remove(PooledDataSourceFactory.POOL_KEY);
         boolean isXa = isXa(config);
@@ -181,19 +413,454 @@ public class DataSourceConfigManager implements ManagedServiceFactory {
         return count > 1 ? filter.toString() : last;
     }
 
+    private ConfigHolder createHolder(String pid, Dictionary<String, Object> config) throws ConfigurationException {
+        return newHolder(pid, externalConfigLoader.resolve(config, pid, this::refresh));
+    }
+
+    /**
+     * Checks a configuration without loading its external values, a configuration referencing them is checked once
+     * they are resolved in the background.
+     */
+    private void validate(String pid, Dictionary<String, Object> config) throws ConfigurationException {
+        if (!externalConfigLoader.hasReferences(config)) {
+            newHolder(pid, new Hashtable<>(toMap(config)));
+        }
+    }
+
+    private ConfigHolder newHolder(String pid, Dictionary<String, Object> loadedConfig) throws ConfigurationException {
+        // a routing DataSource borrows from other DataSources instead of a driver
+        List<String> routingFilters = getRoutingFilters(loadedConfig);
+        return new ConfigHolder(pid, loadedConfig, getStringEncryptorFilter(loadedConfig),
+                routingFilters.isEmpty() ? getDSFFilter(loadedConfig) : null, getPooledDSFFilter(loadedConfig),
+                getPreHookNames(loadedConfig), getConnectionInitHookFilter(loadedConfig), routingFilters);
+    }
+
+    /**
+     * Provisions the last configuration of a pid again after an external value it references changed.
+     */
+    private void refresh(String pid) {
+        long queued = System.nanoTime();
+        provisioning.execute(pid, () -> {
+            Dictionary<String, Object> config = configs.get(pid);
+            if (config != null) {
+                resolveAndProvision(pid, config, queued);
+            }
+        });
+    }
+
     @Override
-    public synchronized void deleted(String pid) {
-        ServiceTracker<?, ?> tracker = trackers.remove(pid);
-        if (tracker != null) {
-            tracker.close();
+    public void deleted(String pid) {
+        configs.remove(pid);
+        externalConfigLoader.release(pid);
+        if (debounce == null) {
+            provisioning.execute(pid, () -> remove(pid));
+            return;
+        }
+        // a pending update must either be cancelled or queued before the removal
+        synchronized (pendingUpdates) {
+            PendingUpdate pending = pendingUpdates.remove(pid);
+            if (pending != null) {
+                pending.future.cancel(false);
+            }
+            provisioning.execute(pid, () -> remove(pid));
         }
     }
 
-    synchronized void destroy() {
-        Set<String> pidsToDestroy = new HashSet<>(trackers.keySet());
+    private void remove(String pid) {
+        ConfigHolder holder = holders.remove(pid);
+        if (holder != null) {
+            holder.close();
+        }
+    }
+
+    /**
+     * Waits for pending provisioning and removes all DataSources. Config admin must not call this manager any more.
+     */
+    void destroy() {
+        if (debounce != null) {
+            debounce.shutdownNow();
+            synchronized (pendingUpdates) {
+                pendingUpdates.clear();
+            }
+        }
+        try {
+            if (!provisioning.awaitIdle(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                LOG.warn("DataSource provisioning did not finish within {} s", SHUTDOWN_TIMEOUT_SECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (String pid : configs.keySet()) {
+            externalConfigLoader.release(pid);
+        }
+        configs.clear();
+        Set<String> pidsToDestroy = new HashSet<>(holders.keySet());
         for (String pid : pidsToDestroy) {
-            deleted(pid);
+            remove(pid);
+        }
+        try {
+            // the registrations are closed on the provisioning executor
+            if (!provisioning.awaitIdle(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                LOG.warn("DataSources were not closed within {} s", SHUTDOWN_TIMEOUT_SECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        drainExecutor.shutdown();
+    }
+
+    /**
+     * Creates the {@link ServiceDependencies} for all services a DataSource can depend on.
+     */
+    static ServiceDependencies createServiceDependencies(BundleContext context) {
+        return new ServiceDependencies(context, StringEncryptor.class, PooledDataSourceFactory.class, PreHook.class,
+                ConnectionInitHook.class, DataSourceFactory.class, DataSource.class);
+    }
+
+    static int getRanking(Dictionary<String, Object> config) {
+        Object ranking = config.get(Constants.SERVICE_RANKING);
+        return ranking == null ? 0 : Integer.parseInt(ranking.toString());
+    }
+
+    private static Dictionary<String, Object> withRanking(Dictionary<String, Object> config, int ranking) {
+        Dictionary<String, Object> copy = new Hashtable<>();
+        for (Enumeration<String> keys = config.keys(); keys.hasMoreElements();) {
+            String key = keys.nextElement();
+            copy.put(key, config.get(key));
+        }
+        copy.put(Constants.SERVICE_RANKING, ranking);
+        return copy;
+    }
+
+    private static Map<String, Object> toMap(Dictionary<String, Object> config) {
+        Map<String, Object> map = new HashMap<>();
+        for (Enumeration<String> keys = config.keys(); keys.hasMoreElements();) {
+            String key = keys.nextElement();
+            map.put(key, config.get(key));
+        }
+        return map;
+    }
+
+    /**
+     * Last update of a pid waiting for the quiet period to pass.
+     */
+    private final class PendingUpdate implements Runnable {
+
+        private final String pid;
+        private final Dictionary<String, Object> config;
+        private final long queued;
+        private ScheduledFuture<?> future;
+
+        PendingUpdate(String pid, Dictionary<String, Object> config, long queued) {
+            this.pid = pid;
+            this.config = config;
+            this.queued = queued;
+        }
+
+        @Override
+        public void run() {
+            synchronized (pendingUpdates) {
+                if (pendingUpdates.remove(pid, this)) {
+                    submit(pid, config, queued);
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Services bound to the dependencies of a DataSource when they were satisfied.
+     */
+    private static final class BoundServices {
+
+        private final DataSourceFactory dsf;
+        private final PooledDataSourceFactory pdsf;
+        private final ConnectionInitHook initHook;
+        private final StringEncryptor encryptor;
+        private final ServiceReference<?> encryptorReference;
+        private final Map<String, PreHook> preHooks;
+        private final List<DataSource> dataSources;
+
+        BoundServices(ServiceDependencies.Dependencies services, List<String> preHookNames) {
+            this.dsf = services.get(DataSourceFactory.class);
+            this.pdsf = services.get(PooledDataSourceFactory.class);
+            this.initHook = services.get(ConnectionInitHook.class);
+            this.encryptor = services.get(StringEncryptor.class);
+            this.encryptorReference = services.getReference(StringEncryptor.class);
+            this.preHooks = getPreHooks(preHookNames, services);
+            this.dataSources = services.getAll(DataSource.class);
+        }
+
+    }
+
+    /**
+     * Current configuration of one pid and the {@link DataSourceRegistration} created from it.
+     */
+    private final class ConfigHolder {
+
+        private final String pid;
+        private final String seFilter;
+        private final String dsfFilter;
+        private final String pdsfFilter;
+        private final List<String> preHookNames;
+        private final List<String> phFilters;
+        private final String ciFilter;
+        private final List<String> routingFilters;
+
+        /**
+         * Services and names the DataSource is built from, they can only change by recreating it
+         */
+        private final List<Object> identity;
+
+        /**
+         * Copy of the configuration as config admin provided it, the published configuration gets amended
+         */
+        private Map<String, Object> effective;
+        private Dictionary<String, Object> config;
+        private ServiceDependencies.Dependencies dependencies;
+        private DataSourceRegistration registration;
+        private Decryptor decryptor;
+
+        /**
+         * DataSources a {@code RoutingDataSource} routes to and the factory of the registered one, a replaced
+         * DataSource is swapped in without recreating it
+         */
+        private volatile List<DataSource> routingTargets;
+        private volatile RoutingDataSourceFactory routing;
+
+        /**
+         * Creations queued on the provisioning executor and not run yet
+         */
+        private int creating;
+        private boolean closed;
+
+        // set while this holder replaces another one, see replace(ConfigHolder)
+        private ConfigHolder previous;
+        private Dictionary<String, Object> swapConfig;
+        private long swapStart;
+
+        ConfigHolder(String pid, Dictionary<String, Object> config, String seFilter, String dsfFilter,
+                String pdsfFilter, List<String> preHookNames, String ciFilter, List<String> routingFilters) {
+            this.pid = pid;
+            this.config = config;
+            this.effective = toMap(config);
+            this.seFilter = seFilter;
+            this.dsfFilter = dsfFilter;
+            this.pdsfFilter = pdsfFilter;
+            this.preHookNames = preHookNames;
+            this.phFilters = getPreHookFilters(preHookNames);
+            this.ciFilter = ciFilter;
+            this.routingFilters = routingFilters;
+            this.identity = Arrays.asList(seFilter, dsfFilter, pdsfFilter, phFilters, ciFilter, routingFilters,
+                    config.get(DataSourceRegistration.DATASOURCE_TYPE),
+                    config.get(DataSourceRegistration.JNDI_SERVICE_NAME),
+                    config.get(DataSourceFactory.JDBC_DATASOURCE_NAME),
+                    config.get(DataSourceRegistration.LAZY),
+                    config.get(DataSourceRegistration.IDLE_SHUTDOWN),
+                    config.get(SharedPools.SHARED_POOL),
+                    config.get(SharedPools.MAX_CONNECTIONS),
+                    config.get(SharedPools.QUOTA_WAIT));
+        }
+
+        /**
+         * Starts tracking the services the DataSource needs, it is created as soon as all of them are available.
+         */
+        void open() {
+            dependencies = serviceDependencies.dependencies(this::satisfied, this::unsatisfied)
+                    .require(StringEncryptor.class, seFilter)
+                    .require(PooledDataSourceFactory.class, pdsfFilter);
+            for (String phFilter : phFilters) {
+                dependencies.require(PreHook.class, phFilter);
+            }
+            for (String routingFilter : routingFilters) {
+                dependencies.requireReplaceable(DataSource.class, routingFilter, this::replaced);
+            }
+            dependencies.require(ConnectionInitHook.class, ciFilter)
+                    .require(DataSourceFactory.class, dsfFilter)
+                    .open();
+        }
+
+        /**
+         * Publishes the registration of this holder above the one of {@code previous}, which is retired as soon as
+         * the first of them is registered.
+         */
+        synchronized void replace(ConfigHolder previous) {
+            this.previous = previous;
+            this.swapConfig = withRanking(config, getRanking(previous.getPublishedConfig()) + 1);
+            this.swapStart = System.nanoTime();
+        }
+
+        /**
+         * Called by a service event thread holding the lock of the dependencies. It takes the bound services and
+         * queues the creation behind the other changes of the pid, so the event thread never waits for a database.
+         */
+        private void satisfied(ServiceDependencies.Dependencies services) {
+            BoundServices bound = new BoundServices(services, preHookNames);
+            routingTargets = bound.dataSources;
+            synchronized (this) {
+                creating++;
+            }
+            provisioning.execute(pid, () -> create(bound));
+        }
+
+        /**
+         * Called by a service event thread holding the lock of the dependencies when a DataSource routed to was
+         * replaced by another one with the same name, for example by a swap of its configuration.
+         */
+        private void replaced(ServiceDependencies.Dependencies services) {
+            routingTargets = services.getAll(DataSource.class);
+            RoutingDataSourceFactory factory = routing;
+            if (factory != null) {
+                factory.retarget();
+            }
+        }
+
+        private void unsatisfied() {
+            provisioning.execute(pid, this::destroy);
+        }
+
+        private synchronized void create(BoundServices services) {
+            creating--;
+            if (closed) {
+                return;
+            }
+            try {
+                register(services);
+            } catch (RuntimeException e) {
+                LOG.error("Error creating DataSource from its service dependencies: " + e.getMessage(), e);
+            }
+        }
+
+        private void register(BoundServices services) {
+            DataSourceFactory dsf = services.dsf;
+            PooledDataSourceFactory pdsf = services.pdsf;
+            ConnectionInitHook initHook = services.initHook;
+            Dictionary<String, Object> published = getPublishedConfig();
+            if (!routingFilters.isEmpty()) {
+                // reads the targets when it creates the DataSource, a replacement bound meanwhile is not missed
+                routing = new RoutingDataSourceFactory(() -> routingTargets, published);
+                dsf = routing;
+            } else if (pdsf != null) {
+                dsf = SharedPools.isShared(published) ? sharedPools.wrapper(pdsf, dsf, initHook, published)
+                        : new PoolingWrapper(pdsf, dsf, initHook);
+            } else if (initHook != null) {
+                // every connection of an unpooled DataSource is a new physical one
+                dsf = new ConnectionInitializer(dsf, initHook, new LatencyHistogram());
+            }
+            decryptor = new Decryptor(decryptionCache.get(services.encryptorReference, services.encryptor));
+            DataSourceRegistration created = new DataSourceRegistration(context, dsf, published,
+                    decryptor.decrypt(published), services.preHooks, drainStats, preHookRunner);
+            registration = created;
+            if (previous != null) {
+                // pre hooks running in the background publish the replacement later
+                created.getPublished().thenAccept(ok -> swapped(created, ok));
+            }
+        }
+
+        /**
+         * Retires the replaced holder once the registration replacing it is published.
+         */
+        private synchronized void swapped(DataSourceRegistration created, boolean ok) {
+            if (previous == null || created != registration) {
+                // closed or rebuilt meanwhile
+                return;
+            }
+            if (ok) {
+                ConfigHolder retired = previous;
+                previous = null;
+                long publishedNanos = System.nanoTime() - swapStart;
+                drainExecutor.execute(() -> finishSwap(retired, publishedNanos));
+            } else {
+                LOG.warn("Replacement of DataSource {} could not be published, keeping the previous one", pid);
+            }
         }
+
+        synchronized void destroy() {
+            if (registration != null) {
+                registration.close();
+                registration = null;
+            }
+        }
+
+        /**
+         * Applies a configuration with the same identity to the running registration.
+         *
+         * @return {@code false} if the registration has to be recreated
+         */
+        synchronized boolean reconfigure(Dictionary<String, Object> newConfig) {
+            if (registration != null && !registration.reconfigure(newConfig, decryptor.decrypt(newConfig))) {
+                return false;
+            }
+            config = newConfig;
+            effective = toMap(newConfig);
+            return true;
+        }
+
+        synchronized boolean isRegistered() {
+            return registration != null && registration.isRegistered();
+        }
+
+        synchronized boolean isPreparing() {
+            return creating > 0 || registration != null && registration.isPreparing();
+        }
+
+        /**
+         * Stops tracking the services, which destroys the registration. Event threads hold the lock of the
+         * dependencies while they call back into this holder, so it is released without holding the lock of the
+         * holder.
+         */
+        void close() {
+            synchronized (this) {
+                closed = true;
+            }
+            dependencies.close();
+            ConfigHolder replaced;
+            synchronized (this) {
+                replaced = previous;
+                previous = null;
+            }
+            if (replaced != null) {
+                replaced.close();
+            }
+        }
+
+        private synchronized Dictionary<String, Object> getPublishedConfig() {
+            return swapConfig != null ? swapConfig : config;
+        }
+
+        /**
+         * Drains and closes the replaced holder, then restores the configured ranking of this one.
+         */
+        private void finishSwap(ConfigHolder retired, long publishedNanos) {
+            long drainStart = System.nanoTime();
+            long forced = retired.drain(DataSourceRegistration.getDrainTimeout(config));
+            long drainMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - drainStart);
+            synchronized (this) {
+                swapConfig = null;
+                if (registration != null) {
+                    registration.updateServiceProperties(config);
+                }
+            }
+            LOG.info("Swapped DataSource {}: replacement published after {} ms, previous pool drained in {} ms, "
+                    + "{} borrowed connections closed forcibly", pid, TimeUnit.NANOSECONDS.toMillis(publishedNanos),
+                    drainMillis, forced == PoolMetrics.UNKNOWN ? "unknown" : forced);
+        }
+
+        /**
+         * Unregisters the DataSource, waits for its borrowed connections and closes it.
+         *
+         * @return connections closed while still borrowed, {@link PoolMetrics#UNKNOWN} if a pool does not report them
+         */
+        private long drain(long timeoutMillis) {
+            DataSourceRegistration draining;
+            synchronized (this) {
+                draining = registration;
+            }
+            long forced = draining != null ? draining.drainAndClose(timeoutMillis) : 0;
+            close();
+            return forced;
+        }
+
     }
 
 }
@@ -16,22 +16,28 @@
 package org.ops4j.pax.jdbc.config.impl;
 
 import java.io.Closeable;
+import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Dictionary;
 import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.Hashtable;
-import java.util.Iterator;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import javax.sql.ConnectionPoolDataSource;
 import javax.sql.DataSource;
 import javax.sql.XADataSource;
 
 import org.ops4j.pax.jdbc.hook.PreHook;
+import org.ops4j.pax.jdbc.pool.common.PoolMetrics;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceRegistration;
 import org.osgi.service.jdbc.DataSourceFactory;
@@ -44,8 +50,24 @@ import org.slf4j.LoggerFactory;
 public class DataSourceRegistration implements Closeable {
 
     static final String DATASOURCE_TYPE = "dataSourceType";
+    // type of a DataSource routing reads to replicas, see RoutingDataSourceFactory
+    static final String ROUTING_DATASOURCE = "RoutingDataSource";
     static final String MANAGED_DATASOURCE = "pax.jdbc.managed";
     static final String JNDI_SERVICE_NAME = "osgi.jndi.service.name";
+    // replace the DataSource without a gap when the configuration requires a new pool
+    static final String SWAP = "pax.jdbc.swap";
+    // milliseconds a closing pool waits for borrowed connections to be returned
+    static final String DRAIN_TIMEOUT = "pax.jdbc.drainTimeout";
+    static final long DEFAULT_DRAIN_TIMEOUT = 30000L;
+    // publish a pooled DataSource right away and create its pool on the first getConnection
+    static final String LAZY = "pax.jdbc.lazy";
+    // minutes without borrows after which the pool of a lazy DataSource is closed again
+    static final String IDLE_SHUTDOWN = "pax.jdbc.idleShutdown";
+    // run the pre hooks off the calling thread and publish the DataSource when all of them finished
+    static final String PRE_HOOK_ASYNC = "pax.jdbc.preHook.async";
+    // milliseconds the pre hooks and the warm-up of a DataSource may take before it is not published
+    static final String PRE_HOOK_TIMEOUT = "pax.jdbc.preHook.timeout";
+    private static final long DRAIN_POLL_MILLIS = 50L;
 
     // By default all local keys (without a dot) are forwarded to the DataSourceFactory.
     // These config keys will explicitly not be forwarded to the DataSourceFactory
@@ -60,17 +82,60 @@ public class DataSourceRegistration implements Closeable {
             "pool.",
             "factory.",
             "hikari.",
-            "c3p0."
+            "c3p0.",
+            "pooling."
     ));
     // additionally all keys prefixed with "jdbc." will be forwarded (with the prefix stripped).
     private static final String CONFIG_KEY_PREFIX = "jdbc.";
     
     private static final Logger LOG = LoggerFactory.getLogger(DataSourceRegistration.class);
 
+    private final DataSourceFactory dsf;
+    private Object ds;
+    private Dictionary decryptedConfig;
     private AutoCloseable dataSource;
     private ServiceRegistration serviceReg;
+    private ServiceRegistration metricsReg;
+    private PoolMetrics metrics;
+    private Dictionary serviceProperties;
+    private final DrainStats drainStats;
+    private final PreHookRunner preHookRunner;
+    private long drainTimeout;
+
+    /**
+     * Completes with {@code true} when the DataSource is published, {@code false} if that failed
+     */
+    private final CompletableFuture<Boolean> published = new CompletableFuture<>();
+
+    /**
+     * Pre hooks running in the background, see {@link #PRE_HOOK_ASYNC}
+     */
+    private CompletableFuture<Void> preparing;
+    private boolean closed;
 
     public DataSourceRegistration(BundleContext context, DataSourceFactory dsf, final Dictionary config, final Dictionary decryptedConfig, final PreHook preHook) {
+        this(context, dsf, config, decryptedConfig, preHook, null);
+    }
+
+    /**
+     * Runs {@code preHook} on the calling thread.
+     */
+    public DataSourceRegistration(BundleContext context, DataSourceFactory dsf, final Dictionary config, final Dictionary decryptedConfig, final PreHook preHook, DrainStats drainStats) {
+        this(context, dsf, config, decryptedConfig, preHook == null ? Collections.<String, PreHook>emptyMap()
+                : Collections.singletonMap(String.valueOf(config.get(PreHook.CONFIG_KEY_NAME)), preHook),
+                drainStats, new PreHookRunner(Runnable::run, null));
+    }
+
+    /**
+     * @param preHooks hooks by name, they run concurrently before the DataSource is published
+     * @param preHookRunner runs the hooks and records their metrics
+     */
+    public DataSourceRegistration(BundleContext context, DataSourceFactory dsf, final Dictionary config, final Dictionary decryptedConfig, final Map<String, PreHook> preHooks, DrainStats drainStats, PreHookRunner preHookRunner) {
+        this.dsf = dsf;
+        this.decryptedConfig = decryptedConfig;
+        this.drainStats = drainStats;
+        this.preHookRunner = preHookRunner;
+        this.drainTimeout = getDrainTimeout(config);
         String dsName = getDSName(config);
         if (dsName != null) {
             config.put(JNDI_SERVICE_NAME, dsName);
@@ -79,21 +144,90 @@ public class DataSourceRegistration implements Closeable {
             LOG.info("Found DataSourceFactory. Creating DataSource {}", dsName);
             String typeName = (String)config.get(DATASOURCE_TYPE);
             Class<?> type = getType(typeName);
-            Object ds = createDs(dsf, type, decryptedConfig);
-            if (ds instanceof AutoCloseable) {
-                dataSource = (AutoCloseable)ds;
-            }
-            if (preHook != null && ds instanceof DataSource) {
-                LOG.info("Executing pre hook for DataSource {}", dsName);
-                preHook.prepare((DataSource)ds);
-                LOG.info("Pre hook finished. Publishing DataSource {}", dsName);
+            long preHookTimeout = getPreHookTimeout(config);
+            if (isLazy(config) && type == DataSource.class && dsf instanceof PoolingWrapper) {
+                LazyDataSource lazy = new LazyDataSource(dsName, () -> createPool(dsName, preHooks, preHookTimeout),
+                        pool -> getMetrics(dsf, pool), getIdleShutdown(config), () -> registerLazyMetrics(context));
+                ds = lazy;
+                dataSource = lazy;
+                LOG.info("Publishing DataSource {}, its pool is created on first use", dsName);
+            } else {
+                ds = createDs(dsf, type, decryptedConfig);
+                if (ds instanceof AutoCloseable) {
+                    dataSource = (AutoCloseable)ds;
+                }
+                boolean async = isPreHookAsync(config);
+                // warming up runs concurrently with the hooks, so it delays publishing only if it takes longer
+                boolean warm = isSwap(config) || async;
+                if (ds instanceof DataSource && (!preHooks.isEmpty() || warm)) {
+                    DataSource prepared = (DataSource)ds;
+                    LOG.info("Executing pre hooks {} for DataSource {}", preHooks.keySet(), dsName);
+                    CompletableFuture<Void> preparation = preHookRunner.prepare(dsName, prepared, preHooks,
+                            warm ? () -> warmUp(prepared) : null, preHookTimeout);
+                    if (async) {
+                        synchronized (this) {
+                            preparing = preparation;
+                        }
+                        preparation.whenComplete((v, e) -> prepared(context, type, config, dsName, e));
+                        return;
+                    }
+                    PreHookRunner.await(preparation);
+                    LOG.info("Pre hooks finished. Publishing DataSource {}", dsName);
+                }
             }
-            Dictionary serviceProperties = filterHidden(config);
-            serviceProperties.put(MANAGED_DATASOURCE, "true");
-            serviceReg = context.registerService(type.getName(), ds, serviceProperties);
+            register(context, type, config);
         } catch (SQLException e) {
             LOG.warn(e.getMessage(), e);
+            closeDataSource();
+            published.complete(false);
+        }
+    }
+
+    /**
+     * Publishes the DataSource once its pre hooks finished in the background, unless one of them failed or the
+     * registration was closed meanwhile.
+     */
+    private void prepared(BundleContext context, Class<?> type, Dictionary config, String dsName, Throwable failure) {
+        if (failure != null) {
+            if (!(failure instanceof CancellationException)) {
+                LOG.warn("DataSource " + dsName + " is not published: " + failure.getMessage(), failure);
+            }
+            closeDataSource();
+            published.complete(false);
+            return;
         }
+        LOG.info("Pre hooks finished. Publishing DataSource {}", dsName);
+        register(context, type, config);
+    }
+
+    private void register(BundleContext context, Class<?> type, Dictionary config) {
+        synchronized (this) {
+            if (closed) {
+                published.complete(false);
+                return;
+            }
+            serviceProperties = getServiceProperties(config);
+            serviceReg = context.registerService(type.getName(), ds, serviceProperties);
+            // the metrics of a lazy DataSource are registered when its pool is created first
+            metrics = ds instanceof LazyDataSource ? null : getMetrics(dsf, ds);
+            if (metrics != null) {
+                metricsReg = context.registerService(PoolMetrics.class.getName(), metrics, serviceProperties);
+            }
+        }
+        published.complete(true);
+    }
+
+    /**
+     * Registers the metrics of a lazy DataSource once its pool was created, they follow the pool when it is closed
+     * for idleness and recreated.
+     */
+    private synchronized void registerLazyMetrics(BundleContext context) {
+        LazyDataSource lazy = (LazyDataSource) ds;
+        DataSource pool = lazy.getPool();
+        if (closed || serviceReg == null || metricsReg != null || pool == null || getMetrics(dsf, pool) == null) {
+            return;
+        }
+        metricsReg = context.registerService(PoolMetrics.class.getName(), lazy.getMetrics(), serviceProperties);
     }
 
     static String getDSName(Dictionary config) {
@@ -105,27 +239,244 @@ public class DataSourceRegistration implements Closeable {
         return jndiName != null ? jndiName : dsName; 
     }
 
+    /**
+     * Applies a changed configuration to the running pool, keeping the registered {@link DataSource} and its
+     * physical connections.
+     *
+     * @param config new configuration
+     * @param decryptedConfig new configuration with decrypted values
+     * @return {@code false} if the pool can not apply the changes and the {@link DataSource} has to be recreated
+     */
+    public boolean reconfigure(Dictionary config, Dictionary decryptedConfig) {
+        if (serviceReg == null || !(dsf instanceof PoolingWrapper) || !(ds instanceof DataSource)) {
+            return false;
+        }
+        String dsName = getDSName(config);
+        if (dsName != null) {
+            config.put(JNDI_SERVICE_NAME, dsName);
+        }
+        try {
+            Properties previous = toProperties(this.decryptedConfig);
+            Properties props = toProperties(decryptedConfig);
+            if (ds instanceof LazyDataSource) {
+                // a pool created later uses the new configuration
+                boolean applied = ((LazyDataSource) ds).withPool(pool -> {
+                    if (pool != null && !((PoolingWrapper) dsf).reconfigure(pool, previous, props)) {
+                        return false;
+                    }
+                    this.decryptedConfig = decryptedConfig;
+                    return true;
+                });
+                if (!applied) {
+                    return false;
+                }
+            } else if (!((PoolingWrapper) dsf).reconfigure((DataSource) ds, previous, props)) {
+                return false;
+            }
+        } catch (SQLException | RuntimeException e) {
+            LOG.warn("Can not reconfigure DataSource " + dsName + ": " + e.getMessage(), e);
+            return false;
+        }
+        LOG.info("Reconfigured DataSource {}", dsName);
+        this.decryptedConfig = decryptedConfig;
+        this.drainTimeout = getDrainTimeout(config);
+        updateServiceProperties(config);
+        return true;
+    }
+
+    /**
+     * @return {@code true} if the DataSource was created and published
+     */
+    public synchronized boolean isRegistered() {
+        return serviceReg != null;
+    }
+
+    /**
+     * @return {@code true} while pre hooks run in the background before the DataSource is published
+     */
+    public synchronized boolean isPreparing() {
+        return preparing != null && !preparing.isDone();
+    }
+
+    /**
+     * @return completes with {@code true} when the DataSource is published, {@code false} if it could not be
+     * created, one of its pre hooks failed or the registration was closed before
+     */
+    public CompletableFuture<Boolean> getPublished() {
+        return published;
+    }
+
+    /**
+     * Replaces the properties of the published services, e.g. to restore the ranking after a swap.
+     */
+    public synchronized void updateServiceProperties(Dictionary config) {
+        serviceProperties = getServiceProperties(config);
+        if (serviceReg != null) {
+            serviceReg.setProperties(serviceProperties);
+        }
+        if (metricsReg != null) {
+            metricsReg.setProperties(serviceProperties);
+        }
+    }
+
+    static boolean isSwap(Dictionary config) {
+        return "true".equals(String.valueOf(config.get(SWAP)));
+    }
+
+    static boolean isLazy(Dictionary config) {
+        return "true".equals(String.valueOf(config.get(LAZY)));
+    }
+
+    /**
+     * @return milliseconds without borrows after which a lazy pool is closed, {@code 0} if it stays open
+     */
+    static long getIdleShutdown(Dictionary config) {
+        Object value = config.get(IDLE_SHUTDOWN);
+        return value == null ? 0L : TimeUnit.MINUTES.toMillis(Long.parseLong(value.toString()));
+    }
+
+    static boolean isPreHookAsync(Dictionary config) {
+        return "true".equals(String.valueOf(config.get(PRE_HOOK_ASYNC)));
+    }
+
+    /**
+     * @return milliseconds the pre hooks may take, {@code 0} if they are not limited
+     */
+    static long getPreHookTimeout(Dictionary config) {
+        Object value = config.get(PRE_HOOK_TIMEOUT);
+        return value == null ? 0L : Long.parseLong(value.toString());
+    }
+
+    static long getDrainTimeout(Dictionary config) {
+        Object value = config.get(DRAIN_TIMEOUT);
+        return value == null ? DEFAULT_DRAIN_TIMEOUT : Long.parseLong(value.toString());
+    }
+
+    /**
+     * Creates the pool of a lazy DataSource with the current configuration and runs the pre hooks on it.
+     */
+    private DataSource createPool(String dsName, Map<String, PreHook> preHooks, long preHookTimeout)
+            throws SQLException {
+        DataSource pool = (DataSource) createDs(dsf, DataSource.class, decryptedConfig);
+        if (!preHooks.isEmpty()) {
+            try {
+                LOG.info("Executing pre hooks {} for DataSource {}", preHooks.keySet(), dsName);
+                PreHookRunner.await(preHookRunner.prepare(dsName, pool, preHooks, null, preHookTimeout));
+                LOG.info("Pre hooks finished for DataSource {}", dsName);
+            } catch (SQLException | RuntimeException e) {
+                if (pool instanceof AutoCloseable) {
+                    safeClose((AutoCloseable) pool);
+                }
+                throw e;
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * Opens and returns one connection so a replacing pool has proven it can reach the database before it is
+     * published.
+     */
+    private void warmUp(DataSource dataSource) throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            LOG.debug("Warmed up DataSource {}", dataSource);
+        }
+    }
+
+    /**
+     * Unregisters the services and makes the pool reject new borrowers, then waits up to {@code timeoutMillis} until
+     * all borrowed connections are returned before the pool is closed.
+     *
+     * @return connections still borrowed when the pool was closed, {@link PoolMetrics#UNKNOWN} if the pool does not
+     * report them
+     */
+    public long drainAndClose(long timeoutMillis) {
+        long start = System.nanoTime();
+        unregister();
+        if (!isOpen()) {
+            return 0L;
+        }
+        Object pool = ds;
+        PoolMetrics poolMetrics = metrics;
+        if (ds instanceof LazyDataSource) {
+            pool = ((LazyDataSource) ds).shutdown();
+            poolMetrics = pool == null ? null : getMetrics(dsf, pool);
+        }
+        if (dsf instanceof PoolingWrapper && pool instanceof DataSource) {
+            ((PoolingWrapper) dsf).drain((DataSource) pool);
+        }
+        long active = pool == null ? 0L : poolMetrics == null ? PoolMetrics.UNKNOWN : poolMetrics.getActive();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        try {
+            while (active > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(DRAIN_POLL_MILLIS);
+                active = poolMetrics.getActive();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        boolean closed = closeDataSource();
+        if (closed && drainStats != null) {
+            drainStats.record(System.nanoTime() - start, active);
+        }
+        return active;
+    }
+
+    private static PoolMetrics getMetrics(DataSourceFactory dsf, Object ds) {
+        if (dsf instanceof PoolingWrapper && ds instanceof DataSource) {
+            return ((PoolingWrapper) dsf).getMetrics((DataSource) ds);
+        }
+        return null;
+    }
+
     @Override
     public void close() {
+        drainAndClose(drainTimeout);
+    }
+
+    private synchronized void unregister() {
+        closed = true;
+        if (preparing != null) {
+            preparing.cancel(false);
+        }
+        if (metricsReg != null) {
+            metricsReg.unregister();
+            metricsReg = null;
+        }
         if (serviceReg != null) {
             serviceReg.unregister();
+            serviceReg = null;
+        }
+    }
+
+    private synchronized boolean isOpen() {
+        return dataSource != null;
+    }
+
+    private synchronized boolean closeDataSource() {
+        if (dataSource == null) {
+            return false;
         }
         safeClose(dataSource);
+        dataSource = null;
+        return true;
     }
 
     private Class<?> getType(String typeName) {
-        if (typeName == null || DataSource.class.getSimpleName().equals(typeName)) {
+        if (typeName == null || DataSource.class.getSimpleName().equals(typeName)
+                || ROUTING_DATASOURCE.equals(typeName)) {
             return DataSource.class;
         } else if (ConnectionPoolDataSource.class.getSimpleName().equals(typeName)) {
             return ConnectionPoolDataSource.class;
         } else if (XADataSource.class.getSimpleName().equals(typeName)) {
             return XADataSource.class;
         } else {
-            String msg = String.format("Problem in DataSource config : %s must be one of %s, %s, %s",
+            String msg = String.format("Problem in DataSource config : %s must be one of %s, %s, %s, %s",
                 DATASOURCE_TYPE, //
                 DataSource.class.getSimpleName(), //
                 ConnectionPoolDataSource.class.getSimpleName(), //
-                XADataSource.class.getSimpleName());
+                XADataSource.class.getSimpleName(), //
+                ROUTING_DATASOURCE);
             throw new IllegalArgumentException(msg);
         }
     }
@@ -175,12 +526,18 @@ public class DataSourceRegistration implements Closeable {
     private boolean shouldForwardToDataSourceFactory(String key) {
         // only forward local configuration keys (i. e. those without a dot)
         // exception: the DATASOURCE_TYPE key (as legacy).
-        boolean shouldForward = (!key.contains(".") && !NOT_FORWARDED_KEYS.contains(key));
-        for (Iterator<String> it = FORWARDED_KEY_PREFIXES.iterator();
-                !shouldForward && it.hasNext(); ) {
-            shouldForward = key.startsWith(it.next());
+        // forwarded prefixes are single segments, so a set lookup of the first segment is enough
+        int dot = key.indexOf('.');
+        if (dot < 0) {
+            return !NOT_FORWARDED_KEYS.contains(key);
         }
-        return shouldForward;
+        return FORWARDED_KEY_PREFIXES.contains(key.substring(0, dot + 1));
+    }
+
+    private Dictionary getServiceProperties(Dictionary config) {
+        Dictionary properties = filterHidden(config);
+        properties.put(MANAGED_DATASOURCE, "true");
+        return properties;
     }
 
     private Dictionary filterHidden(Dictionary dict) {
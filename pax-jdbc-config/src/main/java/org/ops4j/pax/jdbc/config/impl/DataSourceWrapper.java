@@ -20,13 +20,16 @@ import java.sql.SQLException;
 import java.util.Arrays;
 import java.util.Dictionary;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.Properties;
+import java.util.function.Consumer;
 import javax.sql.CommonDataSource;
 import javax.sql.ConnectionPoolDataSource;
 import javax.sql.DataSource;
 import javax.sql.XADataSource;
 
 import org.jasypt.encryption.StringEncryptor;
+import org.ops4j.pax.jdbc.hook.ConnectionInitHook;
 import org.ops4j.pax.jdbc.hook.PreHook;
 import org.ops4j.pax.jdbc.pool.common.PooledDataSourceFactory;
 import org.osgi.framework.BundleContext;
@@ -34,7 +37,6 @@ import org.osgi.framework.Constants;
 import org.osgi.framework.ServiceReference;
 import org.osgi.service.cm.ConfigurationException;
 import org.osgi.service.jdbc.DataSourceFactory;
-import org.osgi.util.tracker.ServiceTracker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -47,8 +49,10 @@ public class DataSourceWrapper {
 
     public static final Logger LOG = LoggerFactory.getLogger(DataSourceWrapper.class);
 
-    private final ServiceTracker<?, ?> tracker;
+    private final ServiceDependencies.Dependencies dependencies;
     private final CommonDataSource ds;
+    // guarded by dependencies
+    private DataSourceRegistration registration;
 
     /**
      * A wrapper for data source service registered by application. This wrapper creates pooled {@link javax.sql.DataSource}
@@ -56,10 +60,15 @@ public class DataSourceWrapper {
      *
      * @param context {@link BundleContext} of pax-jdbc-config
      * @param externalConfigLoader loader for external configurations
+     * @param serviceDependencies tracks the services the pooled {@link DataSource} depends on
+     * @param decryptionCache remembers decrypted values across rebuilds of the pooled {@link DataSource}
      * @param ds {@link CommonDataSource} instance - application registered and database-specific (as recommended)
      * @param reference {@link CommonDataSource}'s {@link ServiceReference}
+     * @param preHookRunner runs the pre hooks of the pooled {@link DataSource}
      */
-    public DataSourceWrapper(BundleContext context, ExternalConfigLoader externalConfigLoader, CommonDataSource ds, ServiceReference<CommonDataSource> reference) {
+    public DataSourceWrapper(BundleContext context, ExternalConfigLoader externalConfigLoader,
+            ServiceDependencies serviceDependencies, DecryptionCache decryptionCache, CommonDataSource ds,
+            ServiceReference<CommonDataSource> reference, DrainStats drainStats, PreHookRunner preHookRunner) {
         LOG.info("Got service reference {}", ds);
         this.ds = ds;
 
@@ -87,25 +96,29 @@ public class DataSourceWrapper {
         } catch (ConfigurationException e) {
             throw new IllegalArgumentException(e.getMessage(), e);
         }
-        String phFilter = DataSourceConfigManager.getPreHookFilter(loadedConfig);
-
-        ServiceTrackerHelper helper = ServiceTrackerHelper.helper(context);
+        List<String> preHookNames = DataSourceConfigManager.getPreHookNames(loadedConfig);
+        String ciFilter = DataSourceConfigManager.getConnectionInitHookFilter(loadedConfig);
 
         if (pdsfFilter == null) {
             throw new IllegalArgumentException("No pooling configuration available for service " + ds.toString()
                     + ": " + loadedConfig);
         }
-        final String finalPdsfFilter = pdsfFilter;
-
-        tracker = helper.track(StringEncryptor.class, seFilter, se ->
-                helper.track(PooledDataSourceFactory.class, finalPdsfFilter, pdsf ->
-                        helper.track(PreHook.class, phFilter, ph ->
-                                        new DataSourceRegistration(context,
-                                                new PoolingWrapper(pdsf, providedDataSourceFactory),
-                                                loadedConfig,
-                                                new Decryptor(se).decrypt(loadedConfig),
-                                                ph),
-                                DataSourceRegistration::close)));
+
+        Consumer<ServiceDependencies.Dependencies> register = services -> registration = new DataSourceRegistration(
+                context,
+                new PoolingWrapper(services.get(PooledDataSourceFactory.class), providedDataSourceFactory,
+                        services.get(ConnectionInitHook.class)),
+                loadedConfig,
+                new Decryptor(decryptionCache.get(services.getReference(StringEncryptor.class),
+                        services.get(StringEncryptor.class))).decrypt(loadedConfig),
+                DataSourceConfigManager.getPreHooks(preHookNames, services), drainStats, preHookRunner);
+        dependencies = serviceDependencies.dependencies(register, () -> registration.close())
+                .require(StringEncryptor.class, seFilter)
+                .require(PooledDataSourceFactory.class, pdsfFilter);
+        for (String phFilter : DataSourceConfigManager.getPreHookFilters(preHookNames)) {
+            dependencies.require(PreHook.class, phFilter);
+        }
+        dependencies.require(ConnectionInitHook.class, ciFilter).open();
     }
 
     /**
@@ -127,11 +140,11 @@ public class DataSourceWrapper {
      * Wrapper is closed when the original service is unregistered or if pax-jdbc-config bundle is stopped
      */
     public void close() {
-        if (tracker != null) {
+        if (dependencies != null) {
             if (ds != null) {
                 LOG.info("Closed service reference: {}", this.ds);
             }
-            tracker.close();
+            dependencies.close();
         }
     }
 
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.config.impl;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.jasypt.encryption.StringEncryptor;
+import org.ops4j.pax.jdbc.config.DecryptionMetrics;
+import org.ops4j.pax.jdbc.pool.common.LatencyHistogram;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceReference;
+
+/**
+ * Remembers the plain texts a {@link StringEncryptor} returned, so rebuilding a DataSource after one of its other
+ * services came back does not pay for the key derivation again. Every encryptor service gets its own bounded cache,
+ * which is dropped when the encryptor service is unregistered.
+ */
+public class DecryptionCache implements ServiceListener, DecryptionMetrics {
+
+    public static final int DEFAULT_MAX_ENTRIES = 256;
+
+    private static final String FILTER = "(" + Constants.OBJECTCLASS + "=" + StringEncryptor.class.getName() + ")";
+
+    private final BundleContext context;
+    private final int maxEntries;
+
+    // guarded by this
+    private final Map<ServiceReference<?>, CachingStringEncryptor> caches = new HashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private final LongAdder clears = new LongAdder();
+    private final LatencyHistogram decryptLatency = new LatencyHistogram();
+
+    public DecryptionCache(BundleContext context) {
+        this(context, DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * @param maxEntries plain texts cached per encryptor
+     */
+    public DecryptionCache(BundleContext context, int maxEntries) {
+        this.context = context;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * @param reference reference the encryptor was obtained from, identifies its cache when it is unregistered
+     * @param encryptor encryptor service, can be {@code null}
+     * @return encryptor caching the values {@code encryptor} decrypts, {@code null} if {@code encryptor} is
+     */
+    public synchronized StringEncryptor get(ServiceReference<?> reference, StringEncryptor encryptor) {
+        if (encryptor == null) {
+            return null;
+        }
+        CachingStringEncryptor cache = caches.get(reference);
+        if (cache != null && cache.delegate != encryptor) {
+            // a service factory handed out another instance, which may decrypt differently
+            invalidations.add(cache.clear());
+            cache = new CachingStringEncryptor(encryptor);
+            caches.put(reference, cache);
+        } else if (cache == null) {
+            if (caches.isEmpty()) {
+                try {
+                    context.addServiceListener(this, FILTER);
+                } catch (InvalidSyntaxException e) {
+                    throw new RuntimeException("Unable to create filter", e);
+                }
+            }
+            cache = new CachingStringEncryptor(encryptor);
+            caches.put(reference, cache);
+        }
+        return cache;
+    }
+
+    @Override
+    public void serviceChanged(ServiceEvent event) {
+        if (event.getType() == ServiceEvent.UNREGISTERING) {
+            invalidate(event.getServiceReference());
+        }
+    }
+
+    private synchronized void invalidate(ServiceReference<?> reference) {
+        CachingStringEncryptor cache = caches.remove(reference);
+        if (cache != null) {
+            invalidations.add(cache.clear());
+            if (caches.isEmpty()) {
+                context.removeServiceListener(this);
+            }
+        }
+    }
+
+    /**
+     * Drops all cached values.
+     */
+    public synchronized void close() {
+        if (!caches.isEmpty()) {
+            context.removeServiceListener(this);
+        }
+        for (CachingStringEncryptor cache : caches.values()) {
+            clears.add(cache.clear());
+        }
+        caches.clear();
+    }
+
+    @Override
+    public long getCacheHits() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getCacheMisses() {
+        return misses.sum();
+    }
+
+    @Override
+    public double getCacheHitRatio() {
+        long cached = hits.sum();
+        long total = cached + misses.sum();
+        return total == 0 ? 0d : (double) cached / total;
+    }
+
+    @Override
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public long getInvalidations() {
+        return invalidations.sum();
+    }
+
+    @Override
+    public long getClears() {
+        return clears.sum();
+    }
+
+    @Override
+    public LatencyHistogram getDecryptLatency() {
+        return decryptLatency;
+    }
+
+    /**
+     * Plain texts of one encryptor by cipher text, least recently used first. {@link StringEncryptor} hands them out
+     * as strings, so they stay in memory until they are garbage collected like any other configuration value.
+     */
+    private final class CachingStringEncryptor implements StringEncryptor {
+
+        private final StringEncryptor delegate;
+        private final LinkedHashMap<String, String> values = new LinkedHashMap<String, String>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                if (size() <= maxEntries) {
+                    return false;
+                }
+                evictions.increment();
+                return true;
+            }
+
+        };
+        private boolean cleared;
+
+        CachingStringEncryptor(StringEncryptor delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public String encrypt(String message) {
+            return delegate.encrypt(message);
+        }
+
+        @Override
+        public String decrypt(String encryptedMessage) {
+            synchronized (values) {
+                String cached = values.get(encryptedMessage);
+                if (cached != null) {
+                    hits.increment();
+                    return cached;
+                }
+            }
+            misses.increment();
+            long start = System.nanoTime();
+            String plainText = delegate.decrypt(encryptedMessage);
+            decryptLatency.record(System.nanoTime() - start);
+            if (plainText != null) {
+                synchronized (values) {
+                    if (cleared) {
+                        // the encryptor was unregistered meanwhile
+                        return plainText;
+                    }
+                    values.put(encryptedMessage, plainText);
+                }
+            }
+            return plainText;
+        }
+
+        /**
+         * @return number of dropped values
+         */
+        int clear() {
+            synchronized (values) {
+                int dropped = values.size();
+                values.clear();
+                cleared = true;
+                return dropped;
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.config.impl;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import org.ops4j.pax.jdbc.config.DrainMetrics;
+import org.ops4j.pax.jdbc.pool.common.LatencyHistogram;
+import org.ops4j.pax.jdbc.pool.common.PoolMetrics;
+
+public class DrainStats implements DrainMetrics {
+
+    private final LongAdder drained = new LongAdder();
+    private final LongAdder forcedCloses = new LongAdder();
+    private final LatencyHistogram drainTime = new LatencyHistogram();
+
+    void record(long nanos, long forced) {
+        drained.increment();
+        drainTime.record(nanos);
+        if (forced != PoolMetrics.UNKNOWN) {
+            forcedCloses.add(forced);
+        }
+    }
+
+    @Override
+    public long getDrained() {
+        return drained.sum();
+    }
+
+    @Override
+    public long getForcedCloses() {
+        return forcedCloses.sum();
+    }
+
+    @Override
+    public LatencyHistogram getDrainTime() {
+        return drainTime;
+    }
+
+}
@@ -17,13 +17,22 @@ package org.ops4j.pax.jdbc.config.impl;
 
 import java.util.Dictionary;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.ops4j.pax.jdbc.config.ConfigLoader;
+import org.ops4j.pax.jdbc.config.ConfigLoaderMetrics;
+import org.ops4j.pax.jdbc.pool.common.LatencyHistogram;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Constants;
 import org.osgi.util.tracker.ServiceTracker;
@@ -31,9 +40,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * External configuration loader, can be used for Docker secrets too.
+ * External configuration loader, can be used for Docker secrets too. Values of {@link ConfigLoader loaders} that
+ * report changes are cached, a change notifies the owners of the configurations using the value.
  */
-public class ExternalConfigLoader {
+public class ExternalConfigLoader implements ConfigLoaderMetrics {
 
     private static final Logger LOG = LoggerFactory.getLogger(ExternalConfigLoader.class);
     private static final Pattern CONFIG_LOADER_PATTERN = Pattern.compile("^([^(]+)\\((.+)\\)$");
@@ -41,12 +51,44 @@ public class ExternalConfigLoader {
     private final ServiceTracker<?, ?> tracker;
     private final Map<String, ConfigLoader> configLoaders = new ConcurrentHashMap<>();
 
+    /**
+     * Resolved values keyed by their reference, e.g. {@code FILE(/run/secrets/db)}
+     */
+    private final Map<String, String> cache = new ConcurrentHashMap<>();
+
+    /**
+     * The single watch registered per reference, guarded by itself
+     */
+    private final Map<String, Watch> watched = new HashMap<>();
+    // incremented by every change, a value resolved during a change is not cached
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * reference -&gt; owner -&gt; callback, changed by the synchronized methods only
+     */
+    private final Map<String, Map<String, Consumer<String>>> subscribers = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> subscriptions = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private final LatencyHistogram loadLatency = new LatencyHistogram();
+
     public ExternalConfigLoader(BundleContext context) {
         tracker = ServiceTrackerHelper.helper(context).track(
                 ConfigLoader.class,
                 "(" + Constants.OBJECTCLASS + "=" + ConfigLoader.class.getName() + ")",
-                configLoader -> configLoaders.put(configLoader.getName(), configLoader),
-                configLoader -> configLoaders.remove(configLoader.getName()));
+                configLoader -> {
+                    configLoaders.put(configLoader.getName(), configLoader);
+                    forget(configLoader.getName());
+                    // configurations resolved before kept the unresolved references
+                    refresh(configLoader.getName());
+                    return configLoader;
+                },
+                configLoader -> {
+                    configLoaders.remove(configLoader.getName());
+                    forget(configLoader.getName());
+                });
     }
 
     public void destroy() {
@@ -61,7 +103,22 @@ public class ExternalConfigLoader {
      */
     @SuppressWarnings("rawtypes")
     public Dictionary<String, Object> resolve(final Dictionary config) {
+        return resolve(config, null, null);
+    }
+
+    /**
+     * Resolve external configuration value references and report later changes of the referenced values. The
+     * references of a previous resolution for the same owner are replaced.
+     *
+     * @param config configuration to load external references
+     * @param owner identifies the configuration, e.g. its pid
+     * @param onChange receives {@code owner} when a referenced value changed
+     * @return loaded configuration
+     */
+    @SuppressWarnings("rawtypes")
+    public Dictionary<String, Object> resolve(final Dictionary config, String owner, Consumer<String> onChange) {
         Dictionary<String, Object> loadedConfig = new Hashtable<>();
+        Set<String> references = new HashSet<>();
         for (Enumeration e = config.keys(); e.hasMoreElements();) {
             final String key = (String) e.nextElement();
             String value = String.valueOf(config.get(key));
@@ -72,12 +129,8 @@ public class ExternalConfigLoader {
                 if ("ENC".equals(matcher.group(1))) {
                     loadedValue = value;
                 } else {
-                    ConfigLoader configLoader = configLoaders.get(matcher.group(1));
-                    if (configLoader != null) {
-                        loadedValue = configLoader.resolve(matcher.group(2));
-                    } else {
-                        loadedValue = value;
-                    }
+                    references.add(value);
+                    loadedValue = load(matcher.group(1), matcher.group(2), value);
                 }
                 if (loadedValue != null) {
                     loadedConfig.put(key, loadedValue);
@@ -86,9 +139,165 @@ public class ExternalConfigLoader {
                 loadedConfig.put(key, config.get(key));
             }
         }
+        if (owner != null) {
+            subscribe(owner, references, onChange);
+        }
         return loadedConfig;
     }
 
+    /**
+     * Stops reporting changes to {@code owner}.
+     */
+    public synchronized void release(String owner) {
+        Set<String> references = subscriptions.remove(owner);
+        if (references != null) {
+            for (String reference : references) {
+                unsubscribe(reference, owner);
+            }
+        }
+    }
+
+    /**
+     * @return {@code true} if {@code config} references values of {@link ConfigLoader loaders}
+     */
+    @SuppressWarnings("rawtypes")
+    public boolean hasReferences(Dictionary config) {
+        for (Enumeration e = config.elements(); e.hasMoreElements();) {
+            Object value = e.nextElement();
+            if (value instanceof String && isExternal((String) value) && !((String) value).startsWith("ENC(")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public long getCacheHits() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getCacheMisses() {
+        return misses.sum();
+    }
+
+    @Override
+    public double getCacheHitRatio() {
+        long cached = hits.sum();
+        long total = cached + misses.sum();
+        return total == 0 ? 0d : (double) cached / total;
+    }
+
+    @Override
+    public long getInvalidations() {
+        return invalidations.sum();
+    }
+
+    @Override
+    public LatencyHistogram getLoadLatency() {
+        return loadLatency;
+    }
+
+    private String load(String loaderName, String key, String reference) {
+        ConfigLoader configLoader = configLoaders.get(loaderName);
+        if (configLoader == null) {
+            return reference;
+        }
+        String cached = cache.get(reference);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+        long before = generation.get();
+        long start = System.nanoTime();
+        String value = configLoader.resolve(key);
+        loadLatency.record(System.nanoTime() - start);
+        if (value != null && watch(configLoader, key, reference)) {
+            cache.put(reference, value);
+            if (generation.get() != before) {
+                cache.remove(reference);
+            }
+        }
+        return value;
+    }
+
+    private boolean watch(ConfigLoader configLoader, String key, String reference) {
+        synchronized (watched) {
+            if (watched.containsKey(reference)) {
+                return true;
+            }
+            Watch watch = new Watch(configLoader, key, () -> changed(reference));
+            if (configLoader.watch(key, watch.onChange)) {
+                watched.put(reference, watch);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private void changed(String reference) {
+        generation.incrementAndGet();
+        if (cache.remove(reference) != null) {
+            invalidations.increment();
+        }
+        Map<String, Consumer<String>> owners = subscribers.get(reference);
+        if (owners != null) {
+            LOG.info("External configuration {} changed, refreshing {}", reference, owners.keySet());
+            owners.forEach((owner, onChange) -> onChange.accept(owner));
+        }
+    }
+
+    /**
+     * Drops the cached values of a loader and unregisters its watches.
+     */
+    private void forget(String loaderName) {
+        String prefix = loaderName + "(";
+        synchronized (watched) {
+            for (Iterator<Map.Entry<String, Watch>> it = watched.entrySet().iterator(); it.hasNext();) {
+                Map.Entry<String, Watch> entry = it.next();
+                if (entry.getKey().startsWith(prefix)) {
+                    Watch watch = entry.getValue();
+                    watch.configLoader.unwatch(watch.key, watch.onChange);
+                    it.remove();
+                }
+            }
+        }
+        generation.incrementAndGet();
+        cache.keySet().removeIf(reference -> reference.startsWith(prefix));
+    }
+
+    private void refresh(String loaderName) {
+        String prefix = loaderName + "(";
+        for (String reference : subscribers.keySet()) {
+            if (reference.startsWith(prefix)) {
+                changed(reference);
+            }
+        }
+    }
+
+    private synchronized void subscribe(String owner, Set<String> references, Consumer<String> onChange) {
+        Set<String> previous = references.isEmpty() ? subscriptions.remove(owner)
+                : subscriptions.put(owner, references);
+        if (previous != null) {
+            for (String reference : previous) {
+                if (!references.contains(reference)) {
+                    unsubscribe(reference, owner);
+                }
+            }
+        }
+        for (String reference : references) {
+            subscribers.computeIfAbsent(reference, r -> new ConcurrentHashMap<>()).put(owner, onChange);
+        }
+    }
+
+    private void unsubscribe(String reference, String owner) {
+        subscribers.computeIfPresent(reference, (r, owners) -> {
+            owners.remove(owner);
+            return owners.isEmpty() ? null : owners;
+        });
+    }
+
     /**
      * Check whether a value is external reference.
      *
@@ -98,4 +307,21 @@ public class ExternalConfigLoader {
     private boolean isExternal(String value) {
         return CONFIG_LOADER_PATTERN.matcher(value).matches();
     }
+
+    /**
+     * Callback registered with a loader for one reference.
+     */
+    private static final class Watch {
+
+        private final ConfigLoader configLoader;
+        private final String key;
+        private final Runnable onChange;
+
+        Watch(ConfigLoader configLoader, String key, Runnable onChange) {
+            this.configLoader = configLoader;
+            this.key = key;
+            this.onChange = onChange;
+        }
+
+    }
 }
@@ -15,19 +15,39 @@
  */
 package org.ops4j.pax.jdbc.config.impl;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.nio.charset.Charset;
+import java.nio.file.ClosedWatchServiceException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.ops4j.pax.jdbc.config.ConfigLoader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class FileConfigLoader implements ConfigLoader {
+public class FileConfigLoader implements ConfigLoader, Closeable {
 
     private static final Logger LOG = LoggerFactory.getLogger(FileConfigLoader.class);
 
+    /**
+     * Watched directory -&gt; file name -&gt; change callbacks
+     */
+    private final Map<Path, Map<Path, List<Runnable>>> watches = new HashMap<>();
+    private WatchService watchService;
+
     @Override
     public String getName() {
         return "FILE";
@@ -38,6 +58,116 @@ public class FileConfigLoader implements ConfigLoader {
         return readFile(key, Charset.defaultCharset());
     }
 
+    /**
+     * Watches the directory of the file, the watcher thread is started with the first watched file.
+     */
+    @Override
+    public synchronized boolean watch(String key, Runnable onChange) {
+        Path file = Paths.get(key).toAbsolutePath().normalize();
+        Path dir = file.getParent();
+        if (dir == null) {
+            return false;
+        }
+        try {
+            if (watchService == null) {
+                watchService = dir.getFileSystem().newWatchService();
+                WatchService service = watchService;
+                Thread watcher = new Thread(() -> processEvents(service), "pax-jdbc-config-file-watch");
+                watcher.setDaemon(true);
+                watcher.start();
+            }
+            if (!watches.containsKey(dir)) {
+                dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                        StandardWatchEventKinds.ENTRY_DELETE);
+            }
+        } catch (IOException ex) {
+            LOG.warn("Unable to watch external configuration " + key + " for changes", ex);
+            return false;
+        }
+        watches.computeIfAbsent(dir, d -> new HashMap<>())
+                .computeIfAbsent(file.getFileName(), f -> new ArrayList<>()).add(onChange);
+        return true;
+    }
+
+    /**
+     * The directory stays registered, its events are ignored once no file of it is watched.
+     */
+    @Override
+    public synchronized void unwatch(String key, Runnable onChange) {
+        Path file = Paths.get(key).toAbsolutePath().normalize();
+        Map<Path, List<Runnable>> files = watches.get(file.getParent());
+        if (files == null) {
+            return;
+        }
+        List<Runnable> callbacks = files.get(file.getFileName());
+        if (callbacks != null && callbacks.remove(onChange) && callbacks.isEmpty()) {
+            files.remove(file.getFileName());
+        }
+    }
+
+    /**
+     * Stops watching files.
+     */
+    @Override
+    public synchronized void close() {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException ex) {
+                LOG.warn("Error closing file watcher: " + ex.getMessage(), ex);
+            }
+            watchService = null;
+            watches.clear();
+        }
+    }
+
+    private void processEvents(WatchService service) {
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                Set<Path> changed = new LinkedHashSet<>();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    // an overflow lost the names of the changed files
+                    changed.add(event.kind() == StandardWatchEventKinds.OVERFLOW ? null : (Path) event.context());
+                }
+                key.reset();
+                for (Runnable callback : callbacks((Path) key.watchable(), changed)) {
+                    try {
+                        callback.run();
+                    } catch (RuntimeException ex) {
+                        LOG.warn("Error handling change of external configuration: " + ex.getMessage(), ex);
+                    }
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException ex) {
+            LOG.debug("File watcher closed");
+        }
+    }
+
+    /**
+     * Returns the callbacks of the changed files. Secrets mounted by Docker or Kubernetes are replaced by swapping a
+     * symbolic link to a directory, so a change of any other entry notifies all files of the directory.
+     */
+    private synchronized List<Runnable> callbacks(Path dir, Set<Path> changed) {
+        Map<Path, List<Runnable>> files = watches.get(dir);
+        if (files == null) {
+            return Collections.emptyList();
+        }
+        List<Runnable> callbacks = new ArrayList<>();
+        if (files.keySet().containsAll(changed)) {
+            for (Path name : changed) {
+                callbacks.addAll(files.get(name));
+            }
+        } else {
+            for (List<Runnable> fileCallbacks : files.values()) {
+                callbacks.addAll(fileCallbacks);
+            }
+        }
+        return callbacks;
+    }
+
     /**
      * Load file contents and return it as String.
      *
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.config.impl;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs tasks on a shared {@link Executor}, one at a time and in submission order for each key. Tasks of different
+ * keys run concurrently. The queue of each key is only changed inside {@link ConcurrentHashMap#compute}, so keys
+ * never wait for each other's locks.
+ */
+class KeyedExecutor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(KeyedExecutor.class);
+
+    private final Executor executor;
+
+    /**
+     * Tasks waiting for the running task of their key. A key is present while one of its tasks runs.
+     */
+    private final ConcurrentMap<String, Deque<Runnable>> queues = new ConcurrentHashMap<>();
+
+    /**
+     * Notified when the last task of a key finished
+     */
+    private final Object idle = new Object();
+
+    KeyedExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    void execute(String key, Runnable task) {
+        boolean[] first = new boolean[1];
+        queues.compute(key, (k, queue) -> {
+            if (queue == null) {
+                first[0] = true;
+                return new ArrayDeque<>();
+            }
+            queue.add(task);
+            return queue;
+        });
+        if (first[0]) {
+            submit(key, task);
+        }
+    }
+
+    /**
+     * @return tasks queued or running for a key
+     */
+    int pending(String key) {
+        int[] pending = new int[1];
+        queues.computeIfPresent(key, (k, queue) -> {
+            pending[0] = queue.size() + 1;
+            return queue;
+        });
+        return pending[0];
+    }
+
+    /**
+     * Waits until no task is queued or running.
+     *
+     * @return {@code false} if tasks were still pending after the timeout
+     */
+    boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (idle) {
+            while (!queues.isEmpty()) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    return false;
+                }
+                idle.wait(remaining);
+            }
+        }
+        return true;
+    }
+
+    private void submit(String key, Runnable task) {
+        try {
+            executor.execute(() -> run(key, task));
+        } catch (RejectedExecutionException e) {
+            LOG.warn("Executor is shut down, dropping tasks of {}", key);
+            queues.remove(key);
+            signalIdle();
+        }
+    }
+
+    private void run(String key, Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            LOG.error("Error running task of " + key + ": " + e.getMessage(), e);
+        }
+        Runnable[] next = new Runnable[1];
+        queues.computeIfPresent(key, (k, queue) -> {
+            next[0] = queue.poll();
+            return next[0] == null ? null : queue;
+        });
+        if (next[0] != null) {
+            submit(key, next[0]);
+        } else {
+            signalIdle();
+        }
+    }
+
+    private void signalIdle() {
+        synchronized (idle) {
+            idle.notifyAll();
+        }
+    }
+
+}
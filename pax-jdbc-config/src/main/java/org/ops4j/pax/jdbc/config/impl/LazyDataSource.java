@@ -0,0 +1,446 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.config.impl;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import org.ops4j.pax.jdbc.pool.common.LatencyHistogram;
+import org.ops4j.pax.jdbc.pool.common.PoolMetrics;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link DataSource} published before its pool exists. The pool is created by the first borrower, concurrent
+ * borrowers wait for that single creation. Optionally the pool is closed again when nothing was borrowed for a while
+ * and recreated on demand.
+ */
+public class LazyDataSource implements DataSource, AutoCloseable {
+
+    private static final org.slf4j.Logger LOG = LoggerFactory.getLogger(LazyDataSource.class);
+
+    /**
+     * Runs the idle checks of all lazy DataSources, its thread ends when no check is scheduled
+     */
+    private static final ScheduledThreadPoolExecutor IDLE_CHECKS = createIdleChecks();
+
+    private final String name;
+    private final PoolFactory factory;
+    private final Function<DataSource, PoolMetrics> metrics;
+    private final long idleShutdownNanos;
+    private final Runnable onCreate;
+    private final PoolMetrics lazyMetrics = new LazyMetrics();
+
+    /**
+     * Held while the pool is created, reconfigured or closed. Borrowers take the current pool without it.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Borrowers between reading the pool and borrowing from it, the idle check does not close the pool under them
+     */
+    private final AtomicInteger borrowing = new AtomicInteger();
+    private volatile DataSource pool;
+    private volatile PoolMetrics poolMetrics;
+    private volatile long lastBorrow;
+    private boolean closed;
+    private ScheduledFuture<?> idleCheck;
+    private PrintWriter logWriter;
+    private int loginTimeout;
+
+    /**
+     * @param name name of the DataSource for logging
+     * @param factory creates the pool
+     * @param metrics returns the metrics of a pool, {@code null} if it has none
+     * @param idleShutdownMillis time without borrows after which the pool is closed, {@code 0} keeps it open
+     */
+    public LazyDataSource(String name, PoolFactory factory, Function<DataSource, PoolMetrics> metrics,
+            long idleShutdownMillis) {
+        this(name, factory, metrics, idleShutdownMillis, () -> { });
+    }
+
+    /**
+     * @param onCreate called after each creation of the pool, without holding any lock
+     */
+    public LazyDataSource(String name, PoolFactory factory, Function<DataSource, PoolMetrics> metrics,
+            long idleShutdownMillis, Runnable onCreate) {
+        this.name = name;
+        this.factory = factory;
+        this.metrics = metrics;
+        this.idleShutdownNanos = TimeUnit.MILLISECONDS.toNanos(idleShutdownMillis);
+        this.onCreate = onCreate;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return borrow(DataSource::getConnection);
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return borrow(current -> current.getConnection(username, password));
+    }
+
+    /**
+     * Runs {@code action} with the pool, creating it if needed. Only the creation holds the lock, so a slow borrow
+     * or a waiting reconfiguration does not stall the other borrowers.
+     */
+    private <T> T borrow(PoolAction<T> action) throws SQLException {
+        lastBorrow = System.nanoTime();
+        // counted before the pool is read, see checkIdle
+        borrowing.incrementAndGet();
+        try {
+            DataSource current = pool;
+            if (current == null) {
+                current = createIfNeeded();
+            }
+            return action.apply(current);
+        } finally {
+            borrowing.decrementAndGet();
+        }
+    }
+
+    private DataSource createIfNeeded() throws SQLException {
+        boolean createdNow = false;
+        DataSource current;
+        lock.lock();
+        try {
+            if (closed) {
+                throw new SQLException("DataSource " + name + " is closed");
+            }
+            if (pool == null) {
+                create();
+                createdNow = true;
+            }
+            current = pool;
+        } finally {
+            lock.unlock();
+        }
+        if (createdNow) {
+            onCreate.run();
+        }
+        return current;
+    }
+
+    private void create() throws SQLException {
+        long start = System.nanoTime();
+        DataSource created = factory.create();
+        try {
+            if (logWriter != null) {
+                created.setLogWriter(logWriter);
+            }
+            if (loginTimeout != 0) {
+                created.setLoginTimeout(loginTimeout);
+            }
+        } catch (SQLException e) {
+            closePool(created);
+            throw e;
+        }
+        poolMetrics = metrics.apply(created);
+        pool = created;
+        LOG.info("Created pool of DataSource {} on first use in {} ms", name,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        if (idleShutdownNanos > 0) {
+            if (poolMetrics == null) {
+                LOG.warn("Pool of DataSource {} does not report borrowed connections, it is not closed when idle",
+                        name);
+            } else {
+                scheduleIdleCheck(idleShutdownNanos);
+            }
+        }
+    }
+
+    private synchronized void scheduleIdleCheck(long delayNanos) {
+        idleCheck = IDLE_CHECKS.schedule(this::checkIdle, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Closes the pool if nothing was borrowed within the idle period and no connection is borrowed.
+     */
+    private void checkIdle() {
+        if (!lock.tryLock()) {
+            // the pool is being reconfigured right now
+            scheduleIdleCheck(idleShutdownNanos);
+            return;
+        }
+        try {
+            DataSource current = pool;
+            if (closed || current == null) {
+                return;
+            }
+            long remaining = idleShutdownNanos - (System.nanoTime() - lastBorrow);
+            if (remaining > 0) {
+                scheduleIdleCheck(remaining);
+                return;
+            }
+            if (poolMetrics.getActive() != 0) {
+                scheduleIdleCheck(idleShutdownNanos);
+                return;
+            }
+            // a borrower that still read the pool counted itself before, it is kept for that borrower
+            pool = null;
+            if (borrowing.get() != 0) {
+                pool = current;
+                scheduleIdleCheck(idleShutdownNanos);
+                return;
+            }
+            poolMetrics = null;
+            closePool(current);
+            LOG.info("Closed pool of DataSource {} after {} ms without borrows", name,
+                    TimeUnit.NANOSECONDS.toMillis(idleShutdownNanos));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the pool, {@code null} if it is not created
+     */
+    public DataSource getPool() {
+        return pool;
+    }
+
+    /**
+     * @return metrics of the current pool, they start over when the pool is recreated after an idle shutdown and are
+     * zero while no pool exists
+     */
+    public PoolMetrics getMetrics() {
+        return lazyMetrics;
+    }
+
+    /**
+     * Runs {@code action} with the current pool while no pool is created or closed. Borrowers are not blocked.
+     *
+     * @param action receives the pool, {@code null} if it is not created
+     */
+    public <T> T withPool(PoolAction<T> action) throws SQLException {
+        lock.lock();
+        try {
+            return action.apply(pool);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Rejects creating the pool from now on, e.g. before it is drained.
+     *
+     * @return the pool, {@code null} if it was not created
+     */
+    public DataSource shutdown() {
+        lock.lock();
+        try {
+            closed = true;
+            cancelIdleCheck();
+            return pool;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        DataSource current;
+        lock.lock();
+        try {
+            closed = true;
+            cancelIdleCheck();
+            current = pool;
+            pool = null;
+            poolMetrics = null;
+        } finally {
+            lock.unlock();
+        }
+        if (current != null) {
+            closePool(current);
+        }
+    }
+
+    private synchronized void cancelIdleCheck() {
+        if (idleCheck != null) {
+            idleCheck.cancel(false);
+            idleCheck = null;
+        }
+    }
+
+    private void closePool(DataSource current) {
+        if (current instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) current).close();
+            } catch (Exception e) {
+                LOG.warn("Error closing pool of DataSource " + name + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        DataSource current = pool;
+        return current != null ? current.getLogWriter() : logWriter;
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        withPool(current -> {
+            logWriter = out;
+            if (current != null) {
+                current.setLogWriter(out);
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        DataSource current = pool;
+        return current != null ? current.getLoginTimeout() : loginTimeout;
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        withPool(current -> {
+            loginTimeout = seconds;
+            if (current != null) {
+                current.setLoginTimeout(seconds);
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        DataSource current = pool;
+        if (current == null) {
+            throw new SQLFeatureNotSupportedException("Pool of DataSource " + name + " is not created");
+        }
+        return current.getParentLogger();
+    }
+
+    /**
+     * Unwrapping to anything but this class creates the pool.
+     */
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        return borrow(current -> current.unwrap(iface));
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return true;
+        }
+        return borrow(current -> current.isWrapperFor(iface));
+    }
+
+    private static ScheduledThreadPoolExecutor createIdleChecks() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "pax-jdbc-config-idle");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setKeepAliveTime(60L, TimeUnit.SECONDS);
+        executor.allowCoreThreadTimeOut(true);
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+
+    /**
+     * Metrics of whichever pool is current.
+     */
+    private final class LazyMetrics implements PoolMetrics {
+
+        @Override
+        public long getActive() {
+            PoolMetrics current = poolMetrics;
+            return current == null ? 0L : current.getActive();
+        }
+
+        @Override
+        public long getIdle() {
+            PoolMetrics current = poolMetrics;
+            return current == null ? 0L : current.getIdle();
+        }
+
+        @Override
+        public long getPending() {
+            PoolMetrics current = poolMetrics;
+            return current == null ? 0L : current.getPending();
+        }
+
+        @Override
+        public long getTotalCreated() {
+            PoolMetrics current = poolMetrics;
+            return current == null ? 0L : current.getTotalCreated();
+        }
+
+        @Override
+        public long getTotalDestroyed() {
+            PoolMetrics current = poolMetrics;
+            return current == null ? 0L : current.getTotalDestroyed();
+        }
+
+        @Override
+        public LatencyHistogram getAcquireLatency() {
+            PoolMetrics current = poolMetrics;
+            return current == null ? new LatencyHistogram() : current.getAcquireLatency();
+        }
+
+        @Override
+        public LatencyHistogram getUsageTime() {
+            PoolMetrics current = poolMetrics;
+            return current == null ? new LatencyHistogram() : current.getUsageTime();
+        }
+
+        @Override
+        public LatencyHistogram getConnectionInitLatency() {
+            PoolMetrics current = poolMetrics;
+            return current == null ? new LatencyHistogram() : current.getConnectionInitLatency();
+        }
+
+    }
+
+    /**
+     * Creates the pool of a {@link LazyDataSource}.
+     */
+    public interface PoolFactory {
+
+        DataSource create() throws SQLException;
+
+    }
+
+    /**
+     * Works with the pool of a {@link LazyDataSource}.
+     */
+    public interface PoolAction<T> {
+
+        T apply(DataSource pool) throws SQLException;
+
+    }
+
+}
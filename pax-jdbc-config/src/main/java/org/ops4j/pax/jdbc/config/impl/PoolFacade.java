@@ -0,0 +1,268 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.config.impl;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import org.ops4j.pax.jdbc.pool.common.LatencyHistogram;
+import org.ops4j.pax.jdbc.pool.common.PoolMetrics;
+
+/**
+ * {@link DataSource} borrowing from a pool of {@link SharedPools}. It reports the connections borrowed through it as
+ * its own metrics and optionally limits how many of them may be borrowed at the same time.
+ */
+public class PoolFacade implements DataSource, PoolMetrics, AutoCloseable {
+
+    private final String name;
+    private final SharedPools.SharedPool pool;
+    private final Semaphore quota;
+    private final long quotaWaitMillis;
+    private final LongAdder active = new LongAdder();
+    private final LongAdder pending = new LongAdder();
+    private final LatencyHistogram acquireLatency = new LatencyHistogram();
+    private final LatencyHistogram usageTime = new LatencyHistogram();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private volatile boolean draining;
+
+    /**
+     * @param maxConnections connections that may be borrowed at the same time, {@code 0} for no limit
+     * @param quotaWaitMillis time a borrower waits for the quota
+     */
+    PoolFacade(String name, SharedPools.SharedPool pool, int maxConnections, long quotaWaitMillis) {
+        this.name = name;
+        this.pool = pool;
+        this.quota = maxConnections > 0 ? new Semaphore(maxConnections, true) : null;
+        this.quotaWaitMillis = quotaWaitMillis;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return borrow(null, null);
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return borrow(username, password);
+    }
+
+    private Connection borrow(String username, String password) throws SQLException {
+        if (draining || closed.get()) {
+            throw new SQLException("DataSource " + name + " is closed");
+        }
+        long start = System.nanoTime();
+        acquireQuota();
+        Connection connection;
+        try {
+            DataSource ds = pool.getDataSource();
+            connection = username == null ? ds.getConnection() : ds.getConnection(username, password);
+        } catch (SQLException | RuntimeException e) {
+            releaseQuota();
+            throw e;
+        }
+        long borrowed = System.nanoTime();
+        acquireLatency.record(borrowed - start);
+        active.increment();
+        return (Connection) Proxy.newProxyInstance(PoolFacade.class.getClassLoader(),
+                new Class<?>[] { Connection.class }, new Borrowed(connection, borrowed));
+    }
+
+    private void acquireQuota() throws SQLException {
+        if (quota == null) {
+            return;
+        }
+        pending.increment();
+        try {
+            if (!quota.tryAcquire(quotaWaitMillis, TimeUnit.MILLISECONDS)) {
+                throw new SQLTransientConnectionException("DataSource " + name + " has all of its "
+                        + "connections of the shared pool borrowed");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for a connection of DataSource " + name, e);
+        } finally {
+            pending.decrement();
+        }
+    }
+
+    private void releaseQuota() {
+        if (quota != null) {
+            quota.release();
+        }
+    }
+
+    /**
+     * Rejects new borrowers, the shared pool keeps serving the other DataSources.
+     */
+    public void drain() {
+        draining = true;
+    }
+
+    /**
+     * Releases the shared pool, it is closed when no other DataSource uses it.
+     */
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            pool.release();
+        }
+    }
+
+    @Override
+    public long getActive() {
+        return active.sum();
+    }
+
+    /**
+     * @return idle connections of the shared pool
+     */
+    @Override
+    public long getIdle() {
+        PoolMetrics metrics = pool.getMetrics();
+        return metrics == null ? UNKNOWN : metrics.getIdle();
+    }
+
+    /**
+     * @return borrowers waiting for the quota of this DataSource
+     */
+    @Override
+    public long getPending() {
+        return pending.sum();
+    }
+
+    @Override
+    public long getTotalCreated() {
+        PoolMetrics metrics = pool.getMetrics();
+        return metrics == null ? UNKNOWN : metrics.getTotalCreated();
+    }
+
+    @Override
+    public long getTotalDestroyed() {
+        PoolMetrics metrics = pool.getMetrics();
+        return metrics == null ? UNKNOWN : metrics.getTotalDestroyed();
+    }
+
+    @Override
+    public LatencyHistogram getAcquireLatency() {
+        return acquireLatency;
+    }
+
+    @Override
+    public LatencyHistogram getUsageTime() {
+        return usageTime;
+    }
+
+    @Override
+    public LatencyHistogram getConnectionInitLatency() {
+        PoolMetrics metrics = pool.getMetrics();
+        return metrics == null ? PoolMetrics.super.getConnectionInitLatency() : metrics.getConnectionInitLatency();
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return pool.getDataSource().getLogWriter();
+    }
+
+    /**
+     * Ignored, the log writer belongs to the shared pool.
+     */
+    @Override
+    public void setLogWriter(PrintWriter out) {
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return pool.getDataSource().getLoginTimeout();
+    }
+
+    /**
+     * Ignored, the login timeout belongs to the shared pool.
+     */
+    @Override
+    public void setLoginTimeout(int seconds) {
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return pool.getDataSource().getParentLogger();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        return iface.isInstance(this) ? iface.cast(this) : pool.getDataSource().unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || pool.getDataSource().isWrapperFor(iface);
+    }
+
+    /**
+     * Connection of the shared pool borrowed through this DataSource, closing it returns it to the shared pool and
+     * to the quota. It unwraps to itself as a {@link Connection} and wraps the statements and metadata it creates.
+     */
+    private final class Borrowed implements InvocationHandler {
+
+        private final Connection connection;
+        private final long borrowed;
+        private final AtomicBoolean returned = new AtomicBoolean();
+
+        Borrowed(Connection connection, long borrowed) {
+            this.connection = connection;
+            this.borrowed = borrowed;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String methodName = method.getName();
+            if ("equals".equals(methodName) && args.length == 1) {
+                return proxy == args[0];
+            }
+            if ("hashCode".equals(methodName) && args == null) {
+                return System.identityHashCode(proxy);
+            }
+            if (ConnectionChild.isUnwrapToProxy(proxy, methodName, args)) {
+                return "unwrap".equals(methodName) ? proxy : Boolean.TRUE;
+            }
+            if ("close".equals(methodName) && args == null && returned.compareAndSet(false, true)) {
+                usageTime.record(System.nanoTime() - borrowed);
+                active.decrement();
+                releaseQuota();
+            }
+            try {
+                return ConnectionChild.wrap(method.invoke(connection, args), method.getReturnType(), proxy, proxy);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+    }
+
+}
@@ -23,22 +23,37 @@ import javax.sql.ConnectionPoolDataSource;
 import javax.sql.DataSource;
 import javax.sql.XADataSource;
 
+import org.ops4j.pax.jdbc.hook.ConnectionInitHook;
+import org.ops4j.pax.jdbc.pool.common.LatencyHistogram;
+import org.ops4j.pax.jdbc.pool.common.PoolMetrics;
 import org.ops4j.pax.jdbc.pool.common.PooledDataSourceFactory;
+import org.ops4j.pax.jdbc.pool.common.impl.ConnectionInitializer;
 import org.osgi.service.jdbc.DataSourceFactory;
 
 public class PoolingWrapper implements DataSourceFactory {
     
     private final PooledDataSourceFactory pdsf;
     private final DataSourceFactory dsf;
+    private final ConnectionInitHook initHook;
+    private final LatencyHistogram initLatency = new LatencyHistogram();
 
     public PoolingWrapper(PooledDataSourceFactory pdsf, DataSourceFactory dsf) {
+        this(pdsf, dsf, null);
+    }
+
+    /**
+     * @param initHook initializes each physical connection of the pools, {@code null} if there is none
+     */
+    public PoolingWrapper(PooledDataSourceFactory pdsf, DataSourceFactory dsf, ConnectionInitHook initHook) {
         this.pdsf = pdsf;
         this.dsf = dsf;
+        this.initHook = initHook;
     }
 
     @Override
     public DataSource createDataSource(Properties props) throws SQLException {
-        return pdsf.create(dsf, props);
+        // the pool opens its physical connections through the initializer, so the hook runs once per connection
+        return pdsf.create(initHook == null ? dsf : new ConnectionInitializer(dsf, initHook, initLatency), props);
     }
 
     @Override
@@ -56,4 +71,70 @@ public class PoolingWrapper implements DataSourceFactory {
         return dsf.createDriver(props);
     }
 
+    public boolean reconfigure(DataSource ds, Properties previous, Properties props) throws SQLException {
+        return pdsf.reconfigure(ds, previous, props);
+    }
+
+    public PoolMetrics getMetrics(DataSource ds) {
+        PoolMetrics metrics = pdsf.getMetrics(ds);
+        return metrics == null || initHook == null ? metrics : new InitMetrics(metrics);
+    }
+
+    public boolean drain(DataSource ds) {
+        return pdsf.drain(ds);
+    }
+
+    /**
+     * Adds the latency of the {@link ConnectionInitHook} to the metrics of a pool.
+     */
+    private final class InitMetrics implements PoolMetrics {
+
+        private final PoolMetrics metrics;
+
+        InitMetrics(PoolMetrics metrics) {
+            this.metrics = metrics;
+        }
+
+        @Override
+        public long getActive() {
+            return metrics.getActive();
+        }
+
+        @Override
+        public long getIdle() {
+            return metrics.getIdle();
+        }
+
+        @Override
+        public long getPending() {
+            return metrics.getPending();
+        }
+
+        @Override
+        public long getTotalCreated() {
+            return metrics.getTotalCreated();
+        }
+
+        @Override
+        public long getTotalDestroyed() {
+            return metrics.getTotalDestroyed();
+        }
+
+        @Override
+        public LatencyHistogram getAcquireLatency() {
+            return metrics.getAcquireLatency();
+        }
+
+        @Override
+        public LatencyHistogram getUsageTime() {
+            return metrics.getUsageTime();
+        }
+
+        @Override
+        public LatencyHistogram getConnectionInitLatency() {
+            return initLatency;
+        }
+
+    }
+
 }
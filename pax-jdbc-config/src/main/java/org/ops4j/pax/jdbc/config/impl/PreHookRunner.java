@@ -0,0 +1,304 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.config.impl;
+
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.sql.DataSource;
+
+import org.ops4j.pax.jdbc.config.PreHookMetrics;
+import org.ops4j.pax.jdbc.hook.PreHook;
+import org.ops4j.pax.jdbc.pool.common.LatencyHistogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the {@link PreHook}s of a DataSource concurrently with warming up its pool and records their duration and
+ * outcome as {@link PreHookMetrics}.
+ */
+public class PreHookRunner implements PreHookMetrics, AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PreHookRunner.class);
+
+    private final Executor executor;
+    private final ScheduledExecutorService deadlines;
+    private final LongAdder succeeded = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final LatencyHistogram duration = new LatencyHistogram();
+
+    /**
+     * Runs the hooks on daemon threads which are started as needed.
+     */
+    public PreHookRunner() {
+        this(createExecutor(), createDeadlines());
+    }
+
+    /**
+     * @param executor runs hooks and warm-ups, a direct executor runs them one after the other on the calling thread
+     * @param deadlines interrupts hooks exceeding their timeout, {@code null} lets them run until they finish
+     */
+    PreHookRunner(Executor executor, ScheduledExecutorService deadlines) {
+        this.executor = executor;
+        this.deadlines = deadlines;
+    }
+
+    /**
+     * Starts the hooks and the warm-up of a DataSource. Cancelling the returned future interrupts them.
+     *
+     * @param dsName name of the DataSource for logging
+     * @param hooks hooks by name
+     * @param warmUp runs concurrently with the hooks, {@code null} if the pool is not warmed up
+     * @param timeoutMillis time hooks and warm-up may take, {@code 0} waits until they finished
+     * @return completes when all of them finished, exceptionally with a failure or a {@link SQLTimeoutException}
+     */
+    public CompletableFuture<Void> prepare(String dsName, DataSource ds, Map<String, PreHook> hooks,
+            SqlTask warmUp, long timeoutMillis) {
+        List<Step> steps = new ArrayList<>();
+        hooks.forEach((name, hook) -> steps.add(new Step("Pre hook " + name, dsName, () -> hook.prepare(ds), true)));
+        if (warmUp != null) {
+            steps.add(new Step("Warm-up", dsName, warmUp, false));
+        }
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        result.whenComplete((v, e) -> {
+            if (result.isCancelled()) {
+                steps.forEach(Step::cancel);
+            }
+        });
+        CompletableFuture<?>[] done = new CompletableFuture<?>[steps.size()];
+        for (int i = 0; i < done.length; i++) {
+            done[i] = steps.get(i).done;
+        }
+        ScheduledFuture<?> deadline = timeoutMillis > 0 && deadlines != null
+                ? deadlines.schedule(() -> steps.forEach(step -> step.timeOut(timeoutMillis)), timeoutMillis,
+                        TimeUnit.MILLISECONDS)
+                : null;
+        CompletableFuture.allOf(done).whenComplete((v, e) -> {
+            if (deadline != null) {
+                deadline.cancel(false);
+            }
+            if (e == null) {
+                result.complete(null);
+            } else {
+                result.completeExceptionally(e instanceof CompletionException ? e.getCause() : e);
+            }
+        });
+        for (Step step : steps) {
+            executor.execute(step);
+        }
+        return result;
+    }
+
+    /**
+     * Waits until {@code prepared} completes.
+     *
+     * @throws SQLException if it completed exceptionally or the calling thread was interrupted
+     */
+    public static void await(CompletableFuture<Void> prepared) throws SQLException {
+        try {
+            prepared.get();
+        } catch (InterruptedException e) {
+            prepared.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while running pre hooks", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new SQLException(cause.getMessage(), cause);
+        }
+    }
+
+    @Override
+    public long getSucceeded() {
+        return succeeded.sum();
+    }
+
+    @Override
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    @Override
+    public long getTimedOut() {
+        return timedOut.sum();
+    }
+
+    @Override
+    public LatencyHistogram getDuration() {
+        return duration;
+    }
+
+    @Override
+    public void close() {
+        if (executor instanceof ExecutorService) {
+            ((ExecutorService) executor).shutdownNow();
+        }
+        if (deadlines != null) {
+            deadlines.shutdownNow();
+        }
+    }
+
+    private static ExecutorService createExecutor() {
+        AtomicInteger count = new AtomicInteger();
+        return Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "pax-jdbc-config-prehook-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static ScheduledExecutorService createDeadlines() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "pax-jdbc-config-prehook-deadline");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setKeepAliveTime(60L, TimeUnit.SECONDS);
+        executor.allowCoreThreadTimeOut(true);
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+
+    /**
+     * Work on a DataSource that can fail with an {@link SQLException}.
+     */
+    public interface SqlTask {
+
+        void run() throws SQLException;
+
+    }
+
+    /**
+     * One hook or warm-up. Whatever happens first decides the outcome: finishing, timing out or being cancelled.
+     */
+    private final class Step implements Runnable {
+
+        private final String label;
+        private final String dsName;
+        private final SqlTask task;
+        private final boolean hook;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        private final AtomicBoolean decided = new AtomicBoolean();
+        private Thread thread;
+        private boolean interrupted;
+
+        Step(String label, String dsName, SqlTask task, boolean hook) {
+            this.label = label;
+            this.dsName = dsName;
+            this.task = task;
+            this.hook = hook;
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (decided.get()) {
+                    return;
+                }
+                thread = Thread.currentThread();
+            }
+            long start = System.nanoTime();
+            try {
+                task.run();
+                finish(null, System.nanoTime() - start);
+            } catch (SQLException | RuntimeException e) {
+                finish(e, System.nanoTime() - start);
+            } finally {
+                synchronized (this) {
+                    thread = null;
+                    if (interrupted) {
+                        // do not leave the interrupt to the next task of the thread
+                        Thread.interrupted();
+                    }
+                }
+            }
+        }
+
+        private void finish(Exception failure, long nanos) {
+            if (!decided.compareAndSet(false, true)) {
+                // timed out or cancelled before
+                return;
+            }
+            if (hook) {
+                duration.record(nanos);
+                if (failure == null) {
+                    succeeded.increment();
+                    LOG.info("{} of DataSource {} finished in {} ms", label, dsName,
+                            TimeUnit.NANOSECONDS.toMillis(nanos));
+                } else {
+                    failed.increment();
+                    LOG.warn("{} of DataSource {} failed after {} ms: {}", label, dsName,
+                            TimeUnit.NANOSECONDS.toMillis(nanos), failure.getMessage());
+                }
+            }
+            // completed after recording, so the metrics include the hook once the DataSource is published
+            if (failure == null) {
+                done.complete(null);
+            } else {
+                done.completeExceptionally(failure);
+            }
+        }
+
+        void timeOut(long timeoutMillis) {
+            if (decided.compareAndSet(false, true)) {
+                if (hook) {
+                    timedOut.increment();
+                }
+                interrupt();
+                done.completeExceptionally(new SQLTimeoutException(
+                        label + " of DataSource " + dsName + " did not finish within " + timeoutMillis + " ms"));
+            }
+        }
+
+        void cancel() {
+            if (decided.compareAndSet(false, true)) {
+                interrupt();
+                done.cancel(false);
+            }
+        }
+
+        private synchronized void interrupt() {
+            if (thread != null) {
+                interrupted = true;
+                thread.interrupt();
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,413 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.config.impl;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import org.ops4j.pax.jdbc.config.ReadOnlyScope;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link DataSource} routing read only connections to replicas and all others to the primary. A connection is
+ * borrowed from its target on first use, so {@link Connection#setReadOnly(boolean)} called before that, or borrowing
+ * within a {@link ReadOnlyScope}, sends it to the replica with the fewest outstanding connections. Optionally a lag
+ * query keeps replicas that fell behind out of rotation, reads go to the primary when no replica is left. Each
+ * replica is checked on its own thread of this DataSource, a check that takes longer than its timeout takes the
+ * replica out of rotation until it completes.
+ */
+public class RoutingDataSource implements DataSource, AutoCloseable {
+
+    private static final org.slf4j.Logger LOG = LoggerFactory.getLogger(RoutingDataSource.class);
+
+    private final String name;
+    private final Target primary;
+    private final List<Target> replicas = new ArrayList<>();
+    private final String lagQuery;
+    private final double maxLagSeconds;
+    private final long lagCheckTimeoutNanos;
+    private final AtomicInteger next = new AtomicInteger();
+    private volatile boolean closed;
+    private ScheduledThreadPoolExecutor lagChecks;
+
+    /**
+     * @param name name of the DataSource for logging
+     * @param replicas replicas by name
+     */
+    public RoutingDataSource(String name, DataSource primary, Map<String, DataSource> replicas) {
+        this(name, primary, replicas, null, 0, 0L, 0L);
+    }
+
+    /**
+     * @param lagQuery returns the lag of a replica in seconds, {@code null} uses all replicas without checking
+     * @param maxLagSeconds lag up to which a replica serves reads
+     * @param lagCheckMillis interval of the lag checks, replicas serve reads once they passed the first one
+     * @param lagCheckTimeoutMillis time a lag check may take, including borrowing its connection
+     */
+    public RoutingDataSource(String name, DataSource primary, Map<String, DataSource> replicas, String lagQuery,
+            double maxLagSeconds, long lagCheckMillis, long lagCheckTimeoutMillis) {
+        this.name = name;
+        this.primary = new Target("primary", primary, true);
+        for (Map.Entry<String, DataSource> replica : replicas.entrySet()) {
+            this.replicas.add(new Target(replica.getKey(), replica.getValue(), lagQuery == null));
+        }
+        this.lagQuery = lagQuery;
+        this.maxLagSeconds = maxLagSeconds;
+        this.lagCheckTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(lagCheckTimeoutMillis);
+        if (lagQuery != null && !replicas.isEmpty()) {
+            synchronized (this) {
+                lagChecks = createLagChecks(name, replicas.size());
+                for (Target replica : this.replicas) {
+                    lagChecks.scheduleWithFixedDelay(() -> checkLag(replica), 0L, lagCheckMillis,
+                            TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return route(null, null);
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return route(username, password);
+    }
+
+    private Connection route(String username, String password) throws SQLException {
+        if (closed) {
+            throw new SQLException("DataSource " + name + " is closed");
+        }
+        return (Connection) Proxy.newProxyInstance(RoutingDataSource.class.getClassLoader(),
+                new Class<?>[] { Connection.class }, new Routed(username, password, ReadOnlyScope.isActive()));
+    }
+
+    /**
+     * @return the replica with the fewest outstanding connections, the primary if none of them is usable
+     */
+    private Target pickReplica() {
+        int size = replicas.size();
+        if (size == 0) {
+            return primary;
+        }
+        // rotate the start, so replicas with the same number of connections take turns
+        int start = Math.floorMod(next.getAndIncrement(), size);
+        Target best = null;
+        for (int i = 0; i < size; i++) {
+            Target replica = replicas.get((start + i) % size);
+            if (isUsable(replica) && (best == null || replica.outstanding.get() < best.outstanding.get())) {
+                best = replica;
+            }
+        }
+        return best != null ? best : primary;
+    }
+
+    private boolean isUsable(Target replica) {
+        long checkStart = replica.checkStart;
+        return replica.caughtUp && (checkStart == 0L || System.nanoTime() - checkStart < lagCheckTimeoutNanos);
+    }
+
+    /**
+     * Runs the lag query on every replica, a replica that fails it does not serve reads until it passes again.
+     */
+    void checkLag() {
+        for (Target replica : replicas) {
+            checkLag(replica);
+        }
+    }
+
+    private void checkLag(Target replica) {
+        DataSource checked = replica.dataSource;
+        replica.checkStart = System.nanoTime();
+        boolean caughtUp;
+        try {
+            caughtUp = isCaughtUp(replica.name, checked);
+        } finally {
+            replica.checkStart = 0L;
+        }
+        if (checked != replica.dataSource) {
+            // replaced meanwhile, the next check covers the new one
+            return;
+        }
+        if (caughtUp != replica.caughtUp) {
+            LOG.info("Replica {} of DataSource {} {}", replica.name, name,
+                    caughtUp ? "serves reads" : "is lagging, reads go to the other replicas or the primary");
+        }
+        replica.caughtUp = caughtUp;
+    }
+
+    private boolean isCaughtUp(String replica, DataSource dataSource) {
+        try (Connection connection = dataSource.getConnection();
+                Statement statement = connection.createStatement()) {
+            statement.setQueryTimeout((int) Math.max(1L, TimeUnit.NANOSECONDS.toSeconds(lagCheckTimeoutNanos)));
+            return isCaughtUp(statement);
+        } catch (SQLException e) {
+            LOG.debug("Lag check of replica " + replica + " of DataSource " + name + " failed: "
+                    + e.getMessage(), e);
+            return false;
+        }
+    }
+
+    private boolean isCaughtUp(Statement statement) throws SQLException {
+        try (ResultSet result = statement.executeQuery(lagQuery)) {
+            if (!result.next()) {
+                return false;
+            }
+            double lag = result.getDouble(1);
+            return !result.wasNull() && lag <= maxLagSeconds;
+        }
+    }
+
+    /**
+     * Routes to other published DataSources with the same names, connections already borrowed stay with the ones
+     * they came from. A replaced replica serves reads once it passed a lag check.
+     *
+     * @param replicas in the order given to the constructor
+     */
+    void retarget(DataSource primary, List<DataSource> replicas) {
+        this.primary.dataSource = primary;
+        for (int i = 0; i < replicas.size(); i++) {
+            Target replica = this.replicas.get(i);
+            if (replica.dataSource != replicas.get(i)) {
+                replica.caughtUp = lagQuery == null;
+                replica.dataSource = replicas.get(i);
+            }
+        }
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Stops the lag checks. The primary and the replicas belong to their own configurations and stay open.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        synchronized (this) {
+            if (lagChecks != null) {
+                lagChecks.shutdownNow();
+                lagChecks = null;
+            }
+        }
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return primary.dataSource.getLogWriter();
+    }
+
+    /**
+     * Ignored, the log writer belongs to the DataSources routed to.
+     */
+    @Override
+    public void setLogWriter(PrintWriter out) {
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return primary.dataSource.getLoginTimeout();
+    }
+
+    /**
+     * Ignored, the login timeout belongs to the DataSources routed to.
+     */
+    @Override
+    public void setLoginTimeout(int seconds) {
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return primary.dataSource.getParentLogger();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        return iface.isInstance(this) ? iface.cast(this) : primary.dataSource.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || primary.dataSource.isWrapperFor(iface);
+    }
+
+    /**
+     * @return executor with a thread for each replica, so a check that hangs does not delay the others
+     */
+    private static ScheduledThreadPoolExecutor createLagChecks(String name, int replicas) {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(replicas, r -> {
+            Thread thread = new Thread(r, "pax-jdbc-config-lag-" + name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setKeepAliveTime(60L, TimeUnit.SECONDS);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * DataSource routed to and its borrowed connections.
+     */
+    private static final class Target {
+
+        private final String name;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private volatile DataSource dataSource;
+        private volatile boolean caughtUp;
+
+        /**
+         * Start of the running lag check, {@code 0} if none is running
+         */
+        private volatile long checkStart;
+
+        Target(String name, DataSource dataSource, boolean caughtUp) {
+            this.name = name;
+            this.dataSource = dataSource;
+            this.caughtUp = caughtUp;
+        }
+
+    }
+
+    /**
+     * Connection that keeps read only and auto commit until it is used, then borrows from the target they select.
+     */
+    private final class Routed implements InvocationHandler {
+
+        private final String username;
+        private final String password;
+        private final AtomicBoolean returned = new AtomicBoolean();
+        private boolean readOnly;
+        private Boolean autoCommit;
+        private boolean closed;
+        private Target target;
+        private Connection connection;
+
+        Routed(String username, String password, boolean readOnly) {
+            this.username = username;
+            this.password = password;
+            this.readOnly = readOnly;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String methodName = method.getName();
+            if ("equals".equals(methodName) && args.length == 1) {
+                return proxy == args[0];
+            }
+            if ("hashCode".equals(methodName) && args == null) {
+                return System.identityHashCode(proxy);
+            }
+            if (ConnectionChild.isUnwrapToProxy(proxy, methodName, args)) {
+                return "unwrap".equals(methodName) ? proxy : Boolean.TRUE;
+            }
+            if (connection == null) {
+                if ("toString".equals(methodName) && args == null) {
+                    return "Unbound connection of DataSource " + name;
+                } else if ("setReadOnly".equals(methodName)) {
+                    readOnly = (Boolean) args[0];
+                    return null;
+                } else if ("isReadOnly".equals(methodName)) {
+                    return readOnly;
+                } else if ("setAutoCommit".equals(methodName)) {
+                    autoCommit = (Boolean) args[0];
+                    return null;
+                } else if ("getAutoCommit".equals(methodName) && autoCommit != null) {
+                    return autoCommit;
+                } else if ("close".equals(methodName)) {
+                    closed = true;
+                    return null;
+                } else if ("isClosed".equals(methodName)) {
+                    return closed;
+                } else if (closed) {
+                    throw new SQLException("Connection is closed");
+                }
+                bind();
+            }
+            try {
+                return ConnectionChild.wrap(method.invoke(connection, args), method.getReturnType(), proxy, proxy);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            } finally {
+                if ("close".equals(methodName) && args == null && returned.compareAndSet(false, true)) {
+                    target.outstanding.decrementAndGet();
+                }
+            }
+        }
+
+        private void bind() throws SQLException {
+            Target chosen = readOnly ? pickReplica() : primary;
+            Connection borrowed;
+            try {
+                borrowed = borrow(chosen);
+            } catch (SQLException e) {
+                if (chosen == primary) {
+                    throw e;
+                }
+                LOG.debug("Replica " + chosen.name + " of DataSource " + name + " failed, reading from the primary: "
+                        + e.getMessage(), e);
+                chosen = primary;
+                borrowed = borrow(chosen);
+            }
+            try {
+                if (autoCommit != null) {
+                    borrowed.setAutoCommit(autoCommit);
+                }
+                if (readOnly) {
+                    borrowed.setReadOnly(true);
+                }
+            } catch (SQLException e) {
+                chosen.outstanding.decrementAndGet();
+                borrowed.close();
+                throw e;
+            }
+            target = chosen;
+            connection = borrowed;
+        }
+
+        private Connection borrow(Target chosen) throws SQLException {
+            chosen.outstanding.incrementAndGet();
+            try {
+                DataSource ds = chosen.dataSource;
+                return username == null ? ds.getConnection() : ds.getConnection(username, password);
+            } catch (SQLException | RuntimeException e) {
+                chosen.outstanding.decrementAndGet();
+                throw e;
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.config.impl;
+
+import java.sql.Driver;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.Dictionary;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import javax.sql.ConnectionPoolDataSource;
+import javax.sql.DataSource;
+import javax.sql.XADataSource;
+
+import org.osgi.service.jdbc.DataSourceFactory;
+
+/**
+ * Creates the {@link RoutingDataSource} of a {@code dataSourceType=RoutingDataSource} configuration from the
+ * published DataSources it routes to. When one of them is replaced, {@link #retarget()} points the created
+ * DataSources to the replacement, so the routing DataSource stays published.
+ */
+@SuppressWarnings("rawtypes")
+public class RoutingDataSourceFactory implements DataSourceFactory {
+
+    // name of the DataSource writes go to
+    static final String PRIMARY = "pax.jdbc.routing.primary";
+    // comma separated names of the DataSources reads go to
+    static final String REPLICAS = "pax.jdbc.routing.replicas";
+    // query returning the lag of a replica in seconds, replicas are not checked without it
+    static final String LAG_QUERY = "pax.jdbc.routing.lagQuery";
+    // seconds a replica may lag behind and still serve reads, required with a lag query
+    static final String MAX_LAG = "pax.jdbc.routing.maxLag";
+    // milliseconds between the lag checks
+    static final String LAG_CHECK_INTERVAL = "pax.jdbc.routing.lagCheckInterval";
+    static final long DEFAULT_LAG_CHECK_INTERVAL = 5000L;
+    // milliseconds a lag check may take before its replica stops serving reads
+    static final String LAG_CHECK_TIMEOUT = "pax.jdbc.routing.lagCheckTimeout";
+    static final long DEFAULT_LAG_CHECK_TIMEOUT = 2000L;
+
+    private final String name;
+    private final Supplier<List<DataSource>> targets;
+    private final List<String> replicaNames;
+    private final String lagQuery;
+    private final double maxLagSeconds;
+    private final long lagCheckMillis;
+    private final long lagCheckTimeoutMillis;
+    private final List<RoutingDataSource> created = new ArrayList<>();
+
+    /**
+     * @param targets the primary followed by the replicas in the order of {@link #getReplicaNames(Dictionary)}
+     */
+    public RoutingDataSourceFactory(Supplier<List<DataSource>> targets, Dictionary config) {
+        this.name = DataSourceRegistration.getDSName(config);
+        this.targets = targets;
+        this.replicaNames = getReplicaNames(config);
+        this.lagQuery = (String) config.get(LAG_QUERY);
+        Object maxLag = config.get(MAX_LAG);
+        this.maxLagSeconds = maxLag == null ? 0 : Double.parseDouble(maxLag.toString());
+        Object interval = config.get(LAG_CHECK_INTERVAL);
+        this.lagCheckMillis = interval == null ? DEFAULT_LAG_CHECK_INTERVAL : Long.parseLong(interval.toString());
+        Object timeout = config.get(LAG_CHECK_TIMEOUT);
+        this.lagCheckTimeoutMillis = timeout == null ? DEFAULT_LAG_CHECK_TIMEOUT : Long.parseLong(timeout.toString());
+    }
+
+    static boolean isRouting(Dictionary config) {
+        return DataSourceRegistration.ROUTING_DATASOURCE.equals(config.get(DataSourceRegistration.DATASOURCE_TYPE));
+    }
+
+    /**
+     * @return names of the replicas, {@code pax.jdbc.routing.replicas} is a comma separated list of them
+     */
+    static List<String> getReplicaNames(Dictionary config) {
+        String replicaNames = (String) config.get(REPLICAS);
+        Set<String> names = new LinkedHashSet<>();
+        if (replicaNames != null) {
+            for (String name : replicaNames.split(",")) {
+                if (!name.trim().isEmpty()) {
+                    names.add(name.trim());
+                }
+            }
+        }
+        return new ArrayList<>(names);
+    }
+
+    /**
+     * The driver properties belong to the DataSources routed to and are ignored.
+     */
+    @Override
+    public synchronized DataSource createDataSource(Properties props) {
+        List<DataSource> current = targets.get();
+        Map<String, DataSource> replicas = new LinkedHashMap<>();
+        for (int i = 0; i < replicaNames.size(); i++) {
+            replicas.put(replicaNames.get(i), current.get(i + 1));
+        }
+        RoutingDataSource ds = new RoutingDataSource(name, current.get(0), replicas, lagQuery, maxLagSeconds,
+                lagCheckMillis, lagCheckTimeoutMillis);
+        created.add(ds);
+        return ds;
+    }
+
+    /**
+     * Points the created DataSources to the current targets.
+     */
+    synchronized void retarget() {
+        List<DataSource> current = targets.get();
+        created.removeIf(RoutingDataSource::isClosed);
+        for (RoutingDataSource ds : created) {
+            ds.retarget(current.get(0), current.subList(1, current.size()));
+        }
+    }
+
+    @Override
+    public ConnectionPoolDataSource createConnectionPoolDataSource(Properties props) throws SQLException {
+        throw new SQLFeatureNotSupportedException("RoutingDataSource only provides javax.sql.DataSource");
+    }
+
+    @Override
+    public XADataSource createXADataSource(Properties props) throws SQLException {
+        throw new SQLFeatureNotSupportedException("RoutingDataSource only provides javax.sql.DataSource");
+    }
+
+    @Override
+    public Driver createDriver(Properties props) throws SQLException {
+        throw new SQLFeatureNotSupportedException("RoutingDataSource only provides javax.sql.DataSource");
+    }
+
+}
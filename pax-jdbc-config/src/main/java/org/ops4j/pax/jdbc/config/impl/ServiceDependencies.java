@@ -0,0 +1,406 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.config.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.Filter;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tracks the services DataSources are built from with a single {@link ServiceListener} shared by all of them.
+ * Requirements are indexed by object class and filter, so a service event evaluates every distinct filter once and
+ * reaches only the {@link Dependencies} it affects.
+ */
+public class ServiceDependencies implements ServiceListener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ServiceDependencies.class);
+
+    private final BundleContext context;
+    private final String listenerFilter;
+
+    /**
+     * object class -&gt; filter -&gt; requirements using that filter
+     */
+    private final Map<String, Map<String, Requirements>> index = new ConcurrentHashMap<>();
+    private int users;
+
+    /**
+     * @param classes object classes of the services that can be required
+     */
+    public ServiceDependencies(BundleContext context, Class<?>... classes) {
+        this.context = context;
+        StringBuilder filter = new StringBuilder("(|");
+        for (Class<?> clazz : classes) {
+            filter.append("(").append(Constants.OBJECTCLASS).append("=").append(clazz.getName()).append(")");
+        }
+        this.listenerFilter = filter.append(")").toString();
+    }
+
+    /**
+     * Creates an empty set of requirements.
+     *
+     * @param onSatisfied called when every requirement is bound to a service
+     * @param onUnsatisfied called before a bound service of a satisfied set is released
+     */
+    public Dependencies dependencies(Consumer<Dependencies> onSatisfied, Runnable onUnsatisfied) {
+        return new Dependencies(onSatisfied, onUnsatisfied);
+    }
+
+    /**
+     * @return filter of the service listener while any {@link Dependencies} is open
+     */
+    String getListenerFilter() {
+        return listenerFilter;
+    }
+
+    @Override
+    public void serviceChanged(ServiceEvent event) {
+        ServiceReference<?> reference = event.getServiceReference();
+        boolean registered = event.getType() == ServiceEvent.REGISTERED;
+        boolean gone = event.getType() == ServiceEvent.UNREGISTERING
+                || event.getType() == ServiceEvent.MODIFIED_ENDMATCH;
+        for (String objectClass : (String[]) reference.getProperty(Constants.OBJECTCLASS)) {
+            Map<String, Requirements> byFilter = index.get(objectClass);
+            if (byFilter == null) {
+                continue;
+            }
+            for (Requirements requirements : byFilter.values()) {
+                boolean matches = !gone && requirements.filter.match(reference);
+                if (!matches && registered) {
+                    // a new service nobody asked for
+                    continue;
+                }
+                for (Requirement requirement : requirements.members) {
+                    // only the requirements bound to the service care about it going away
+                    if (matches ? requirement.bound == null : reference.equals(requirement.bound)) {
+                        requirement.owner.changed(requirement, reference, matches);
+                    }
+                }
+            }
+        }
+    }
+
+    private void add(Requirement requirement) {
+        Filter filter;
+        try {
+            filter = context.createFilter(requirement.filter);
+        } catch (InvalidSyntaxException e) {
+            throw new RuntimeException("Unable to create filter", e);
+        }
+        index.computeIfAbsent(requirement.clazz.getName(), k -> new ConcurrentHashMap<>())
+                .computeIfAbsent(requirement.filter, k -> new Requirements(filter)).members.add(requirement);
+        synchronized (this) {
+            if (users++ == 0) {
+                try {
+                    context.addServiceListener(this, listenerFilter);
+                } catch (InvalidSyntaxException e) {
+                    throw new RuntimeException("Unable to create filter", e);
+                }
+            }
+        }
+    }
+
+    private void remove(Requirement requirement) {
+        index.computeIfPresent(requirement.clazz.getName(), (objectClass, byFilter) -> {
+            byFilter.computeIfPresent(requirement.filter, (filter, requirements) -> {
+                requirements.members.remove(requirement);
+                return requirements.members.isEmpty() ? null : requirements;
+            });
+            return byFilter.isEmpty() ? null : byFilter;
+        });
+        synchronized (this) {
+            if (--users == 0) {
+                context.removeServiceListener(this);
+            }
+        }
+    }
+
+    /**
+     * All requirements with the same object class and filter.
+     */
+    private static final class Requirements {
+
+        private final Filter filter;
+        private final Set<Requirement> members = ConcurrentHashMap.newKeySet();
+
+        Requirements(Filter filter) {
+            this.filter = filter;
+        }
+
+    }
+
+    /**
+     * One service a {@link Dependencies} needs, bound to the best matching service while one is available.
+     */
+    private static final class Requirement {
+
+        private final Dependencies owner;
+        private final Class<?> clazz;
+        private final String filter;
+        private final Consumer<Dependencies> onReplaced;
+        private volatile ServiceReference<?> bound;
+        private Object service;
+
+        Requirement(Dependencies owner, Class<?> clazz, String filter, Consumer<Dependencies> onReplaced) {
+            this.owner = owner;
+            this.clazz = clazz;
+            this.filter = filter;
+            this.onReplaced = onReplaced;
+        }
+
+    }
+
+    /**
+     * Services one DataSource is built from. Only a change of one of them rebuilds it.
+     */
+    public final class Dependencies {
+
+        private final List<Requirement> requirements = new ArrayList<>();
+        private final Consumer<Dependencies> onSatisfied;
+        private final Runnable onUnsatisfied;
+        private boolean open;
+        private boolean satisfied;
+
+        private Dependencies(Consumer<Dependencies> onSatisfied, Runnable onUnsatisfied) {
+            this.onSatisfied = onSatisfied;
+            this.onUnsatisfied = onUnsatisfied;
+        }
+
+        /**
+         * Adds a required service. A {@code null} filter does not require anything, {@link #get(Class)} returns
+         * {@code null} for it.
+         */
+        public Dependencies require(Class<?> clazz, String filter) {
+            if (filter != null) {
+                requirements.add(new Requirement(this, clazz, filter, null));
+            }
+            return this;
+        }
+
+        /**
+         * Adds a required service that is swapped for the next best match when it goes away. If there is one, the
+         * set stays satisfied and {@code onReplaced} is called with the new services instead.
+         */
+        public Dependencies requireReplaceable(Class<?> clazz, String filter, Consumer<Dependencies> onReplaced) {
+            requirements.add(new Requirement(this, clazz, filter, onReplaced));
+            return this;
+        }
+
+        /**
+         * @return the service bound to the requirement for {@code clazz}, {@code null} if it is not required
+         */
+        public <S> S get(Class<S> clazz) {
+            for (Requirement requirement : requirements) {
+                if (requirement.clazz == clazz) {
+                    return clazz.cast(requirement.service);
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @return reference of the service bound to the requirement for {@code clazz}, {@code null} if it is not
+         *         required
+         */
+        public ServiceReference<?> getReference(Class<?> clazz) {
+            for (Requirement requirement : requirements) {
+                if (requirement.clazz == clazz) {
+                    return requirement.bound;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @return the services bound to the requirements for {@code clazz}, in the order they were required
+         */
+        public <S> List<S> getAll(Class<S> clazz) {
+            List<S> services = new ArrayList<>();
+            for (Requirement requirement : requirements) {
+                if (requirement.clazz == clazz) {
+                    services.add(clazz.cast(requirement.service));
+                }
+            }
+            return services;
+        }
+
+        /**
+         * Starts tracking the required services.
+         */
+        public Dependencies open() {
+            for (Requirement requirement : requirements) {
+                add(requirement);
+            }
+            synchronized (this) {
+                open = true;
+                for (Requirement requirement : requirements) {
+                    if (requirement.bound == null) {
+                        bindBest(requirement, null);
+                    }
+                }
+                update();
+            }
+            return this;
+        }
+
+        /**
+         * Stops tracking and releases all services, calling back if the set was satisfied.
+         */
+        public void close() {
+            for (Requirement requirement : requirements) {
+                remove(requirement);
+            }
+            synchronized (this) {
+                open = false;
+                unsatisfy();
+                for (Requirement requirement : requirements) {
+                    unbind(requirement);
+                }
+            }
+        }
+
+        private synchronized void changed(Requirement requirement, ServiceReference<?> reference, boolean matches) {
+            if (!open) {
+                return;
+            }
+            if (reference.equals(requirement.bound)) {
+                if (!matches) {
+                    LOG.debug("Lost service dependency: " + requirement.filter);
+                    if (satisfied && requirement.onReplaced != null && replace(requirement, reference)) {
+                        return;
+                    }
+                    unsatisfy();
+                    unbind(requirement);
+                    bindBest(requirement, reference);
+                    update();
+                }
+            } else if (matches && requirement.bound == null) {
+                bind(requirement, reference);
+                update();
+            }
+        }
+
+        /**
+         * Binds the best other match in place of {@code lost} and releases it after the owner switched over.
+         *
+         * @return {@code false} if there is no other match
+         */
+        private boolean replace(Requirement requirement, ServiceReference<?> lost) {
+            ServiceReference<?> best = findBest(requirement, lost);
+            Object service = best == null ? null : context.getService(best);
+            if (service == null) {
+                return false;
+            }
+            LOG.debug("Replaced service dependency: " + requirement.filter);
+            requirement.service = service;
+            requirement.bound = best;
+            try {
+                requirement.onReplaced.accept(this);
+            } catch (RuntimeException e) {
+                LOG.error("Error replacing service dependency, recreating the DataSource: " + e.getMessage(), e);
+                unsatisfy();
+                update();
+            } finally {
+                context.ungetService(lost);
+            }
+            return true;
+        }
+
+        private void bindBest(Requirement requirement, ServiceReference<?> excluded) {
+            ServiceReference<?> best = findBest(requirement, excluded);
+            if (best != null) {
+                bind(requirement, best);
+            } else {
+                LOG.debug("Waiting for service dependency: " + requirement.filter);
+            }
+        }
+
+        private ServiceReference<?> findBest(Requirement requirement, ServiceReference<?> excluded) {
+            ServiceReference<?>[] references;
+            try {
+                references = context.getServiceReferences((String) null, requirement.filter);
+            } catch (InvalidSyntaxException e) {
+                throw new RuntimeException("Unable to create filter", e);
+            }
+            ServiceReference<?> best = null;
+            if (references != null) {
+                for (ServiceReference<?> reference : references) {
+                    if (!reference.equals(excluded) && (best == null || reference.compareTo(best) > 0)) {
+                        best = reference;
+                    }
+                }
+            }
+            return best;
+        }
+
+        private void bind(Requirement requirement, ServiceReference<?> reference) {
+            Object service = context.getService(reference);
+            if (service != null) {
+                LOG.debug("Obtained service dependency: " + requirement.filter);
+                requirement.service = service;
+                requirement.bound = reference;
+            }
+        }
+
+        private void unbind(Requirement requirement) {
+            ServiceReference<?> reference = requirement.bound;
+            if (reference != null) {
+                requirement.bound = null;
+                requirement.service = null;
+                context.ungetService(reference);
+            }
+        }
+
+        private void update() {
+            if (satisfied) {
+                return;
+            }
+            for (Requirement requirement : requirements) {
+                if (requirement.bound == null) {
+                    return;
+                }
+            }
+            try {
+                onSatisfied.accept(this);
+                satisfied = true;
+            } catch (RuntimeException e) {
+                LOG.error("Error creating DataSource from its service dependencies: " + e.getMessage(), e);
+            }
+        }
+
+        private void unsatisfy() {
+            if (satisfied) {
+                satisfied = false;
+                onUnsatisfied.run();
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.config.impl;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+import javax.sql.DataSource;
+
+import org.ops4j.pax.jdbc.hook.ConnectionInitHook;
+import org.ops4j.pax.jdbc.pool.common.PoolMetrics;
+import org.ops4j.pax.jdbc.pool.common.PooledDataSourceFactory;
+import org.osgi.service.jdbc.DataSourceFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Physical pools shared by the DataSources configured with {@code pax.jdbc.sharedPool=true} whose pool and driver
+ * properties are the same after external values were loaded and decrypted. The pool is created for the first of
+ * them and closed with the last one, each DataSource is a {@link PoolFacade} with its own name, metrics and optional
+ * connection quota.
+ */
+public class SharedPools {
+
+    // share the physical pool with other DataSources of the same connection identity
+    static final String SHARED_POOL = "pax.jdbc.sharedPool";
+    // connections a DataSource may borrow from the shared pool at the same time
+    static final String MAX_CONNECTIONS = "pax.jdbc.sharedPool.maxConnections";
+    // milliseconds a borrower waits when the DataSource has its maximum of connections borrowed
+    static final String QUOTA_WAIT = "pax.jdbc.sharedPool.quotaWait";
+    static final long DEFAULT_QUOTA_WAIT = 30000L;
+
+    private static final Logger LOG = LoggerFactory.getLogger(SharedPools.class);
+
+    /**
+     * pool factory, driver factory, connection init hook and fingerprint of the properties -&gt; pool
+     */
+    private final Map<List<Object>, SharedPool> pools = new HashMap<>();
+
+    static boolean isShared(Dictionary config) {
+        return "true".equals(String.valueOf(config.get(SHARED_POOL)));
+    }
+
+    /**
+     * Creates the {@link PoolingWrapper} of a DataSource that shares its pool.
+     *
+     * @param config configuration of the DataSource, it names the facade and sets its quota
+     */
+    public PoolingWrapper wrapper(PooledDataSourceFactory pdsf, DataSourceFactory dsf, ConnectionInitHook initHook,
+            Dictionary config) {
+        Object maxConnections = config.get(MAX_CONNECTIONS);
+        Object quotaWait = config.get(QUOTA_WAIT);
+        return new Sharing(pdsf, dsf, initHook, DataSourceRegistration.getDSName(config),
+                maxConnections == null ? 0 : Integer.parseInt(maxConnections.toString()),
+                quotaWait == null ? DEFAULT_QUOTA_WAIT : Long.parseLong(quotaWait.toString()));
+    }
+
+    /**
+     * @return number of open physical pools
+     */
+    public synchronized int size() {
+        return pools.size();
+    }
+
+    /**
+     * Hashes the properties the pool is created with, without the name of the DataSource.
+     *
+     * @return hex encoded SHA-256 of the sorted properties, so the key does not keep passwords
+     */
+    static String fingerprint(Properties props) {
+        Map<String, String> sorted = new TreeMap<>();
+        // configuration admin hands in values of other types than String as well
+        for (Map.Entry<Object, Object> entry : props.entrySet()) {
+            sorted.put(String.valueOf(entry.getKey()), String.valueOf(entry.getValue()));
+        }
+        sorted.remove(DataSourceFactory.JDBC_DATASOURCE_NAME);
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (Map.Entry<String, String> entry : sorted.entrySet()) {
+                digest.update(entry.getKey().getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+                digest.update(entry.getValue().getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    private SharedPool acquire(List<Object> key, String name, LazyDataSource.PoolFactory factory,
+            Function<DataSource, PoolMetrics> metrics) throws SQLException {
+        SharedPool pool;
+        synchronized (this) {
+            pool = pools.computeIfAbsent(key, SharedPool::new);
+            pool.references++;
+        }
+        try {
+            pool.open(name, factory, metrics);
+        } catch (SQLException | RuntimeException e) {
+            release(pool);
+            throw e;
+        }
+        return pool;
+    }
+
+    private void release(SharedPool pool) {
+        synchronized (this) {
+            if (--pool.references > 0) {
+                return;
+            }
+            pools.remove(pool.key);
+        }
+        pool.close();
+    }
+
+    /**
+     * Physical pool and the number of facades using it.
+     */
+    final class SharedPool {
+
+        private final List<Object> key;
+        private int references;
+        private DataSource dataSource;
+        private PoolMetrics metrics;
+
+        SharedPool(List<Object> key) {
+            this.key = key;
+        }
+
+        DataSource getDataSource() {
+            return dataSource;
+        }
+
+        /**
+         * @return metrics of the physical pool, {@code null} if it has none
+         */
+        PoolMetrics getMetrics() {
+            return metrics;
+        }
+
+        void release() {
+            SharedPools.this.release(this);
+        }
+
+        /**
+         * Creates the physical pool unless another facade created it already, concurrent facades wait for that.
+         */
+        private synchronized void open(String name, LazyDataSource.PoolFactory factory,
+                Function<DataSource, PoolMetrics> poolMetrics) throws SQLException {
+            if (dataSource != null) {
+                LOG.info("DataSource {} shares pool {}", name, getId());
+                return;
+            }
+            DataSource created = factory.create();
+            dataSource = created;
+            metrics = poolMetrics.apply(created);
+            LOG.info("Created pool {} for DataSource {}", getId(), name);
+        }
+
+        /**
+         * @return abbreviated fingerprint for logging
+         */
+        private String getId() {
+            return key.get(key.size() - 1).toString().substring(0, 12);
+        }
+
+        private synchronized void close() {
+            if (dataSource instanceof AutoCloseable) {
+                try {
+                    ((AutoCloseable) dataSource).close();
+                } catch (Exception e) {
+                    LOG.warn("Error closing shared pool: " + e.getMessage(), e);
+                }
+            }
+            dataSource = null;
+            LOG.info("Closed pool {}, no DataSource uses it any more", getId());
+        }
+
+    }
+
+    /**
+     * Hands out {@link PoolFacade}s instead of creating a pool per DataSource.
+     */
+    private final class Sharing extends PoolingWrapper {
+
+        private final PooledDataSourceFactory pdsf;
+        private final DataSourceFactory dsf;
+        private final ConnectionInitHook initHook;
+        private final String name;
+        private final int maxConnections;
+        private final long quotaWaitMillis;
+
+        Sharing(PooledDataSourceFactory pdsf, DataSourceFactory dsf, ConnectionInitHook initHook, String name,
+                int maxConnections, long quotaWaitMillis) {
+            super(pdsf, dsf, initHook);
+            this.pdsf = pdsf;
+            this.dsf = dsf;
+            this.initHook = initHook;
+            this.name = name;
+            this.maxConnections = maxConnections;
+            this.quotaWaitMillis = quotaWaitMillis;
+        }
+
+        @Override
+        public DataSource createDataSource(Properties props) throws SQLException {
+            List<Object> key = Arrays.asList(pdsf, dsf, initHook, fingerprint(props));
+            SharedPool pool = acquire(key, name, () -> super.createDataSource(props), super::getMetrics);
+            return new PoolFacade(name, pool, maxConnections, quotaWaitMillis);
+        }
+
+        @Override
+        public boolean reconfigure(DataSource ds, Properties previous, Properties props) throws SQLException {
+            // the other DataSources keep the pool as it is, a changed DataSource gets another facade
+            return !(ds instanceof PoolFacade) && super.reconfigure(ds, previous, props);
+        }
+
+        @Override
+        public PoolMetrics getMetrics(DataSource ds) {
+            return ds instanceof PoolFacade ? (PoolFacade) ds : super.getMetrics(ds);
+        }
+
+        @Override
+        public boolean drain(DataSource ds) {
+            if (ds instanceof PoolFacade) {
+                ((PoolFacade) ds).drain();
+                return true;
+            }
+            return super.drain(ds);
+        }
+
+    }
+
+}
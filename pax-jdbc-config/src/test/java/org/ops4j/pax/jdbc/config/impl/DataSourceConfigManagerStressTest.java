@@ -0,0 +1,214 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.config.impl;
+
+import java.util.ArrayList;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.sql.DataSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ops4j.pax.jdbc.config.ConfigLoader;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.jdbc.DataSourceFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Fires interleaved updates and deletes of many pids from several threads and checks that every pid ends up with
+ * exactly the DataSources its last change asks for.
+ */
+public class DataSourceConfigManagerStressTest {
+
+    private static final String H2_DSF_FILTER = "(&(objectClass=org.osgi.service.jdbc.DataSourceFactory)(osgi.jdbc.driver.class=org.h2.Driver))";
+    private static final int PIDS = 20;
+    private static final int CALLERS = 4;
+    private static final int CHANGES_PER_CALLER = 1000;
+
+    private final Map<String, AtomicInteger> live = new ConcurrentHashMap<>();
+    private final AtomicInteger duplicates = new AtomicInteger();
+    private final AtomicInteger listeners = new AtomicInteger();
+    private BundleContext context;
+    private ExternalConfigLoader externalConfigLoader;
+    private ExecutorService provisioningExecutor;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setup() throws Exception {
+        context = mock(BundleContext.class);
+        when(context.createFilter(anyString())).thenAnswer(invocation ->
+                FrameworkUtil.createFilter(invocation.getArgument(0, String.class)));
+
+        ServiceReference<FileConfigLoader> loaderRef = (ServiceReference<FileConfigLoader>) mock(ServiceReference.class);
+        String loaderFilter = "(" + Constants.OBJECTCLASS + "=" + ConfigLoader.class.getName() + ")";
+        when(context.getServiceReferences((String) null, loaderFilter)).thenReturn(new ServiceReference[] { loaderRef });
+        when(context.getService(loaderRef)).thenReturn(new FileConfigLoader());
+
+        DataSourceFactory dsf = mock(DataSourceFactory.class);
+        when(dsf.createDataSource(any(Properties.class))).thenReturn(mock(DataSource.class));
+        ServiceReference<DataSourceFactory> dsfRef = (ServiceReference<DataSourceFactory>) mock(ServiceReference.class);
+        when(context.getServiceReferences((String) null, H2_DSF_FILTER)).thenReturn(new ServiceReference[] { dsfRef });
+        when(context.getService(dsfRef)).thenReturn(dsf);
+
+        when(context.registerService(anyString(), any(), any(Dictionary.class))).thenAnswer(invocation -> {
+            String pid = (String) invocation.getArgument(2, Dictionary.class).get(DataSourceRegistration.JNDI_SERVICE_NAME);
+            return new CountingRegistration(pid);
+        });
+        doAnswer(invocation -> listeners.incrementAndGet())
+                .when(context).addServiceListener(any(ServiceListener.class), anyString());
+        doAnswer(invocation -> listeners.decrementAndGet())
+                .when(context).removeServiceListener(any(ServiceListener.class));
+
+        externalConfigLoader = new ExternalConfigLoader(context);
+        provisioningExecutor = Executors.newFixedThreadPool(8);
+    }
+
+    @After
+    public void shutdown() {
+        provisioningExecutor.shutdownNow();
+    }
+
+    @Test
+    public void testInterleavedUpdatesAndDeletes() throws Exception {
+        stress(new DataSourceConfigManager(context, externalConfigLoader, new DrainStats(),
+                provisioningExecutor, 0L));
+    }
+
+    @Test
+    public void testInterleavedCoalescedUpdatesAndDeletes() throws Exception {
+        stress(new DataSourceConfigManager(context, externalConfigLoader, new DrainStats(),
+                provisioningExecutor, 2L));
+    }
+
+    private void stress(DataSourceConfigManager manager) throws Exception {
+        // every pid is changed by one caller only, so its last change is known
+        Map<String, Boolean> expected = new ConcurrentHashMap<>();
+        ExecutorService callers = Executors.newFixedThreadPool(CALLERS);
+        List<Future<?>> results = new ArrayList<>();
+        for (int c = 0; c < CALLERS; c++) {
+            int caller = c;
+            results.add(callers.submit(() -> {
+                Random random = new Random(caller);
+                for (int i = 0; i < CHANGES_PER_CALLER; i++) {
+                    String pid = "pid" + (caller + CALLERS * random.nextInt(PIDS / CALLERS));
+                    if (random.nextInt(3) == 0) {
+                        manager.deleted(pid);
+                        expected.put(pid, false);
+                    } else {
+                        manager.updated(pid, config(pid, random.nextInt(3)));
+                        expected.put(pid, true);
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> result : results) {
+            result.get(60, TimeUnit.SECONDS);
+        }
+        callers.shutdown();
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!matches(expected) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        for (Map.Entry<String, Boolean> entry : expected.entrySet()) {
+            assertEquals(entry.getKey(), entry.getValue() ? 1 : 0, registrations(entry.getKey()));
+        }
+        assertEquals(0, duplicates.get());
+
+        manager.destroy();
+        externalConfigLoader.destroy();
+        for (String pid : expected.keySet()) {
+            assertEquals(pid, 0, registrations(pid));
+        }
+        assertEquals("Leaked service trackers", 0, listeners.get());
+    }
+
+    private boolean matches(Map<String, Boolean> expected) {
+        for (Map.Entry<String, Boolean> entry : expected.entrySet()) {
+            if (registrations(entry.getKey()) != (entry.getValue() ? 1 : 0)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int registrations(String pid) {
+        AtomicInteger count = live.get(pid);
+        return count == null ? 0 : count.get();
+    }
+
+    private Dictionary<String, String> config(String pid, int variant) {
+        Dictionary<String, String> properties = new Hashtable<>();
+        properties.put(DataSourceRegistration.JNDI_SERVICE_NAME, pid);
+        properties.put(DataSourceFactory.OSGI_JDBC_DRIVER_CLASS, "org.h2.Driver");
+        properties.put(DataSourceFactory.JDBC_DATABASE_NAME, "db" + variant);
+        return properties;
+    }
+
+    /**
+     * Counts the DataSources registered for a pid at the same time.
+     */
+    private final class CountingRegistration implements ServiceRegistration<Object> {
+
+        private final AtomicInteger count;
+
+        CountingRegistration(String pid) {
+            count = live.computeIfAbsent(pid, k -> new AtomicInteger());
+            if (count.incrementAndGet() > 1) {
+                duplicates.incrementAndGet();
+            }
+        }
+
+        @Override
+        public ServiceReference<Object> getReference() {
+            return null;
+        }
+
+        @Override
+        public void setProperties(Dictionary<String, ?> properties) {
+        }
+
+        @Override
+        public void unregister() {
+            count.decrementAndGet();
+        }
+
+    }
+
+}
@@ -15,25 +15,40 @@
  */
 package org.ops4j.pax.jdbc.config.impl;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Dictionary;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.Properties;
 import javax.sql.DataSource;
 
 import org.jasypt.encryption.StringEncryptor;
+import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 import org.ops4j.pax.jdbc.config.ConfigLoader;
+import org.ops4j.pax.jdbc.hook.ConnectionInitHook;
 import org.ops4j.pax.jdbc.hook.PreHook;
+import org.ops4j.pax.jdbc.pool.common.PoolMetrics;
+import org.ops4j.pax.jdbc.pool.common.PooledDataSourceFactory;
+import org.ops4j.pax.jdbc.pool.common.impl.ConnectionInitializer;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Constants;
 import org.osgi.framework.Filter;
 import org.osgi.framework.FrameworkUtil;
 import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceEvent;
 import org.osgi.framework.ServiceListener;
 import org.osgi.framework.ServiceReference;
 import org.osgi.framework.ServiceRegistration;
@@ -41,22 +56,37 @@ import org.osgi.service.cm.ConfigurationException;
 import org.osgi.service.jdbc.DataSourceFactory;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
 
 public class DataSourceConfigManagerTest {
 
     private static final String H2_DSF_FILTER = "(&(objectClass=org.osgi.service.jdbc.DataSourceFactory)(osgi.jdbc.driver.class=org.h2.Driver))";
+    private static final String DEPENDENCIES_FILTER = "(|(objectClass=org.jasypt.encryption.StringEncryptor)"
+            + "(objectClass=org.ops4j.pax.jdbc.pool.common.PooledDataSourceFactory)"
+            + "(objectClass=org.ops4j.pax.jdbc.hook.PreHook)(objectClass=org.ops4j.pax.jdbc.hook.ConnectionInitHook)"
+            + "(objectClass=org.osgi.service.jdbc.DataSourceFactory)(objectClass=javax.sql.DataSource))";
     private static final String TESTPID = "testpid";
     private static final String H2_DRIVER_CLASS = "org.h2.Driver";
+    @Rule
+    public TemporaryFolder secrets = new TemporaryFolder();
+
     private BundleContext context;
+    private FileConfigLoader fileConfigLoader;
 
     @Before
     public void setup() throws Exception {
@@ -72,7 +102,13 @@ public class DataSourceConfigManagerTest {
         ServiceReference<?>[] refs = new ServiceReference[] { ref };
         String filter = "(" + Constants.OBJECTCLASS + "=" + ConfigLoader.class.getName() + ")";
         when(context.getServiceReferences((String) null, filter)).thenReturn(refs);
-        when(context.getService(ref)).thenReturn(new FileConfigLoader());
+        fileConfigLoader = new FileConfigLoader();
+        when(context.getService(ref)).thenReturn(fileConfigLoader);
+    }
+
+    @After
+    public void closeFileConfigLoader() {
+        fileConfigLoader.close();
     }
 
     @Test
@@ -89,7 +125,7 @@ public class DataSourceConfigManagerTest {
         DataSourceConfigManager dsManager = new DataSourceConfigManager(context, new ExternalConfigLoader(context));
         dsManager.updated(TESTPID, properties);
 
-        verify(context).addServiceListener(any(ServiceListener.class), eq(H2_DSF_FILTER));
+        verify(context).addServiceListener(any(ServiceListener.class), eq(DEPENDENCIES_FILTER));
 
         reset(dsf, ds, sreg);
 
@@ -193,6 +229,39 @@ public class DataSourceConfigManagerTest {
         assertEquals(externalEncryptedValue, properties.get(DataSourceFactory.JDBC_PASSWORD));
     }
 
+    @Test
+    public void testDecryptedOnceAcrossDriverBounce() throws Exception {
+        DataSourceFactory dsf = mock(DataSourceFactory.class);
+        @SuppressWarnings("unchecked")
+        ServiceReference<DataSourceFactory> dsfRef = (ServiceReference<DataSourceFactory>) mock(ServiceReference.class);
+        when(dsfRef.getProperty(Constants.OBJECTCLASS)).thenReturn(new String[] { DataSourceFactory.class.getName() });
+        when(dsfRef.getProperty(DataSourceFactory.OSGI_JDBC_DRIVER_CLASS)).thenReturn(H2_DRIVER_CLASS);
+        when(dsfRef.getPropertyKeys()).thenReturn(new String[] { Constants.OBJECTCLASS,
+                DataSourceFactory.OSGI_JDBC_DRIVER_CLASS });
+        when(context.getServiceReferences((String) null, H2_DSF_FILTER)).thenReturn(new ServiceReference[] { dsfRef });
+        when(context.getService(dsfRef)).thenReturn(dsf);
+        DataSource ds = expectDataSourceCreated(dsf);
+        expectRegistration(ds);
+        StringEncryptor encryptor = expectTracked(context, StringEncryptor.class, "(objectClass=org.jasypt.encryption.StringEncryptor)");
+        when(encryptor.decrypt("ciphertext")).thenReturn("password");
+
+        DataSourceConfigManager dsManager = new DataSourceConfigManager(context, new ExternalConfigLoader(context));
+        Dictionary<String, String> properties = new Hashtable<String, String>();
+        properties.put(DataSourceRegistration.JNDI_SERVICE_NAME, "test");
+        properties.put(DataSourceFactory.OSGI_JDBC_DRIVER_CLASS, H2_DRIVER_CLASS);
+        properties.put(DataSourceFactory.JDBC_DATABASE_NAME, "mydbname");
+        properties.put(DataSourceFactory.JDBC_PASSWORD, "ENC(ciphertext)");
+        dsManager.updated(TESTPID, properties);
+        ArgumentCaptor<ServiceListener> listener = ArgumentCaptor.forClass(ServiceListener.class);
+        verify(context).addServiceListener(listener.capture(), eq(DEPENDENCIES_FILTER));
+
+        // the driver bundle is refreshed, the DataSource is created again with the cached plain text
+        listener.getValue().serviceChanged(new ServiceEvent(ServiceEvent.UNREGISTERING, dsfRef));
+        listener.getValue().serviceChanged(new ServiceEvent(ServiceEvent.REGISTERED, dsfRef));
+        verify(dsf, times(2)).createDataSource(any(Properties.class));
+        verify(encryptor, times(1)).decrypt("ciphertext");
+    }
+
     /**
      * Tests: - hidden properties (starting with a dot) are not added to service registry. - nonlocal
      * properties (containing a dot) are not propagated to
@@ -256,6 +325,365 @@ public class DataSourceConfigManagerTest {
         verify(context).registerService(anyString(), eq(ds), eq(expectedServiceProperties));
     }
 
+    @Test
+    public void testReconfigureInPlace() throws Exception {
+        DataSourceFactory dsf = expectTracked(context, DataSourceFactory.class, H2_DSF_FILTER);
+        PooledDataSourceFactory pdsf = expectTracked(context, PooledDataSourceFactory.class,
+                "(&(objectClass=org.ops4j.pax.jdbc.pool.common.PooledDataSourceFactory)(pool=dbcp2)(xa=false))");
+        DataSource ds = mock(DataSource.class);
+        when(pdsf.create(eq(dsf), any(Properties.class))).thenReturn(ds);
+        ServiceRegistration<?> sreg = expectRegistration(ds);
+        ArgumentCaptor<Properties> capturedProps = ArgumentCaptor.forClass(Properties.class);
+        when(pdsf.reconfigure(eq(ds), any(Properties.class), capturedProps.capture())).thenReturn(true, false);
+
+        DataSourceConfigManager dsManager = new DataSourceConfigManager(context, new ExternalConfigLoader(context));
+        dsManager.updated(TESTPID, pooledConfig("10"));
+
+        // pool-only change is applied to the running pool
+        dsManager.updated(TESTPID, pooledConfig("20"));
+        assertEquals("20", capturedProps.getValue().get("pool.maxTotal"));
+        verify(sreg).setProperties(any(Dictionary.class));
+        verify(sreg, never()).unregister();
+        verify(pdsf, times(1)).create(eq(dsf), any(Properties.class));
+
+        // the pool rejects the change, so the DataSource is recreated
+        dsManager.updated(TESTPID, pooledConfig("30"));
+        verify(sreg).unregister();
+        verify(pdsf, times(2)).create(eq(dsf), any(Properties.class));
+
+        // a different driver is never applied in place
+        Dictionary<String, String> otherDriver = pooledConfig("30");
+        otherDriver.put(DataSourceFactory.OSGI_JDBC_DRIVER_CLASS, "org.h2.OtherDriver");
+        dsManager.updated(TESTPID, otherDriver);
+        verify(pdsf, times(2)).reconfigure(eq(ds), any(Properties.class), any(Properties.class));
+        verify(sreg, times(2)).unregister();
+    }
+
+    @Test
+    public void testConnectionInitHook() throws Exception {
+        DataSourceFactory dsf = expectTracked(context, DataSourceFactory.class, H2_DSF_FILTER);
+        PooledDataSourceFactory pdsf = expectTracked(context, PooledDataSourceFactory.class,
+                "(&(objectClass=org.ops4j.pax.jdbc.pool.common.PooledDataSourceFactory)(pool=dbcp2)(xa=false))");
+        expectTracked(context, ConnectionInitHook.class,
+                "(&(objectClass=org.ops4j.pax.jdbc.hook.ConnectionInitHook)(name=session))");
+        DataSource ds = mock(DataSource.class);
+        when(pdsf.create(any(ConnectionInitializer.class), any(Properties.class))).thenReturn(ds);
+        expectRegistration(ds);
+
+        Dictionary<String, String> properties = pooledConfig("10");
+        properties.put(ConnectionInitHook.CONFIG_KEY_NAME, "session");
+        DataSourceConfigManager dsManager = new DataSourceConfigManager(context, new ExternalConfigLoader(context));
+        dsManager.updated(TESTPID, properties);
+
+        // the pool runs the hook on its physical connections, it is not passed to the driver
+        ArgumentCaptor<Properties> capturedProps = ArgumentCaptor.forClass(Properties.class);
+        verify(pdsf).create(any(ConnectionInitializer.class), capturedProps.capture());
+        verify(pdsf, never()).create(eq(dsf), any(Properties.class));
+        assertFalse(capturedProps.getValue().containsKey(ConnectionInitHook.CONFIG_KEY_NAME));
+        verify(context).registerService(anyString(), eq(ds), any(Dictionary.class));
+        dsManager.destroy();
+    }
+
+    @Test
+    public void testRoutingDataSource() throws Exception {
+        DataSource primary = expectTracked(context, DataSource.class,
+                "(&(objectClass=javax.sql.DataSource)(osgi.jndi.service.name=ordersPrimary))");
+        DataSource replica = expectTracked(context, DataSource.class,
+                "(&(objectClass=javax.sql.DataSource)(osgi.jndi.service.name=ordersReplica))");
+        Connection connection = mock(Connection.class);
+        when(replica.getConnection()).thenReturn(connection);
+
+        Dictionary<String, String> properties = new Hashtable<String, String>();
+        properties.put(DataSourceRegistration.JNDI_SERVICE_NAME, "orders");
+        properties.put(DataSourceRegistration.DATASOURCE_TYPE, DataSourceRegistration.ROUTING_DATASOURCE);
+        properties.put(RoutingDataSourceFactory.PRIMARY, "ordersPrimary");
+        properties.put(RoutingDataSourceFactory.REPLICAS, "ordersReplica");
+        DataSourceConfigManager dsManager = new DataSourceConfigManager(context, new ExternalConfigLoader(context));
+        dsManager.updated(TESTPID, properties);
+
+        // no driver is needed, the DataSource routes to the published primary and replica
+        ArgumentCaptor<Object> routing = ArgumentCaptor.forClass(Object.class);
+        verify(context).registerService(eq(DataSource.class.getName()), routing.capture(), any(Dictionary.class));
+        Connection routed = ((DataSource) routing.getValue()).getConnection();
+        routed.setReadOnly(true);
+        routed.createStatement();
+        verify(connection).setReadOnly(true);
+        verify(primary, never()).getConnection();
+        dsManager.destroy();
+    }
+
+    @Test
+    public void testRoutingDataSourceFollowsReplacedPrimary() throws Exception {
+        String primaryFilter = "(&(objectClass=javax.sql.DataSource)(osgi.jndi.service.name=ordersPrimary))";
+        ServiceReference<?> oldRef = dataSourceReference();
+        ServiceReference<?> newRef = dataSourceReference();
+        DataSource oldPrimary = mock(DataSource.class);
+        DataSource newPrimary = mock(DataSource.class);
+        when(context.getServiceReferences((String) null, primaryFilter)).thenReturn(new ServiceReference[] { oldRef });
+        doReturn(oldPrimary).when(context).getService(oldRef);
+        doReturn(newPrimary).when(context).getService(newRef);
+        Connection connection = mock(Connection.class);
+        when(newPrimary.getConnection()).thenReturn(connection);
+
+        Dictionary<String, String> properties = new Hashtable<String, String>();
+        properties.put(DataSourceRegistration.JNDI_SERVICE_NAME, "orders");
+        properties.put(DataSourceRegistration.DATASOURCE_TYPE, DataSourceRegistration.ROUTING_DATASOURCE);
+        properties.put(RoutingDataSourceFactory.PRIMARY, "ordersPrimary");
+        DataSourceConfigManager dsManager = new DataSourceConfigManager(context, new ExternalConfigLoader(context));
+        dsManager.updated(TESTPID, properties);
+        ArgumentCaptor<Object> routing = ArgumentCaptor.forClass(Object.class);
+        verify(context).registerService(eq(DataSource.class.getName()), routing.capture(), any(Dictionary.class));
+        ArgumentCaptor<ServiceListener> listener = ArgumentCaptor.forClass(ServiceListener.class);
+        verify(context).addServiceListener(listener.capture(), eq(DEPENDENCIES_FILTER));
+
+        // a swap of the primary publishes its replacement before the previous one goes away
+        when(context.getServiceReferences((String) null, primaryFilter))
+                .thenReturn(new ServiceReference[] { oldRef, newRef });
+        listener.getValue().serviceChanged(new ServiceEvent(ServiceEvent.UNREGISTERING, oldRef));
+
+        verify(context, times(1)).registerService(eq(DataSource.class.getName()), any(), any(Dictionary.class));
+        verify(context).ungetService(oldRef);
+        ((DataSource) routing.getValue()).getConnection().createStatement();
+        verify(connection).createStatement();
+        verify(oldPrimary, never()).getConnection();
+        dsManager.destroy();
+    }
+
+    @Test
+    public void testRoutingDataSourceRequiresPrimary() {
+        Dictionary<String, String> properties = new Hashtable<String, String>();
+        properties.put(DataSourceRegistration.JNDI_SERVICE_NAME, "orders");
+        properties.put(DataSourceRegistration.DATASOURCE_TYPE, DataSourceRegistration.ROUTING_DATASOURCE);
+        properties.put(RoutingDataSourceFactory.REPLICAS, "ordersReplica");
+        DataSourceConfigManager dsManager = new DataSourceConfigManager(context, new ExternalConfigLoader(context));
+
+        try {
+            dsManager.updated(TESTPID, properties);
+            fail();
+        } catch (ConfigurationException e) {
+            assertEquals(RoutingDataSourceFactory.PRIMARY, e.getProperty());
+        }
+    }
+
+    @Test
+    public void testSwap() throws Exception {
+        DataSourceFactory dsf = expectTracked(context, DataSourceFactory.class, H2_DSF_FILTER);
+        PooledDataSourceFactory pdsf = expectTracked(context, PooledDataSourceFactory.class,
+                "(&(objectClass=org.ops4j.pax.jdbc.pool.common.PooledDataSourceFactory)(pool=dbcp2)(xa=false))");
+        DataSource oldDs = mock(DataSource.class, withSettings().extraInterfaces(AutoCloseable.class));
+        DataSource newDs = mock(DataSource.class);
+        DataSource brokenDs = mock(DataSource.class);
+        when(brokenDs.getConnection()).thenThrow(new SQLException("unreachable"));
+        when(pdsf.create(eq(dsf), any(Properties.class))).thenReturn(oldDs, newDs, brokenDs);
+        PoolMetrics oldMetrics = mock(PoolMetrics.class);
+        when(oldMetrics.getActive()).thenReturn(2L, 1L, 0L);
+        when(pdsf.getMetrics(oldDs)).thenReturn(oldMetrics);
+        ServiceRegistration<?> oldReg = expectRegistration(oldDs);
+        ServiceRegistration<?> newReg = expectRegistration(newDs);
+
+        DataSourceConfigManager dsManager = new DataSourceConfigManager(context, new ExternalConfigLoader(context));
+        dsManager.updated(TESTPID, swapConfig("jdbc:h2:mem:old"));
+
+        // the new pool is warmed up and published above the old one before the old one goes away
+        dsManager.updated(TESTPID, swapConfig("jdbc:h2:mem:new"));
+        verify(newDs).getConnection();
+        ArgumentCaptor<Dictionary> props = ArgumentCaptor.forClass(Dictionary.class);
+        InOrder inOrder = inOrder(context, oldReg);
+        inOrder.verify(context).registerService(anyString(), eq(newDs), props.capture());
+        inOrder.verify(oldReg, timeout(5000)).unregister();
+        assertEquals(1, props.getValue().get(Constants.SERVICE_RANKING));
+
+        // the old pool is closed once its borrowed connections are returned, then the ranking is restored
+        verify((AutoCloseable) oldDs, timeout(5000)).close();
+        verify(oldMetrics, times(3)).getActive();
+        verify(newReg, timeout(5000)).setProperties(props.capture());
+        assertEquals(null, props.getValue().get(Constants.SERVICE_RANKING));
+
+        // a replacement that can not connect is never published, the running DataSource stays
+        dsManager.updated(TESTPID, swapConfig("jdbc:h2:mem:broken"));
+        verify(context, never()).registerService(anyString(), eq(brokenDs), any(Dictionary.class));
+        verify(newReg, never()).unregister();
+    }
+
+    @Test
+    public void testProvisionedInBackground() throws Exception {
+        DataSourceFactory dsf = expectTracked(context, DataSourceFactory.class, H2_DSF_FILTER);
+        DataSource ds = expectDataSourceCreated(dsf);
+        ServiceRegistration<?> sreg = expectRegistration(ds);
+
+        List<Runnable> tasks = new ArrayList<>();
+        DataSourceConfigManager dsManager = new DataSourceConfigManager(context,
+                new ExternalConfigLoader(context), new DrainStats(), tasks::add, 0L);
+        dsManager.updated(TESTPID, simpleConfig());
+        dsManager.deleted(TESTPID);
+        dsManager.updated(TESTPID, simpleConfig());
+        verify(dsf, never()).createDataSource(any(Properties.class));
+
+        // changes of one pid are applied in order, the DataSource deleted before it was created is skipped
+        runAll(tasks);
+        verify(dsf, times(1)).createDataSource(any(Properties.class));
+        verify(context, times(1)).registerService(anyString(), eq(ds), any(Dictionary.class));
+        verify(sreg, never()).unregister();
+
+        dsManager.deleted(TESTPID);
+        runAll(tasks);
+        verify(sreg, times(1)).unregister();
+    }
+
+    @Test
+    public void testServiceEventsHandledInBackground() throws Exception {
+        DataSourceFactory dsf = mock(DataSourceFactory.class);
+        @SuppressWarnings("unchecked")
+        ServiceReference<DataSourceFactory> dsfRef = (ServiceReference<DataSourceFactory>) mock(ServiceReference.class);
+        when(dsfRef.getProperty(Constants.OBJECTCLASS)).thenReturn(new String[] { DataSourceFactory.class.getName() });
+        when(dsfRef.getProperty(DataSourceFactory.OSGI_JDBC_DRIVER_CLASS)).thenReturn(H2_DRIVER_CLASS);
+        when(dsfRef.getPropertyKeys()).thenReturn(new String[] { Constants.OBJECTCLASS,
+                DataSourceFactory.OSGI_JDBC_DRIVER_CLASS });
+        when(context.getServiceReferences((String) null, H2_DSF_FILTER)).thenReturn(new ServiceReference[] { dsfRef });
+        when(context.getService(dsfRef)).thenReturn(dsf);
+        DataSource ds = expectDataSourceCreated(dsf);
+        ServiceRegistration<?> sreg = expectRegistration(ds);
+
+        List<Runnable> tasks = new ArrayList<>();
+        DataSourceConfigManager dsManager = new DataSourceConfigManager(context,
+                new ExternalConfigLoader(context), new DrainStats(), tasks::add, 0L);
+        dsManager.updated(TESTPID, simpleConfig());
+        runAll(tasks);
+        verify(dsf, times(1)).createDataSource(any(Properties.class));
+        ArgumentCaptor<ServiceListener> listener = ArgumentCaptor.forClass(ServiceListener.class);
+        verify(context).addServiceListener(listener.capture(), eq(DEPENDENCIES_FILTER));
+
+        // the event thread only queues the changes of the DataSource
+        listener.getValue().serviceChanged(new ServiceEvent(ServiceEvent.UNREGISTERING, dsfRef));
+        listener.getValue().serviceChanged(new ServiceEvent(ServiceEvent.REGISTERED, dsfRef));
+        verify(sreg, never()).unregister();
+        verify(dsf, times(1)).createDataSource(any(Properties.class));
+
+        runAll(tasks);
+        verify(sreg, times(1)).unregister();
+        verify(dsf, times(2)).createDataSource(any(Properties.class));
+    }
+
+    @Test
+    public void testExternalValuesResolvedInBackground() throws Exception {
+        DataSourceFactory dsf = expectTracked(context, DataSourceFactory.class, H2_DSF_FILTER);
+        expectRegistration(expectDataSourceCreated(dsf));
+        Path password = secrets.newFile("password").toPath();
+        Files.write(password, "secret".getBytes());
+
+        List<Runnable> tasks = new ArrayList<>();
+        ExternalConfigLoader externalConfigLoader = new ExternalConfigLoader(context);
+        DataSourceConfigManager dsManager = new DataSourceConfigManager(context, externalConfigLoader,
+                new DrainStats(), tasks::add, 0L);
+        Dictionary<String, String> withSecret = simpleConfig();
+        withSecret.put(DataSourceFactory.JDBC_PASSWORD, "FILE(" + password + ")");
+        dsManager.updated(TESTPID, withSecret);
+
+        // config admin does not wait for the file
+        assertEquals(0L, externalConfigLoader.getLoadLatency().getCount());
+
+        runAll(tasks);
+        assertEquals(1L, externalConfigLoader.getLoadLatency().getCount());
+        ArgumentCaptor<Properties> capturedProps = ArgumentCaptor.forClass(Properties.class);
+        verify(dsf).createDataSource(capturedProps.capture());
+        assertEquals("secret", capturedProps.getValue().get(DataSourceFactory.JDBC_PASSWORD));
+    }
+
+    @Test
+    public void testRefreshedWhenSecretChanges() throws Exception {
+        DataSourceFactory dsf = expectTracked(context, DataSourceFactory.class, H2_DSF_FILTER);
+        DataSource ds = expectDataSourceCreated(dsf);
+        ServiceRegistration<?> sreg = expectRegistration(ds);
+        Path password = secrets.newFile("password").toPath();
+        Files.write(password, "secret".getBytes());
+
+        DataSourceConfigManager dsManager = new DataSourceConfigManager(context, new ExternalConfigLoader(context));
+        Dictionary<String, String> withSecret = simpleConfig();
+        withSecret.put(DataSourceFactory.JDBC_PASSWORD, "FILE(" + password + ")");
+        dsManager.updated(TESTPID, withSecret);
+        Dictionary<String, String> other = simpleConfig();
+        other.put(DataSourceRegistration.JNDI_SERVICE_NAME, "other");
+        dsManager.updated("otherpid", other);
+        verify(dsf, times(2)).createDataSource(any(Properties.class));
+
+        // replaced at once like a mounted secret, writing in place could be observed half done
+        Path rotated = secrets.newFile("password.new").toPath();
+        Files.write(rotated, "rotated".getBytes());
+        Files.move(rotated, password, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        // only the DataSource using the file is recreated
+        ArgumentCaptor<Properties> capturedProps = ArgumentCaptor.forClass(Properties.class);
+        verify(dsf, timeout(5000).times(3)).createDataSource(capturedProps.capture());
+        assertEquals("rotated", capturedProps.getValue().get(DataSourceFactory.JDBC_PASSWORD));
+        verify(sreg, times(1)).unregister();
+        dsManager.destroy();
+    }
+
+    @Test
+    public void testCoalescedUpdates() throws Exception {
+        DataSourceFactory dsf = expectTracked(context, DataSourceFactory.class, H2_DSF_FILTER);
+        DataSource ds = expectDataSourceCreated(dsf);
+        ServiceRegistration<?> sreg = expectRegistration(ds);
+
+        DataSourceConfigManager dsManager = new DataSourceConfigManager(context, new ExternalConfigLoader(context),
+                new DrainStats(), Runnable::run, 200L);
+        try {
+            for (int i = 1; i <= 5; i++) {
+                Dictionary<String, String> properties = simpleConfig();
+                properties.put(DataSourceFactory.JDBC_DATABASE_NAME, "db" + i);
+                dsManager.updated(TESTPID, properties);
+            }
+
+            // only the last of the updates in a row is applied
+            ArgumentCaptor<Properties> capturedProps = ArgumentCaptor.forClass(Properties.class);
+            verify(context, timeout(5000)).registerService(anyString(), eq(ds), any(Dictionary.class));
+            verify(dsf).createDataSource(capturedProps.capture());
+            assertEquals("db5", capturedProps.getValue().get(DataSourceFactory.JDBC_DATABASE_NAME));
+            assertEquals(5L, dsManager.getReceived());
+            assertEquals(4L, dsManager.getCoalesced());
+
+            // an update without changes is skipped
+            Dictionary<String, String> same = simpleConfig();
+            same.put(DataSourceFactory.JDBC_DATABASE_NAME, "db5");
+            dsManager.updated(TESTPID, same);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (dsManager.getUnchanged() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            assertEquals(1L, dsManager.getUnchanged());
+            verify(dsf).createDataSource(any(Properties.class));
+            verify(sreg, never()).unregister();
+        } finally {
+            dsManager.destroy();
+        }
+    }
+
+    private Dictionary<String, String> simpleConfig() {
+        Dictionary<String, String> properties = new Hashtable<String, String>();
+        properties.put(DataSourceRegistration.JNDI_SERVICE_NAME, "test");
+        properties.put(DataSourceFactory.OSGI_JDBC_DRIVER_CLASS, H2_DRIVER_CLASS);
+        properties.put(DataSourceFactory.JDBC_DATABASE_NAME, "mydbname");
+        return properties;
+    }
+
+    private Dictionary<String, String> swapConfig(String url) {
+        Dictionary<String, String> properties = pooledConfig("10");
+        properties.put(DataSourceFactory.JDBC_URL, url);
+        properties.put(DataSourceRegistration.SWAP, "true");
+        properties.put(DataSourceRegistration.DRAIN_TIMEOUT, "5000");
+        return properties;
+    }
+
+    private Dictionary<String, String> pooledConfig(String maxTotal) {
+        Dictionary<String, String> properties = new Hashtable<String, String>();
+        properties.put(DataSourceRegistration.JNDI_SERVICE_NAME, "test");
+        properties.put(DataSourceFactory.OSGI_JDBC_DRIVER_CLASS, H2_DRIVER_CLASS);
+        properties.put(DataSourceFactory.JDBC_URL, "jdbc:h2:mem:test");
+        properties.put(PooledDataSourceFactory.POOL_KEY, "dbcp2");
+        properties.put("pool.maxTotal", maxTotal);
+        return properties;
+    }
+
     private <T> T expectTracked(BundleContext context, Class<T> iface, String expectedFilter) throws InvalidSyntaxException {
         final T serviceMock = mock(iface);
         @SuppressWarnings("unchecked")
@@ -266,6 +694,12 @@ public class DataSourceConfigManagerTest {
         return serviceMock;
     }
 
+    private static ServiceReference<?> dataSourceReference() {
+        ServiceReference<?> reference = mock(ServiceReference.class);
+        when(reference.getProperty(Constants.OBJECTCLASS)).thenReturn(new String[] { DataSource.class.getName() });
+        return reference;
+    }
+
     private DataSource expectDataSourceCreated(final DataSourceFactory dsf) throws SQLException {
         DataSource ds = mock(DataSource.class);
         when(dsf.createDataSource(any(Properties.class))).thenReturn(ds);
@@ -279,4 +713,10 @@ public class DataSourceConfigManagerTest {
         return sreg;
     }
 
+    private static void runAll(List<Runnable> tasks) {
+        while (!tasks.isEmpty()) {
+            tasks.remove(0).run();
+        }
+    }
+
 }
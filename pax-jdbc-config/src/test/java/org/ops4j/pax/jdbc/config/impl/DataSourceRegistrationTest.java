@@ -16,17 +16,34 @@
 package org.ops4j.pax.jdbc.config.impl;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
 
+import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.Collections;
 import java.util.Dictionary;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
 
 import javax.sql.ConnectionPoolDataSource;
 import javax.sql.DataSource;
@@ -34,6 +51,10 @@ import javax.sql.XADataSource;
 
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.ops4j.pax.jdbc.hook.PreHook;
+import org.ops4j.pax.jdbc.pool.common.PoolMetrics;
+import org.ops4j.pax.jdbc.pool.common.PooledDataSourceFactory;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.framework.ServiceRegistration;
@@ -128,6 +149,278 @@ public class DataSourceRegistrationTest {
         verify(context).registerService(eq(XADataSource.class.getName()), eq(xads), any(Dictionary.class));
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testPublishedPoolMetrics() throws SQLException {
+        BundleContext context = mock(BundleContext.class);
+        DataSourceFactory dsf = mock(DataSourceFactory.class);
+        PooledDataSourceFactory pdsf = mock(PooledDataSourceFactory.class);
+        DataSource ds = mock(DataSource.class);
+        PoolMetrics metrics = mock(PoolMetrics.class);
+        when(pdsf.create(eq(dsf), any(Properties.class))).thenReturn(ds);
+        when(pdsf.getMetrics(ds)).thenReturn(metrics);
+
+        ServiceRegistration<?> dsSreg = mock(ServiceRegistration.class);
+        ServiceRegistration<?> metricsSreg = mock(ServiceRegistration.class);
+        when(context.registerService(eq(DataSource.class.getName()), eq(ds), any(Dictionary.class)))
+                .thenReturn(dsSreg);
+        when(context.registerService(eq(PoolMetrics.class.getName()), eq(metrics), any(Dictionary.class)))
+                .thenReturn(metricsSreg);
+
+        Dictionary<String, String> properties = new Hashtable<String, String>();
+        properties.put(DataSourceFactory.JDBC_DATASOURCE_NAME, "myDsName");
+        DataSourceRegistration publisher = new DataSourceRegistration(context, new PoolingWrapper(pdsf, dsf),
+                properties, properties, null);
+        verify(context).registerService(eq(PoolMetrics.class.getName()), eq(metrics), any(Dictionary.class));
+
+        publisher.close();
+        verify(metricsSreg).unregister();
+        verify(dsSreg).unregister();
+    }
+
+    @Test
+    public void testDrainOnClose() throws Exception {
+        BundleContext context = mock(BundleContext.class);
+        DataSourceFactory dsf = mock(DataSourceFactory.class);
+        PooledDataSourceFactory pdsf = mock(PooledDataSourceFactory.class);
+        DataSource ds = mock(DataSource.class, withSettings().extraInterfaces(AutoCloseable.class));
+        PoolMetrics metrics = mock(PoolMetrics.class);
+        when(pdsf.create(eq(dsf), any(Properties.class))).thenReturn(ds);
+        when(pdsf.getMetrics(ds)).thenReturn(metrics);
+        when(metrics.getActive()).thenReturn(2L, 1L, 0L);
+        ServiceRegistration<?> dsSreg = mock(ServiceRegistration.class);
+        when(context.registerService(eq(DataSource.class.getName()), eq(ds), any(Dictionary.class)))
+                .thenReturn(dsSreg);
+
+        Dictionary<String, String> properties = new Hashtable<String, String>();
+        properties.put(DataSourceFactory.JDBC_DATASOURCE_NAME, "myDsName");
+        DrainStats drainStats = new DrainStats();
+        DataSourceRegistration publisher = new DataSourceRegistration(context, new PoolingWrapper(pdsf, dsf),
+                properties, properties, null, drainStats);
+
+        // borrowers are rejected once the service is gone, the pool closes after the connections are returned
+        publisher.close();
+        InOrder inOrder = inOrder(dsSreg, pdsf, metrics, ds);
+        inOrder.verify(dsSreg).unregister();
+        inOrder.verify(pdsf).drain(ds);
+        inOrder.verify(metrics, times(3)).getActive();
+        inOrder.verify((AutoCloseable) ds).close();
+        assertEquals(1L, drainStats.getDrained());
+        assertEquals(0L, drainStats.getForcedCloses());
+        assertEquals(1L, drainStats.getDrainTime().getCount());
+
+        // closing again does nothing
+        publisher.close();
+        verify((AutoCloseable) ds).close();
+        assertEquals(1L, drainStats.getDrained());
+    }
+
+    @Test
+    public void testLazyPool() throws Exception {
+        BundleContext context = mock(BundleContext.class);
+        DataSourceFactory dsf = mock(DataSourceFactory.class);
+        PooledDataSourceFactory pdsf = mock(PooledDataSourceFactory.class);
+        DataSource ds = mock(DataSource.class, withSettings().extraInterfaces(AutoCloseable.class));
+        Connection connection = mock(Connection.class);
+        PoolMetrics metrics = mock(PoolMetrics.class);
+        when(pdsf.create(eq(dsf), any(Properties.class))).thenReturn(ds);
+        when(pdsf.getMetrics(ds)).thenReturn(metrics);
+        when(metrics.getActive()).thenReturn(2L, 0L);
+        when(ds.getConnection()).thenReturn(connection);
+        ArgumentCaptor<Object> published = ArgumentCaptor.forClass(Object.class);
+        ServiceRegistration<?> dsSreg = mock(ServiceRegistration.class);
+        when(context.registerService(eq(DataSource.class.getName()), published.capture(), any(Dictionary.class)))
+                .thenReturn(dsSreg);
+        ArgumentCaptor<Object> publishedMetrics = ArgumentCaptor.forClass(Object.class);
+        ServiceRegistration<?> metricsSreg = mock(ServiceRegistration.class);
+        when(context.registerService(eq(PoolMetrics.class.getName()), publishedMetrics.capture(),
+                any(Dictionary.class))).thenReturn(metricsSreg);
+
+        Dictionary<String, String> properties = new Hashtable<String, String>();
+        properties.put(DataSourceFactory.JDBC_DATASOURCE_NAME, "myDsName");
+        properties.put(DataSourceRegistration.LAZY, "true");
+        DataSourceRegistration publisher = new DataSourceRegistration(context, new PoolingWrapper(pdsf, dsf),
+                properties, properties, null);
+
+        // published without a pool and its metrics
+        assertTrue(publisher.isRegistered());
+        verify(pdsf, never()).create(any(DataSourceFactory.class), any(Properties.class));
+        verify(context, never()).registerService(eq(PoolMetrics.class.getName()), any(), any(Dictionary.class));
+
+        DataSource lazy = (DataSource) published.getValue();
+        assertSame(connection, lazy.getConnection());
+        assertSame(connection, lazy.getConnection());
+        verify(pdsf, times(1)).create(eq(dsf), any(Properties.class));
+
+        // the metrics are registered once the pool exists
+        verify(context, times(1)).registerService(eq(PoolMetrics.class.getName()), any(), any(Dictionary.class));
+        assertEquals(2L, ((PoolMetrics) publishedMetrics.getValue()).getActive());
+
+        publisher.close();
+        verify(metricsSreg).unregister();
+        verify(dsSreg).unregister();
+        verify((AutoCloseable) ds).close();
+        try {
+            lazy.getConnection();
+            fail("A closed lazy DataSource must not create a new pool");
+        } catch (SQLException e) {
+            verify(pdsf, times(1)).create(eq(dsf), any(Properties.class));
+        }
+    }
+
+    @Test
+    public void testDrainTimeout() throws Exception {
+        BundleContext context = mock(BundleContext.class);
+        DataSourceFactory dsf = mock(DataSourceFactory.class);
+        PooledDataSourceFactory pdsf = mock(PooledDataSourceFactory.class);
+        DataSource ds = mock(DataSource.class, withSettings().extraInterfaces(AutoCloseable.class));
+        PoolMetrics metrics = mock(PoolMetrics.class);
+        when(pdsf.create(eq(dsf), any(Properties.class))).thenReturn(ds);
+        when(pdsf.getMetrics(ds)).thenReturn(metrics);
+        when(metrics.getActive()).thenReturn(3L);
+
+        Dictionary<String, String> properties = new Hashtable<String, String>();
+        properties.put(DataSourceFactory.JDBC_DATASOURCE_NAME, "myDsName");
+        properties.put(DataSourceRegistration.DRAIN_TIMEOUT, "100");
+        DrainStats drainStats = new DrainStats();
+        DataSourceRegistration publisher = new DataSourceRegistration(context, new PoolingWrapper(pdsf, dsf),
+                properties, properties, null, drainStats);
+
+        publisher.close();
+        verify((AutoCloseable) ds).close();
+        assertEquals(3L, drainStats.getForcedCloses());
+    }
+
+    @Test
+    public void testAsyncPreHooks() throws Exception {
+        BundleContext context = mock(BundleContext.class);
+        DataSourceFactory dsf = mock(DataSourceFactory.class);
+        PooledDataSourceFactory pdsf = mock(PooledDataSourceFactory.class);
+        DataSource ds = mock(DataSource.class, withSettings().extraInterfaces(AutoCloseable.class));
+        when(pdsf.create(eq(dsf), any(Properties.class))).thenReturn(ds);
+        when(ds.getConnection()).thenReturn(mock(Connection.class));
+        ServiceRegistration<?> dsSreg = mock(ServiceRegistration.class);
+        when(context.registerService(eq(DataSource.class.getName()), eq(ds), any(Dictionary.class)))
+                .thenReturn(dsSreg);
+
+        // each hook waits for the other one, so they only finish when they run concurrently
+        CyclicBarrier bothRunning = new CyclicBarrier(2);
+        CountDownLatch release = new CountDownLatch(1);
+        PreHook schema = dataSource -> {
+            await(bothRunning);
+            awaitRelease(release);
+        };
+        PreHook data = dataSource -> await(bothRunning);
+        Map<String, PreHook> preHooks = new LinkedHashMap<>();
+        preHooks.put("schema", schema);
+        preHooks.put("data", data);
+
+        Dictionary<String, String> properties = new Hashtable<String, String>();
+        properties.put(DataSourceFactory.JDBC_DATASOURCE_NAME, "myDsName");
+        properties.put(DataSourceRegistration.PRE_HOOK_ASYNC, "true");
+        PreHookRunner runner = new PreHookRunner();
+        try {
+            DataSourceRegistration publisher = new DataSourceRegistration(context, new PoolingWrapper(pdsf, dsf),
+                    properties, properties, preHooks, null, runner);
+
+            // the constructor returns while the hooks run
+            assertTrue(publisher.isPreparing());
+            verify(ds, timeout(5000)).getConnection();
+            verify(context, never()).registerService(anyString(), any(), any(Dictionary.class));
+
+            release.countDown();
+            assertTrue(publisher.getPublished().get(5, TimeUnit.SECONDS));
+            assertTrue(publisher.isRegistered());
+            assertEquals(2L, runner.getSucceeded());
+            assertEquals(2L, runner.getDuration().getCount());
+
+            publisher.close();
+            verify(dsSreg).unregister();
+        } finally {
+            runner.close();
+        }
+    }
+
+    @Test
+    public void testPreHookTimeout() throws Exception {
+        BundleContext context = mock(BundleContext.class);
+        DataSourceFactory dsf = mock(DataSourceFactory.class);
+        PooledDataSourceFactory pdsf = mock(PooledDataSourceFactory.class);
+        DataSource ds = mock(DataSource.class, withSettings().extraInterfaces(AutoCloseable.class));
+        when(pdsf.create(eq(dsf), any(Properties.class))).thenReturn(ds);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        PreHook migration = dataSource -> {
+            try {
+                Thread.sleep(TimeUnit.SECONDS.toMillis(30));
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                throw new SQLException("Migration interrupted", e);
+            }
+        };
+
+        Dictionary<String, String> properties = new Hashtable<String, String>();
+        properties.put(DataSourceFactory.JDBC_DATASOURCE_NAME, "myDsName");
+        properties.put(DataSourceRegistration.PRE_HOOK_TIMEOUT, "100");
+        PreHookRunner runner = new PreHookRunner();
+        try {
+            DataSourceRegistration publisher = new DataSourceRegistration(context, new PoolingWrapper(pdsf, dsf),
+                    properties, properties, Collections.singletonMap("migration", migration), null, runner);
+
+            assertFalse(publisher.getPublished().get(5, TimeUnit.SECONDS));
+            assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+            verify((AutoCloseable) ds).close();
+            verify(context, never()).registerService(anyString(), any(), any(Dictionary.class));
+            assertEquals(1L, runner.getTimedOut());
+            assertEquals(0L, runner.getFailed());
+        } finally {
+            runner.close();
+        }
+    }
+
+    @Test
+    public void testCloseWhilePreparing() throws Exception {
+        BundleContext context = mock(BundleContext.class);
+        DataSourceFactory dsf = mock(DataSourceFactory.class);
+        PooledDataSourceFactory pdsf = mock(PooledDataSourceFactory.class);
+        DataSource ds = mock(DataSource.class, withSettings().extraInterfaces(AutoCloseable.class));
+        when(pdsf.create(eq(dsf), any(Properties.class))).thenReturn(ds);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Dictionary<String, String> properties = new Hashtable<String, String>();
+        properties.put(DataSourceFactory.JDBC_DATASOURCE_NAME, "myDsName");
+        properties.put(DataSourceRegistration.PRE_HOOK_ASYNC, "true");
+        PreHookRunner runner = new PreHookRunner();
+        try {
+            DataSourceRegistration publisher = new DataSourceRegistration(context, new PoolingWrapper(pdsf, dsf),
+                    properties, properties, Collections.singletonMap("slow", dataSource -> awaitRelease(release)),
+                    null, runner);
+            publisher.close();
+
+            assertFalse(publisher.getPublished().get(5, TimeUnit.SECONDS));
+            verify((AutoCloseable) ds).close();
+            release.countDown();
+            verify(context, never()).registerService(anyString(), any(), any(Dictionary.class));
+        } finally {
+            runner.close();
+        }
+    }
+
+    private static void await(CyclicBarrier barrier) throws SQLException {
+        try {
+            barrier.await(5, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            throw new SQLException(e);
+        }
+    }
+
+    private static void awaitRelease(CountDownLatch release) throws SQLException {
+        try {
+            release.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            throw new SQLException(e);
+        }
+    }
+
     @SuppressWarnings("resource")
     @Test(expected = IllegalArgumentException.class)
     public void testError() throws ConfigurationException, InvalidSyntaxException, SQLException {
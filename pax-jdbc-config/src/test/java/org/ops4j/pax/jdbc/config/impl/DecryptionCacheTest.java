@@ -0,0 +1,132 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.config.impl;
+
+import org.jasypt.encryption.StringEncryptor;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class DecryptionCacheTest {
+
+    private BundleContext context;
+    private StringEncryptor encryptor;
+    private ServiceReference<?> reference;
+
+    @Before
+    public void setup() {
+        context = mock(BundleContext.class);
+        reference = mock(ServiceReference.class);
+        encryptor = mock(StringEncryptor.class);
+        when(encryptor.decrypt(anyString())).thenAnswer(invocation -> "plain-" + invocation.getArgument(0));
+    }
+
+    @Test
+    public void testCachedPerEncryptor() throws Exception {
+        DecryptionCache cache = new DecryptionCache(context);
+        assertNull(cache.get(null, null));
+        StringEncryptor cached = cache.get(reference, encryptor);
+        assertSame(cached, cache.get(reference, encryptor));
+
+        assertEquals("plain-a", cached.decrypt("a"));
+        assertEquals("plain-a", cache.get(reference, encryptor).decrypt("a"));
+        verify(encryptor, times(1)).decrypt("a");
+        assertEquals(1L, cache.getCacheHits());
+        assertEquals(1L, cache.getCacheMisses());
+        assertEquals(1L, cache.getDecryptLatency().getCount());
+
+        // another encryptor service may use another password
+        StringEncryptor other = mock(StringEncryptor.class);
+        when(other.decrypt("a")).thenReturn("other");
+        assertEquals("other", cache.get(mock(ServiceReference.class), other).decrypt("a"));
+        verify(context, times(1)).addServiceListener(any(ServiceListener.class), anyString());
+    }
+
+    @Test
+    public void testNewInstanceOfServiceFactory() {
+        DecryptionCache cache = new DecryptionCache(context);
+        cache.get(reference, encryptor).decrypt("a");
+
+        // the service factory may hand out another instance once the previous one was released
+        StringEncryptor other = mock(StringEncryptor.class);
+        when(other.decrypt("a")).thenReturn("other");
+        assertEquals("other", cache.get(reference, other).decrypt("a"));
+        assertEquals(1L, cache.getInvalidations());
+
+        cache.serviceChanged(new ServiceEvent(ServiceEvent.UNREGISTERING, reference));
+        verify(context).removeServiceListener(cache);
+        assertEquals(2L, cache.getInvalidations());
+    }
+
+    @Test
+    public void testBounded() {
+        DecryptionCache cache = new DecryptionCache(context, 2);
+        StringEncryptor cached = cache.get(reference, encryptor);
+        cached.decrypt("a");
+        cached.decrypt("b");
+        cached.decrypt("a");
+        cached.decrypt("c");
+        assertEquals(1L, cache.getEvictions());
+        assertEquals(0L, cache.getInvalidations());
+
+        // b was the least recently used
+        cached.decrypt("a");
+        cached.decrypt("b");
+        verify(encryptor, times(1)).decrypt("a");
+        verify(encryptor, times(2)).decrypt("b");
+    }
+
+    @Test
+    public void testInvalidatedWhenEncryptorUnregisters() {
+        DecryptionCache cache = new DecryptionCache(context);
+        StringEncryptor cached = cache.get(reference, encryptor);
+        cached.decrypt("a");
+        cached.decrypt("b");
+
+        // a service factory would create another instance, the cache is found without getting the service
+        cache.serviceChanged(new ServiceEvent(ServiceEvent.UNREGISTERING, reference));
+        verify(context, never()).getService(any(ServiceReference.class));
+        verify(context).removeServiceListener(cache);
+        assertEquals(2L, cache.getInvalidations());
+        assertEquals(0L, cache.getEvictions());
+
+        // values decrypted through the stale wrapper are no longer cached
+        cached.decrypt("a");
+        cached.decrypt("a");
+        verify(encryptor, times(3)).decrypt("a");
+        cache.get(reference, encryptor).decrypt("b");
+        verify(encryptor, times(2)).decrypt("b");
+
+        cache.close();
+        assertEquals(1L, cache.getClears());
+        assertEquals(2L, cache.getInvalidations());
+    }
+
+}
@@ -16,15 +16,25 @@
 package org.ops4j.pax.jdbc.config.impl;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Dictionary;
 import java.util.Enumeration;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
@@ -35,7 +45,10 @@ import static org.mockito.Mockito.when;
 
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 import org.ops4j.pax.jdbc.config.ConfigLoader;
@@ -43,6 +56,7 @@ import org.osgi.framework.BundleContext;
 import org.osgi.framework.Constants;
 import org.osgi.framework.Filter;
 import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.ServiceEvent;
 import org.osgi.framework.ServiceListener;
 import org.osgi.framework.ServiceReference;
 import org.slf4j.Logger;
@@ -52,7 +66,11 @@ public class ExternalConfigLoaderTest {
 
     public static final Logger LOG = LoggerFactory.getLogger(ExternalConfigLoaderTest.class);
 
+    @Rule
+    public TemporaryFolder secrets = new TemporaryFolder();
+
     private BundleContext context;
+    private FileConfigLoader fileConfigLoader;
 
     @Before
     @SuppressWarnings("unchecked")
@@ -70,12 +88,14 @@ public class ExternalConfigLoaderTest {
         String filter = "(" + Constants.OBJECTCLASS + "=" + ConfigLoader.class.getName() + ")";
 
         when(context.getServiceReferences((String) null, filter)).thenReturn(refs);
-        when(context.getService(ref1)).thenReturn(new FileConfigLoader());
+        fileConfigLoader = new FileConfigLoader();
+        when(context.getService(ref1)).thenReturn(fileConfigLoader);
         when(context.getService(ref2)).thenReturn(new CustomConfigLoader());
     }
 
     @After
     public void check() throws Exception {
+        fileConfigLoader.close();
         verify(context, times(1)).addServiceListener(any(ServiceListener.class), anyString());
     }
 
@@ -145,6 +165,79 @@ public class ExternalConfigLoaderTest {
         assertEquals(2000, loaded.get("timeout"));
     }
 
+    @Test
+    public void testCachedUntilFileChanges() throws Exception {
+        Path user = secrets.newFile("user").toPath();
+        Path password = secrets.newFile("password").toPath();
+        Files.write(user, "sa".getBytes());
+        Files.write(password, "secret".getBytes());
+        Dictionary<String, Object> first = new Hashtable<>();
+        first.put("user", "FILE(" + user + ")");
+        Dictionary<String, Object> second = new Hashtable<>();
+        second.put("password", "FILE(" + password + ")");
+
+        final ExternalConfigLoader externalConfigLoader = new ExternalConfigLoader(context);
+        Set<String> refreshed = ConcurrentHashMap.newKeySet();
+        CountDownLatch changed = new CountDownLatch(1);
+        Consumer<String> onChange = owner -> {
+            refreshed.add(owner);
+            changed.countDown();
+        };
+        assertEquals("sa", externalConfigLoader.resolve(first, "first", onChange).get("user"));
+        assertEquals("secret", externalConfigLoader.resolve(second, "second", onChange).get("password"));
+        assertEquals("secret", externalConfigLoader.resolve(second, "second", onChange).get("password"));
+        assertEquals(2L, externalConfigLoader.getCacheMisses());
+        assertEquals(1L, externalConfigLoader.getCacheHits());
+        assertEquals(2L, externalConfigLoader.getLoadLatency().getCount());
+
+        // only the owner of the changed file is refreshed
+        Files.write(password, "rotated".getBytes());
+        assertTrue(changed.await(10, TimeUnit.SECONDS));
+        assertEquals(Collections.singleton("second"), refreshed);
+        assertEquals(1L, externalConfigLoader.getInvalidations());
+        assertEquals("rotated", externalConfigLoader.resolve(second, "second", onChange).get("password"));
+        assertEquals(3L, externalConfigLoader.getCacheMisses());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testOneWatchPerReference() throws Exception {
+        WatchingConfigLoader watching = new WatchingConfigLoader();
+        ServiceReference<WatchingConfigLoader> ref = mock(ServiceReference.class);
+        when(context.getService(ref)).thenReturn(watching);
+        Dictionary<String, Object> config = new Hashtable<>();
+        config.put("password", "WATCHED(password)");
+
+        final ExternalConfigLoader externalConfigLoader = new ExternalConfigLoader(context);
+        ArgumentCaptor<ServiceListener> listener = ArgumentCaptor.forClass(ServiceListener.class);
+        verify(context).addServiceListener(listener.capture(), anyString());
+        listener.getValue().serviceChanged(new ServiceEvent(ServiceEvent.REGISTERED, ref));
+        externalConfigLoader.resolve(config, "ds", owner -> { });
+        assertEquals(1, watching.callbacks.size());
+
+        // the loader is registered again, the watch of its previous registration is removed
+        listener.getValue().serviceChanged(new ServiceEvent(ServiceEvent.UNREGISTERING, ref));
+        assertEquals(0, watching.callbacks.size());
+        listener.getValue().serviceChanged(new ServiceEvent(ServiceEvent.REGISTERED, ref));
+        externalConfigLoader.resolve(config, "ds", owner -> { });
+        externalConfigLoader.resolve(config, "ds", owner -> { });
+        assertEquals(1, watching.callbacks.size());
+    }
+
+    @Test
+    public void testNotCachedWithoutWatch() {
+        Dictionary<String, Object> cfProps = new Hashtable<>();
+        cfProps.put("password", "CUSTOM(password)");
+
+        final ExternalConfigLoader externalConfigLoader = new ExternalConfigLoader(context);
+        externalConfigLoader.resolve(cfProps);
+        externalConfigLoader.resolve(cfProps);
+
+        assertEquals(0L, externalConfigLoader.getCacheHits());
+        assertEquals(2L, externalConfigLoader.getCacheMisses());
+        assertEquals(0d, externalConfigLoader.getCacheHitRatio(), 0d);
+    }
+
     public static String createExternalSecret(final String value) {
         try {
             final File file = File.createTempFile("externalPaxJdbcConfig-", ".secret");
@@ -160,6 +253,32 @@ public class ExternalConfigLoaderTest {
         }
     }
 
+    public static class WatchingConfigLoader implements ConfigLoader {
+
+        private final List<Runnable> callbacks = new ArrayList<>();
+
+        @Override
+        public String getName() {
+            return "WATCHED";
+        }
+
+        @Override
+        public String resolve(String key) {
+            return key;
+        }
+
+        @Override
+        public boolean watch(String key, Runnable onChange) {
+            callbacks.add(onChange);
+            return true;
+        }
+
+        @Override
+        public void unwatch(String key, Runnable onChange) {
+            callbacks.remove(onChange);
+        }
+    }
+
     public static class CustomConfigLoader implements ConfigLoader {
 
         @Override
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.config.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class KeyedExecutorTest {
+
+    private final ExecutorService pool = Executors.newFixedThreadPool(4);
+
+    @After
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void testOrderPerKey() throws InterruptedException {
+        KeyedExecutor executor = new KeyedExecutor(pool);
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        for (int i = 0; i < 1000; i++) {
+            int index = i;
+            executor.execute("pid", () -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                order.add(index);
+                running.decrementAndGet();
+            });
+        }
+        assertTrue(executor.awaitIdle(10, TimeUnit.SECONDS));
+        assertEquals(1, maxRunning.get());
+        assertEquals(1000, order.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, order.get(i).intValue());
+        }
+        assertEquals(0, executor.pending("pid"));
+    }
+
+    @Test
+    public void testKeysRunConcurrently() throws InterruptedException {
+        KeyedExecutor executor = new KeyedExecutor(pool);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        // the first pid only finishes when the second one runs next to it
+        executor.execute("pid1", () -> {
+            started.countDown();
+            await(done);
+        });
+        await(started);
+        executor.execute("pid2", done::countDown);
+        assertTrue(executor.awaitIdle(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testFailingTask() throws InterruptedException {
+        KeyedExecutor executor = new KeyedExecutor(pool);
+        AtomicInteger runs = new AtomicInteger();
+        executor.execute("pid", () -> {
+            throw new IllegalStateException("expected");
+        });
+        executor.execute("pid", runs::incrementAndGet);
+        assertTrue(executor.awaitIdle(10, TimeUnit.SECONDS));
+        assertEquals(1, runs.get());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.config.impl;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.junit.Test;
+import org.ops4j.pax.jdbc.pool.common.PoolMetrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+public class LazyDataSourceTest {
+
+    private final AtomicInteger created = new AtomicInteger();
+    private final PoolMetrics metrics = mock(PoolMetrics.class);
+    private final List<DataSource> pools = new ArrayList<>();
+
+    @Test
+    public void testSingleFlightCreation() throws Exception {
+        CountDownLatch creating = new CountDownLatch(1);
+        LazyDataSource lazy = new LazyDataSource("test", () -> {
+            try {
+                creating.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new SQLException(e);
+            }
+            return pool();
+        }, pool -> null, 0L);
+        ExecutorService borrowers = Executors.newFixedThreadPool(8);
+        List<Future<Connection>> connections = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            connections.add(borrowers.submit(() -> lazy.getConnection()));
+        }
+        creating.countDown();
+        for (Future<Connection> connection : connections) {
+            assertNotNull(connection.get(5, TimeUnit.SECONDS));
+        }
+        borrowers.shutdown();
+        assertEquals(1, created.get());
+
+        lazy.close();
+        verify((AutoCloseable) pools.get(0)).close();
+    }
+
+    @Test
+    public void testFailedCreationIsRetried() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        LazyDataSource lazy = new LazyDataSource("test", () -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new SQLException("Database not reachable");
+            }
+            return pool();
+        }, pool -> null, 0L);
+        try {
+            lazy.getConnection();
+            fail("The first creation fails");
+        } catch (SQLException e) {
+            assertNull(lazy.getPool());
+        }
+        assertNotNull(lazy.getConnection());
+        assertEquals(2, attempts.get());
+    }
+
+    @Test
+    public void testIdleShutdown() throws Exception {
+        LazyDataSource lazy = new LazyDataSource("test", this::pool, pool -> metrics, 50L);
+        when(metrics.getActive()).thenReturn(1L, 0L);
+        lazy.getConnection();
+        DataSource first = pools.get(0);
+
+        // closed once the borrowed connection is returned
+        verify((AutoCloseable) first, timeout(5000)).close();
+        assertNull(lazy.getPool());
+        verify(metrics, timeout(5000).atLeast(2)).getActive();
+
+        lazy.getConnection();
+        assertEquals(2, created.get());
+        assertSame(pools.get(1), lazy.getPool());
+        lazy.close();
+    }
+
+    @Test
+    public void testNoIdleShutdownWithoutMetrics() throws Exception {
+        LazyDataSource lazy = new LazyDataSource("test", this::pool, pool -> null, 10L);
+        lazy.getConnection();
+        Thread.sleep(100L);
+        verify((AutoCloseable) pools.get(0), never()).close();
+        lazy.close();
+    }
+
+    @Test
+    public void testBorrowWhileReconfiguring() throws Exception {
+        LazyDataSource lazy = new LazyDataSource("test", this::pool, pool -> null, 0L);
+        lazy.getConnection();
+        CountDownLatch reconfiguring = new CountDownLatch(1);
+        CountDownLatch borrowed = new CountDownLatch(1);
+        ExecutorService reconfigurer = Executors.newSingleThreadExecutor();
+        Future<Boolean> reconfigured = reconfigurer.submit(() -> lazy.withPool(pool -> {
+            reconfiguring.countDown();
+            try {
+                return borrowed.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new SQLException(e);
+            }
+        }));
+        assertTrue(reconfiguring.await(5, TimeUnit.SECONDS));
+
+        // the pool lock is held, borrowers still get connections
+        assertNotNull(lazy.getConnection());
+        borrowed.countDown();
+        assertTrue(reconfigured.get(5, TimeUnit.SECONDS));
+        reconfigurer.shutdown();
+        lazy.close();
+    }
+
+    private DataSource pool() throws SQLException {
+        DataSource pool = mock(DataSource.class, withSettings().extraInterfaces(AutoCloseable.class));
+        when(pool.getConnection()).thenReturn(mock(Connection.class));
+        synchronized (pools) {
+            pools.add(pool);
+        }
+        created.incrementAndGet();
+        return pool;
+    }
+
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.config.impl;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.sql.DataSource;
+
+import org.junit.Test;
+import org.ops4j.pax.jdbc.config.ReadOnlyScope;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class RoutingDataSourceTest {
+
+    private final DataSource primary = mock(DataSource.class);
+    private final DataSource replica1 = mock(DataSource.class);
+    private final DataSource replica2 = mock(DataSource.class);
+
+    @Test
+    public void testWritesGoToPrimary() throws Exception {
+        Connection physical = connectionOf(primary);
+        RoutingDataSource routing = new RoutingDataSource("test", primary, replicas());
+
+        Connection connection = routing.getConnection();
+        connection.setAutoCommit(false);
+        verify(primary, never()).getConnection();
+        connection.createStatement();
+        verify(physical).setAutoCommit(false);
+        verify(physical, never()).setReadOnly(true);
+        connection.close();
+        verify(physical).close();
+        verify(replica1, never()).getConnection();
+        verify(replica2, never()).getConnection();
+    }
+
+    @Test
+    public void testReadOnlyGoesToLeastBusyReplica() throws Exception {
+        connectionOf(replica1);
+        connectionOf(replica2);
+        RoutingDataSource routing = new RoutingDataSource("test", primary, replicas());
+
+        List<Connection> reads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Connection connection = routing.getConnection();
+            connection.setReadOnly(true);
+            assertTrue(connection.isReadOnly());
+            connection.createStatement();
+            reads.add(connection);
+        }
+        verify(replica1, times(2)).getConnection();
+        verify(replica2, times(2)).getConnection();
+
+        // replica2 has fewer outstanding connections once two of its connections are returned
+        reads.get(1).close();
+        reads.get(3).close();
+        for (int i = 0; i < 2; i++) {
+            Connection connection = routing.getConnection();
+            connection.setReadOnly(true);
+            connection.createStatement();
+        }
+        verify(replica1, times(2)).getConnection();
+        verify(replica2, times(4)).getConnection();
+        verify(primary, never()).getConnection();
+    }
+
+    @Test
+    public void testReadOnlyScope() throws Exception {
+        Connection physical = connectionOf(replica1);
+        Map<String, DataSource> replicas = new LinkedHashMap<>();
+        replicas.put("replica1", replica1);
+        RoutingDataSource routing = new RoutingDataSource("test", primary, replicas);
+
+        Connection connection;
+        try (ReadOnlyScope scope = ReadOnlyScope.open()) {
+            assertTrue(ReadOnlyScope.isActive());
+            connection = routing.getConnection();
+        }
+        assertFalse(ReadOnlyScope.isActive());
+        connection.prepareStatement("select 1");
+        verify(physical).setReadOnly(true);
+        verify(primary, never()).getConnection();
+    }
+
+    @Test
+    public void testLaggingReplicaFallsBackToPrimary() throws Exception {
+        Connection physical = connectionOf(primary);
+        Connection lagging = lagOf(replica1, 30d, new AtomicBoolean());
+        AtomicBoolean unknown = new AtomicBoolean();
+        Connection caughtUp = lagOf(replica2, 0.5d, unknown);
+        // the first lag check also runs in the background, the checks here make its outcome certain
+        RoutingDataSource routing = new RoutingDataSource("test", primary, replicas(), "select lag", 5d, 60000L,
+                60000L);
+
+        routing.checkLag();
+        read(routing);
+        read(routing);
+        verify(caughtUp, times(2)).setReadOnly(true);
+        verify(lagging, never()).setReadOnly(true);
+
+        // no replica left, reads go to the primary
+        unknown.set(true);
+        routing.checkLag();
+        read(routing);
+        verify(physical).setReadOnly(true);
+        routing.close();
+    }
+
+    @Test
+    public void testHangingLagCheckTakesReplicaOutOfRotation() throws Exception {
+        Connection physical = connectionOf(primary);
+        Map<String, DataSource> replicas = new LinkedHashMap<>();
+        replicas.put("replica1", replica1);
+        Connection caughtUp = lagOf(replica1, 0.5d, new AtomicBoolean());
+        RoutingDataSource routing = new RoutingDataSource("test", primary, replicas, "select lag", 5d, 60000L, 50L);
+        routing.checkLag();
+        read(routing);
+        verify(caughtUp).setReadOnly(true);
+
+        CountDownLatch borrowing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(replica1.getConnection()).thenAnswer(invocation -> {
+            borrowing.countDown();
+            release.await();
+            return caughtUp;
+        });
+        Thread check = new Thread(routing::checkLag);
+        check.start();
+        assertTrue(borrowing.await(5, TimeUnit.SECONDS));
+        Thread.sleep(100L);
+        read(routing);
+        verify(physical).setReadOnly(true);
+        release.countDown();
+        check.join();
+        routing.close();
+    }
+
+    @Test
+    public void testRetargetKeepsBorrowedConnections() throws Exception {
+        Connection old = connectionOf(primary);
+        DataSource replacement = mock(DataSource.class);
+        Connection physical = connectionOf(replacement);
+        RoutingDataSource routing = new RoutingDataSource("test", primary, replicas());
+        Connection borrowed = routing.getConnection();
+        borrowed.createStatement();
+
+        routing.retarget(replacement, Arrays.asList(replica1, replica2));
+        routing.getConnection().createStatement();
+        verify(physical).createStatement();
+        borrowed.close();
+        verify(old).close();
+        verify(primary, times(1)).getConnection();
+    }
+
+    @Test
+    public void testClosedUnusedConnectionBorrowsNothing() throws Exception {
+        RoutingDataSource routing = new RoutingDataSource("test", primary, replicas());
+        Connection connection = routing.getConnection();
+        connection.close();
+        assertTrue(connection.isClosed());
+        try {
+            connection.createStatement();
+            fail("The connection is closed");
+        } catch (SQLException e) {
+            assertEquals("Connection is closed", e.getMessage());
+        }
+        verify(primary, never()).getConnection();
+    }
+
+    @Test
+    public void testStatementReturnsRoutedConnection() throws Exception {
+        Connection physical1 = connectionOf(replica1);
+        Connection physical2 = connectionOf(replica2);
+        escapeOf(physical1);
+        escapeOf(physical2);
+        RoutingDataSource routing = new RoutingDataSource("test", primary, replicas());
+
+        List<Statement> statements = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            Connection connection = routing.getConnection();
+            connection.setReadOnly(true);
+            Statement statement = connection.createStatement();
+            assertSame(connection, statement.getConnection());
+            assertSame(connection, connection.unwrap(Connection.class));
+            statements.add(statement);
+        }
+        // returned through the routed connection, replica2 is the least busy one again
+        statements.get(1).getConnection().close();
+        verify(physical2).close();
+        Connection connection = routing.getConnection();
+        connection.setReadOnly(true);
+        connection.createStatement();
+        verify(replica1, times(1)).getConnection();
+        verify(replica2, times(2)).getConnection();
+    }
+
+    @Test
+    public void testToStringBorrowsNothing() throws Exception {
+        RoutingDataSource routing = new RoutingDataSource("test", primary, replicas());
+        Connection connection = routing.getConnection();
+        assertEquals("Unbound connection of DataSource test", connection.toString());
+        verify(primary, never()).getConnection();
+    }
+
+    private static void escapeOf(Connection connection) throws SQLException {
+        Statement statement = mock(Statement.class);
+        when(connection.createStatement()).thenReturn(statement);
+        when(statement.getConnection()).thenReturn(connection);
+    }
+
+    private static void read(DataSource routing) throws SQLException {
+        Connection connection = routing.getConnection();
+        connection.setReadOnly(true);
+        connection.createStatement();
+        connection.close();
+    }
+
+    private Map<String, DataSource> replicas() {
+        Map<String, DataSource> replicas = new LinkedHashMap<>();
+        replicas.put("replica1", replica1);
+        replicas.put("replica2", replica2);
+        return replicas;
+    }
+
+    private static Connection connectionOf(DataSource ds) throws SQLException {
+        Connection connection = mock(Connection.class);
+        when(ds.getConnection()).thenReturn(connection);
+        return connection;
+    }
+
+    private static Connection lagOf(DataSource ds, double lag, AtomicBoolean unknown) throws SQLException {
+        Connection connection = connectionOf(ds);
+        Statement statement = mock(Statement.class);
+        ResultSet result = mock(ResultSet.class);
+        when(connection.createStatement()).thenReturn(statement);
+        when(statement.executeQuery(anyString())).thenReturn(result);
+        when(result.next()).thenReturn(true);
+        when(result.getDouble(1)).thenReturn(lag);
+        when(result.wasNull()).thenAnswer(invocation -> unknown.get());
+        return connection;
+    }
+
+}
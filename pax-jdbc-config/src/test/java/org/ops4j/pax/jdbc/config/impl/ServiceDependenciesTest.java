@@ -0,0 +1,214 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.config.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.ops4j.pax.jdbc.hook.PreHook;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.Filter;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.jdbc.DataSourceFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+public class ServiceDependenciesTest {
+
+    private static final int PIDS = 50;
+    private static final int DRIVERS = 5;
+    private static final int EVENTS = 10;
+
+    private final List<ServiceReference<?>> registry = new CopyOnWriteArrayList<>();
+    private final LongAdder matches = new LongAdder();
+    private final AtomicInteger created = new AtomicInteger();
+    private final AtomicInteger destroyed = new AtomicInteger();
+    private final Object[] bound = new Object[PIDS];
+    private BundleContext context;
+    private ServiceDependencies serviceDependencies;
+    private long serviceId;
+
+    @Before
+    public void setup() throws Exception {
+        context = mock(BundleContext.class);
+        when(context.createFilter(anyString())).thenAnswer(invocation ->
+                countingFilter(invocation.getArgument(0, String.class)));
+        when(context.getServiceReferences(eq((String) null), anyString())).thenAnswer(invocation -> {
+            Filter filter = FrameworkUtil.createFilter(invocation.getArgument(1, String.class));
+            List<ServiceReference<?>> found = new ArrayList<>();
+            for (ServiceReference<?> reference : registry) {
+                if (filter.match(reference)) {
+                    found.add(reference);
+                }
+            }
+            return found.isEmpty() ? null : found.toArray(new ServiceReference[0]);
+        });
+        when(context.getService(any(ServiceReference.class))).thenAnswer(invocation ->
+                invocation.getArgument(0, ServiceReference.class).getProperty("test.service"));
+        serviceDependencies = DataSourceConfigManager.createServiceDependencies(context);
+    }
+
+    @Test
+    public void testOneListenerForAllPids() throws Exception {
+        registerDrivers();
+        registerHooks();
+        List<ServiceDependencies.Dependencies> all = openAll();
+
+        verify(context).addServiceListener(any(ServiceListener.class), eq(serviceDependencies.getListenerFilter()));
+        for (ServiceDependencies.Dependencies dependencies : all) {
+            dependencies.close();
+        }
+        verify(context).removeServiceListener(any(ServiceListener.class));
+        verify(context, times(2 * PIDS)).ungetService(any(ServiceReference.class));
+    }
+
+    @Test
+    public void testOnlyAffectedPidsAreRebuilt() throws Exception {
+        List<ServiceReference<?>> drivers = registerDrivers();
+        List<ServiceReference<?>> hooks = registerHooks();
+        openAll();
+        assertEquals(PIDS, created.get());
+
+        // one pid uses the hook
+        unregister(hooks.get(7));
+        assertEquals(1, destroyed.get());
+        register(PreHook.class, PreHook.CONFIG_KEY_NAME, "hook7");
+        assertEquals(PIDS + 1, created.get());
+
+        // every fifth pid uses the driver
+        unregister(drivers.get(0));
+        assertEquals(1 + PIDS / DRIVERS, destroyed.get());
+        register(DataSourceFactory.class, DataSourceFactory.OSGI_JDBC_DRIVER_CLASS, "driver0");
+        assertEquals(PIDS + 1 + PIDS / DRIVERS, created.get());
+
+        // a second matching service is not used while the first one is available
+        ServiceReference<?> second = register(DataSourceFactory.class, DataSourceFactory.OSGI_JDBC_DRIVER_CLASS, "driver1");
+        assertEquals(PIDS + 1 + PIDS / DRIVERS, created.get());
+        unregister(drivers.get(1));
+        assertEquals(1 + 2 * PIDS / DRIVERS, destroyed.get());
+        assertEquals(PIDS + 1 + 2 * PIDS / DRIVERS, created.get());
+        assertSame(second.getProperty("test.service"), bound[1]);
+    }
+
+    @Test
+    public void testUnrelatedEventsEvaluateEachFilterOnce() throws Exception {
+        registerDrivers();
+        registerHooks();
+        openAll();
+        ServiceReference<?> unrelated = reference(DataSourceFactory.class, DataSourceFactory.OSGI_JDBC_DRIVER_CLASS,
+                "other");
+        matches.reset();
+
+        for (int i = 0; i < EVENTS; i++) {
+            serviceDependencies.serviceChanged(new ServiceEvent(ServiceEvent.REGISTERED, unrelated));
+            serviceDependencies.serviceChanged(new ServiceEvent(ServiceEvent.UNREGISTERING, unrelated));
+        }
+
+        // only registrations are matched, against each distinct driver filter and not once per pid
+        assertEquals((long) EVENTS * DRIVERS, matches.sum());
+        assertEquals(PIDS, created.get());
+        assertEquals(0, destroyed.get());
+    }
+
+    private List<ServiceDependencies.Dependencies> openAll() {
+        List<ServiceDependencies.Dependencies> all = new ArrayList<>();
+        for (int i = 0; i < PIDS; i++) {
+            int pid = i;
+            all.add(serviceDependencies.dependencies(services -> {
+                bound[pid] = services.get(DataSourceFactory.class);
+                created.incrementAndGet();
+            }, destroyed::incrementAndGet)
+                    .require(DataSourceFactory.class, "(&(objectClass=" + DataSourceFactory.class.getName() + ")("
+                            + DataSourceFactory.OSGI_JDBC_DRIVER_CLASS + "=driver" + (pid % DRIVERS) + "))")
+                    .require(PreHook.class, "(&(objectClass=" + PreHook.class.getName() + ")("
+                            + PreHook.CONFIG_KEY_NAME + "=hook" + pid + "))")
+                    .open());
+        }
+        return all;
+    }
+
+    private List<ServiceReference<?>> registerDrivers() {
+        List<ServiceReference<?>> drivers = new ArrayList<>();
+        for (int i = 0; i < DRIVERS; i++) {
+            drivers.add(register(DataSourceFactory.class, DataSourceFactory.OSGI_JDBC_DRIVER_CLASS, "driver" + i));
+        }
+        return drivers;
+    }
+
+    private List<ServiceReference<?>> registerHooks() {
+        List<ServiceReference<?>> hooks = new ArrayList<>();
+        for (int i = 0; i < PIDS; i++) {
+            hooks.add(register(PreHook.class, PreHook.CONFIG_KEY_NAME, "hook" + i));
+        }
+        return hooks;
+    }
+
+    private ServiceReference<?> register(Class<?> clazz, String key, String value) {
+        ServiceReference<?> reference = reference(clazz, key, value);
+        registry.add(reference);
+        serviceDependencies.serviceChanged(new ServiceEvent(ServiceEvent.REGISTERED, reference));
+        return reference;
+    }
+
+    private void unregister(ServiceReference<?> reference) {
+        serviceDependencies.serviceChanged(new ServiceEvent(ServiceEvent.UNREGISTERING, reference));
+        registry.remove(reference);
+    }
+
+    private ServiceReference<?> reference(Class<?> clazz, String key, String value) {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(Constants.OBJECTCLASS, new String[] { clazz.getName() });
+        properties.put(Constants.SERVICE_ID, ++serviceId);
+        properties.put(key, value);
+        properties.put("test.service", mock(clazz));
+        ServiceReference<?> reference = mock(ServiceReference.class, withSettings().stubOnly());
+        when(reference.getProperty(anyString())).thenAnswer(invocation ->
+                properties.get(invocation.getArgument(0, String.class)));
+        when(reference.getPropertyKeys()).thenReturn(properties.keySet().toArray(new String[0]));
+        return reference;
+    }
+
+    private Filter countingFilter(String filterString) throws Exception {
+        Filter filter = FrameworkUtil.createFilter(filterString);
+        Filter counting = mock(Filter.class, withSettings().stubOnly());
+        when(counting.match(any(ServiceReference.class))).thenAnswer(invocation -> {
+            matches.increment();
+            return filter.match(invocation.getArgument(0, ServiceReference.class));
+        });
+        return counting;
+    }
+
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.config.impl;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.Properties;
+
+import javax.sql.DataSource;
+
+import org.junit.Test;
+import org.ops4j.pax.jdbc.pool.common.PoolMetrics;
+import org.ops4j.pax.jdbc.pool.common.PooledDataSourceFactory;
+import org.osgi.service.jdbc.DataSourceFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+public class SharedPoolsTest {
+
+    private final SharedPools sharedPools = new SharedPools();
+    private final PooledDataSourceFactory pdsf = mock(PooledDataSourceFactory.class);
+    private final DataSourceFactory dsf = mock(DataSourceFactory.class);
+
+    @Test
+    public void testPoolSharedByName() throws Exception {
+        DataSource pool = pool();
+        when(pdsf.create(eq(dsf), any(Properties.class))).thenReturn(pool);
+
+        DataSource orders = sharedPools.wrapper(pdsf, dsf, null, config("orders")).createDataSource(props("sa"));
+        DataSource billing = sharedPools.wrapper(pdsf, dsf, null, config("billing")).createDataSource(props("sa"));
+        verify(pdsf, times(1)).create(eq(dsf), any(Properties.class));
+        assertEquals(1, sharedPools.size());
+
+        Connection connection = orders.getConnection();
+        assertEquals(1, ((PoolMetrics) orders).getActive());
+        assertEquals(0, ((PoolMetrics) billing).getActive());
+        connection.close();
+        connection.close();
+        assertEquals(0, ((PoolMetrics) orders).getActive());
+        assertEquals(1, ((PoolMetrics) orders).getUsageTime().getCount());
+
+        ((AutoCloseable) orders).close();
+        verify((AutoCloseable) pool, never()).close();
+        ((AutoCloseable) billing).close();
+        verify((AutoCloseable) pool).close();
+        assertEquals(0, sharedPools.size());
+    }
+
+    @Test
+    public void testOtherPropertiesGetOwnPool() throws Exception {
+        when(pdsf.create(eq(dsf), any(Properties.class))).thenAnswer(invocation -> pool());
+
+        DataSource first = sharedPools.wrapper(pdsf, dsf, null, config("first")).createDataSource(props("sa"));
+        DataSource second = sharedPools.wrapper(pdsf, dsf, null, config("second")).createDataSource(props("other"));
+        verify(pdsf, times(2)).create(eq(dsf), any(Properties.class));
+        assertEquals(2, sharedPools.size());
+        assertNotEquals(SharedPools.fingerprint(props("sa")), SharedPools.fingerprint(props("other")));
+        ((AutoCloseable) first).close();
+        ((AutoCloseable) second).close();
+    }
+
+    @Test
+    public void testQuota() throws Exception {
+        DataSource pool = pool();
+        when(pdsf.create(eq(dsf), any(Properties.class))).thenReturn(pool);
+        Dictionary<String, Object> config = config("reports");
+        config.put(SharedPools.MAX_CONNECTIONS, "1");
+        config.put(SharedPools.QUOTA_WAIT, "10");
+        DataSource reports = sharedPools.wrapper(pdsf, dsf, null, config).createDataSource(props("sa"));
+        DataSource orders = sharedPools.wrapper(pdsf, dsf, null, config("orders")).createDataSource(props("sa"));
+
+        Connection connection = reports.getConnection();
+        try {
+            reports.getConnection();
+            fail("The quota of reports is used up");
+        } catch (SQLTransientConnectionException e) {
+            assertTrue(e.getMessage().contains("reports"));
+        }
+        // the other DataSource is not limited by it
+        orders.getConnection().close();
+        connection.close();
+        reports.getConnection().close();
+        ((AutoCloseable) reports).close();
+        ((AutoCloseable) orders).close();
+    }
+
+    @Test
+    public void testChildObjectsReturnBorrowedConnection() throws Exception {
+        Connection raw = mock(Connection.class);
+        Statement statement = mock(Statement.class);
+        PreparedStatement prepared = mock(PreparedStatement.class);
+        DatabaseMetaData metaData = mock(DatabaseMetaData.class);
+        ResultSet resultSet = mock(ResultSet.class);
+        when(raw.createStatement()).thenReturn(statement);
+        when(raw.prepareStatement("select 1")).thenReturn(prepared);
+        when(raw.getMetaData()).thenReturn(metaData);
+        when(statement.getConnection()).thenReturn(raw);
+        when(statement.executeQuery("select 1")).thenReturn(resultSet);
+        when(resultSet.getStatement()).thenReturn(statement);
+        when(metaData.getConnection()).thenReturn(raw);
+        DataSource pool = mock(DataSource.class, withSettings().extraInterfaces(AutoCloseable.class));
+        when(pool.getConnection()).thenReturn(raw);
+        when(pdsf.create(eq(dsf), any(Properties.class))).thenReturn(pool);
+        Dictionary<String, Object> config = config("reports");
+        config.put(SharedPools.MAX_CONNECTIONS, "1");
+        config.put(SharedPools.QUOTA_WAIT, "10");
+        DataSource reports = sharedPools.wrapper(pdsf, dsf, null, config).createDataSource(props("sa"));
+
+        Connection connection = reports.getConnection();
+        Statement wrapped = connection.createStatement();
+        assertSame(connection, wrapped.getConnection());
+        assertSame(wrapped, wrapped.executeQuery("select 1").getStatement());
+        assertSame(connection, connection.prepareStatement("select 1").getConnection());
+        assertSame(connection, connection.getMetaData().getConnection());
+        assertSame(connection, connection.unwrap(Connection.class));
+        assertTrue(connection.isWrapperFor(Connection.class));
+
+        wrapped.getConnection().close();
+        connection.getMetaData().getConnection().close();
+        connection.unwrap(Connection.class).close();
+        assertEquals(0, ((PoolMetrics) reports).getActive());
+        assertEquals(1, ((PoolMetrics) reports).getUsageTime().getCount());
+        reports.getConnection().close();
+        ((AutoCloseable) reports).close();
+    }
+
+    @Test
+    public void testDrainOnlyAffectsFacade() throws Exception {
+        DataSource pool = pool();
+        when(pdsf.create(eq(dsf), any(Properties.class))).thenReturn(pool);
+        PoolingWrapper wrapper = sharedPools.wrapper(pdsf, dsf, null, config("orders"));
+        DataSource orders = wrapper.createDataSource(props("sa"));
+        DataSource billing = sharedPools.wrapper(pdsf, dsf, null, config("billing")).createDataSource(props("sa"));
+
+        assertSame(orders, wrapper.getMetrics(orders));
+        assertTrue(wrapper.drain(orders));
+        try {
+            orders.getConnection();
+            fail("The DataSource is draining");
+        } catch (SQLException e) {
+            assertTrue(e.getMessage().contains("orders"));
+        }
+        billing.getConnection().close();
+        verify(pdsf, never()).drain(any(DataSource.class));
+        ((AutoCloseable) orders).close();
+        ((AutoCloseable) billing).close();
+    }
+
+    private DataSource pool() throws SQLException {
+        DataSource pool = mock(DataSource.class, withSettings().extraInterfaces(AutoCloseable.class));
+        when(pool.getConnection()).thenAnswer(invocation -> mock(Connection.class));
+        return pool;
+    }
+
+    private static Dictionary<String, Object> config(String name) {
+        Dictionary<String, Object> config = new Hashtable<>();
+        config.put(DataSourceFactory.JDBC_DATASOURCE_NAME, name);
+        config.put(SharedPools.SHARED_POOL, "true");
+        return config;
+    }
+
+    private static Properties props(String user) {
+        Properties props = new Properties();
+        props.put(DataSourceFactory.JDBC_URL, "jdbc:h2:mem:shared");
+        props.put(DataSourceFactory.JDBC_USER, user);
+        props.put("pool.maxTotal", 8);
+        return props;
+    }
+
+}
@@ -29,13 +29,19 @@ import org.apache.derby.jdbc.EmbeddedDriver;
 import org.apache.derby.jdbc.EmbeddedXADataSource;
 import org.apache.derby.jdbc.ReferenceableDataSource;
 import org.ops4j.pax.jdbc.common.BeanConfig;
+import org.ops4j.pax.jdbc.common.GenerateConfigurators;
 import org.ops4j.pax.jdbc.derby.constants.ConnectionConstant;
 import org.osgi.service.jdbc.DataSourceFactory;
 
+@GenerateConfigurators({ EmbeddedDataSource.class, EmbeddedConnectionPoolDataSource.class, EmbeddedXADataSource.class })
 public class DerbyDataSourceFactory implements DataSourceFactory {
 
     private static final String DERBY_PREFIX = "jdbc:derby:";
 
+    static {
+        DerbyDataSourceFactoryConfigurators.register();
+    }
+
     @Override
     public DataSource createDataSource(Properties props) throws SQLException {
         EmbeddedDataSource ds = new EmbeddedDataSource();
@@ -29,13 +29,19 @@ import org.apache.derby.jdbc.ClientDataSource;
 import org.apache.derby.jdbc.ClientDriver;
 import org.apache.derby.jdbc.ClientXADataSource;
 import org.ops4j.pax.jdbc.common.BeanConfig;
+import org.ops4j.pax.jdbc.common.GenerateConfigurators;
 import org.ops4j.pax.jdbc.derbyclient.constants.ClientConnectionConstant;
 import org.osgi.service.jdbc.DataSourceFactory;
 
+@GenerateConfigurators({ ClientDataSource.class, ClientConnectionPoolDataSource.class, ClientXADataSource.class })
 public class DerbyClientDatasourceFactory implements DataSourceFactory {
 
     private static final String DERBY_PREFIX = "jdbc:derby:";
 
+    static {
+        DerbyClientDatasourceFactoryConfigurators.register();
+    }
+
     @Override
     public DataSource createDataSource(Properties props) throws SQLException {
         ClientDataSource ds = new ClientDataSource();
@@ -29,10 +29,16 @@ import org.hsqldb.jdbc.JDBCDriver;
 import org.hsqldb.jdbc.pool.JDBCPooledDataSource;
 import org.hsqldb.jdbc.pool.JDBCXADataSource;
 import org.ops4j.pax.jdbc.common.BeanConfig;
+import org.ops4j.pax.jdbc.common.GenerateConfigurators;
 import org.osgi.service.jdbc.DataSourceFactory;
 
+@GenerateConfigurators({ JDBCDataSource.class, JDBCPooledDataSource.class, JDBCXADataSource.class })
 public class HsqldbDataSourceFactory implements DataSourceFactory {
 
+    static {
+        HsqldbDataSourceFactoryConfigurators.register();
+    }
+
     @Override
     public DataSource createDataSource(Properties props) throws SQLException {
         JDBCDataSource ds = new JDBCDataSource();
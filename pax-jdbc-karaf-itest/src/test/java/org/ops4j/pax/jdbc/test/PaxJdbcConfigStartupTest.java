@@ -0,0 +1,88 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.ops4j.pax.exam.karaf.options.KarafDistributionOption.editConfigurationFilePut;
+import static org.ops4j.pax.exam.karaf.options.KarafDistributionOption.features;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.sql.DataSource;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.ops4j.pax.exam.Configuration;
+import org.ops4j.pax.exam.Option;
+import org.ops4j.pax.exam.junit.PaxExam;
+import org.ops4j.pax.exam.spi.reactors.ExamReactorStrategy;
+import org.ops4j.pax.exam.spi.reactors.PerClass;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.InvalidSyntaxException;
+
+/**
+ * Measures how long it takes until the DataSources of many configurations are registered.
+ */
+@RunWith(PaxExam.class)
+@ExamReactorStrategy(PerClass.class)
+public class PaxJdbcConfigStartupTest extends AbstractJdbcTest {
+
+    private static final int DATASOURCES = 150;
+    private static final long TIMEOUT_MILLIS = 120000L;
+
+    @Inject
+    BundleContext context;
+
+    @Configuration
+    public Option[] config() {
+        List<Option> options = new ArrayList<>();
+        options.add(karafDefaults());
+        options.add(features(paxJdbcRepo(), "pax-jdbc-h2", "pax-jdbc-config", "pax-jdbc-pool-dbcp2"));
+        for (int i = 0; i < DATASOURCES; i++) {
+            String file = "etc/org.ops4j.datasource-startup" + i + ".cfg";
+            options.add(editConfigurationFilePut(file, "osgi.jndi.service.name", "startup" + i));
+            options.add(editConfigurationFilePut(file, "osgi.jdbc.driver.class", "org.h2.Driver"));
+            options.add(editConfigurationFilePut(file, "pool", "dbcp2"));
+            options.add(editConfigurationFilePut(file, "url", "jdbc:h2:mem:startup" + i));
+            // prefill opens the minIdle connections of every pool while it is created
+            options.add(editConfigurationFilePut(file, "pooling.minIdle", "2"));
+            options.add(editConfigurationFilePut(file, "pooling.prefill", "true"));
+        }
+        return options.toArray(new Option[0]);
+    }
+
+    @Test
+    public void testTimeToAllRegistered() throws Exception {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        int registered = countManagedDataSources();
+        while (registered < DATASOURCES && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100L);
+            registered = countManagedDataSources();
+        }
+        long sinceStart = System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+        LOG.info("{} of {} DataSources registered {} ms after the container started", registered, DATASOURCES,
+                sinceStart);
+        assertEquals(DATASOURCES, registered);
+    }
+
+    private int countManagedDataSources() throws InvalidSyntaxException {
+        return context.getServiceReferences(DataSource.class, "(pax.jdbc.managed=true)").size();
+    }
+
+}
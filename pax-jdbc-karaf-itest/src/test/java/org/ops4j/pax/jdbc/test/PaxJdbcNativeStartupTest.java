@@ -0,0 +1,89 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.test;
+
+import static org.junit.Assert.assertNotNull;
+import static org.ops4j.pax.exam.karaf.options.KarafDistributionOption.features;
+
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+
+import org.apache.karaf.features.FeaturesService;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.ops4j.pax.exam.Configuration;
+import org.ops4j.pax.exam.Option;
+import org.ops4j.pax.exam.junit.PaxExam;
+import org.ops4j.pax.exam.spi.reactors.ExamReactorStrategy;
+import org.ops4j.pax.exam.spi.reactors.PerClass;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.jdbc.DataSourceFactory;
+import org.osgi.util.tracker.ServiceTracker;
+
+/**
+ * Measures how long the generic driver extender needs to register native {@link DataSourceFactory} services
+ * for driver bundles that are already active. Drivers are loaded only when a factory is first used.
+ */
+@RunWith(PaxExam.class)
+@ExamReactorStrategy(PerClass.class)
+public class PaxJdbcNativeStartupTest extends AbstractJdbcTest {
+
+    private static final String NATIVE_DSF_FILTER = "(&(objectClass=" + DataSourceFactory.class.getName()
+            + ")(" + DataSourceFactory.OSGI_JDBC_DRIVER_NAME + "=*-native))";
+
+    @Inject
+    BundleContext bundleContext;
+
+    @Configuration
+    public Option[] config() {
+        return new Option[] {
+            karafDefaults(),
+            features(paxJdbcRepo(), "pax-jdbc-h2", "pax-jdbc-derby", "pax-jdbc-hsqldb", "pax-jdbc-sqlite")
+        };
+    }
+
+    @Test
+    public void testNativeDataSourceFactoryRegistrationTime() throws Exception {
+        ServiceTracker<DataSourceFactory, DataSourceFactory> tracker
+                = new ServiceTracker<>(bundleContext, bundleContext.createFilter(NATIVE_DSF_FILTER), null);
+        tracker.open();
+        try {
+            long start = System.nanoTime();
+            featuresService.installFeature("pax-jdbc", EnumSet.of(FeaturesService.Option.NoAutoRefreshBundles));
+            ServiceReference<DataSourceFactory> ref = null;
+            while (ref == null && System.nanoTime() - start < TimeUnit.SECONDS.toNanos(30)) {
+                tracker.waitForService(100);
+                ref = tracker.getServiceReference();
+            }
+            long registered = System.nanoTime();
+            assertNotNull("No native DataSourceFactory registered", ref);
+            LOG.info("Native DataSourceFactory services registered after {} ms",
+                    TimeUnit.NANOSECONDS.toMillis(registered - start));
+
+            // first use loads the driver
+            assertNotNull(tracker.getService(ref));
+            LOG.info("First native DataSourceFactory ({}) obtained after another {} ms",
+                    ref.getProperty(DataSourceFactory.OSGI_JDBC_DRIVER_CLASS),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - registered));
+        } finally {
+            tracker.close();
+        }
+    }
+
+}
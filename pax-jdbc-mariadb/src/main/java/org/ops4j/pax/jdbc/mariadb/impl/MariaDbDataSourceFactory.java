@@ -25,10 +25,16 @@ import javax.sql.XADataSource;
 
 import org.mariadb.jdbc.MariaDbDataSource;
 import org.ops4j.pax.jdbc.common.BeanConfig;
+import org.ops4j.pax.jdbc.common.GenerateConfigurators;
 import org.osgi.service.jdbc.DataSourceFactory;
 
+@GenerateConfigurators(MariaDbDataSource.class)
 public class MariaDbDataSourceFactory implements DataSourceFactory {
 
+    static {
+        MariaDbDataSourceFactoryConfigurators.register();
+    }
+
     @Override
     public DataSource createDataSource(Properties props) throws SQLException {
         MariaDbDataSource ds = new MariaDbDataSource();
@@ -24,14 +24,20 @@ import javax.sql.DataSource;
 import javax.sql.XADataSource;
 
 import org.ops4j.pax.jdbc.common.BeanConfig;
+import org.ops4j.pax.jdbc.common.GenerateConfigurators;
 import org.osgi.service.jdbc.DataSourceFactory;
 
 import com.mysql.cj.jdbc.MysqlConnectionPoolDataSource;
 import com.mysql.cj.jdbc.MysqlDataSource;
 import com.mysql.cj.jdbc.MysqlXADataSource;
 
+@GenerateConfigurators({ MysqlDataSource.class, MysqlConnectionPoolDataSource.class, MysqlXADataSource.class })
 public class MysqlDataSourceFactory implements DataSourceFactory {
 
+    static {
+        MysqlDataSourceFactoryConfigurators.register();
+    }
+
     @Override
     public DataSource createDataSource(Properties props) throws SQLException {
         MysqlDataSource ds = new MysqlDataSource();
@@ -27,10 +27,16 @@ import oracle.jdbc.pool.OracleConnectionPoolDataSource;
 import oracle.jdbc.pool.OracleDataSource;
 import oracle.jdbc.xa.client.OracleXADataSource;
 import org.ops4j.pax.jdbc.common.BeanConfig;
+import org.ops4j.pax.jdbc.common.GenerateConfigurators;
 import org.osgi.service.jdbc.DataSourceFactory;
 
+@GenerateConfigurators({ OracleDataSource.class, OracleConnectionPoolDataSource.class, OracleXADataSource.class })
 public class OracleDataSourceFactory implements DataSourceFactory {
 
+    static {
+        OracleDataSourceFactoryConfigurators.register();
+    }
+
     @Override
     public DataSource createDataSource(Properties props) throws SQLException {
         try {
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.pool.aries.impl;
+
+import org.apache.aries.transaction.jdbc.RecoverableDataSource;
+import org.ops4j.pax.jdbc.pool.common.LatencyHistogram;
+import org.ops4j.pax.jdbc.pool.common.PoolMetrics;
+
+/**
+ * {@link PoolMetrics} of a {@link RecoverableDataSource}, which only reports connection counts.
+ */
+public class AriesPoolMetrics implements PoolMetrics {
+
+    private final RecoverableDataSource ds;
+    private final LatencyHistogram acquireLatency = new LatencyHistogram();
+    private final LatencyHistogram usageTime = new LatencyHistogram();
+
+    public AriesPoolMetrics(RecoverableDataSource ds) {
+        this.ds = ds;
+    }
+
+    @Override
+    public long getActive() {
+        return Math.max(0, ds.getConnectionCount() - ds.getIdleConnectionCount());
+    }
+
+    @Override
+    public long getIdle() {
+        return ds.getIdleConnectionCount();
+    }
+
+    @Override
+    public long getPending() {
+        return UNKNOWN;
+    }
+
+    @Override
+    public long getTotalCreated() {
+        return UNKNOWN;
+    }
+
+    @Override
+    public long getTotalDestroyed() {
+        return UNKNOWN;
+    }
+
+    @Override
+    public LatencyHistogram getAcquireLatency() {
+        return acquireLatency;
+    }
+
+    @Override
+    public LatencyHistogram getUsageTime() {
+        return usageTime;
+    }
+
+}
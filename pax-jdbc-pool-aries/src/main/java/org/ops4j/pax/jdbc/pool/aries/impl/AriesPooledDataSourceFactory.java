@@ -16,16 +16,20 @@
 package org.ops4j.pax.jdbc.pool.aries.impl;
 
 import java.sql.SQLException;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.TimeUnit;
 
 import javax.sql.CommonDataSource;
 import javax.sql.DataSource;
 
 import org.apache.aries.transaction.jdbc.RecoverableDataSource;
 import org.ops4j.pax.jdbc.common.BeanConfig;
+import org.ops4j.pax.jdbc.common.GenerateConfigurators;
+import org.ops4j.pax.jdbc.pool.common.PoolConfigKeys;
+import org.ops4j.pax.jdbc.pool.common.PoolMetrics;
 import org.ops4j.pax.jdbc.pool.common.PooledDataSourceFactory;
+import org.ops4j.pax.jdbc.pool.common.impl.PoolKeyTranslator;
+import org.ops4j.pax.jdbc.pool.common.impl.PropertySplitter;
 import org.osgi.service.jdbc.DataSourceFactory;
 
 /**
@@ -35,18 +39,38 @@ import org.osgi.service.jdbc.DataSourceFactory;
  * XADataSource and handles the XA Resources. This kind of DataSource can then for example be used
  * in persistence.xml as jta-data-source
  */
+@GenerateConfigurators(RecoverableDataSource.class)
 public class AriesPooledDataSourceFactory implements PooledDataSourceFactory {
 
     protected static final String POOL_PREFIX = "pool.";
 
+    protected static final PropertySplitter SPLITTER = new PropertySplitter()
+        .group(POOL_PREFIX)
+        .group(PoolConfigKeys.PREFIX);
+
+    protected static final PoolKeyTranslator TRANSLATOR = new PoolKeyTranslator("aries")
+        .map(PoolConfigKeys.MIN_IDLE, POOL_PREFIX, "poolMinSize")
+        .map(PoolConfigKeys.MAX_SIZE, POOL_PREFIX, "poolMaxSize")
+        .map(PoolConfigKeys.ACQUIRE_TIMEOUT, POOL_PREFIX, "connectionMaxWaitMilliseconds")
+        .map(PoolConfigKeys.IDLE_TIMEOUT, POOL_PREFIX, "connectionMaxIdleMinutes",
+            PoolKeyTranslator.millisTo(TimeUnit.MINUTES))
+        .map(PoolConfigKeys.TEST_ON_BORROW, POOL_PREFIX, "validateOnMatch")
+        .fixed(PoolConfigKeys.PREFILL, "false");
+
+    static {
+        AriesPooledDataSourceFactoryConfigurators.register();
+    }
+
     public DataSource create(DataSourceFactory dsf, Properties props) throws SQLException {
         try {
-            CommonDataSource ds = dsf.createDataSource(getNonPoolProps(props));
+            PropertySplitter.Result split = SPLITTER.split(props);
+            TRANSLATOR.translate(split);
+            CommonDataSource ds = dsf.createDataSource(split.driver());
             RecoverableDataSource mds = new RecoverableDataSource();
             mds.setUsername(props.getProperty(DataSourceFactory.JDBC_USER));
             mds.setPassword(props.getProperty(DataSourceFactory.JDBC_PASSWORD));
             mds.setDataSource(ds);
-            BeanConfig.configure(mds, getPoolProps(props));
+            BeanConfig.configure(mds, split.group(POOL_PREFIX));
             mds.start();
             return mds;
         }
@@ -62,28 +86,10 @@ public class AriesPooledDataSourceFactory implements PooledDataSourceFactory {
             }
         }
     }
-    
-    protected Map<String, String> getPoolProps(Properties props) {
-        Map<String, String> poolProps = new HashMap<String, String>();
-        for (Object keyO : props.keySet()) {
-            String key = (String) keyO;
-            if (key.startsWith(POOL_PREFIX)) {
-                String strippedKey = key.substring(POOL_PREFIX.length());
-                poolProps.put(strippedKey, (String) props.get(key));
-            }
-        }
-        return poolProps;
-    }
 
-    protected Properties getNonPoolProps(Properties props) {
-        Properties dsProps = new Properties();
-        for (Object keyO : props.keySet()) {
-            String key = (String) keyO;
-            if (!key.startsWith(POOL_PREFIX)) {
-                dsProps.put(key, props.get(key));
-            }
-        }
-        return dsProps;
+    @Override
+    public PoolMetrics getMetrics(DataSource ds) {
+        return ds instanceof RecoverableDataSource ? new AriesPoolMetrics((RecoverableDataSource) ds) : null;
     }
 
 }
@@ -24,6 +24,7 @@ import javax.sql.XADataSource;
 import org.apache.aries.transaction.AriesTransactionManager;
 import org.apache.aries.transaction.jdbc.RecoverableDataSource;
 import org.ops4j.pax.jdbc.common.BeanConfig;
+import org.ops4j.pax.jdbc.pool.common.impl.PropertySplitter;
 import org.osgi.service.jdbc.DataSourceFactory;
 
 /**
@@ -50,13 +51,15 @@ public class AriesXaPooledDataSourceFactory extends AriesPooledDataSourceFactory
     @Override
     public DataSource create(DataSourceFactory dsf, Properties props) throws SQLException {
         try {
-            XADataSource ds = dsf.createXADataSource(getNonPoolProps(props));
+            PropertySplitter.Result split = SPLITTER.split(props);
+            TRANSLATOR.translate(split);
+            XADataSource ds = dsf.createXADataSource(split.driver());
             RecoverableDataSource mds = new RecoverableDataSource();
             mds.setUsername(props.getProperty(DataSourceFactory.JDBC_USER));
             mds.setPassword(props.getProperty(DataSourceFactory.JDBC_PASSWORD));
             mds.setDataSource(ds);
             mds.setTransactionManager(tm);
-            BeanConfig.configure(mds, getPoolProps(props));
+            BeanConfig.configure(mds, split.group(POOL_PREFIX));
             mds.start();
             return mds;
         }
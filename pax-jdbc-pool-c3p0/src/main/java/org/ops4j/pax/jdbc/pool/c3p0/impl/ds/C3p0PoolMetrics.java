@@ -0,0 +1,84 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.pool.c3p0.impl.ds;
+
+import java.sql.SQLException;
+
+import com.mchange.v2.c3p0.PooledDataSource;
+import org.ops4j.pax.jdbc.pool.common.LatencyHistogram;
+import org.ops4j.pax.jdbc.pool.common.PoolMetrics;
+
+/**
+ * {@link PoolMetrics} of a c3p0 {@link PooledDataSource}, which only reports connection counts.
+ */
+public class C3p0PoolMetrics implements PoolMetrics {
+
+    private final PooledDataSource ds;
+    private final LatencyHistogram acquireLatency = new LatencyHistogram();
+    private final LatencyHistogram usageTime = new LatencyHistogram();
+
+    public C3p0PoolMetrics(PooledDataSource ds) {
+        this.ds = ds;
+    }
+
+    @Override
+    public long getActive() {
+        try {
+            return ds.getNumBusyConnectionsDefaultUser();
+        } catch (SQLException e) {
+            return UNKNOWN;
+        }
+    }
+
+    @Override
+    public long getIdle() {
+        try {
+            return ds.getNumIdleConnectionsDefaultUser();
+        } catch (SQLException e) {
+            return UNKNOWN;
+        }
+    }
+
+    @Override
+    public long getPending() {
+        try {
+            return ds.getNumThreadsAwaitingCheckoutDefaultUser();
+        } catch (SQLException e) {
+            return UNKNOWN;
+        }
+    }
+
+    @Override
+    public long getTotalCreated() {
+        return UNKNOWN;
+    }
+
+    @Override
+    public long getTotalDestroyed() {
+        return UNKNOWN;
+    }
+
+    @Override
+    public LatencyHistogram getAcquireLatency() {
+        return acquireLatency;
+    }
+
+    @Override
+    public LatencyHistogram getUsageTime() {
+        return usageTime;
+    }
+
+}
@@ -15,14 +15,27 @@
  */
 package org.ops4j.pax.jdbc.pool.c3p0.impl.ds;
 
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
 import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import javax.sql.DataSource;
 
 import com.mchange.v2.c3p0.C3P0Registry;
 import com.mchange.v2.c3p0.DataSources;
+import com.mchange.v2.c3p0.PoolBackedDataSource;
 import com.mchange.v2.c3p0.PooledDataSource;
+import com.mchange.v2.c3p0.WrapperConnectionPoolDataSource;
+import org.ops4j.pax.jdbc.pool.common.PoolConfigKeys;
+import org.ops4j.pax.jdbc.pool.common.PoolMetrics;
 import org.ops4j.pax.jdbc.pool.common.PooledDataSourceFactory;
+import org.ops4j.pax.jdbc.pool.common.impl.PoolKeyTranslator;
+import org.ops4j.pax.jdbc.pool.common.impl.PropertySplitter;
 import org.osgi.service.jdbc.DataSourceFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -36,18 +49,40 @@ import org.slf4j.LoggerFactory;
 public class C3p0PooledDataSourceFactory implements PooledDataSourceFactory {
 
     protected static final String POOL_PREFIX = "c3p0.";
+    protected static final PropertySplitter SPLITTER = new PropertySplitter()
+        .group(POOL_PREFIX)
+        .group(PoolConfigKeys.PREFIX);
+    protected static final PoolKeyTranslator TRANSLATOR = new PoolKeyTranslator("c3p0")
+        .map(PoolConfigKeys.MIN_IDLE, POOL_PREFIX, "minPoolSize")
+        .map(PoolConfigKeys.MAX_SIZE, POOL_PREFIX, "maxPoolSize")
+        .map(PoolConfigKeys.ACQUIRE_TIMEOUT, POOL_PREFIX, "checkoutTimeout")
+        .map(PoolConfigKeys.IDLE_TIMEOUT, POOL_PREFIX, "maxIdleTime",
+            PoolKeyTranslator.millisTo(TimeUnit.SECONDS))
+        .map(PoolConfigKeys.MAX_LIFETIME, POOL_PREFIX, "maxConnectionAge",
+            PoolKeyTranslator.millisTo(TimeUnit.SECONDS))
+        .map(PoolConfigKeys.VALIDATION_QUERY, POOL_PREFIX, "preferredTestQuery")
+        .map(PoolConfigKeys.TEST_ON_BORROW, POOL_PREFIX, "testConnectionOnCheckout")
+        .rule(PoolConfigKeys.PREFILL, (value, target) -> {
+            if (Boolean.parseBoolean(value)) {
+                String minIdle = target.canonical(PoolConfigKeys.MIN_IDLE);
+                if (minIdle == null) {
+                    minIdle = target.get(POOL_PREFIX, "minPoolSize");
+                }
+                if (minIdle == null) {
+                    throw target.unsupported();
+                }
+                target.put(POOL_PREFIX, "initialPoolSize", minIdle);
+            }
+        })
+        .map(PoolConfigKeys.STATEMENT_CACHE_SIZE, POOL_PREFIX, "maxStatements");
+    /**
+     * Settings c3p0 also reads without the {@link #POOL_PREFIX}, like
+     * {@link DataSources#pooledDataSource(DataSource, Properties)} does.
+     */
+    protected static final Set<String> UNPREFIXED_KEYS =
+        settingsOf(WrapperConnectionPoolDataSource.class, PoolBackedDataSource.class);
     private static final Logger LOG = LoggerFactory.getLogger(C3p0PooledDataSourceFactory.class);
 
-    protected Properties getNonPoolProps(Properties props) {
-        Properties dsProps = new Properties();
-        for (Object keyO : props.keySet()) {
-            String key = (String) keyO;
-            if (!key.startsWith(POOL_PREFIX)) {
-                dsProps.put(key, props.get(key));
-            }
-        }
-        return dsProps;
-    }
 
     protected final void closeDataSource(Properties props) throws SQLException {
         final String dataSourceName = props.getProperty("c3p0.dataSourceName");
@@ -62,12 +97,59 @@ public class C3p0PooledDataSourceFactory implements PooledDataSourceFactory {
         }
     }
 
+    /**
+     * Splits the configuration and translates its canonical pooling.* keys. Unprefixed c3p0 settings are passed to
+     * the DataSourceFactory as before and also apply to the pool, unless the configuration has them with the
+     * {@link #POOL_PREFIX} too.
+     */
+    protected static PropertySplitter.Result split(Properties config) {
+        PropertySplitter.Result split = SPLITTER.split(config);
+        Map<String, String> pool = split.group(POOL_PREFIX);
+        split.driver().forEach((key, value) -> {
+            if (UNPREFIXED_KEYS.contains(key)) {
+                pool.putIfAbsent((String) key, String.valueOf(value));
+            }
+        });
+        TRANSLATOR.translate(split);
+        return split;
+    }
+
+    private static Set<String> settingsOf(Class<?>... types) {
+        Set<String> settings = new HashSet<>();
+        for (Class<?> type : types) {
+            try {
+                for (PropertyDescriptor property : Introspector.getBeanInfo(type).getPropertyDescriptors()) {
+                    Class<?> propertyType = property.getPropertyType();
+                    if (property.getWriteMethod() != null && propertyType != null
+                            && (propertyType.isPrimitive() || propertyType == String.class)) {
+                        settings.add(property.getName());
+                    }
+                }
+            } catch (IntrospectionException e) {
+                throw new IllegalStateException("Can't introspect " + type.getName(), e);
+            }
+        }
+        return settings;
+    }
+
+    /**
+     * Returns the c3p0 pool settings with the canonical pooling.* keys translated.
+     */
+    protected static Properties getPoolProps(PropertySplitter.Result split) {
+        Properties poolProps = new Properties();
+        for (Map.Entry<String, String> entry : split.group(POOL_PREFIX).entrySet()) {
+            poolProps.setProperty(POOL_PREFIX + entry.getKey(), entry.getValue());
+        }
+        return poolProps;
+    }
+
     @Override
     public DataSource create(DataSourceFactory dsf, Properties config) throws SQLException {
         try {
             closeDataSource(config);
-            final DataSource unpooledDataSource = dsf.createDataSource(getNonPoolProps(config));
-            return DataSources.pooledDataSource(unpooledDataSource, config);
+            PropertySplitter.Result split = split(config);
+            final DataSource unpooledDataSource = dsf.createDataSource(split.driver());
+            return DataSources.pooledDataSource(unpooledDataSource, getPoolProps(split));
         } catch (Throwable e) {
             LOG.error("Error creating pooled datasource" + e.getMessage(), e);
             if (e instanceof SQLException) {
@@ -80,4 +162,19 @@ public class C3p0PooledDataSourceFactory implements PooledDataSourceFactory {
         }
     }
 
+    /**
+     * Nothing is applied to a running pool, the DataSource is recreated. c3p0 resets the whole pool on any change of
+     * its {@link WrapperConnectionPoolDataSource}, dropping the idle connections, and fixes the default user of a pool
+     * manager, so rotated credentials could not be applied gradually either.
+     */
+    @Override
+    public boolean reconfigure(DataSource ds, Properties previous, Properties config) {
+        return false;
+    }
+
+    @Override
+    public PoolMetrics getMetrics(DataSource ds) {
+        return ds instanceof PooledDataSource ? new C3p0PoolMetrics((PooledDataSource) ds) : null;
+    }
+
 }
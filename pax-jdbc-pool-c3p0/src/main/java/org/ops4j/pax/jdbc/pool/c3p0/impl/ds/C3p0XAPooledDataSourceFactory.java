@@ -22,6 +22,7 @@ import javax.sql.XADataSource;
 import javax.transaction.TransactionManager;
 
 import com.mchange.v2.c3p0.DataSources;
+import org.ops4j.pax.jdbc.pool.common.impl.PropertySplitter;
 import org.osgi.service.jdbc.DataSourceFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -46,8 +47,9 @@ public class C3p0XAPooledDataSourceFactory extends C3p0PooledDataSourceFactory {
     public DataSource create(DataSourceFactory dsf, Properties config) throws SQLException {
         try {
             closeDataSource(config);
-            final XADataSource unpooledDataSource = dsf.createXADataSource(getNonPoolProps(config));
-            return DataSources.pooledDataSource((DataSource) unpooledDataSource, config);
+            PropertySplitter.Result split = split(config);
+            final XADataSource unpooledDataSource = dsf.createXADataSource(split.driver());
+            return DataSources.pooledDataSource((DataSource) unpooledDataSource, getPoolProps(split));
         } catch (Throwable e) {
             LOG.error("Error creating pooled datasource" + e.getMessage(), e);
             if (e instanceof SQLException) {
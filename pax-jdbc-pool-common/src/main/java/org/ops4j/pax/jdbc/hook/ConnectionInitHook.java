@@ -0,0 +1,76 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.hook;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Register implementations of this interface as an OSGi service to initialize every physical connection a pooled
+ * DataSource of pax-jdbc-config opens, e.g. to set session parameters or prepare frequently used statements.
+ *
+ * The ConnectionInitHook service must be named using a service property "name".
+ * In the DataSource config the hook to be called must be configured using the property
+ * ops4j.connectionInitHook=myname using the name of the registered ConnectionInitHook service.
+ */
+public interface ConnectionInitHook {
+
+    /**
+     * Service property key to name a ConnectionInitHook service
+     */
+    String KEY_NAME = "name";
+
+    /**
+     * Config key to refer to a ConnectionInitHook service
+     */
+    String CONFIG_KEY_NAME = "ops4j.connectionInitHook";
+
+    /**
+     * Will be called once for each physical connection before the pool hands it out
+     *
+     * @param connection new physical connection
+     * @throws SQLException in case of exception the connection is closed and not used
+     */
+    void initialize(Connection connection) throws SQLException;
+
+    /**
+     * Creates a hook executing SQL statements in a single batch, so they take one round trip. Drivers without batch
+     * support execute them one after the other.
+     *
+     * @param statements statements without results, e.g. {@code SET} or {@code ALTER SESSION}
+     */
+    static ConnectionInitHook statements(String... statements) {
+        List<String> sql = Arrays.asList(statements.clone());
+        return connection -> {
+            try (Statement statement = connection.createStatement()) {
+                if (connection.getMetaData().supportsBatchUpdates()) {
+                    for (String s : sql) {
+                        statement.addBatch(s);
+                    }
+                    statement.executeBatch();
+                } else {
+                    for (String s : sql) {
+                        statement.execute(s);
+                    }
+                }
+            }
+        };
+    }
+
+}
@@ -26,7 +26,9 @@ import javax.sql.DataSource;
  * 
  * The PreHook service must be named using a service property "name". 
  * In the DataSource config the hook to be called must be configured using the property preHook=myname using the name
- * of the registered PerHook service.
+ * of the registered PerHook service. Several hooks are configured as comma separated list of names, they run
+ * concurrently. With pax.jdbc.preHook.async=true they run in the background and the DataSource is published once
+ * all of them finished, pax.jdbc.preHook.timeout limits the milliseconds they may take.
  */
 public interface PreHook {
 
@@ -36,7 +38,7 @@ public interface PreHook {
     String KEY_NAME = "name";
     
     /**
-     * Config key to refer to a PreHook service
+     * Config key to refer to PreHook services, a comma separated list of their names
      */
     String CONFIG_KEY_NAME = "ops4j.preHook";
     
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.pool.common;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrent histogram of durations with power-of-two microsecond buckets. Bucket {@code 0} counts durations
+ * below one microsecond, bucket {@code i} counts durations below {@code 2^i} microseconds and the last bucket
+ * counts everything longer.
+ */
+public final class LatencyHistogram {
+
+    public static final int BUCKETS = 32;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records a duration in nanoseconds, negative durations count as zero.
+     */
+    public void record(long nanos) {
+        long value = Math.max(nanos, 0L);
+        long micros = value / 1000L;
+        int bucket = Math.min(64 - Long.numberOfLeadingZeros(micros), BUCKETS - 1);
+        buckets[bucket].increment();
+        count.increment();
+        total.add(value);
+        max.accumulate(value);
+    }
+
+    public void record(long duration, TimeUnit unit) {
+        record(unit.toNanos(duration));
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getTotalNanos() {
+        return total.sum();
+    }
+
+    public long getMaxNanos() {
+        return max.get();
+    }
+
+    /**
+     * @return number of durations recorded in given bucket
+     */
+    public long getCount(int bucket) {
+        return buckets[bucket].sum();
+    }
+
+    /**
+     * @return exclusive upper bound of given bucket or {@link Long#MAX_VALUE} for the last bucket
+     */
+    public static long getUpperBoundNanos(int bucket) {
+        if (bucket >= BUCKETS - 1) {
+            return Long.MAX_VALUE;
+        }
+        return (1L << bucket) * 1000L;
+    }
+
+    /**
+     * Estimates a percentile by the upper bound of the bucket containing it, never exceeding the maximum.
+     *
+     * @param percentile percentile between 0 and 100
+     * @return estimated duration in nanoseconds, {@code 0} if nothing was recorded
+     */
+    public long getPercentileNanos(double percentile) {
+        if (percentile < 0.0 || percentile > 100.0) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100: " + percentile);
+        }
+        long[] counts = new long[BUCKETS];
+        long recorded = 0L;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+            recorded += counts[i];
+        }
+        if (recorded == 0L) {
+            return 0L;
+        }
+        long rank = Math.max(1L, (long) Math.ceil(recorded * percentile / 100.0));
+        long seen = 0L;
+        int bucket = 0;
+        while (bucket < BUCKETS - 1) {
+            seen += counts[bucket];
+            if (seen >= rank) {
+                break;
+            }
+            bucket++;
+        }
+        return Math.min(getUpperBoundNanos(bucket), getMaxNanos());
+    }
+
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.pool.common;
+
+/**
+ * Pool configuration keys understood by every {@link PooledDataSourceFactory}. Each factory translates them into
+ * the settings of its pool implementation, so the pool can be switched without rewriting the configuration.
+ * A factory that can't honour a key or value fails when the DataSource is created.
+ * <p>
+ * Keys are given with the {@link #PREFIX} prefix, e.g. {@code pooling.maxSize=10}. Durations are in milliseconds.
+ */
+public final class PoolConfigKeys {
+
+    /**
+     * Prefix of canonical pool configuration keys
+     */
+    public static final String PREFIX = "pooling.";
+
+    /**
+     * Minimum number of idle connections
+     */
+    public static final String MIN_IDLE = "minIdle";
+
+    /**
+     * Maximum number of connections
+     */
+    public static final String MAX_SIZE = "maxSize";
+
+    /**
+     * Maximum time to wait for a connection from the pool
+     */
+    public static final String ACQUIRE_TIMEOUT = "acquireTimeout";
+
+    /**
+     * Time after which an idle connection may be closed
+     */
+    public static final String IDLE_TIMEOUT = "idleTimeout";
+
+    /**
+     * Maximum lifetime of a connection
+     */
+    public static final String MAX_LIFETIME = "maxLifetime";
+
+    /**
+     * Query used to validate connections
+     */
+    public static final String VALIDATION_QUERY = "validationQuery";
+
+    /**
+     * Whether connections are validated before they are handed out
+     */
+    public static final String TEST_ON_BORROW = "testOnBorrow";
+
+    /**
+     * Whether {@link #MIN_IDLE} connections are created when the pool starts
+     */
+    public static final String PREFILL = "prefill";
+
+    /**
+     * Number of cached prepared statements per connection
+     */
+    public static final String STATEMENT_CACHE_SIZE = "statementCacheSize";
+
+    private PoolConfigKeys() {
+    }
+
+}
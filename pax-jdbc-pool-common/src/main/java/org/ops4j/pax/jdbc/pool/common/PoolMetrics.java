@@ -0,0 +1,72 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.pool.common;
+
+/**
+ * Runtime state of a pooled {@link javax.sql.DataSource}, independent of the pool implementation.
+ * pax-jdbc-config registers it as OSGi service with the properties of the {@link javax.sql.DataSource} service.
+ */
+public interface PoolMetrics {
+
+    /**
+     * Value of counters the pool implementation does not track.
+     */
+    long UNKNOWN = -1L;
+
+    /**
+     * @return connections currently borrowed from the pool
+     */
+    long getActive();
+
+    /**
+     * @return connections currently idle in the pool
+     */
+    long getIdle();
+
+    /**
+     * @return threads waiting for a connection
+     */
+    long getPending();
+
+    /**
+     * @return physical connections created since the pool was started
+     */
+    long getTotalCreated();
+
+    /**
+     * @return physical connections destroyed since the pool was started
+     */
+    long getTotalDestroyed();
+
+    /**
+     * @return time spent waiting for a connection, empty if the pool does not report it
+     */
+    LatencyHistogram getAcquireLatency();
+
+    /**
+     * @return time connections were borrowed for, empty if the pool does not report it
+     */
+    LatencyHistogram getUsageTime();
+
+    /**
+     * @return time the {@link org.ops4j.pax.jdbc.hook.ConnectionInitHook} took per physical connection, empty if
+     * none is configured
+     */
+    default LatencyHistogram getConnectionInitLatency() {
+        return new LatencyHistogram();
+    }
+
+}
@@ -48,4 +48,36 @@ public interface PooledDataSourceFactory {
      */
     DataSource create(DataSourceFactory dsf, Properties config) throws SQLException;
 
+    /**
+     * Returns runtime metrics of a {@link DataSource} created by this factory.
+     * @param ds {@link DataSource} returned from {@link #create(DataSourceFactory, Properties)}
+     * @return metrics of the pool or {@code null} if the pool does not expose them
+     */
+    default PoolMetrics getMetrics(DataSource ds) {
+        return null;
+    }
+
+    /**
+     * Applies a changed configuration to a running {@link DataSource} created by this factory. Implementations
+     * either apply all changes or none of them.
+     * @param ds {@link DataSource} returned from {@link #create(DataSourceFactory, Properties)}
+     * @param previous configuration the {@link DataSource} currently runs with
+     * @param config new configuration
+     * @return {@code true} if the changes were applied, {@code false} if the {@link DataSource} has to be recreated
+     * @throws SQLException
+     */
+    default boolean reconfigure(DataSource ds, Properties previous, Properties config) throws SQLException {
+        return false;
+    }
+
+    /**
+     * Makes a {@link DataSource} created by this factory fail new borrow attempts ahead of closing it. Connections
+     * already borrowed stay usable and can be returned.
+     * @param ds {@link DataSource} returned from {@link #create(DataSourceFactory, Properties)}
+     * @return {@code false} if the pool keeps handing out connections until it is closed
+     */
+    default boolean drain(DataSource ds) {
+        return false;
+    }
+
 }
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.pool.common.impl;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+import javax.sql.CommonDataSource;
+import javax.sql.ConnectionPoolDataSource;
+import javax.sql.DataSource;
+import javax.sql.XAConnection;
+import javax.sql.XADataSource;
+
+import org.ops4j.pax.jdbc.hook.ConnectionInitHook;
+import org.ops4j.pax.jdbc.pool.common.LatencyHistogram;
+import org.osgi.service.jdbc.DataSourceFactory;
+
+/**
+ * {@link DataSourceFactory} whose {@link DataSource}s and {@link XADataSource}s run a {@link ConnectionInitHook} on
+ * every connection they open. A pool creating its physical connections from them initializes each one once. A driver
+ * DataSource implementing both interfaces keeps both, as pools choose XA by {@code instanceof XADataSource}.
+ */
+public final class ConnectionInitializer implements DataSourceFactory {
+
+    private final DataSourceFactory dsf;
+    private final ConnectionInitHook hook;
+    private final LatencyHistogram initLatency;
+
+    /**
+     * @param dsf creates the DataSources of the driver
+     * @param hook initializes each new connection
+     * @param initLatency records the time {@code hook} takes per connection
+     */
+    public ConnectionInitializer(DataSourceFactory dsf, ConnectionInitHook hook, LatencyHistogram initLatency) {
+        this.dsf = dsf;
+        this.hook = hook;
+        this.initLatency = initLatency;
+    }
+
+    @Override
+    public DataSource createDataSource(Properties props) throws SQLException {
+        DataSource ds = dsf.createDataSource(props);
+        return ds instanceof XADataSource ? new InitializingXACapableDataSource(ds) : new InitializingDataSource(ds);
+    }
+
+    /**
+     * Returns the driver's {@link ConnectionPoolDataSource} unchanged, the pools of pax-jdbc do not use it.
+     */
+    @Override
+    public ConnectionPoolDataSource createConnectionPoolDataSource(Properties props) throws SQLException {
+        return dsf.createConnectionPoolDataSource(props);
+    }
+
+    @Override
+    public XADataSource createXADataSource(Properties props) throws SQLException {
+        XADataSource ds = dsf.createXADataSource(props);
+        return ds instanceof DataSource ? new InitializingXACapableDataSource((DataSource) ds)
+                : new InitializingXADataSource(ds);
+    }
+
+    @Override
+    public Driver createDriver(Properties props) throws SQLException {
+        return dsf.createDriver(props);
+    }
+
+    private Connection initialize(Connection connection) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            hook.initialize(connection);
+        } catch (SQLException | RuntimeException e) {
+            try {
+                connection.close();
+            } catch (SQLException closeFailure) {
+                e.addSuppressed(closeFailure);
+            }
+            throw e;
+        }
+        initLatency.record(System.nanoTime() - start);
+        return connection;
+    }
+
+    /**
+     * Initializes the physical connection of an {@link XAConnection} through a handle that is closed again, the
+     * session state stays with the physical connection.
+     */
+    private XAConnection initialize(XAConnection xaConnection) throws SQLException {
+        long start = System.nanoTime();
+        try (Connection connection = xaConnection.getConnection()) {
+            hook.initialize(connection);
+        } catch (SQLException | RuntimeException e) {
+            try {
+                xaConnection.close();
+            } catch (SQLException closeFailure) {
+                e.addSuppressed(closeFailure);
+            }
+            throw e;
+        }
+        initLatency.record(System.nanoTime() - start);
+        return xaConnection;
+    }
+
+    /**
+     * Delegates the {@link CommonDataSource} methods.
+     */
+    private abstract static class DelegatingDataSource<T extends CommonDataSource> implements CommonDataSource {
+
+        protected final T delegate;
+
+        DelegatingDataSource(T delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public PrintWriter getLogWriter() throws SQLException {
+            return delegate.getLogWriter();
+        }
+
+        @Override
+        public void setLogWriter(PrintWriter out) throws SQLException {
+            delegate.setLogWriter(out);
+        }
+
+        @Override
+        public void setLoginTimeout(int seconds) throws SQLException {
+            delegate.setLoginTimeout(seconds);
+        }
+
+        @Override
+        public int getLoginTimeout() throws SQLException {
+            return delegate.getLoginTimeout();
+        }
+
+        @Override
+        public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+            return delegate.getParentLogger();
+        }
+
+    }
+
+    private class InitializingDataSource extends DelegatingDataSource<DataSource> implements DataSource {
+
+        InitializingDataSource(DataSource delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            return initialize(delegate.getConnection());
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+            return initialize(delegate.getConnection(username, password));
+        }
+
+        @Override
+        public <T> T unwrap(Class<T> iface) throws SQLException {
+            return iface.isInstance(delegate) ? iface.cast(delegate) : delegate.unwrap(iface);
+        }
+
+        @Override
+        public boolean isWrapperFor(Class<?> iface) throws SQLException {
+            return iface.isInstance(delegate) || delegate.isWrapperFor(iface);
+        }
+
+    }
+
+    private final class InitializingXADataSource extends DelegatingDataSource<XADataSource> implements XADataSource {
+
+        InitializingXADataSource(XADataSource delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public XAConnection getXAConnection() throws SQLException {
+            return initialize(delegate.getXAConnection());
+        }
+
+        @Override
+        public XAConnection getXAConnection(String user, String password) throws SQLException {
+            return initialize(delegate.getXAConnection(user, password));
+        }
+
+    }
+
+    /**
+     * Driver DataSource that is an {@link XADataSource} as well.
+     */
+    private final class InitializingXACapableDataSource extends InitializingDataSource implements XADataSource {
+
+        InitializingXACapableDataSource(DataSource delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public XAConnection getXAConnection() throws SQLException {
+            return initialize(((XADataSource) delegate).getXAConnection());
+        }
+
+        @Override
+        public XAConnection getXAConnection(String user, String password) throws SQLException {
+            return initialize(((XADataSource) delegate).getXAConnection(user, password));
+        }
+
+    }
+
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.pool.common.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+
+import org.osgi.service.jdbc.DataSourceFactory;
+
+/**
+ * Differences between two configurations of a pooled DataSource, after splitting and translating both the same way
+ * {@link org.ops4j.pax.jdbc.pool.common.PooledDataSourceFactory#create} does.
+ */
+public final class PoolChanges {
+
+    private final PropertySplitter.Result previous;
+    private final PropertySplitter.Result next;
+
+    public PoolChanges(PropertySplitter splitter, PoolKeyTranslator translator, Properties previous, Properties next) {
+        this.previous = splitter.split(previous);
+        this.next = splitter.split(next);
+        if (translator != null) {
+            translator.translate(this.previous);
+            translator.translate(this.next);
+        }
+    }
+
+    /**
+     * @return {@code true} if the properties passed to the DataSourceFactory differ
+     */
+    public boolean driverChanged() {
+        return !previous.driver().equals(next.driver());
+    }
+
+    /**
+     * Returns the new credentials if they are the only change of the properties passed to the DataSourceFactory, so
+     * a running pool can open its next connections with them instead of being recreated.
+     *
+     * @return new credentials, {@code null} if they did not change, other driver properties changed or the new
+     *         configuration has no user
+     */
+    public Credentials rotatedCredentials() {
+        if (!driverChanged()) {
+            return null;
+        }
+        Properties before = withoutCredentials(previous.driver());
+        Properties after = withoutCredentials(next.driver());
+        String user = next.driver().getProperty(DataSourceFactory.JDBC_USER);
+        if (!before.equals(after) || user == null) {
+            return null;
+        }
+        return new Credentials(user, next.driver().getProperty(DataSourceFactory.JDBC_PASSWORD));
+    }
+
+    private static Properties withoutCredentials(Properties driver) {
+        Properties copy = new Properties();
+        copy.putAll(driver);
+        copy.remove(DataSourceFactory.JDBC_USER);
+        copy.remove(DataSourceFactory.JDBC_PASSWORD);
+        return copy;
+    }
+
+    /**
+     * Returns the changed settings of a group if all of them can be applied to a running pool.
+     *
+     * @param group group name
+     * @param liveKeys keys of the group the pool accepts while running
+     * @return changed keys with their new values, {@code null} if a key was removed or is not live
+     */
+    public Map<String, String> live(String group, Set<String> liveKeys) {
+        Map<String, String> before = previous.group(group);
+        Map<String, String> after = next.group(group);
+        Map<String, String> changes = new HashMap<>();
+        for (String key : before.keySet()) {
+            if (!after.containsKey(key)) {
+                return null;
+            }
+        }
+        for (Map.Entry<String, String> entry : after.entrySet()) {
+            if (!Objects.equals(entry.getValue(), before.get(entry.getKey()))) {
+                if (!liveKeys.contains(entry.getKey())) {
+                    return null;
+                }
+                changes.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * User and password a pool connects with.
+     */
+    public static final class Credentials {
+
+        private final String user;
+        private final String password;
+
+        Credentials(String user, String password) {
+            this.user = user;
+            this.password = password;
+        }
+
+        public String getUser() {
+            return user;
+        }
+
+        public String getPassword() {
+            return password;
+        }
+
+    }
+
+}
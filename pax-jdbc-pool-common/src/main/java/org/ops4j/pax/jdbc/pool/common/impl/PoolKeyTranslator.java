@@ -0,0 +1,176 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.pool.common.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.ops4j.pax.jdbc.pool.common.PoolConfigKeys;
+
+/**
+ * Translates {@link PoolConfigKeys canonical pool keys} into the native settings of one pool implementation.
+ * Canonical keys without a rule, and rules rejecting a value, fail with {@link IllegalArgumentException}.
+ */
+public final class PoolKeyTranslator {
+
+    /**
+     * Applies a canonical setting to the native settings of a pool.
+     */
+    @FunctionalInterface
+    public interface Rule {
+
+        /**
+         * @param value canonical value
+         * @param target native settings and the other canonical settings
+         */
+        void apply(String value, Target target);
+
+    }
+
+    private final String poolName;
+    private final Map<String, Rule> rules = new HashMap<>();
+
+    public PoolKeyTranslator(String poolName) {
+        this.poolName = poolName;
+    }
+
+    /**
+     * Registers a rule for a canonical key.
+     *
+     * @param key canonical key without prefix
+     * @param rule rule applying the value
+     * @return this translator
+     */
+    public PoolKeyTranslator rule(String key, Rule rule) {
+        rules.put(key, rule);
+        return this;
+    }
+
+    /**
+     * Maps a canonical key to a native key with the same value.
+     */
+    public PoolKeyTranslator map(String key, String group, String nativeKey) {
+        return map(key, group, nativeKey, Function.identity());
+    }
+
+    /**
+     * Maps a canonical key to a native key, converting the value.
+     */
+    public PoolKeyTranslator map(String key, String group, String nativeKey, Function<String, String> converter) {
+        return rule(key, (value, target) -> target.put(group, nativeKey, converter.apply(value)));
+    }
+
+    /**
+     * Accepts only given value of a canonical key, which matches the fixed behaviour of the pool.
+     */
+    public PoolKeyTranslator fixed(String key, String supportedValue) {
+        return rule(key, (value, target) -> {
+            if (!supportedValue.equalsIgnoreCase(value)) {
+                throw target.unsupported();
+            }
+        });
+    }
+
+    /**
+     * Translates the canonical keys of given configuration into its native views.
+     *
+     * @param split configuration split by a {@link PropertySplitter} with a {@link PoolConfigKeys#PREFIX} group
+     * @throws IllegalArgumentException if a canonical key or value is not supported by this pool
+     */
+    public void translate(PropertySplitter.Result split) {
+        Map<String, String> canonical = split.group(PoolConfigKeys.PREFIX);
+        for (Map.Entry<String, String> entry : canonical.entrySet()) {
+            Target target = new Target(split, canonical, entry.getKey(), entry.getValue().trim());
+            Rule rule = rules.get(entry.getKey());
+            if (rule == null) {
+                throw target.unsupported();
+            }
+            rule.apply(target.value, target);
+        }
+    }
+
+    /**
+     * @return converter of milliseconds to given unit, rounding up
+     */
+    public static Function<String, String> millisTo(TimeUnit unit) {
+        long factor = TimeUnit.MILLISECONDS.convert(1, unit);
+        return value -> Long.toString((Long.parseLong(value) + factor - 1) / factor);
+    }
+
+    /**
+     * @return converter of milliseconds to a duration understood by {@code BeanConfig}
+     */
+    public static Function<String, String> millisDuration() {
+        return value -> Long.parseLong(value) + "ms";
+    }
+
+    /**
+     * Native settings of the pool while one canonical key is translated.
+     */
+    public final class Target {
+
+        private final PropertySplitter.Result split;
+        private final Map<String, String> canonical;
+        private final String key;
+        private final String value;
+
+        private Target(PropertySplitter.Result split, Map<String, String> canonical, String key, String value) {
+            this.split = split;
+            this.canonical = canonical;
+            this.key = key;
+            this.value = value;
+        }
+
+        /**
+         * @return value of another canonical key or {@code null}
+         */
+        public String canonical(String canonicalKey) {
+            String other = canonical.get(canonicalKey);
+            return other == null ? null : other.trim();
+        }
+
+        /**
+         * @return native setting or {@code null}
+         */
+        public String get(String group, String nativeKey) {
+            return split.group(group).get(nativeKey);
+        }
+
+        /**
+         * Sets a native setting, failing if the configuration sets it natively to a different value.
+         */
+        public void put(String group, String nativeKey, String nativeValue) {
+            String existing = split.group(group).putIfAbsent(nativeKey, nativeValue);
+            if (existing != null && !Objects.equals(existing, nativeValue)) {
+                throw new IllegalArgumentException(PoolConfigKeys.PREFIX + key + "=" + value + " conflicts with "
+                        + group + nativeKey + "=" + existing + " for pool " + poolName);
+            }
+        }
+
+        /**
+         * @return exception reporting the current key and value as not supported by the pool
+         */
+        public IllegalArgumentException unsupported() {
+            return new IllegalArgumentException("Pool " + poolName + " does not support "
+                    + PoolConfigKeys.PREFIX + key + "=" + value);
+        }
+
+    }
+
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.pool.common.impl;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Splits the configuration of a pooled DataSource into the properties passed to the DataSourceFactory and views
+ * of prefixed pool properties, in a single pass over the configuration.
+ * <p>
+ * Keys starting with one of the registered prefixes go, with the prefix stripped, to the view of that prefix's
+ * group. All other keys go to the driver properties unless they are excluded. A splitter is configured once and
+ * can then be shared by any number of threads.
+ */
+public final class PropertySplitter {
+
+    private final Node root = new Node();
+    private final Set<String> excludedFromDriver = new HashSet<>();
+    private final Set<String> groupNames = new HashSet<>();
+
+    /**
+     * Registers a group of prefixes whose keys share one view. The first prefix names the group.
+     *
+     * @param prefixes prefixes, e.g. {@code "pool."}
+     * @return this splitter
+     */
+    public PropertySplitter group(String... prefixes) {
+        if (prefixes.length == 0) {
+            throw new IllegalArgumentException("At least one prefix is required");
+        }
+        String name = prefixes[0];
+        groupNames.add(name);
+        for (String prefix : prefixes) {
+            if (prefix.isEmpty()) {
+                throw new IllegalArgumentException("Prefix must not be empty");
+            }
+            Node node = root;
+            for (int i = 0; i < prefix.length(); i++) {
+                node = node.children.computeIfAbsent(prefix.charAt(i), c -> new Node());
+            }
+            node.group = name;
+            node.length = prefix.length();
+        }
+        return this;
+    }
+
+    /**
+     * Excludes unprefixed keys from the driver properties.
+     *
+     * @param keys keys not passed to the DataSourceFactory
+     * @return this splitter
+     */
+    public PropertySplitter excludeFromDriver(String... keys) {
+        for (String key : keys) {
+            excludedFromDriver.add(key);
+        }
+        return this;
+    }
+
+    /**
+     * Splits given configuration.
+     *
+     * @param config pooled DataSource configuration
+     * @return driver properties and prefixed views
+     */
+    public Result split(Properties config) {
+        Result result = new Result();
+        config.forEach((k, value) -> {
+            String key = (String) k;
+            Node prefix = findPrefix(key);
+            if (prefix != null) {
+                result.groups.computeIfAbsent(prefix.group, g -> new HashMap<>())
+                    .put(key.substring(prefix.length), value instanceof String ? (String) value : String.valueOf(value));
+            } else if (!excludedFromDriver.contains(key)) {
+                result.driver.put(key, value);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Walks the prefix trie along given key, without allocating. The shortest matching prefix wins.
+     */
+    private Node findPrefix(String key) {
+        Node node = root;
+        for (int i = 0; i < key.length(); i++) {
+            node = node.children.get(key.charAt(i));
+            if (node == null) {
+                return null;
+            }
+            if (node.group != null) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Result of {@link PropertySplitter#split(Properties)}. Views are owned by the caller and may be modified.
+     */
+    public final class Result {
+
+        private final Properties driver = new Properties();
+        private final Map<String, Map<String, String>> groups = new HashMap<>();
+
+        private Result() {
+        }
+
+        /**
+         * @return properties for the DataSourceFactory
+         */
+        public Properties driver() {
+            return driver;
+        }
+
+        /**
+         * Returns the keys of a prefix group with the prefix stripped.
+         *
+         * @param name first prefix of the group
+         * @return group view, empty if the configuration has no such keys
+         */
+        public Map<String, String> group(String name) {
+            if (!groupNames.contains(name)) {
+                throw new IllegalArgumentException("Unknown prefix group " + name);
+            }
+            return groups.computeIfAbsent(name, g -> new HashMap<>());
+        }
+
+    }
+
+    private static final class Node {
+        private final Map<Character, Node> children = new HashMap<>(4);
+        private String group;
+        private int length;
+    }
+
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.pool.common.impl.dbcp2;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.pool2.DestroyMode;
+import org.apache.commons.pool2.PooledObject;
+import org.apache.commons.pool2.PooledObjectFactory;
+import org.apache.commons.pool2.impl.GenericObjectPool;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.ops4j.pax.jdbc.pool.common.LatencyHistogram;
+import org.ops4j.pax.jdbc.pool.common.PoolMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link GenericObjectPool} recording borrow latency and usage time as {@link PoolMetrics}.
+ */
+public class MeteredObjectPool<T> extends GenericObjectPool<T> implements PoolMetrics {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MeteredObjectPool.class);
+    private static final int CLOSE_THREADS = 8;
+    private static final long CLOSE_TIMEOUT_SECONDS = 30L;
+
+    private final LatencyHistogram acquireLatency = new LatencyHistogram();
+    private final UsageRecorder<T> factory;
+    private volatile boolean draining;
+
+    public MeteredObjectPool(PooledObjectFactory<T> factory, GenericObjectPoolConfig<T> config) {
+        this(new UsageRecorder<>(factory), config);
+    }
+
+    private MeteredObjectPool(UsageRecorder<T> factory, GenericObjectPoolConfig<T> config) {
+        super(factory, config);
+        this.factory = factory;
+    }
+
+    /**
+     * Returns the configured factory, {@link org.apache.commons.dbcp2.PoolingDataSource} checks its type.
+     */
+    @Override
+    public PooledObjectFactory<T> getFactory() {
+        return factory.delegate;
+    }
+
+    /**
+     * Rejects new borrowers and destroys the idle objects. Borrowed objects stay usable and are returned to the pool
+     * as usual, {@link #close()} destroys them once they are idle.
+     */
+    public void drain() {
+        draining = true;
+        setMinIdle(0);
+        clear();
+    }
+
+    /**
+     * Retires all objects created so far without closing any of them now: each one is destroyed when it is returned
+     * after its next use, so borrowers keep being served while the pool replaces them.
+     */
+    public void retire() {
+        factory.generation.incrementAndGet();
+    }
+
+    /**
+     * Destroys the idle objects concurrently, one slow physical close would otherwise delay all the others.
+     */
+    @Override
+    public void close() {
+        ExecutorService closer = Executors.newFixedThreadPool(CLOSE_THREADS, r -> {
+            Thread thread = new Thread(r, "pax-jdbc-pool-close");
+            thread.setDaemon(true);
+            return thread;
+        });
+        factory.closer = closer;
+        try {
+            super.close();
+        } finally {
+            factory.closer = null;
+            closer.shutdown();
+            try {
+                closer.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public T borrowObject(Duration borrowMaxWaitDuration) throws Exception {
+        if (draining) {
+            throw new NoSuchElementException("Pool is draining");
+        }
+        long start = System.nanoTime();
+        T object = super.borrowObject(borrowMaxWaitDuration);
+        acquireLatency.record(System.nanoTime() - start);
+        return object;
+    }
+
+    @Override
+    public long getActive() {
+        return getNumActive();
+    }
+
+    @Override
+    public long getIdle() {
+        return getNumIdle();
+    }
+
+    @Override
+    public long getPending() {
+        return getNumWaiters();
+    }
+
+    @Override
+    public long getTotalCreated() {
+        return getCreatedCount();
+    }
+
+    @Override
+    public long getTotalDestroyed() {
+        return getDestroyedCount();
+    }
+
+    @Override
+    public LatencyHistogram getAcquireLatency() {
+        return acquireLatency;
+    }
+
+    @Override
+    public LatencyHistogram getUsageTime() {
+        return factory.usageTime;
+    }
+
+    /**
+     * Records usage time when a borrowed object is passivated on return to the pool and rejects the return of retired
+     * objects, which makes the pool destroy them.
+     */
+    private static final class UsageRecorder<T> implements PooledObjectFactory<T> {
+
+        private final PooledObjectFactory<T> delegate;
+        private final LatencyHistogram usageTime = new LatencyHistogram();
+        private final AtomicLong generation = new AtomicLong();
+
+        /**
+         * Generation each live object was created in, objects of older generations are retired
+         */
+        private final Map<PooledObject<T>, Long> generations = Collections.synchronizedMap(new IdentityHashMap<>());
+        private volatile ExecutorService closer;
+
+        UsageRecorder(PooledObjectFactory<T> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public PooledObject<T> makeObject() throws Exception {
+            // read before creating, an object created while the pool is retired belongs to the older generation
+            long current = generation.get();
+            PooledObject<T> p = delegate.makeObject();
+            generations.put(p, current);
+            return p;
+        }
+
+        @Override
+        public void destroyObject(PooledObject<T> p) throws Exception {
+            destroyObject(p, DestroyMode.NORMAL);
+        }
+
+        @Override
+        public void destroyObject(PooledObject<T> p, DestroyMode destroyMode) throws Exception {
+            generations.remove(p);
+            ExecutorService current = closer;
+            if (current == null) {
+                delegate.destroyObject(p, destroyMode);
+                return;
+            }
+            current.execute(() -> {
+                try {
+                    delegate.destroyObject(p, destroyMode);
+                } catch (Exception e) {
+                    LOG.warn("Error closing pooled object: " + e.getMessage(), e);
+                }
+            });
+        }
+
+        @Override
+        public boolean validateObject(PooledObject<T> p) {
+            return delegate.validateObject(p);
+        }
+
+        @Override
+        public void activateObject(PooledObject<T> p) throws Exception {
+            delegate.activateObject(p);
+        }
+
+        @Override
+        public void passivateObject(PooledObject<T> p) throws Exception {
+            // objects added to the idle set directly were never borrowed
+            if (p.getBorrowedCount() > 0) {
+                usageTime.record(p.getActiveDuration().toNanos());
+            }
+            Long created = generations.get(p);
+            if (created != null && created < generation.get()) {
+                throw new IllegalStateException("Pooled object was retired");
+            }
+            delegate.passivateObject(p);
+        }
+
+    }
+
+}
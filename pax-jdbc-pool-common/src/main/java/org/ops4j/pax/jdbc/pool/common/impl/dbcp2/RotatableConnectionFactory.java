@@ -0,0 +1,52 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.pool.common.impl.dbcp2;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.dbcp2.ConnectionFactory;
+import org.ops4j.pax.jdbc.pool.common.impl.PoolChanges;
+
+/**
+ * {@link ConnectionFactory} of a {@link DataSource} whose credentials can be rotated while the pool runs. Until then
+ * connections are opened with the credentials the {@link DataSource} was created with.
+ */
+public class RotatableConnectionFactory implements ConnectionFactory {
+
+    private final DataSource dataSource;
+    private volatile PoolChanges.Credentials credentials;
+
+    public RotatableConnectionFactory(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    @Override
+    public Connection createConnection() throws SQLException {
+        PoolChanges.Credentials current = credentials;
+        if (current == null) {
+            return dataSource.getConnection();
+        }
+        return dataSource.getConnection(current.getUser(), current.getPassword());
+    }
+
+    public void setCredentials(PoolChanges.Credentials credentials) {
+        this.credentials = credentials;
+    }
+
+}
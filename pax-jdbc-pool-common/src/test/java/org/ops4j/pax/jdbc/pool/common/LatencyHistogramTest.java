@@ -0,0 +1,62 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.pool.common;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBuckets() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(500L);
+        histogram.record(1500L);
+        histogram.record(3, TimeUnit.MILLISECONDS);
+        histogram.record(-1L);
+
+        assertEquals(4L, histogram.getCount());
+        assertEquals(3_000_000L, histogram.getMaxNanos());
+        assertEquals(3_002_000L, histogram.getTotalNanos());
+        assertEquals(2L, histogram.getCount(0));
+        assertEquals(1L, histogram.getCount(1));
+        // 3000us is below 2^12us
+        assertEquals(1L, histogram.getCount(12));
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0L, histogram.getPercentileNanos(99.0));
+        for (int i = 0; i < 99; i++) {
+            histogram.record(10, TimeUnit.MICROSECONDS);
+        }
+        histogram.record(1, TimeUnit.SECONDS);
+
+        assertEquals(16_000L, histogram.getPercentileNanos(50.0));
+        assertEquals(16_000L, histogram.getPercentileNanos(99.0));
+        assertEquals(1_000_000_000L, histogram.getPercentileNanos(100.0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPercentile() {
+        new LatencyHistogram().getPercentileNanos(101.0);
+    }
+
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.pool.common.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Properties;
+
+import javax.sql.DataSource;
+import javax.sql.XAConnection;
+import javax.sql.XADataSource;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.ops4j.pax.jdbc.hook.ConnectionInitHook;
+import org.ops4j.pax.jdbc.pool.common.LatencyHistogram;
+import org.osgi.service.jdbc.DataSourceFactory;
+
+public class ConnectionInitializerTest {
+
+    private DataSourceFactory dsf;
+    private ConnectionInitHook hook;
+    private LatencyHistogram initLatency;
+    private ConnectionInitializer initializer;
+
+    @Before
+    public void setup() {
+        dsf = mock(DataSourceFactory.class);
+        hook = mock(ConnectionInitHook.class);
+        initLatency = new LatencyHistogram();
+        initializer = new ConnectionInitializer(dsf, hook, initLatency);
+    }
+
+    @Test
+    public void testInitializesEachConnection() throws Exception {
+        DataSource ds = mock(DataSource.class);
+        Connection connection = mock(Connection.class);
+        when(ds.getConnection()).thenReturn(connection);
+        when(dsf.createDataSource(any(Properties.class))).thenReturn(ds);
+
+        DataSource initializing = initializer.createDataSource(new Properties());
+        assertFalse(initializing instanceof XADataSource);
+        assertSame(connection, initializing.getConnection());
+        verify(hook).initialize(connection);
+        assertEquals(1L, initLatency.getCount());
+        assertSame(ds, initializing.unwrap(DataSource.class));
+    }
+
+    @Test
+    public void testFailedInitializationClosesConnection() throws Exception {
+        DataSource ds = mock(DataSource.class);
+        Connection connection = mock(Connection.class);
+        when(ds.getConnection()).thenReturn(connection);
+        when(dsf.createDataSource(any(Properties.class))).thenReturn(ds);
+        doThrow(new SQLException("init failed")).when(hook).initialize(connection);
+
+        try {
+            initializer.createDataSource(new Properties()).getConnection();
+            fail("The connection must not be handed out");
+        } catch (SQLException e) {
+            verify(connection).close();
+        }
+        assertEquals(0L, initLatency.getCount());
+    }
+
+    @Test
+    public void testKeepsXADataSourceOfDriverDataSource() throws Exception {
+        DataSource ds = mock(DataSource.class, withSettings().extraInterfaces(XADataSource.class));
+        XAConnection xaConnection = mock(XAConnection.class);
+        Connection handle = mock(Connection.class);
+        when(((XADataSource) ds).getXAConnection()).thenReturn(xaConnection);
+        when(xaConnection.getConnection()).thenReturn(handle);
+        when(dsf.createDataSource(any(Properties.class))).thenReturn(ds);
+
+        DataSource initializing = initializer.createDataSource(new Properties());
+        assertTrue(initializing instanceof XADataSource);
+
+        // the physical connection is initialized through a handle, the XA connection stays open
+        assertSame(xaConnection, ((XADataSource) initializing).getXAConnection());
+        verify(hook).initialize(handle);
+        verify(handle).close();
+        assertEquals(1L, initLatency.getCount());
+    }
+
+    @Test
+    public void testInitializesXAConnections() throws Exception {
+        XADataSource xaDs = mock(XADataSource.class);
+        XAConnection xaConnection = mock(XAConnection.class);
+        Connection handle = mock(Connection.class);
+        when(xaDs.getXAConnection("sa", "secret")).thenReturn(xaConnection);
+        when(xaConnection.getConnection()).thenReturn(handle);
+        when(dsf.createXADataSource(any(Properties.class))).thenReturn(xaDs);
+
+        XADataSource initializing = initializer.createXADataSource(new Properties());
+        assertFalse(initializing instanceof DataSource);
+        assertSame(xaConnection, initializing.getXAConnection("sa", "secret"));
+        verify(hook).initialize(handle);
+        verify(handle).close();
+    }
+
+    @Test
+    public void testKeepsDataSourceOfDriverXADataSource() throws Exception {
+        XADataSource xaDs = mock(XADataSource.class, withSettings().extraInterfaces(DataSource.class));
+        Connection connection = mock(Connection.class);
+        when(((DataSource) xaDs).getConnection()).thenReturn(connection);
+        when(dsf.createXADataSource(any(Properties.class))).thenReturn(xaDs);
+
+        XADataSource initializing = initializer.createXADataSource(new Properties());
+        assertTrue(initializing instanceof DataSource);
+        assertSame(connection, ((DataSource) initializing).getConnection());
+        verify(hook).initialize(connection);
+    }
+
+}
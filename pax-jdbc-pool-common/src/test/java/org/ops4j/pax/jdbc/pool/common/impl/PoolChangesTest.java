@@ -0,0 +1,113 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.pool.common.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+
+import org.junit.Test;
+import org.ops4j.pax.jdbc.pool.common.PoolConfigKeys;
+
+public class PoolChangesTest {
+
+    private static final PropertySplitter SPLITTER = new PropertySplitter()
+        .group("pool.")
+        .group(PoolConfigKeys.PREFIX);
+
+    private static final PoolKeyTranslator TRANSLATOR = new PoolKeyTranslator("test")
+        .map(PoolConfigKeys.MAX_SIZE, "pool.", "maxTotal");
+
+    private static final Set<String> LIVE = new HashSet<>(Arrays.asList("maxTotal", "maxIdle"));
+
+    @Test
+    public void testLiveChanges() {
+        Properties previous = config("pool.maxTotal", "8");
+        previous.put("pool.lifo", "true");
+        Properties next = config("pooling.maxSize", "16");
+        next.put("pool.lifo", "true");
+        next.put("pool.maxIdle", "4");
+
+        PoolChanges changes = new PoolChanges(SPLITTER, TRANSLATOR, previous, next);
+        assertFalse(changes.driverChanged());
+        assertEquals(2, changes.live("pool.", LIVE).size());
+        assertEquals("16", changes.live("pool.", LIVE).get("maxTotal"));
+        assertEquals("4", changes.live("pool.", LIVE).get("maxIdle"));
+    }
+
+    @Test
+    public void testRebuildRequired() {
+        Properties previous = config("pool.maxTotal", "8");
+        previous.put("pool.lifo", "true");
+
+        Properties removed = config("pool.maxTotal", "8");
+        assertNull(new PoolChanges(SPLITTER, TRANSLATOR, previous, removed).live("pool.", LIVE));
+
+        Properties notLive = config("pool.maxTotal", "8");
+        notLive.put("pool.lifo", "false");
+        assertNull(new PoolChanges(SPLITTER, TRANSLATOR, previous, notLive).live("pool.", LIVE));
+
+        Properties url = config("pool.maxTotal", "8");
+        url.put("pool.lifo", "true");
+        url.put("url", "jdbc:h2:mem:other");
+        PoolChanges changes = new PoolChanges(SPLITTER, TRANSLATOR, previous, url);
+        assertTrue(changes.driverChanged());
+        assertNull(changes.rotatedCredentials());
+        assertEquals(Collections.emptyMap(), changes.live("pool.", LIVE));
+    }
+
+    @Test
+    public void testRotatedCredentials() {
+        Properties previous = config("pool.maxTotal", "8");
+        previous.put("user", "app");
+        previous.put("password", "old");
+        assertNull(new PoolChanges(SPLITTER, TRANSLATOR, previous, previous).rotatedCredentials());
+
+        Properties rotated = config("pool.maxTotal", "8");
+        rotated.put("user", "app");
+        rotated.put("password", "new");
+        PoolChanges changes = new PoolChanges(SPLITTER, TRANSLATOR, previous, rotated);
+        assertTrue(changes.driverChanged());
+        PoolChanges.Credentials credentials = changes.rotatedCredentials();
+        assertNotNull(credentials);
+        assertEquals("app", credentials.getUser());
+        assertEquals("new", credentials.getPassword());
+
+        Properties withUrl = config("pool.maxTotal", "8");
+        withUrl.putAll(rotated);
+        withUrl.put("url", "jdbc:h2:mem:other");
+        assertNull(new PoolChanges(SPLITTER, TRANSLATOR, previous, withUrl).rotatedCredentials());
+
+        Properties noUser = config("pool.maxTotal", "8");
+        noUser.put("password", "new");
+        assertNull(new PoolChanges(SPLITTER, TRANSLATOR, previous, noUser).rotatedCredentials());
+    }
+
+    private static Properties config(String key, String value) {
+        Properties props = new Properties();
+        props.put(key, value);
+        return props;
+    }
+
+}
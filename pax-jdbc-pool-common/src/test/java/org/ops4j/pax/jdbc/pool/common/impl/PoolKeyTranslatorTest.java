@@ -0,0 +1,100 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.pool.common.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.ops4j.pax.jdbc.pool.common.PoolConfigKeys;
+
+public class PoolKeyTranslatorTest {
+
+    private static final PropertySplitter SPLITTER = new PropertySplitter()
+        .group("pool.")
+        .group(PoolConfigKeys.PREFIX);
+
+    private static final PoolKeyTranslator TRANSLATOR = new PoolKeyTranslator("test")
+        .map(PoolConfigKeys.MAX_SIZE, "pool.", "maxTotal")
+        .map(PoolConfigKeys.IDLE_TIMEOUT, "pool.", "idleMinutes", PoolKeyTranslator.millisTo(TimeUnit.MINUTES))
+        .map(PoolConfigKeys.ACQUIRE_TIMEOUT, "pool.", "maxWait", PoolKeyTranslator.millisDuration())
+        .fixed(PoolConfigKeys.PREFILL, "false");
+
+    @Test
+    public void testTranslate() {
+        Properties config = new Properties();
+        config.put("pooling.maxSize", "10");
+        config.put("pooling.idleTimeout", "60001");
+        config.put("pooling.acquireTimeout", "500");
+        config.put("pooling.prefill", "false");
+        config.put("pool.maxIdle", "4");
+
+        PropertySplitter.Result split = SPLITTER.split(config);
+        TRANSLATOR.translate(split);
+
+        Map<String, String> pool = split.group("pool.");
+        assertEquals("10", pool.get("maxTotal"));
+        assertEquals("2", pool.get("idleMinutes"));
+        assertEquals("500ms", pool.get("maxWait"));
+        assertEquals("4", pool.get("maxIdle"));
+        assertFalse(split.driver().containsKey("pooling.maxSize"));
+    }
+
+    @Test
+    public void testSameNativeValue() {
+        Properties config = new Properties();
+        config.put("pooling.maxSize", "10");
+        config.put("pool.maxTotal", "10");
+
+        PropertySplitter.Result split = SPLITTER.split(config);
+        TRANSLATOR.translate(split);
+        assertEquals("10", split.group("pool.").get("maxTotal"));
+    }
+
+    @Test
+    public void testConflict() {
+        Properties config = new Properties();
+        config.put("pooling.maxSize", "10");
+        config.put("pool.maxTotal", "20");
+        assertFails(config, "pooling.maxSize=10 conflicts with pool.maxTotal=20 for pool test");
+    }
+
+    @Test
+    public void testUnsupported() {
+        Properties config = new Properties();
+        config.put("pooling.validationQuery", "select 1");
+        assertFails(config, "Pool test does not support pooling.validationQuery=select 1");
+
+        config = new Properties();
+        config.put("pooling.prefill", "true");
+        assertFails(config, "Pool test does not support pooling.prefill=true");
+    }
+
+    private static void assertFails(Properties config, String message) {
+        try {
+            TRANSLATOR.translate(SPLITTER.split(config));
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            assertEquals(message, e.getMessage());
+        }
+    }
+
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.pool.common.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.Test;
+import org.osgi.service.jdbc.DataSourceFactory;
+
+public class PropertySplitterTest {
+
+    private static final PropertySplitter SPLITTER = new PropertySplitter()
+        .group("pool.", "hikari.")
+        .group("factory.")
+        .excludeFromDriver(DataSourceFactory.JDBC_DATASOURCE_NAME);
+
+    @Test
+    public void testSplit() {
+        Properties config = new Properties();
+        config.put(DataSourceFactory.JDBC_URL, "jdbc:h2:mem:test");
+        config.put(DataSourceFactory.JDBC_DATASOURCE_NAME, "test");
+        config.put("pool.maxTotal", "8");
+        config.put("hikari.minimumIdle", 2);
+        config.put("factory.validationQuery", "select 1");
+        config.put("poolName", "driver property");
+        config.put("other.key", "driver property");
+
+        PropertySplitter.Result split = SPLITTER.split(config);
+
+        Properties driver = new Properties();
+        driver.put(DataSourceFactory.JDBC_URL, "jdbc:h2:mem:test");
+        driver.put("poolName", "driver property");
+        driver.put("other.key", "driver property");
+        assertEquals(driver, split.driver());
+
+        Map<String, String> pool = new HashMap<>();
+        pool.put("maxTotal", "8");
+        pool.put("minimumIdle", "2");
+        assertEquals(pool, split.group("pool."));
+        assertEquals("select 1", split.group("factory.").get("validationQuery"));
+    }
+
+    @Test
+    public void testEmptyGroup() {
+        PropertySplitter.Result split = SPLITTER.split(new Properties());
+        assertTrue(split.driver().isEmpty());
+        assertTrue(split.group("factory.").isEmpty());
+        split.group("factory.").put("key", "value");
+        assertEquals("value", split.group("factory.").get("key"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownGroup() {
+        SPLITTER.split(new Properties()).group("hikari.");
+    }
+
+}
@@ -16,23 +16,36 @@
 package org.ops4j.pax.jdbc.pool.dbcp2.impl;
 
 import java.sql.SQLException;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.UUID;
+import java.util.WeakHashMap;
 
 import javax.management.MalformedObjectNameException;
 import javax.management.ObjectName;
 import javax.sql.DataSource;
 
-import org.apache.commons.dbcp2.DataSourceConnectionFactory;
+import org.apache.commons.dbcp2.ConnectionFactory;
 import org.apache.commons.dbcp2.PoolableConnection;
 import org.apache.commons.dbcp2.PoolableConnectionFactory;
 import org.apache.commons.dbcp2.PoolingDataSource;
+import org.apache.commons.dbcp2.managed.PoolableManagedConnectionFactory;
 import org.apache.commons.pool2.impl.GenericObjectPool;
 import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
 import org.ops4j.pax.jdbc.common.BeanConfig;
+import org.ops4j.pax.jdbc.common.GenerateConfigurators;
+import org.ops4j.pax.jdbc.pool.common.PoolConfigKeys;
+import org.ops4j.pax.jdbc.pool.common.PoolMetrics;
 import org.ops4j.pax.jdbc.pool.common.PooledDataSourceFactory;
+import org.ops4j.pax.jdbc.pool.common.impl.PoolChanges;
+import org.ops4j.pax.jdbc.pool.common.impl.PoolKeyTranslator;
+import org.ops4j.pax.jdbc.pool.common.impl.PropertySplitter;
+import org.ops4j.pax.jdbc.pool.common.impl.dbcp2.MeteredObjectPool;
+import org.ops4j.pax.jdbc.pool.common.impl.dbcp2.RotatableConnectionFactory;
 import org.osgi.service.jdbc.DataSourceFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -43,14 +56,81 @@ import org.slf4j.LoggerFactory;
  * XADataSource and handles the XA Resources. This kind of DataSource can then for example be used
  * in persistence.xml as jta-data-source
  */
+@GenerateConfigurators({ GenericObjectPoolConfig.class, PoolableConnectionFactory.class, PoolableManagedConnectionFactory.class })
 public class DbcpPooledDataSourceFactory implements PooledDataSourceFactory {
     protected static final String POOL_PREFIX = "pool.";
     protected static final String FACTORY_PREFIX = "factory.";
+    protected static final String INITIAL_SIZE = "initialSize";
+
+    protected static final PropertySplitter SPLITTER = new PropertySplitter()
+        .group(POOL_PREFIX)
+        .group(FACTORY_PREFIX)
+        .group(PoolConfigKeys.PREFIX)
+        .excludeFromDriver(DataSourceFactory.JDBC_DATASOURCE_NAME);
+
+    protected static final PoolKeyTranslator TRANSLATOR = new PoolKeyTranslator("dbcp2")
+        .map(PoolConfigKeys.MIN_IDLE, POOL_PREFIX, "minIdle")
+        .map(PoolConfigKeys.MAX_SIZE, POOL_PREFIX, "maxTotal")
+        .map(PoolConfigKeys.ACQUIRE_TIMEOUT, POOL_PREFIX, "maxWait", PoolKeyTranslator.millisDuration())
+        .rule(PoolConfigKeys.IDLE_TIMEOUT, (value, target) -> {
+            String idle = PoolKeyTranslator.millisDuration().apply(value);
+            target.put(POOL_PREFIX, "minEvictableIdleDuration", idle);
+            // idle connections are only evicted when the evictor runs
+            if (target.get(POOL_PREFIX, "timeBetweenEvictionRuns") == null
+                    && target.get(POOL_PREFIX, "timeBetweenEvictionRunsMillis") == null) {
+                target.put(POOL_PREFIX, "timeBetweenEvictionRuns", idle);
+            }
+        })
+        .map(PoolConfigKeys.MAX_LIFETIME, FACTORY_PREFIX, "maxConn", PoolKeyTranslator.millisDuration())
+        .map(PoolConfigKeys.VALIDATION_QUERY, FACTORY_PREFIX, "validationQuery")
+        .map(PoolConfigKeys.TEST_ON_BORROW, POOL_PREFIX, "testOnBorrow")
+        .rule(PoolConfigKeys.PREFILL, (value, target) -> {
+            if (Boolean.parseBoolean(value)) {
+                String minIdle = target.canonical(PoolConfigKeys.MIN_IDLE);
+                if (minIdle == null) {
+                    minIdle = target.get(POOL_PREFIX, "minIdle");
+                }
+                if (minIdle == null) {
+                    throw target.unsupported();
+                }
+                target.put(POOL_PREFIX, INITIAL_SIZE, minIdle);
+            }
+        })
+        .rule(PoolConfigKeys.STATEMENT_CACHE_SIZE, (value, target) -> {
+            target.put(FACTORY_PREFIX, "poolStatements", Boolean.toString(Integer.parseInt(value) > 0));
+            target.put(FACTORY_PREFIX, "maxOpenPreparedStatements", value);
+        });
+
+    /**
+     * Settings of {@link GenericObjectPool} changed on a running pool.
+     */
+    protected static final Set<String> LIVE_POOL_KEYS = new HashSet<>(Arrays.asList(
+        "maxTotal", "maxIdle", "minIdle", "maxWait", "maxWaitMillis", "blockWhenExhausted",
+        "testOnBorrow", "testOnReturn", "testWhileIdle", "numTestsPerEvictionRun",
+        "minEvictableIdleDuration", "minEvictableIdleTime", "minEvictableIdleTimeMillis",
+        "softMinEvictableIdleDuration", "softMinEvictableIdleTime", "softMinEvictableIdleTimeMillis",
+        "timeBetweenEvictionRuns", "timeBetweenEvictionRunsMillis"));
+
+    /**
+     * Settings of {@link PoolableConnectionFactory} used for every validation or return.
+     */
+    protected static final Set<String> LIVE_FACTORY_KEYS = new HashSet<>(Arrays.asList(
+        "validationQuery", "validationQueryTimeout", "maxConn", "maxConnLifetimeMillis"));
 
     private static final Logger LOG = LoggerFactory.getLogger(DbcpPooledDataSourceFactory.class);
 
-    protected Map<String, String> getPoolProps(Properties props) {
-        Map<String, String> poolProps = getPrefixed(props, POOL_PREFIX);
+    static {
+        DbcpPooledDataSourceFactoryConfigurators.register();
+    }
+
+    /**
+     * Pools of created data sources, {@link PoolingDataSource} does not expose its pool.
+     */
+    protected final Map<DataSource, MeteredObjectPool<PoolableConnection>> pools =
+        Collections.synchronizedMap(new WeakHashMap<>());
+
+    protected Map<String, String> getPoolProps(PropertySplitter.Result split, Properties props) {
+        Map<String, String> poolProps = split.group(POOL_PREFIX);
         if (poolProps.get("jmxNameBase") == null) {
             poolProps.put("jmxNameBase",
                 "org.ops4j.pax.jdbc.pool.dbcp2:type=GenericObjectPool,name=");
@@ -62,30 +142,6 @@ public class DbcpPooledDataSourceFactory implements PooledDataSourceFactory {
         return poolProps;
     }
 
-    protected Properties getNonPoolProps(Properties props) {
-        Properties dsProps = new Properties();
-        for (Object keyO : props.keySet()) {
-            String key = (String) keyO;
-            if (!key.startsWith(POOL_PREFIX) && !key.startsWith(FACTORY_PREFIX)) {
-                dsProps.put(key, props.get(key));
-            }
-        }
-        dsProps.remove(DataSourceFactory.JDBC_DATASOURCE_NAME);
-        return dsProps;
-    }
-
-    protected Map<String, String> getPrefixed(Properties props, String prefix) {
-        Map<String, String> prefixedProps = new HashMap<String, String>();
-        for (Object keyO : props.keySet()) {
-            String key = (String) keyO;
-            if (key.startsWith(prefix)) {
-                String strippedKey = key.substring(prefix.length());
-                prefixedProps.put(strippedKey, (String) props.get(key));
-            }
-        }
-        return prefixedProps;
-    }
-    
     protected ObjectName getJmxName(String dsName) {
         if (dsName == null) {
             dsName = UUID.randomUUID().toString();
@@ -101,15 +157,28 @@ public class DbcpPooledDataSourceFactory implements PooledDataSourceFactory {
     @Override
     public DataSource create(DataSourceFactory dsf, Properties props) throws SQLException {
         try {
-            DataSource ds = dsf.createDataSource(getNonPoolProps(props));
-            DataSourceConnectionFactory connFactory = new DataSourceConnectionFactory(ds);
+            PropertySplitter.Result split = SPLITTER.split(props);
+            TRANSLATOR.translate(split);
+            DataSource ds = dsf.createDataSource(split.driver());
+            RotatableConnectionFactory connFactory = new RotatableConnectionFactory(ds);
             PoolableConnectionFactory pcf = new PoolableConnectionFactory(connFactory, null);
             GenericObjectPoolConfig<PoolableConnection> conf = new GenericObjectPoolConfig<>();
-            BeanConfig.configure(conf, getPoolProps(props));
-            BeanConfig.configure(pcf, getPrefixed(props, FACTORY_PREFIX));
-            GenericObjectPool<PoolableConnection> pool = new GenericObjectPool<PoolableConnection>(pcf, conf);
+
+            Map<String, String> poolProps = getPoolProps(split, props);
+            String initialSize = poolProps.remove(INITIAL_SIZE);
+
+            BeanConfig.configure(conf, poolProps);
+            BeanConfig.configure(pcf, split.group(FACTORY_PREFIX));
+            MeteredObjectPool<PoolableConnection> pool = new MeteredObjectPool<PoolableConnection>(pcf, conf);
             pcf.setPool(pool);
-            return new PoolingDataSource<PoolableConnection>(pool);
+            PoolingDataSource<PoolableConnection> pds = new PoolingDataSource<PoolableConnection>(pool);
+
+            int size = initialSize == null ? 0 : Integer.parseInt(initialSize);
+            for (int i = 0; i < size; i++) {
+                pool.addObject();
+            }
+            pools.put(pds, pool);
+            return pds;
         }
         catch (Throwable e) {
             LOG.error("Error creating pooled datasource: " + e.getMessage(), e);
@@ -125,4 +194,61 @@ public class DbcpPooledDataSourceFactory implements PooledDataSourceFactory {
         }
     }
 
+    @Override
+    public boolean reconfigure(DataSource ds, Properties previous, Properties config) throws SQLException {
+        MeteredObjectPool<PoolableConnection> pool = pools.get(ds);
+        if (pool == null) {
+            return false;
+        }
+        PoolChanges changes = new PoolChanges(SPLITTER, TRANSLATOR, previous, config);
+        Map<String, String> poolChanges = changes.live(POOL_PREFIX, LIVE_POOL_KEYS);
+        Map<String, String> factoryChanges = changes.live(FACTORY_PREFIX, LIVE_FACTORY_KEYS);
+        PoolChanges.Credentials credentials = changes.rotatedCredentials();
+        ConnectionFactory connFactory = ((PoolableConnectionFactory) pool.getFactory()).getConnectionFactory();
+        if ((changes.driverChanged() && (credentials == null || !isRotatable(connFactory)))
+                || poolChanges == null || factoryChanges == null) {
+            return false;
+        }
+        // scratch copies reject bad values before any of them reaches the running pool
+        BeanConfig.configure(new GenericObjectPoolConfig<PoolableConnection>(), poolChanges);
+        BeanConfig.configure(new PoolableConnectionFactory(null, null), factoryChanges);
+        BeanConfig.configure(pool, poolChanges);
+        BeanConfig.configure(pool.getFactory(), factoryChanges);
+        if (credentials != null) {
+            rotate(connFactory, credentials);
+            // connections opened with the previous credentials are replaced one by one as they are returned
+            pool.retire();
+        }
+        return true;
+    }
+
+    /**
+     * @return {@code true} if {@link #rotate} can change the credentials of the connection factory
+     */
+    protected boolean isRotatable(ConnectionFactory connFactory) {
+        return connFactory instanceof RotatableConnectionFactory;
+    }
+
+    /**
+     * Makes the connection factory open new connections with rotated credentials.
+     */
+    protected void rotate(ConnectionFactory connFactory, PoolChanges.Credentials credentials) {
+        ((RotatableConnectionFactory) connFactory).setCredentials(credentials);
+    }
+
+    @Override
+    public PoolMetrics getMetrics(DataSource ds) {
+        return pools.get(ds);
+    }
+
+    @Override
+    public boolean drain(DataSource ds) {
+        MeteredObjectPool<PoolableConnection> pool = pools.get(ds);
+        if (pool == null) {
+            return false;
+        }
+        pool.drain();
+        return true;
+    }
+
 }
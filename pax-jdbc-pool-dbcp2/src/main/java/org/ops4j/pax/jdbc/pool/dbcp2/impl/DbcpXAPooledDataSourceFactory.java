@@ -16,6 +16,7 @@
 package org.ops4j.pax.jdbc.pool.dbcp2.impl;
 
 import java.sql.SQLException;
+import java.util.Map;
 import java.util.Properties;
 import java.util.UUID;
 
@@ -25,14 +26,17 @@ import javax.sql.DataSource;
 import javax.sql.XADataSource;
 import javax.transaction.TransactionManager;
 
+import org.apache.commons.dbcp2.ConnectionFactory;
 import org.apache.commons.dbcp2.PoolableConnection;
 import org.apache.commons.dbcp2.managed.DataSourceXAConnectionFactory;
 import org.apache.commons.dbcp2.managed.ManagedDataSource;
 import org.apache.commons.dbcp2.managed.PoolableManagedConnectionFactory;
 import org.apache.commons.dbcp2.managed.TransactionRegistry;
-import org.apache.commons.pool2.impl.GenericObjectPool;
 import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
 import org.ops4j.pax.jdbc.common.BeanConfig;
+import org.ops4j.pax.jdbc.pool.common.impl.PoolChanges;
+import org.ops4j.pax.jdbc.pool.common.impl.PropertySplitter;
+import org.ops4j.pax.jdbc.pool.common.impl.dbcp2.MeteredObjectPool;
 import org.osgi.service.jdbc.DataSourceFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -68,16 +72,29 @@ public class DbcpXAPooledDataSourceFactory extends DbcpPooledDataSourceFactory {
     @Override
     public DataSource create(DataSourceFactory dsf, Properties props) throws SQLException {
         try {
-            XADataSource ds = dsf.createXADataSource(getNonPoolProps(props));
+            PropertySplitter.Result split = SPLITTER.split(props);
+            TRANSLATOR.translate(split);
+            XADataSource ds = dsf.createXADataSource(split.driver());
             DataSourceXAConnectionFactory connFactory = new DataSourceXAConnectionFactory(tm, ds);
             PoolableManagedConnectionFactory pcf = new PoolableManagedConnectionFactory(connFactory, null);
             GenericObjectPoolConfig<PoolableConnection> conf = new GenericObjectPoolConfig<>();
-            BeanConfig.configure(conf, getPoolProps(props));
-            BeanConfig.configure(pcf, getPrefixed(props, FACTORY_PREFIX));
-            GenericObjectPool<PoolableConnection> pool = new GenericObjectPool<PoolableConnection>(pcf, conf);
+
+            Map<String, String> poolProps = getPoolProps(split, props);
+            String initialSize = poolProps.remove(INITIAL_SIZE);
+
+            BeanConfig.configure(conf, poolProps);
+            BeanConfig.configure(pcf, split.group(FACTORY_PREFIX));
+            MeteredObjectPool<PoolableConnection> pool = new MeteredObjectPool<PoolableConnection>(pcf, conf);
             pcf.setPool(pool);
             TransactionRegistry transactionRegistry = connFactory.getTransactionRegistry();
-            return new ManagedDataSource<PoolableConnection>(pool, transactionRegistry);
+            ManagedDataSource<PoolableConnection> mds = new ManagedDataSource<PoolableConnection>(pool, transactionRegistry);
+
+            int size = initialSize == null ? 0 : Integer.parseInt(initialSize);
+            for (int i = 0; i < size; i++) {
+                pool.addObject();
+            }
+            pools.put(mds, pool);
+            return mds;
         }
         catch (Throwable e) {
             LOG.error("Error creating pooled datasource: " + e.getMessage(), e);
@@ -92,4 +109,19 @@ public class DbcpXAPooledDataSourceFactory extends DbcpPooledDataSourceFactory {
             }
         }
     }
+
+    @Override
+    protected boolean isRotatable(ConnectionFactory connFactory) {
+        return connFactory instanceof DataSourceXAConnectionFactory || super.isRotatable(connFactory);
+    }
+
+    @Override
+    protected void rotate(ConnectionFactory connFactory, PoolChanges.Credentials credentials) {
+        if (connFactory instanceof DataSourceXAConnectionFactory) {
+            ((DataSourceXAConnectionFactory) connFactory).setUsername(credentials.getUser());
+            ((DataSourceXAConnectionFactory) connFactory).setPassword(credentials.getPassword());
+        } else {
+            super.rotate(connFactory, credentials);
+        }
+    }
 }
@@ -15,6 +15,7 @@
  */
 package org.ops4j.pax.jdbc.pool.dbcp2.impl;
 
+import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.Properties;
 import javax.sql.DataSource;
@@ -24,11 +25,15 @@ import javax.transaction.TransactionManager;
 import org.apache.commons.dbcp2.PoolingDataSource;
 import org.apache.commons.dbcp2.managed.ManagedDataSource;
 import org.junit.Test;
+import org.ops4j.pax.jdbc.pool.common.impl.dbcp2.MeteredObjectPool;
 import org.osgi.service.jdbc.DataSourceFactory;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -58,6 +63,32 @@ public class PooledDataSourceFactoryTest {
         }
     }
 
+    @Test
+    public void testReconfigureAppliesAllOrNothing() throws SQLException {
+        DataSourceFactory dsf = mock(DataSourceFactory.class);
+        when(dsf.createDataSource(any(Properties.class))).thenReturn(mock(DataSource.class));
+        DbcpPooledDataSourceFactory pdsf = new DbcpPooledDataSourceFactory();
+        Properties props = new Properties();
+        props.put("pool.maxTotal", "8");
+        DataSource ds = pdsf.create(dsf, props);
+        MeteredObjectPool<?> pool = (MeteredObjectPool<?>) pdsf.getMetrics(ds);
+
+        Properties changed = new Properties();
+        changed.put("pool.maxTotal", "16");
+        assertTrue(pdsf.reconfigure(ds, props, changed));
+        assertEquals(16, pool.getMaxTotal());
+
+        Properties invalid = new Properties();
+        invalid.put("pool.maxTotal", "32");
+        invalid.put("pool.maxIdle", "many");
+        try {
+            pdsf.reconfigure(ds, changed, invalid);
+            fail("maxIdle must be a number");
+        } catch (IllegalArgumentException e) {
+            assertEquals(16, pool.getMaxTotal());
+        }
+    }
+
     @Test
     public void testcreateDataSource() throws SQLException {
         DataSourceFactory dsf = mock(DataSourceFactory.class);
@@ -81,6 +112,25 @@ public class PooledDataSourceFactoryTest {
         }
     }
 
+    @Test
+    public void testPrefill() throws SQLException {
+        DataSourceFactory dsf = mock(DataSourceFactory.class);
+        DataSource exds = mock(DataSource.class);
+        Connection connection = mock(Connection.class);
+        when(dsf.createDataSource(any(Properties.class))).thenReturn(exds);
+        when(exds.getConnection()).thenReturn(connection);
+        when(connection.getAutoCommit()).thenReturn(true);
+
+        Properties props = new Properties();
+        props.put("pooling.minIdle", "2");
+        props.put("pooling.prefill", "true");
+        DbcpPooledDataSourceFactory pdsf = new DbcpPooledDataSourceFactory();
+        DataSource ds = pdsf.create(dsf, props);
+
+        verify(exds, times(2)).getConnection();
+        assertEquals(2L, pdsf.getMetrics(ds).getIdle());
+    }
+
     private Properties createValidProps() {
         Properties props = new Properties();
         props.put("pool.maxTotal", "8");
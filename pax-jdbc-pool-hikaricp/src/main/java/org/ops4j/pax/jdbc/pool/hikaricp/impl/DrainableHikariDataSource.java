@@ -0,0 +1,56 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.pool.hikaricp.impl;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+
+/**
+ * {@link HikariDataSource} that can reject new borrowers ahead of being closed. Hikari's own suspension blocks
+ * borrowers instead of failing them.
+ */
+public class DrainableHikariDataSource extends HikariDataSource {
+
+    private volatile boolean draining;
+
+    public DrainableHikariDataSource(HikariConfig configuration) {
+        super(configuration);
+    }
+
+    /**
+     * Rejects new borrowers and closes idle connections, borrowed connections are closed when they are returned.
+     */
+    public void drain() {
+        draining = true;
+        HikariPoolMXBean pool = getHikariPoolMXBean();
+        if (pool != null) {
+            pool.softEvictConnections();
+        }
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (draining) {
+            throw new SQLException("DataSource " + getPoolName() + " is draining");
+        }
+        return super.getConnection();
+    }
+
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.pool.hikaricp.impl;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+import org.ops4j.pax.jdbc.pool.common.LatencyHistogram;
+import org.ops4j.pax.jdbc.pool.common.PoolMetrics;
+
+/**
+ * {@link PoolMetrics} fed by Hikari's own metrics tracker.
+ */
+public class HikariPoolMetrics implements PoolMetrics, MetricsTrackerFactory {
+
+    private final LatencyHistogram acquireLatency = new LatencyHistogram();
+    private final LatencyHistogram usageTime = new LatencyHistogram();
+    private final LongAdder created = new LongAdder();
+    private volatile PoolStats stats;
+
+    @Override
+    public IMetricsTracker create(String poolName, PoolStats poolStats) {
+        this.stats = poolStats;
+        return new IMetricsTracker() {
+            @Override
+            public void recordConnectionCreatedMillis(long connectionCreatedMillis) {
+                created.increment();
+            }
+
+            @Override
+            public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+                acquireLatency.record(elapsedAcquiredNanos);
+            }
+
+            @Override
+            public void recordConnectionUsageMillis(long elapsedBorrowedMillis) {
+                usageTime.record(elapsedBorrowedMillis, TimeUnit.MILLISECONDS);
+            }
+        };
+    }
+
+    @Override
+    public long getActive() {
+        PoolStats current = stats;
+        return current == null ? UNKNOWN : current.getActiveConnections();
+    }
+
+    @Override
+    public long getIdle() {
+        PoolStats current = stats;
+        return current == null ? UNKNOWN : current.getIdleConnections();
+    }
+
+    @Override
+    public long getPending() {
+        PoolStats current = stats;
+        return current == null ? UNKNOWN : current.getPendingThreads();
+    }
+
+    /**
+     * @return connections Hikari reported as created, without the one it opens to check the database on start
+     */
+    @Override
+    public long getTotalCreated() {
+        return created.sum();
+    }
+
+    @Override
+    public long getTotalDestroyed() {
+        // Hikari reports creations only
+        return UNKNOWN;
+    }
+
+    @Override
+    public LatencyHistogram getAcquireLatency() {
+        return acquireLatency;
+    }
+
+    @Override
+    public LatencyHistogram getUsageTime() {
+        return usageTime;
+    }
+
+}
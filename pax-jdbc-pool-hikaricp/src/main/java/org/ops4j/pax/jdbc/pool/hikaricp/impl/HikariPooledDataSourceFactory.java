@@ -16,12 +16,26 @@
 package org.ops4j.pax.jdbc.pool.hikaricp.impl;
 
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.function.Consumer;
 import javax.sql.DataSource;
 
 import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariConfigMXBean;
 import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import org.ops4j.pax.jdbc.pool.common.PoolConfigKeys;
+import org.ops4j.pax.jdbc.pool.common.PoolMetrics;
 import org.ops4j.pax.jdbc.pool.common.PooledDataSourceFactory;
+import org.ops4j.pax.jdbc.pool.common.impl.PoolChanges;
+import org.ops4j.pax.jdbc.pool.common.impl.PoolKeyTranslator;
+import org.ops4j.pax.jdbc.pool.common.impl.PropertySplitter;
 import org.osgi.service.jdbc.DataSourceFactory;
 
 /**
@@ -34,44 +48,47 @@ public class HikariPooledDataSourceFactory implements PooledDataSourceFactory {
     protected static final String POOL_PREFIX = "hikari.";
     protected static final String POOL_PREFIX2 = "pool.";
 
-    public HikariPooledDataSourceFactory() {
-    }
+    protected static final PropertySplitter SPLITTER = new PropertySplitter()
+        .group(POOL_PREFIX, POOL_PREFIX2)
+        .group(PoolConfigKeys.PREFIX)
+        .excludeFromDriver(DataSourceFactory.JDBC_DATASOURCE_NAME);
 
-    protected Properties getNonPoolProps(Properties props) {
-        Properties dsProps = new Properties();
-        for (Object keyO : props.keySet()) {
-            String key = (String) keyO;
-            if (!key.startsWith(POOL_PREFIX) && !key.startsWith(POOL_PREFIX2)) {
-                dsProps.put(key, props.get(key));
-            }
-        }
-        dsProps.remove(DataSourceFactory.JDBC_DATASOURCE_NAME);
-        return dsProps;
-    }
+    protected static final PoolKeyTranslator TRANSLATOR = new PoolKeyTranslator("hikari")
+        .map(PoolConfigKeys.MIN_IDLE, POOL_PREFIX, "minimumIdle")
+        .map(PoolConfigKeys.MAX_SIZE, POOL_PREFIX, "maximumPoolSize")
+        .map(PoolConfigKeys.ACQUIRE_TIMEOUT, POOL_PREFIX, "connectionTimeout")
+        .map(PoolConfigKeys.IDLE_TIMEOUT, POOL_PREFIX, "idleTimeout")
+        .map(PoolConfigKeys.MAX_LIFETIME, POOL_PREFIX, "maxLifetime")
+        .map(PoolConfigKeys.VALIDATION_QUERY, POOL_PREFIX, "connectionTestQuery")
+        // Hikari always checks connections on borrow and keeps minimumIdle connections open
+        .fixed(PoolConfigKeys.TEST_ON_BORROW, "true")
+        .fixed(PoolConfigKeys.PREFILL, "true");
 
-    protected Properties getPoolProps(Properties props) {
-        Properties prefixedProps = new Properties();
-        for (Object keyO : props.keySet()) {
-            String key = (String) keyO;
-            if (key.startsWith(POOL_PREFIX)) {
-                String strippedKey = key.substring(POOL_PREFIX.length());
-                prefixedProps.put(strippedKey, props.get(key));
-            } else if (key.startsWith(POOL_PREFIX2)) {
-                String strippedKey = key.substring(POOL_PREFIX2.length());
-                prefixedProps.put(strippedKey, props.get(key));
-            }
-        }
-        return prefixedProps;
+    /**
+     * Settings {@link HikariConfigMXBean} changes on a running pool.
+     */
+    protected static final Set<String> LIVE_KEYS = new HashSet<>(Arrays.asList(
+        "minimumIdle", "maximumPoolSize", "connectionTimeout", "idleTimeout", "maxLifetime",
+        "validationTimeout", "leakDetectionThreshold"));
+
+    public HikariPooledDataSourceFactory() {
     }
 
     @Override
     public DataSource create(DataSourceFactory dsf, Properties config) throws SQLException {
         try {
-            DataSource ds = dsf.createDataSource(getNonPoolProps(config));
-            Properties poolProps = getPoolProps(config);
+            PropertySplitter.Result split = SPLITTER.split(config);
+            TRANSLATOR.translate(split);
+            DataSource ds = dsf.createDataSource(split.driver());
+            Properties poolProps = new Properties();
+            poolProps.putAll(split.group(POOL_PREFIX));
             HikariConfig hconfig = new HikariConfig(poolProps);
             hconfig.setDataSource(ds);
-            return new HikariDataSource(hconfig);
+            // Hikari accepts only one of metric registry and tracker factory
+            if (hconfig.getMetricRegistry() == null && hconfig.getMetricsTrackerFactory() == null) {
+                hconfig.setMetricsTrackerFactory(new HikariPoolMetrics());
+            }
+            return new DrainableHikariDataSource(hconfig);
         } catch (Throwable e) {
             if (e instanceof SQLException) {
                 throw (SQLException) e;
@@ -83,4 +100,89 @@ public class HikariPooledDataSourceFactory implements PooledDataSourceFactory {
         }
     }
 
+    @Override
+    public boolean reconfigure(DataSource ds, Properties previous, Properties config) throws SQLException {
+        if (!(ds instanceof HikariDataSource)) {
+            return false;
+        }
+        PoolChanges changes = new PoolChanges(SPLITTER, TRANSLATOR, previous, config);
+        Map<String, String> pool = changes.live(POOL_PREFIX, LIVE_KEYS);
+        PoolChanges.Credentials credentials = changes.rotatedCredentials();
+        if ((changes.driverChanged() && credentials == null) || pool == null) {
+            return false;
+        }
+        // a copy of the running configuration rejects bad values before any of them reaches the pool
+        HikariConfig check = new HikariConfig();
+        ((HikariDataSource) ds).copyStateTo(check);
+        List<Consumer<HikariConfigMXBean>> setters = new ArrayList<>();
+        for (Map.Entry<String, String> entry : pool.entrySet()) {
+            Consumer<HikariConfigMXBean> setter = setter(entry.getKey(), entry.getValue().trim());
+            setter.accept(check);
+            setters.add(setter);
+        }
+        HikariConfigMXBean mxBean = ((HikariDataSource) ds).getHikariConfigMXBean();
+        for (Consumer<HikariConfigMXBean> setter : setters) {
+            setter.accept(mxBean);
+        }
+        if (credentials != null) {
+            rotate((HikariDataSource) ds, credentials);
+        }
+        return true;
+    }
+
+    private static Consumer<HikariConfigMXBean> setter(String key, String value) {
+        switch (key) {
+        case "minimumIdle":
+            return mxBean -> mxBean.setMinimumIdle(Integer.parseInt(value));
+        case "maximumPoolSize":
+            return mxBean -> mxBean.setMaximumPoolSize(Integer.parseInt(value));
+        case "connectionTimeout":
+            return mxBean -> mxBean.setConnectionTimeout(Long.parseLong(value));
+        case "idleTimeout":
+            return mxBean -> mxBean.setIdleTimeout(Long.parseLong(value));
+        case "maxLifetime":
+            return mxBean -> mxBean.setMaxLifetime(Long.parseLong(value));
+        case "validationTimeout":
+            return mxBean -> mxBean.setValidationTimeout(Long.parseLong(value));
+        case "leakDetectionThreshold":
+            return mxBean -> mxBean.setLeakDetectionThreshold(Long.parseLong(value));
+        default:
+            throw new IllegalArgumentException("Setting " + key + " can not be changed at runtime");
+        }
+    }
+
+    /**
+     * Opens new connections with the rotated credentials. Existing connections keep serving and are retired by
+     * maxLifetime, which Hikari spreads over time and applies to borrowed connections when they are returned.
+     */
+    protected void rotate(HikariDataSource ds, PoolChanges.Credentials credentials) {
+        HikariConfigMXBean mxBean = ds.getHikariConfigMXBean();
+        // Hikari connects with getConnection(username, password) once a username is set
+        mxBean.setUsername(credentials.getUser());
+        mxBean.setPassword(credentials.getPassword());
+        HikariPoolMXBean pool = ds.getHikariPoolMXBean();
+        if (mxBean.getMaxLifetime() == 0 && pool != null) {
+            // connections never expire, idle ones are replaced now and borrowed ones when they are returned
+            pool.softEvictConnections();
+        }
+    }
+
+    @Override
+    public PoolMetrics getMetrics(DataSource ds) {
+        if (ds instanceof HikariDataSource
+                && ((HikariDataSource) ds).getMetricsTrackerFactory() instanceof HikariPoolMetrics) {
+            return (PoolMetrics) ((HikariDataSource) ds).getMetricsTrackerFactory();
+        }
+        return null;
+    }
+
+    @Override
+    public boolean drain(DataSource ds) {
+        if (!(ds instanceof DrainableHikariDataSource)) {
+            return false;
+        }
+        ((DrainableHikariDataSource) ds).drain();
+        return true;
+    }
+
 }
@@ -22,14 +22,22 @@ import javax.sql.DataSource;
 
 import com.zaxxer.hikari.HikariDataSource;
 import org.junit.Test;
+import org.ops4j.pax.jdbc.pool.common.PoolMetrics;
+import org.ops4j.pax.jdbc.pool.hikaricp.impl.DrainableHikariDataSource;
 import org.ops4j.pax.jdbc.pool.hikaricp.impl.HikariPooledDataSourceFactory;
 import org.osgi.service.jdbc.DataSourceFactory;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -58,7 +66,7 @@ public class HikariPooledDataSourceFactoryTest {
         verify(connection).getNetworkTimeout();
         verify(connection, atLeastOnce()).setNetworkTimeout(any(), anyInt());
 
-        assertEquals(HikariDataSource.class, ds.getClass());
+        assertEquals(DrainableHikariDataSource.class, ds.getClass());
         assertEquals(((HikariDataSource)ds).getMaximumPoolSize(), 8);
 
         try {
@@ -70,6 +78,152 @@ public class HikariPooledDataSourceFactoryTest {
         }
     }
 
+    @Test
+    public void testMetrics() throws SQLException {
+        DataSourceFactory dataSourceFactory = mock(DataSourceFactory.class);
+        DataSource dataSource = mock(DataSource.class);
+        Connection connection = mock(Connection.class);
+
+        when(connection.isValid(anyInt())).thenReturn(true);
+        when(connection.getAutoCommit()).thenReturn(true);
+        when(connection.getTransactionIsolation()).thenReturn(Connection.TRANSACTION_NONE);
+        when(dataSource.getConnection()).thenReturn(connection);
+        when(dataSourceFactory.createDataSource(any(Properties.class))).thenReturn(dataSource);
+
+        HikariPooledDataSourceFactory pdsf = new HikariPooledDataSourceFactory();
+        HikariDataSource ds = (HikariDataSource) pdsf.create(dataSourceFactory, createValidProps());
+        try {
+            PoolMetrics metrics = pdsf.getMetrics(ds);
+            assertNotNull(metrics);
+            try (Connection c = ds.getConnection()) {
+                assertEquals(1L, metrics.getAcquireLatency().getCount());
+                // the connection opened on start is not reported, a second one has to be created
+                try (Connection c2 = ds.getConnection()) {
+                    assertEquals(2L, metrics.getActive());
+                }
+            }
+            assertEquals(2L, metrics.getUsageTime().getCount());
+            assertTrue(metrics.getTotalCreated() >= 1L);
+            assertEquals(PoolMetrics.UNKNOWN, metrics.getTotalDestroyed());
+        } finally {
+            ds.close();
+        }
+    }
+
+    @Test
+    public void testDrain() throws SQLException {
+        DataSourceFactory dataSourceFactory = mock(DataSourceFactory.class);
+        DataSource dataSource = mock(DataSource.class);
+        Connection connection = mock(Connection.class);
+
+        when(connection.isValid(anyInt())).thenReturn(true);
+        when(connection.getAutoCommit()).thenReturn(true);
+        when(connection.getTransactionIsolation()).thenReturn(Connection.TRANSACTION_NONE);
+        when(dataSource.getConnection()).thenReturn(connection);
+        when(dataSourceFactory.createDataSource(any(Properties.class))).thenReturn(dataSource);
+
+        HikariPooledDataSourceFactory pdsf = new HikariPooledDataSourceFactory();
+        HikariDataSource ds = (HikariDataSource) pdsf.create(dataSourceFactory, createValidProps());
+        try {
+            Connection borrowed = ds.getConnection();
+            assertTrue(pdsf.drain(ds));
+            try {
+                ds.getConnection();
+                fail("Draining pool must reject borrowers");
+            } catch (SQLException expected) {
+            }
+            // borrowed connections stay usable until they are returned
+            assertTrue(borrowed.getAutoCommit());
+            borrowed.close();
+        } finally {
+            ds.close();
+        }
+    }
+
+    @Test
+    public void testReconfigure() throws SQLException {
+        DataSourceFactory dataSourceFactory = mock(DataSourceFactory.class);
+        DataSource dataSource = mock(DataSource.class);
+        Connection connection = mock(Connection.class);
+
+        when(connection.isValid(anyInt())).thenReturn(true);
+        when(connection.getAutoCommit()).thenReturn(true);
+        when(connection.getTransactionIsolation()).thenReturn(Connection.TRANSACTION_NONE);
+        when(dataSource.getConnection()).thenReturn(connection);
+        when(dataSourceFactory.createDataSource(any(Properties.class))).thenReturn(dataSource);
+
+        HikariPooledDataSourceFactory pdsf = new HikariPooledDataSourceFactory();
+        Properties props = createValidProps();
+        HikariDataSource ds = (HikariDataSource) pdsf.create(dataSourceFactory, props);
+        try {
+            Properties changed = createValidProps();
+            changed.put("pooling.maxSize", "12");
+            changed.put("hikari.maximumPoolSize", "12");
+            assertTrue(pdsf.reconfigure(ds, props, changed));
+            assertEquals(12, ds.getHikariConfigMXBean().getMaximumPoolSize());
+
+            Properties invalid = createValidProps();
+            invalid.put("hikari.minimumIdle", "3");
+            invalid.put("hikari.maximumPoolSize", "14");
+            invalid.put("hikari.validationTimeout", "1");
+            try {
+                pdsf.reconfigure(ds, changed, invalid);
+                fail("validationTimeout below 250ms must be rejected");
+            } catch (IllegalArgumentException e) {
+                // none of the valid changes was applied either
+                assertEquals(12, ds.getHikariConfigMXBean().getMaximumPoolSize());
+                assertEquals(8, ds.getHikariConfigMXBean().getMinimumIdle());
+            }
+
+            Properties otherPoolName = createValidProps();
+            otherPoolName.put("hikari.poolName", "other");
+            assertFalse(pdsf.reconfigure(ds, props, otherPoolName));
+
+            Properties otherUrl = createValidProps();
+            otherUrl.put(DataSourceFactory.JDBC_URL, "jdbc:h2:mem:other");
+            assertFalse(pdsf.reconfigure(ds, props, otherUrl));
+        } finally {
+            ds.close();
+        }
+    }
+
+    @Test
+    public void testRotateCredentials() throws SQLException {
+        DataSourceFactory dataSourceFactory = mock(DataSourceFactory.class);
+        DataSource dataSource = mock(DataSource.class);
+        Connection connection = mock(Connection.class);
+
+        when(connection.isValid(anyInt())).thenReturn(true);
+        when(connection.getAutoCommit()).thenReturn(true);
+        when(connection.getTransactionIsolation()).thenReturn(Connection.TRANSACTION_NONE);
+        when(dataSource.getConnection()).thenReturn(connection);
+        when(dataSource.getConnection("app", "new")).thenReturn(connection);
+        when(dataSourceFactory.createDataSource(any(Properties.class))).thenReturn(dataSource);
+
+        HikariPooledDataSourceFactory pdsf = new HikariPooledDataSourceFactory();
+        Properties props = createValidProps();
+        props.put(DataSourceFactory.JDBC_USER, "app");
+        props.put(DataSourceFactory.JDBC_PASSWORD, "old");
+        HikariDataSource ds = (HikariDataSource) pdsf.create(dataSourceFactory, props);
+        try {
+            Connection borrowed = ds.getConnection();
+            Properties rotated = createValidProps();
+            rotated.put(DataSourceFactory.JDBC_USER, "app");
+            rotated.put(DataSourceFactory.JDBC_PASSWORD, "new");
+            assertTrue(pdsf.reconfigure(ds, props, rotated));
+            assertEquals("new", ds.getPassword());
+
+            // the pool keeps its connections, only new ones use the rotated credentials
+            assertTrue(borrowed.getAutoCommit());
+            borrowed.close();
+            verify(dataSource, never()).getConnection("app", "new");
+            ds.getHikariPoolMXBean().softEvictConnections();
+            verify(dataSource, timeout(5000).atLeastOnce()).getConnection("app", "new");
+        } finally {
+            ds.close();
+        }
+    }
+
     private Properties createValidProps() {
         Properties props = new Properties();
         props.put("hikari.maximumPoolSize", "8");
@@ -29,15 +29,18 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.UUID;
 
+import org.apache.commons.dbcp2.ConnectionFactory;
 import org.apache.commons.dbcp2.PoolableConnection;
 import org.apache.commons.dbcp2.managed.DataSourceXAConnectionFactory;
 import org.apache.commons.dbcp2.managed.ManagedDataSource;
 import org.apache.commons.dbcp2.managed.PoolableManagedConnectionFactory;
 import org.apache.commons.dbcp2.managed.TransactionRegistry;
-import org.apache.commons.pool2.impl.GenericObjectPool;
 import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
 import org.jboss.tm.XAResourceRecovery;
 import org.ops4j.pax.jdbc.common.BeanConfig;
+import org.ops4j.pax.jdbc.pool.common.impl.PoolChanges;
+import org.ops4j.pax.jdbc.pool.common.impl.PropertySplitter;
+import org.ops4j.pax.jdbc.pool.common.impl.dbcp2.MeteredObjectPool;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceRegistration;
 import org.osgi.service.jdbc.DataSourceFactory;
@@ -80,18 +83,20 @@ public class DbcpXAPooledDataSourceFactory extends DbcpPooledDataSourceFactory {
     @Override
     public DataSource create(DataSourceFactory dsf, Properties props) throws SQLException {
         try {
-            final XADataSource ds = dsf.createXADataSource(getNonPoolProps(props));
+            PropertySplitter.Result split = SPLITTER.split(props);
+            TRANSLATOR.translate(split);
+            final XADataSource ds = dsf.createXADataSource(split.driver());
             DataSourceXAConnectionFactory connFactory = new DataSourceXAConnectionFactory(tm, ds);
             PoolableManagedConnectionFactory pcf = new PoolableManagedConnectionFactory(connFactory, null);
             GenericObjectPoolConfig<PoolableConnection> conf = new GenericObjectPoolConfig<>();
 
-            Map<String, String> poolProps = getPoolProps(props);
+            Map<String, String> poolProps = getPoolProps(split, props);
             String initialSize = poolProps.get(INITIAL_SIZE);
             poolProps.remove(INITIAL_SIZE);
 
             BeanConfig.configure(conf, poolProps);
-            BeanConfig.configure(pcf, getPrefixed(props, FACTORY_PREFIX));
-            GenericObjectPool<PoolableConnection> pool = new GenericObjectPool<PoolableConnection>(pcf, conf);
+            BeanConfig.configure(pcf, split.group(FACTORY_PREFIX));
+            MeteredObjectPool<PoolableConnection> pool = new MeteredObjectPool<PoolableConnection>(pcf, conf);
             pcf.setPool(pool);
             TransactionRegistry transactionRegistry = connFactory.getTransactionRegistry();
             final ServiceRegistration<XAResourceRecovery> registration = bundleContext.registerService(XAResourceRecovery.class, new XAResourceRecovery() {
@@ -117,6 +122,7 @@ public class DbcpXAPooledDataSourceFactory extends DbcpPooledDataSourceFactory {
                 pool.addObject();
             }
 
+            pools.put(mds, pool);
             return mds;
         }
         catch (Throwable e) {
@@ -133,6 +139,21 @@ public class DbcpXAPooledDataSourceFactory extends DbcpPooledDataSourceFactory {
         }
     }
     
+    @Override
+    protected boolean isRotatable(ConnectionFactory connFactory) {
+        return connFactory instanceof DataSourceXAConnectionFactory || super.isRotatable(connFactory);
+    }
+
+    @Override
+    protected void rotate(ConnectionFactory connFactory, PoolChanges.Credentials credentials) {
+        if (connFactory instanceof DataSourceXAConnectionFactory) {
+            ((DataSourceXAConnectionFactory) connFactory).setUsername(credentials.getUser());
+            ((DataSourceXAConnectionFactory) connFactory).setPassword(credentials.getPassword());
+        } else {
+            super.rotate(connFactory, credentials);
+        }
+    }
+
     static class Wrapper implements XAResource {
 
         private final XAConnection xaConnection;
@@ -62,4 +62,19 @@ public class BeanConfigTest {
         verify(connection).isClosed();
     }
 
+    @Test
+    public void testGeneratedConfigurator() throws Exception {
+        Map<String, String> props = new HashMap<>();
+        props.put("maxIdle", "2");
+        props.put("MaxTotal", "5");
+        props.put("jmxNameBase", "name");
+        GenericObjectPoolConfig<?> config = new GenericObjectPoolConfig<>();
+        // registers configurators generated for this factory
+        new DbcpPooledDataSourceFactory();
+        BeanConfig.configure(config, props);
+        Assert.assertEquals(2, config.getMaxIdle());
+        Assert.assertEquals(5, config.getMaxTotal());
+        Assert.assertEquals("name", config.getJmxNameBase());
+    }
+
 }
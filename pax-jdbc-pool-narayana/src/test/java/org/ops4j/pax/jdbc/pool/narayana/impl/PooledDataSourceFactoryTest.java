@@ -16,7 +16,9 @@
 package org.ops4j.pax.jdbc.pool.narayana.impl;
 
 import java.sql.Connection;
+import java.sql.DatabaseMetaData;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.Properties;
 import javax.sql.ConnectionEventListener;
 import javax.sql.DataSource;
@@ -29,15 +31,26 @@ import org.apache.commons.dbcp2.PoolingDataSource;
 import org.apache.commons.dbcp2.managed.ManagedDataSource;
 import org.jboss.tm.XAResourceRecovery;
 import org.junit.Test;
+import org.ops4j.pax.jdbc.hook.ConnectionInitHook;
+import org.ops4j.pax.jdbc.pool.common.LatencyHistogram;
+import org.ops4j.pax.jdbc.pool.common.PoolMetrics;
+import org.ops4j.pax.jdbc.pool.common.impl.ConnectionInitializer;
+import org.ops4j.pax.jdbc.pool.common.impl.dbcp2.MeteredObjectPool;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceRegistration;
 import org.osgi.service.jdbc.DataSourceFactory;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class PooledDataSourceFactoryTest {
@@ -119,6 +132,187 @@ public class PooledDataSourceFactoryTest {
         }
     }
 
+    @Test
+    public void testMetrics() throws SQLException {
+        DataSourceFactory dsf = mock(DataSourceFactory.class);
+        DataSource exds = mock(DataSource.class);
+        Connection connection = mock(Connection.class);
+        when(dsf.createDataSource(any(Properties.class))).thenReturn(exds);
+        when(exds.getConnection()).thenReturn(connection);
+        when(connection.getAutoCommit()).thenReturn(true);
+
+        Properties props = new Properties();
+        props.put("pool.maxTotal", "8");
+        DbcpPooledDataSourceFactory pdsf = new DbcpPooledDataSourceFactory();
+        DataSource ds = pdsf.create(dsf, props);
+        PoolMetrics metrics = pdsf.getMetrics(ds);
+        assertNotNull(metrics);
+
+        try (Connection c = ds.getConnection()) {
+            assertEquals(1L, metrics.getActive());
+            assertEquals(1L, metrics.getAcquireLatency().getCount());
+        }
+        assertEquals(0L, metrics.getActive());
+        assertEquals(1L, metrics.getIdle());
+        assertEquals(1L, metrics.getTotalCreated());
+        assertEquals(1L, metrics.getUsageTime().getCount());
+    }
+
+    @Test
+    public void testDrain() throws Exception {
+        DataSourceFactory dsf = mock(DataSourceFactory.class);
+        DataSource exds = mock(DataSource.class);
+        Connection connection = mock(Connection.class);
+        when(dsf.createDataSource(any(Properties.class))).thenReturn(exds);
+        when(exds.getConnection()).thenReturn(connection);
+        when(connection.getAutoCommit()).thenReturn(true);
+
+        Properties props = new Properties();
+        props.put("pool.maxTotal", "8");
+        DbcpPooledDataSourceFactory pdsf = new DbcpPooledDataSourceFactory();
+        DataSource ds = pdsf.create(dsf, props);
+        PoolMetrics metrics = pdsf.getMetrics(ds);
+        Connection borrowed = ds.getConnection();
+        ds.getConnection().close();
+        assertEquals(1L, metrics.getIdle());
+
+        // idle connections are closed, new borrowers fail and borrowed connections can still be returned
+        assertTrue(pdsf.drain(ds));
+        assertEquals(0L, metrics.getIdle());
+        try {
+            ds.getConnection();
+            fail("Draining pool must reject borrowers");
+        } catch (SQLException expected) {
+        }
+        borrowed.close();
+        assertEquals(0L, metrics.getActive());
+
+        ((AutoCloseable) ds).close();
+        verify(connection, times(2)).close();
+    }
+
+    @Test
+    public void testReconfigure() throws SQLException {
+        DataSourceFactory dsf = mock(DataSourceFactory.class);
+        when(dsf.createDataSource(any(Properties.class))).thenReturn(mock(DataSource.class));
+
+        Properties props = new Properties();
+        props.put("pool.maxTotal", "8");
+        DbcpPooledDataSourceFactory pdsf = new DbcpPooledDataSourceFactory();
+        DataSource ds = pdsf.create(dsf, props);
+
+        Properties changed = new Properties();
+        changed.put("pool.maxTotal", "16");
+        changed.put("pool.maxWait", "500ms");
+        changed.put("factory.validationQuery", "select 1");
+        assertTrue(pdsf.reconfigure(ds, props, changed));
+        MeteredObjectPool<?> pool = (MeteredObjectPool<?>) pdsf.getMetrics(ds);
+        assertEquals(16, pool.getMaxTotal());
+        assertEquals(500L, pool.getMaxWaitDuration().toMillis());
+
+        Properties invalid = new Properties();
+        invalid.putAll(changed);
+        invalid.put("pool.maxTotal", "32");
+        invalid.put("factory.validationQueryTimeout", "soon");
+        try {
+            pdsf.reconfigure(ds, changed, invalid);
+            fail("validationQueryTimeout must be a number");
+        } catch (IllegalArgumentException e) {
+            // the valid pool change was not applied either
+            assertEquals(16, pool.getMaxTotal());
+        }
+
+        Properties lifo = new Properties();
+        lifo.put("pool.maxTotal", "8");
+        lifo.put("pool.lifo", "false");
+        assertFalse(pdsf.reconfigure(ds, props, lifo));
+    }
+
+    @Test
+    public void testRotateCredentials() throws SQLException {
+        DataSourceFactory dsf = mock(DataSourceFactory.class);
+        DataSource exds = mock(DataSource.class);
+        Connection borrowedConnection = mock(Connection.class);
+        Connection idleConnection = mock(Connection.class);
+        Connection rotatedConnection = mock(Connection.class);
+        when(dsf.createDataSource(any(Properties.class))).thenReturn(exds);
+        when(exds.getConnection()).thenReturn(borrowedConnection, idleConnection);
+        when(exds.getConnection("app", "new")).thenReturn(rotatedConnection);
+        when(borrowedConnection.getAutoCommit()).thenReturn(true);
+        when(idleConnection.getAutoCommit()).thenReturn(true);
+        when(rotatedConnection.getAutoCommit()).thenReturn(true);
+
+        Properties props = new Properties();
+        props.put("pool.maxTotal", "8");
+        props.put(DataSourceFactory.JDBC_USER, "app");
+        props.put(DataSourceFactory.JDBC_PASSWORD, "old");
+        DbcpPooledDataSourceFactory pdsf = new DbcpPooledDataSourceFactory();
+        DataSource ds = pdsf.create(dsf, props);
+        PoolMetrics metrics = pdsf.getMetrics(ds);
+        Connection borrowed = ds.getConnection();
+        ds.getConnection().close();
+
+        Properties rotated = new Properties();
+        rotated.put("pool.maxTotal", "8");
+        rotated.put(DataSourceFactory.JDBC_USER, "app");
+        rotated.put(DataSourceFactory.JDBC_PASSWORD, "new");
+        assertTrue(pdsf.reconfigure(ds, props, rotated));
+        // nothing is closed right away, the idle connection still serves the next borrower
+        assertEquals(1L, metrics.getIdle());
+        ds.getConnection().close();
+        verify(idleConnection).close();
+        borrowed.close();
+        verify(borrowedConnection).close();
+        assertEquals(0L, metrics.getIdle());
+
+        ds.getConnection().close();
+        verify(exds).getConnection("app", "new");
+        verify(rotatedConnection, never()).close();
+        assertEquals(1L, metrics.getIdle());
+
+        Properties otherUrl = new Properties();
+        otherUrl.putAll(rotated);
+        otherUrl.put(DataSourceFactory.JDBC_URL, "jdbc:h2:mem:other");
+        assertFalse(pdsf.reconfigure(ds, rotated, otherUrl));
+    }
+
+    @Test
+    public void testConnectionInitHook() throws SQLException {
+        DataSourceFactory dsf = mock(DataSourceFactory.class);
+        DataSource exds = mock(DataSource.class);
+        Connection connection = mock(Connection.class);
+        Statement statement = mock(Statement.class);
+        DatabaseMetaData metaData = mock(DatabaseMetaData.class);
+        when(dsf.createDataSource(any(Properties.class))).thenReturn(exds);
+        when(exds.getConnection()).thenReturn(connection);
+        when(connection.getAutoCommit()).thenReturn(true);
+        when(connection.createStatement()).thenReturn(statement);
+        when(connection.getMetaData()).thenReturn(metaData);
+        when(metaData.supportsBatchUpdates()).thenReturn(true);
+
+        Properties props = new Properties();
+        props.put("pool.maxTotal", "8");
+        DbcpPooledDataSourceFactory pdsf = new DbcpPooledDataSourceFactory();
+        LatencyHistogram initLatency = new LatencyHistogram();
+        DataSource ds = pdsf.create(new ConnectionInitializer(dsf,
+                ConnectionInitHook.statements("SET search_path TO app", "SET TIME ZONE 'UTC'"), initLatency), props);
+
+        // the physical connection is initialized once, not on every borrow
+        ds.getConnection().close();
+        ds.getConnection().close();
+        verify(statement).addBatch("SET search_path TO app");
+        verify(statement).addBatch("SET TIME ZONE 'UTC'");
+        verify(statement, times(1)).executeBatch();
+        verify(statement, never()).execute(any(String.class));
+        assertEquals(1L, initLatency.getCount());
+
+        Connection borrowed = ds.getConnection();
+        ds.getConnection().close();
+        borrowed.close();
+        verify(statement, times(2)).executeBatch();
+        assertEquals(2L, initLatency.getCount());
+    }
+
     private Properties createValidProps() {
         Properties props = new Properties();
         props.put("pool.maxTotal", "8");
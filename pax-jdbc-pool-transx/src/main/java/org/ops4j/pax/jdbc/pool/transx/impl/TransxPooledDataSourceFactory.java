@@ -15,7 +15,10 @@
  */
 package org.ops4j.pax.jdbc.pool.transx.impl;
 
+import org.ops4j.pax.jdbc.pool.common.PoolConfigKeys;
 import org.ops4j.pax.jdbc.pool.common.PooledDataSourceFactory;
+import org.ops4j.pax.jdbc.pool.common.impl.PoolKeyTranslator;
+import org.ops4j.pax.jdbc.pool.common.impl.PropertySplitter;
 import org.ops4j.pax.transx.jdbc.ManagedDataSourceBuilder;
 import org.osgi.service.jdbc.DataSourceFactory;
 import org.slf4j.Logger;
@@ -25,8 +28,7 @@ import javax.resource.spi.TransactionSupport.TransactionSupportLevel;
 import javax.sql.CommonDataSource;
 import javax.sql.DataSource;
 import java.sql.SQLException;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Collections;
 import java.util.Properties;
 
 /**
@@ -39,15 +41,28 @@ import java.util.Properties;
 public class TransxPooledDataSourceFactory implements PooledDataSourceFactory {
 
     protected static final String POOL_PREFIX = "pool.";
+    protected static final PropertySplitter SPLITTER = new PropertySplitter()
+        .group(POOL_PREFIX)
+        .group(PoolConfigKeys.PREFIX);
+    protected static final PoolKeyTranslator TRANSLATOR = new PoolKeyTranslator("transx")
+        .map(PoolConfigKeys.MIN_IDLE, POOL_PREFIX, "minIdle")
+        .map(PoolConfigKeys.MAX_SIZE, POOL_PREFIX, "maxPoolSize")
+        .map(PoolConfigKeys.ACQUIRE_TIMEOUT, POOL_PREFIX, "connectionTimeout")
+        .map(PoolConfigKeys.IDLE_TIMEOUT, POOL_PREFIX, "idleTimeout")
+        .map(PoolConfigKeys.MAX_LIFETIME, POOL_PREFIX, "maxLifetime")
+        .map(PoolConfigKeys.STATEMENT_CACHE_SIZE, POOL_PREFIX, "preparedStatementCacheSize")
+        .fixed(PoolConfigKeys.PREFILL, "false");
     private  static final Logger LOG = LoggerFactory.getLogger(TransxPooledDataSourceFactory.class);
 
     public DataSource create(DataSourceFactory dsf, Properties props) throws SQLException {
         try {
-            CommonDataSource ds = dsf.createDataSource(getNonPoolProps(props));
+            PropertySplitter.Result split = SPLITTER.split(props);
+            TRANSLATOR.translate(split);
+            CommonDataSource ds = dsf.createDataSource(split.driver());
             DataSource mds = ManagedDataSourceBuilder.builder()
                     .dataSource(ds)
                     .transaction(TransactionSupportLevel.NoTransaction)
-                    .properties(getPoolProps(props))
+                    .properties(Collections.<String, Object>unmodifiableMap(split.group(POOL_PREFIX)))
                     .build();
             return mds;
         }
@@ -64,28 +79,5 @@ public class TransxPooledDataSourceFactory implements PooledDataSourceFactory {
             }
         }
     }
-    
-    protected Map<String, Object> getPoolProps(Properties props) {
-        Map<String, Object> poolProps = new HashMap<>();
-        for (Object keyO : props.keySet()) {
-            String key = (String) keyO;
-            if (key.startsWith(POOL_PREFIX)) {
-                String strippedKey = key.substring(POOL_PREFIX.length());
-                poolProps.put(strippedKey, props.get(key));
-            }
-        }
-        return poolProps;
-    }
-
-    protected Properties getNonPoolProps(Properties props) {
-        Properties dsProps = new Properties();
-        for (Object keyO : props.keySet()) {
-            String key = (String) keyO;
-            if (!key.startsWith(POOL_PREFIX)) {
-                dsProps.put(key, props.get(key));
-            }
-        }
-        return dsProps;
-    }
 
 }
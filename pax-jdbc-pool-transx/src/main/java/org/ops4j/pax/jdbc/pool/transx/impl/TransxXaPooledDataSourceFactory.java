@@ -15,6 +15,7 @@
  */
 package org.ops4j.pax.jdbc.pool.transx.impl;
 
+import org.ops4j.pax.jdbc.pool.common.impl.PropertySplitter;
 import org.ops4j.pax.transx.jdbc.ManagedDataSourceBuilder;
 import org.ops4j.pax.transx.tm.TransactionManager;
 import org.osgi.service.jdbc.DataSourceFactory;
@@ -26,6 +27,7 @@ import javax.sql.DataSource;
 import javax.sql.CommonDataSource;
 
 import java.sql.SQLException;
+import java.util.Collections;
 import java.util.Map;
 import java.util.Properties;
 
@@ -54,22 +56,24 @@ public class TransxXaPooledDataSourceFactory extends TransxPooledDataSourceFacto
     @Override
     public DataSource create(DataSourceFactory dsf, Properties props) throws SQLException {
         try {
-            Map<String, Object> poolProps = getPoolProps(props);
-            Object local = poolProps.remove("local");
+            PropertySplitter.Result split = SPLITTER.split(props);
+            TRANSLATOR.translate(split);
+            Map<String, String> poolProps = split.group(POOL_PREFIX);
+            String local = poolProps.remove("local");
             CommonDataSource ds;
             TransactionSupportLevel tsl;
             if ("true".equals(local)) {
-                ds = dsf.createDataSource(getNonPoolProps(props));
+                ds = dsf.createDataSource(split.driver());
                 tsl = TransactionSupportLevel.LocalTransaction;
             } else {
-                ds = dsf.createXADataSource(getNonPoolProps(props));
+                ds = dsf.createXADataSource(split.driver());
                 tsl = TransactionSupportLevel.XATransaction;
             }
             DataSource mds = ManagedDataSourceBuilder.builder()
                     .dataSource(ds)
                     .transaction(tsl)
                     .transactionManager(tm)
-                    .properties(poolProps)
+                    .properties(Collections.<String, Object>unmodifiableMap(poolProps))
                     .build();
             return mds;
         }
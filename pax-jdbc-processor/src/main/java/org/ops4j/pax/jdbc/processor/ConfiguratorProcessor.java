@@ -0,0 +1,230 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.processor;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+
+/**
+ * Generates {@code BeanConfigurator}s for classes listed in {@code GenerateConfigurators}. Setters are selected the
+ * same way {@code BeanConfig} selects them reflectively, so generated and reflective configuration behave the
+ * same.
+ */
+@SupportedAnnotationTypes(ConfiguratorProcessor.ANNOTATION)
+public class ConfiguratorProcessor extends AbstractProcessor {
+
+    static final String ANNOTATION = "org.ops4j.pax.jdbc.common.GenerateConfigurators";
+
+    private static final String BEAN_CONFIG = "org.ops4j.pax.jdbc.common.BeanConfig";
+
+    private static final Map<String, String> CONVERSIONS = new LinkedHashMap<>();
+
+    static {
+        CONVERSIONS.put("java.lang.String", "value");
+        CONVERSIONS.put("int", "Integer.parseInt(value)");
+        CONVERSIONS.put("java.lang.Integer", "Integer.valueOf(value)");
+        CONVERSIONS.put("long", "Long.parseLong(value)");
+        CONVERSIONS.put("java.lang.Long", "Long.valueOf(value)");
+        CONVERSIONS.put("boolean", "Boolean.parseBoolean(value)");
+        CONVERSIONS.put("java.lang.Boolean", "Boolean.valueOf(value)");
+        CONVERSIONS.put("double", "Double.parseDouble(value)");
+        CONVERSIONS.put("java.lang.Double", "Double.valueOf(value)");
+        CONVERSIONS.put("float", "Float.parseFloat(value)");
+        CONVERSIONS.put("java.lang.Float", "Float.valueOf(value)");
+        CONVERSIONS.put("java.time.Duration", BEAN_CONFIG + ".parseDuration(value)");
+        CONVERSIONS.put("java.util.Properties", BEAN_CONFIG + ".parseProperties(value)");
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        TypeElement annotation = processingEnv.getElementUtils().getTypeElement(ANNOTATION);
+        if (annotation == null) {
+            return false;
+        }
+        for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+            try {
+                generate((TypeElement) element, targetTypes(element, annotation));
+            } catch (IOException e) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                        "Can't generate configurators: " + e.getMessage(), element);
+            }
+        }
+        return true;
+    }
+
+    private List<TypeElement> targetTypes(Element element, TypeElement annotation) {
+        List<TypeElement> types = new ArrayList<>();
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            if (!mirror.getAnnotationType().asElement().equals(annotation)) {
+                continue;
+            }
+            for (AnnotationValue value : mirror.getElementValues().values()) {
+                @SuppressWarnings("unchecked")
+                List<? extends AnnotationValue> classes = (List<? extends AnnotationValue>) value.getValue();
+                for (AnnotationValue cls : classes) {
+                    TypeElement type = (TypeElement) ((DeclaredType) cls.getValue()).asElement();
+                    if (!type.getModifiers().contains(Modifier.PUBLIC)) {
+                        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                                type.getQualifiedName() + " is not public", element);
+                    } else {
+                        types.add(type);
+                    }
+                }
+            }
+        }
+        return types;
+    }
+
+    private void generate(TypeElement owner, List<TypeElement> types) throws IOException {
+        String packageName = ((PackageElement) processingEnv.getElementUtils().getPackageOf(owner))
+                .getQualifiedName().toString();
+        String className = owner.getSimpleName() + "Configurators";
+        String fqcn = packageName.isEmpty() ? className : packageName + "." + className;
+        try (PrintWriter out = new PrintWriter(processingEnv.getFiler().createSourceFile(fqcn, owner).openWriter())) {
+            if (!packageName.isEmpty()) {
+                out.println("package " + packageName + ";");
+                out.println();
+            }
+            out.println("/**");
+            out.println(" * Generated from {@link " + owner.getQualifiedName() + "}, do not edit.");
+            out.println(" */");
+            out.println("@SuppressWarnings({ \"rawtypes\", \"unchecked\", \"deprecation\" })");
+            out.println("final class " + className + " {");
+            out.println();
+            out.println("    private " + className + "() {");
+            out.println("    }");
+            out.println();
+            out.println("    static void register() {");
+            for (TypeElement type : types) {
+                out.println("        " + BEAN_CONFIG + ".register(" + type.getQualifiedName() + ".class, new "
+                        + type.getSimpleName() + "Configurator());");
+            }
+            out.println("    }");
+            for (TypeElement type : types) {
+                out.println();
+                writeConfigurator(out, type);
+            }
+            out.println();
+            out.println("}");
+        }
+    }
+
+    private void writeConfigurator(PrintWriter out, TypeElement type) {
+        String typeName = type.getQualifiedName().toString();
+        out.println("    static final class " + type.getSimpleName() + "Configurator");
+        out.println("            implements org.ops4j.pax.jdbc.common.BeanConfigurator<" + typeName + "> {");
+        out.println();
+        out.println("        @Override");
+        out.println("        public boolean set(" + typeName + " bean, String key, String value) throws Exception {");
+        out.println("            switch (key) {");
+        for (Map.Entry<String, Setter> entry : findSetters(type).entrySet()) {
+            String name = entry.getKey();
+            Setter setter = entry.getValue();
+            out.println("            case \"" + name.substring(0, 1).toLowerCase() + name.substring(1) + "\":");
+            if (!name.substring(0, 1).toLowerCase().equals(name.substring(0, 1))) {
+                out.println("            case \"" + name + "\":");
+            }
+            out.println("                bean." + setter.method.getSimpleName() + "(" + setter.conversion + ");");
+            out.println("                return true;");
+        }
+        out.println("            default:");
+        out.println("                return false;");
+        out.println("            }");
+        out.println("        }");
+        out.println("    }");
+    }
+
+    /**
+     * Finds public setters with convertible parameter, keyed by property name with original capitalization.
+     */
+    private Map<String, Setter> findSetters(TypeElement type) {
+        Map<String, Setter> setters = new LinkedHashMap<>();
+        List<ExecutableElement> methods = new ArrayList<>(
+                ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(type)));
+        Collections.sort(methods, (m1, m2) -> m1.getSimpleName().toString().compareTo(m2.getSimpleName().toString()));
+        for (ExecutableElement method : methods) {
+            String name = method.getSimpleName().toString();
+            if (!name.startsWith("set") || name.length() <= 3 || method.getParameters().size() != 1
+                    || !method.getModifiers().contains(Modifier.PUBLIC)
+                    || method.getModifiers().contains(Modifier.STATIC)) {
+                continue;
+            }
+            String conversion = conversion(method.getParameters().get(0).asType());
+            if (conversion == null) {
+                continue;
+            }
+            boolean deprecated = processingEnv.getElementUtils().isDeprecated(method);
+            Setter setter = new Setter(method, conversion, deprecated);
+            String property = name.substring(3);
+            Setter existing = setters.get(property);
+            if (existing == null || existing.deprecated && !deprecated) {
+                setters.put(property, setter);
+            }
+        }
+        return setters;
+    }
+
+    private String conversion(TypeMirror type) {
+        TypeMirror erased = processingEnv.getTypeUtils().erasure(type);
+        String conversion = CONVERSIONS.get(erased.toString());
+        if (conversion == null && erased instanceof DeclaredType
+                && ((DeclaredType) erased).asElement().getKind() == ElementKind.ENUM) {
+            conversion = BEAN_CONFIG + ".parseEnum(" + erased + ".class, value)";
+        }
+        return conversion;
+    }
+
+    private static final class Setter {
+        private final ExecutableElement method;
+        private final String conversion;
+        private final boolean deprecated;
+
+        Setter(ExecutableElement method, String conversion, boolean deprecated) {
+            this.method = method;
+            this.conversion = conversion;
+            this.deprecated = deprecated;
+        }
+    }
+
+}
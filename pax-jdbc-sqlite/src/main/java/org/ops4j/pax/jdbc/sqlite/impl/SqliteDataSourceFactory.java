@@ -24,12 +24,18 @@ import javax.sql.DataSource;
 import javax.sql.XADataSource;
 
 import org.ops4j.pax.jdbc.common.BeanConfig;
+import org.ops4j.pax.jdbc.common.GenerateConfigurators;
 import org.osgi.service.jdbc.DataSourceFactory;
 import org.sqlite.JDBC;
 import org.sqlite.SQLiteDataSource;
 
+@GenerateConfigurators(SQLiteDataSource.class)
 public class SqliteDataSourceFactory implements DataSourceFactory {
 
+    static {
+        SqliteDataSourceFactoryConfigurators.register();
+    }
+
     @Override
     public DataSource createDataSource(Properties props) throws SQLException {
         SQLiteDataSource dataSource = new SQLiteDataSource();
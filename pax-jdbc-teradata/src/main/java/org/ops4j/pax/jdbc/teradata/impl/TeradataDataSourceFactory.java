@@ -16,10 +16,10 @@
 package org.ops4j.pax.jdbc.teradata.impl;
 
 import java.lang.reflect.Field;
-import java.lang.reflect.Method;
 import java.net.URI;
 import java.sql.Driver;
 import java.sql.SQLException;
+import java.util.Collections;
 import java.util.Properties;
 import java.util.StringTokenizer;
 
@@ -133,19 +133,18 @@ public class TeradataDataSourceFactory implements DataSourceFactory {
 
     private void setProperty(String value, Object instance, String methodName) throws Exception {
         if (value != null) {
-            instance.getClass().getMethod(methodName, String.class).invoke(instance, value);
+            // BeanConfig keeps the setters of the Teradata classes, which can't be generated at build time
+            BeanConfig.configure(instance, Collections.singletonMap(methodName.substring(3), value));
         }
     }
 
     private void setIntProperty(String value, Object instance, String methodName) throws Exception {
-        int iValue = new Integer(value);
-        instance.getClass().getMethod(methodName, int.class).invoke(instance, iValue);
+        setProperty(Integer.toString(Integer.parseInt(value)), instance, methodName);
     }
 
     private void parseUrlAndSetProperty(String url, Object dataSourceInstance) throws Exception {
 
         URI uri = URI.create(url);
-        Method[] methods = dataSourceInstance.getClass().getMethods();
 
         if (uri.getHost() != null) {
             setProperty(uri.getHost(), dataSourceInstance, "setDSName");
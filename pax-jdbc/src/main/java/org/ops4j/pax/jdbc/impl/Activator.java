@@ -15,20 +15,33 @@
  */
 package org.ops4j.pax.jdbc.impl;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.sql.Driver;
 import java.util.ArrayList;
 import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.ServiceLoader;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.BundleEvent;
+import org.osgi.framework.BundleListener;
 import org.osgi.framework.Constants;
 import org.osgi.framework.ServiceReference;
 import org.osgi.framework.ServiceRegistration;
+import org.osgi.framework.namespace.HostNamespace;
+import org.osgi.framework.wiring.BundleWire;
 import org.osgi.framework.wiring.BundleWiring;
 import org.osgi.service.jdbc.DataSourceFactory;
 import org.osgi.util.tracker.BundleTracker;
@@ -42,13 +55,31 @@ public class Activator implements BundleActivator, BundleTrackerCustomizer<List<
 
     public static final String DRIVER_NAME_NATIVE_SUFFIX = "-native";
 
+    static final String SERVICES_DIR = "META-INF/services";
+
+    static final String DRIVER_SERVICES = SERVICES_DIR + "/" + Driver.class.getName();
+
     private static final Logger LOG = LoggerFactory.getLogger(Activator.class);
 
+    /**
+     * Bundles known to contain no driver metadata, mapped to the last modification time of them and their
+     * attached fragments. A bundle that is updated or gets a new fragment is checked again.
+     */
+    private final Map<Long, Long> bundlesWithoutDrivers = new ConcurrentHashMap<>();
+
+    private final BundleListener uninstallListener = event -> {
+        if (event.getType() == BundleEvent.UNINSTALLED) {
+            bundlesWithoutDrivers.remove(event.getBundle().getBundleId());
+        }
+    };
+
     private BundleTracker<List<ServiceRegistration<DataSourceFactory>>> tracker;
 
     @Override
     public void start(final BundleContext bc) throws Exception {
         LOG.debug("starting bundle {}", BUNDLE_NAME);
+        ConnectExecutor.start();
+        bc.addBundleListener(uninstallListener);
         tracker = new BundleTracker<>(bc, Bundle.ACTIVE, this);
         tracker.open();
     }
@@ -57,6 +88,9 @@ public class Activator implements BundleActivator, BundleTrackerCustomizer<List<
     public void stop(BundleContext context) throws Exception {
         LOG.debug("stopping bundle {}", BUNDLE_NAME);
         tracker.close();
+        context.removeBundleListener(uninstallListener);
+        bundlesWithoutDrivers.clear();
+        ConnectExecutor.shutdown();
     }
 
     @Override
@@ -64,25 +98,28 @@ public class Activator implements BundleActivator, BundleTrackerCustomizer<List<
         if (bundle.getBundleId() == 0) {
             return null;
         }
+        Long lastModified = getLastModified(bundle);
+        if (lastModified.equals(bundlesWithoutDrivers.get(bundle.getBundleId()))) {
+            return null;
+        }
         try {
-            ServiceReference<?>[] registered = bundle.getRegisteredServices();
-            ClassLoader cl = bundle.adapt(BundleWiring.class).getClassLoader();
-            ServiceLoader<Driver> drivers = ServiceLoader.load(Driver.class, cl);
+            if (!mayContainDrivers(bundle)) {
+                bundlesWithoutDrivers.put(bundle.getBundleId(), lastModified);
+                return null;
+            }
+            Set<String> driverClassNames = getDriverClassNames(bundle);
+            if (driverClassNames.isEmpty()) {
+                bundlesWithoutDrivers.put(bundle.getBundleId(), lastModified);
+                return null;
+            }
+            Set<String> registered = getRegisteredDriverClassNames(bundle);
             List<ServiceRegistration<DataSourceFactory>> registrations = new ArrayList<>();
-            for (Driver driver : drivers) {
-                boolean alreadyRegistered = false;
-                if (registered != null) {
-                    for (ServiceReference<?> ref : registered) {
-                        if (isSameDataSourceFactory(driver, ref)) {
-                            alreadyRegistered = true;
-                            break;
-                        }
-                    }
-                }
-                if (!alreadyRegistered) {
-                    DriverDataSourceFactory dsf = new DriverDataSourceFactory(driver);
+            for (String driverClassName : driverClassNames) {
+                if (!registered.contains(driverClassName)) {
+                    // the driver is loaded by the service factory when the DataSourceFactory is first used
+                    DriverServiceFactory dsf = new DriverServiceFactory(bundle, driverClassName);
                     Dictionary<String, String> props = new Hashtable<>();
-                    props.put(DataSourceFactory.OSGI_JDBC_DRIVER_CLASS, driver.getClass().getName());
+                    props.put(DataSourceFactory.OSGI_JDBC_DRIVER_CLASS, driverClassName);
                     if (bundle.getSymbolicName() != null) {
                         props.put(DataSourceFactory.OSGI_JDBC_DRIVER_NAME, bundle.getSymbolicName() + DRIVER_NAME_NATIVE_SUFFIX);
                     }
@@ -100,6 +137,87 @@ public class Activator implements BundleActivator, BundleTrackerCustomizer<List<
         }
     }
 
+    /**
+     * @return latest modification time of given bundle and the fragments attached to it
+     */
+    static long getLastModified(Bundle bundle) {
+        long lastModified = bundle.getLastModified();
+        BundleWiring wiring = bundle.adapt(BundleWiring.class);
+        List<BundleWire> fragments = wiring == null ? null : wiring.getProvidedWires(HostNamespace.HOST_NAMESPACE);
+        if (fragments != null) {
+            for (BundleWire fragment : fragments) {
+                lastModified = Math.max(lastModified, fragment.getRequirer().getBundle().getLastModified());
+            }
+        }
+        return lastModified;
+    }
+
+    /**
+     * Cheap check whether given bundle may declare {@link Driver} services, without creating a class loader.
+     * Only the entries of the bundle and its attached fragments and its embedded {@code Bundle-ClassPath} jars
+     * are considered.
+     *
+     * @param bundle bundle to check
+     * @return {@code false} if the bundle certainly declares no drivers
+     */
+    static boolean mayContainDrivers(Bundle bundle) {
+        // unlike getEntry, findEntries also searches attached fragments
+        Enumeration<URL> services = bundle.findEntries(SERVICES_DIR, Driver.class.getName(), false);
+        if (services != null && services.hasMoreElements()) {
+            return true;
+        }
+        Dictionary<String, String> headers = bundle.getHeaders("");
+        String classPath = headers == null ? null : headers.get(Constants.BUNDLE_CLASSPATH);
+        if (classPath != null) {
+            for (String entry : classPath.split(",")) {
+                String path = entry.trim();
+                int params = path.indexOf(';');
+                if (params >= 0) {
+                    path = path.substring(0, params).trim();
+                }
+                if (!path.isEmpty() && !".".equals(path)) {
+                    // drivers may be declared in embedded jars, let the class loader find them
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads the names of {@link Driver} implementations from {@code META-INF/services/java.sql.Driver} of
+     * given bundle, without loading any driver class.
+     *
+     * @param bundle bundle to check
+     * @return driver class names in declaration order
+     * @throws IOException if service metadata can't be read
+     */
+    static Set<String> getDriverClassNames(Bundle bundle) throws IOException {
+        Set<String> classNames = new LinkedHashSet<>();
+        Enumeration<URL> resources = bundle.getResources(DRIVER_SERVICES);
+        if (resources == null) {
+            return classNames;
+        }
+        while (resources.hasMoreElements()) {
+            URL resource = resources.nextElement();
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(resource.openStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    int comment = line.indexOf('#');
+                    if (comment >= 0) {
+                        line = line.substring(0, comment);
+                    }
+                    line = line.trim();
+                    if (!line.isEmpty()) {
+                        classNames.add(line);
+                    }
+                }
+            }
+        }
+        return classNames;
+    }
+
     @Override
     public void modifiedBundle(Bundle bundle, BundleEvent event, List<ServiceRegistration<DataSourceFactory>> object) {
     }
@@ -111,11 +229,24 @@ public class Activator implements BundleActivator, BundleTrackerCustomizer<List<
         }
     }
 
-    private boolean isSameDataSourceFactory(Driver driver, ServiceReference<?> ref) {
+    private static Set<String> getRegisteredDriverClassNames(Bundle bundle) {
+        Set<String> classNames = new HashSet<>();
+        ServiceReference<?>[] registered = bundle.getRegisteredServices();
+        if (registered != null) {
+            for (ServiceReference<?> ref : registered) {
+                Object driverClass = ref.getProperty(DataSourceFactory.OSGI_JDBC_DRIVER_CLASS);
+                if (driverClass instanceof String && isDataSourceFactory(ref)) {
+                    classNames.add((String) driverClass);
+                }
+            }
+        }
+        return classNames;
+    }
+
+    private static boolean isDataSourceFactory(ServiceReference<?> ref) {
         Object names = ref.getProperty(Constants.OBJECTCLASS);
-        return (names instanceof String && DataSourceFactory.class.getName().equals(names)
-                || names instanceof String[] && DataSourceFactory.class.getName().equals(((String[])names)[0]))
-                && driver.getClass().getName().equals(ref.getProperty(DataSourceFactory.OSGI_JDBC_DRIVER_CLASS));
+        return names instanceof String && DataSourceFactory.class.getName().equals(names)
+                || names instanceof String[] && DataSourceFactory.class.getName().equals(((String[])names)[0]);
     }
 
 }
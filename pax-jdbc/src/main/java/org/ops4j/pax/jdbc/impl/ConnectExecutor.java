@@ -0,0 +1,258 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.impl;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Executor of one {@link DriverDataSource} that runs connect attempts which have to finish within a login timeout.
+ * The calling thread waits for the attempt only until the deadline. Connections that arrive after the caller gave up
+ * are closed. Each DataSource has its own bounded threads, so connects hanging on one database never delay the
+ * DataSources of other databases.
+ */
+final class ConnectExecutor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ConnectExecutor.class);
+
+    private static final int THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+    private static final int QUEUED = 4 * THREADS;
+
+    /**
+     * Executors of all DataSources, they are stopped together with the bundle
+     */
+    private static final Set<ConnectExecutor> EXECUTORS = Collections.newSetFromMap(new WeakHashMap<>());
+    private static boolean stopped;
+
+    private final String name;
+    private ThreadPoolExecutor executor;
+    private boolean shutdown;
+
+    private ConnectExecutor(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @param name names the threads of the executor
+     */
+    static ConnectExecutor create(String name) {
+        ConnectExecutor connectExecutor = new ConnectExecutor(name);
+        synchronized (ConnectExecutor.class) {
+            connectExecutor.shutdown = stopped;
+            EXECUTORS.add(connectExecutor);
+        }
+        return connectExecutor;
+    }
+
+    /**
+     * A connect operation that may be run on another thread.
+     */
+    interface ConnectAction {
+        Connection connect() throws SQLException;
+    }
+
+    /**
+     * Runs {@code action} on the threads of this executor and waits at most {@code timeoutSeconds} for the result.
+     *
+     * @param action connect operation
+     * @param timeoutSeconds login timeout in seconds, must be positive
+     * @return the connection returned by {@code action}
+     * @throws SQLTimeoutException if the connection wasn't obtained before the deadline
+     * @throws SQLTransientConnectionException if too many connect attempts are pending
+     * @throws SQLException if the connect attempt failed or the executor is shut down
+     */
+    Connection connect(ConnectAction action, int timeoutSeconds) throws SQLException {
+        ConnectAttempt attempt = new ConnectAttempt(action);
+        try {
+            executor().execute(attempt);
+        } catch (RejectedExecutionException e) {
+            synchronized (this) {
+                if (shutdown) {
+                    throw new SQLException("Connect executor of " + name + " is shut down");
+                }
+            }
+            throw new SQLTransientConnectionException("Too many connect attempts to " + name + " pending");
+        }
+        return attempt.await(TimeUnit.SECONDS.toNanos(timeoutSeconds));
+    }
+
+    /**
+     * Stops the executors of all DataSources and rejects their connect attempts from now on. Threads still busy
+     * with connect attempts are interrupted.
+     */
+    static void shutdown() {
+        List<ConnectExecutor> executors;
+        synchronized (ConnectExecutor.class) {
+            stopped = true;
+            executors = new ArrayList<>(EXECUTORS);
+            EXECUTORS.clear();
+        }
+        for (ConnectExecutor connectExecutor : executors) {
+            connectExecutor.stop();
+        }
+    }
+
+    /**
+     * Lets DataSources created from now on connect again after {@link #shutdown()}.
+     */
+    static synchronized void start() {
+        stopped = false;
+    }
+
+    private synchronized void stop() {
+        shutdown = true;
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    private synchronized ThreadPoolExecutor executor() {
+        if (shutdown) {
+            throw new RejectedExecutionException();
+        }
+        if (executor == null) {
+            ThreadPoolExecutor tpe = new ThreadPoolExecutor(THREADS, THREADS, 60L, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(QUEUED), new ConnectThreadFactory(name));
+            tpe.allowCoreThreadTimeOut(true);
+            executor = tpe;
+        }
+        return executor;
+    }
+
+    /**
+     * Hand-off between the thread connecting to the database and the thread waiting for the connection.
+     */
+    private static final class ConnectAttempt implements Runnable {
+
+        private final ConnectAction action;
+
+        private Thread runner;
+        private boolean done;
+        private boolean abandoned;
+        private Connection connection;
+        private SQLException failure;
+
+        ConnectAttempt(ConnectAction action) {
+            this.action = action;
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (abandoned) {
+                    return;
+                }
+                runner = Thread.currentThread();
+            }
+            Connection c = null;
+            SQLException ex = null;
+            try {
+                c = action.connect();
+            } catch (SQLException e) {
+                ex = e;
+            } catch (RuntimeException e) {
+                ex = new SQLException(e.getMessage(), e);
+            }
+            synchronized (this) {
+                runner = null;
+                // clear a possible cancellation request, the pooled thread is reused
+                Thread.interrupted();
+                if (abandoned) {
+                    closeQuietly(c);
+                    return;
+                }
+                connection = c;
+                failure = ex;
+                done = true;
+                notifyAll();
+            }
+        }
+
+        synchronized Connection await(long timeoutNanos) throws SQLException {
+            long deadline = System.nanoTime() + timeoutNanos;
+            try {
+                while (!done) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        abandon();
+                        throw new SQLTimeoutException("Could not connect within login timeout of "
+                                + TimeUnit.NANOSECONDS.toSeconds(timeoutNanos) + "s");
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                }
+            } catch (InterruptedException e) {
+                abandon();
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for connection", e);
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return connection;
+        }
+
+        private void abandon() {
+            abandoned = true;
+            if (runner != null) {
+                runner.interrupt();
+            }
+        }
+
+        private static void closeQuietly(Connection c) {
+            if (c != null) {
+                try {
+                    c.close();
+                } catch (SQLException e) {
+                    LOG.debug("Error closing connection obtained after login timeout: " + e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    private static final class ConnectThreadFactory implements ThreadFactory {
+
+        private final String name;
+        private final AtomicInteger count = new AtomicInteger();
+
+        ConnectThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "pax-jdbc-connect-" + name + "-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.impl;
+
+import java.io.PrintWriter;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+
+import javax.sql.ConnectionPoolDataSource;
+import javax.sql.PooledConnection;
+
+/**
+ * {@link ConnectionPoolDataSource} for drivers that don't provide one. Physical connections are obtained
+ * from a {@link DriverDataSource} and wrapped in {@link DriverPooledConnection}s.
+ */
+public class DriverConnectionPoolDataSource implements ConnectionPoolDataSource {
+
+    private final DriverDataSource dataSource;
+
+    public DriverConnectionPoolDataSource(DriverDataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    @Override
+    public PooledConnection getPooledConnection() throws SQLException {
+        return new DriverPooledConnection(dataSource.getConnection());
+    }
+
+    @Override
+    public PooledConnection getPooledConnection(String user, String password) throws SQLException {
+        return new DriverPooledConnection(dataSource.getConnection(user, password));
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return dataSource.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        dataSource.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        dataSource.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return dataSource.getLoginTimeout();
+    }
+
+    /**
+     * Method added in JDBC 4.1/JDK 7. By not adding the {@code @Override} annotation we stay
+     * compatible with JDK 6.
+     *
+     * @return
+     * @throws SQLFeatureNotSupportedException
+     */
+    public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException("this datasource does not use java.util.logging");
+    }
+
+}
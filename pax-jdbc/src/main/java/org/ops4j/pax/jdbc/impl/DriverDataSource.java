@@ -20,7 +20,10 @@ import java.sql.Connection;
 import java.sql.Driver;
 import java.sql.SQLException;
 import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTimeoutException;
+import java.util.Objects;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.sql.DataSource;
 
@@ -37,11 +40,41 @@ public class DriverDataSource implements DataSource {
     private final String user;
     private final String password;
 
+    /**
+     * Properties passed to {@link Driver#connect(String, Properties)} when connecting with the configured
+     * credentials. Built once, each connect attempt gets its own copy, so drivers are free to change it.
+     */
+    private final Properties connectProperties;
+
+    private final AtomicLong timedOutConnectAttempts = new AtomicLong();
+
+    /**
+     * Runs the connect attempts bounded by the login timeout
+     */
+    private final ConnectExecutor connectExecutor;
+
+    private volatile int loginTimeout;
+
     public DriverDataSource(Driver driver, String url, String user, String password) {
+        this(driver, url, user, password, new Properties());
+    }
+
+    /**
+     * Creates a {@link DataSource} connecting through given {@link Driver}.
+     *
+     * @param driver the driver to connect with
+     * @param url JDBC URL
+     * @param user default user name (may be {@code null})
+     * @param password default password (may be {@code null})
+     * @param driverProperties additional, non-credential properties passed to the driver on each connect
+     */
+    public DriverDataSource(Driver driver, String url, String user, String password, Properties driverProperties) {
         this.driver = driver;
         this.url = url;
         this.user = user;
         this.password = password;
+        this.connectProperties = connectProperties(driverProperties, user, password);
+        this.connectExecutor = ConnectExecutor.create(driver.getClass().getSimpleName());
     }
 
     @Override
@@ -54,14 +87,32 @@ public class DriverDataSource implements DataSource {
         LOG.warn("setLogWriter() has no effect");
     }
 
+    /**
+     * Sets the maximum time to wait for a connection. With a positive timeout, each connect attempt runs on an
+     * executor of this DataSource and the calling thread gives up when the timeout elapses.
+     *
+     * @param seconds login timeout in seconds, 0 waits as long as the driver does
+     */
     @Override
     public void setLoginTimeout(int seconds) throws SQLException {
-        LOG.warn("setLoginTimeout() has no effect");
+        if (seconds < 0) {
+            throw new SQLException("Login timeout must not be negative: " + seconds);
+        }
+        loginTimeout = seconds;
     }
 
     @Override
     public int getLoginTimeout() throws SQLException {
-        return 0;
+        return loginTimeout;
+    }
+
+    /**
+     * Returns the number of connect attempts that did not finish within the login timeout.
+     *
+     * @return number of timed out connect attempts
+     */
+    public long getTimedOutConnectAttempts() {
+        return timedOutConnectAttempts.get();
     }
 
     @Override
@@ -85,14 +136,43 @@ public class DriverDataSource implements DataSource {
 
     @Override
     public Connection getConnection(String username, String password) throws SQLException {
+        if (Objects.equals(username, this.user) && Objects.equals(password, this.password)) {
+            return connect((Properties) connectProperties.clone());
+        }
+        return connect(connectProperties(connectProperties, username, password));
+    }
+
+    private Connection connect(Properties props) throws SQLException {
+        int timeout = loginTimeout;
+        if (timeout <= 0) {
+            return driver.connect(url, props);
+        }
+        try {
+            return connectExecutor.connect(() -> driver.connect(url, props), timeout);
+        } catch (SQLTimeoutException e) {
+            timedOutConnectAttempts.incrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * Builds connect properties out of driver properties and credentials. Drivers read them with
+     * {@code keySet()} and {@code get()} as well, so all of them are entries rather than defaults.
+     */
+    private static Properties connectProperties(Properties driverProperties, String username, String password) {
         Properties props = new Properties();
+        for (String key : driverProperties.stringPropertyNames()) {
+            if (!DataSourceFactory.JDBC_USER.equals(key) && !DataSourceFactory.JDBC_PASSWORD.equals(key)) {
+                props.put(key, driverProperties.getProperty(key));
+            }
+        }
         if (username != null) {
-            props.setProperty(DataSourceFactory.JDBC_USER, username);
+            props.put(DataSourceFactory.JDBC_USER, username);
         }
         if (password != null) {
-            props.setProperty(DataSourceFactory.JDBC_PASSWORD, password);
+            props.put(DataSourceFactory.JDBC_PASSWORD, password);
         }
-        return driver.connect(url, props);
+        return props;
     }
 
     /**
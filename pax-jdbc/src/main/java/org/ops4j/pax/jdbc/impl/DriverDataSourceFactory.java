@@ -17,7 +17,10 @@ package org.ops4j.pax.jdbc.impl;
 
 import java.sql.Driver;
 import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Properties;
+import java.util.Set;
 
 import javax.sql.ConnectionPoolDataSource;
 import javax.sql.DataSource;
@@ -27,6 +30,21 @@ import org.osgi.service.jdbc.DataSourceFactory;
 
 public class DriverDataSourceFactory implements DataSourceFactory {
 
+    /**
+     * Configuration key for the login timeout (in seconds) of created {@link DataSource}s.
+     */
+    public static final String LOGIN_TIMEOUT = "loginTimeout";
+
+    /**
+     * Configuration keys that are consumed by the {@link DataSource} and not passed to the {@link Driver}.
+     */
+    private static final Set<String> NON_DRIVER_KEYS = new HashSet<>(Arrays.asList(
+            JDBC_URL,
+            JDBC_DATASOURCE_NAME,
+            JDBC_DESCRIPTION,
+            LOGIN_TIMEOUT
+    ));
+
     private final Driver driver;
 
     public DriverDataSourceFactory(Driver driver) {
@@ -37,13 +55,42 @@ public class DriverDataSourceFactory implements DataSourceFactory {
         String url = props.getProperty(JDBC_URL);
         String user = props.getProperty(JDBC_USER);
         String password = props.getProperty(JDBC_PASSWORD);
-        return new DriverDataSource(driver, url, user, password);
+        DriverDataSource ds = new DriverDataSource(driver, url, user, password, getDriverProperties(props));
+        String loginTimeout = props.getProperty(LOGIN_TIMEOUT);
+        if (loginTimeout != null) {
+            try {
+                ds.setLoginTimeout(Integer.parseInt(loginTimeout.trim()));
+            } catch (NumberFormatException e) {
+                throw new SQLException("Invalid " + LOGIN_TIMEOUT + ": " + loginTimeout, e);
+            }
+        }
+        return ds;
+    }
+
+    /**
+     * Returns the properties that should be passed to {@link Driver#connect(String, Properties)}. These are all
+     * configured properties, except the ones describing the {@link DataSource} itself.
+     *
+     * @param props data source configuration
+     * @return properties to pass to the driver
+     */
+    static Properties getDriverProperties(Properties props) {
+        Properties driverProps = new Properties();
+        for (String key : props.stringPropertyNames()) {
+            if (!NON_DRIVER_KEYS.contains(key)) {
+                driverProps.setProperty(key, props.getProperty(key));
+            }
+        }
+        return driverProps;
     }
 
+    /**
+     * Creates a {@link ConnectionPoolDataSource} that hands out {@link DriverPooledConnection}s wrapping
+     * physical connections of the native driver.
+     */
     public ConnectionPoolDataSource createConnectionPoolDataSource(Properties props)
         throws SQLException {
-        throw new SQLException(
-            "not supported - use a driver adapter org.ops4j.pax.jdbc.<subprotocol>");
+        return new DriverConnectionPoolDataSource((DriverDataSource) createDataSource(props));
     }
 
     public XADataSource createXADataSource(Properties props) throws SQLException {
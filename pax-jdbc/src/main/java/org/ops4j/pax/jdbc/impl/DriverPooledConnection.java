@@ -0,0 +1,343 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.impl;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.sql.ConnectionEvent;
+import javax.sql.ConnectionEventListener;
+import javax.sql.PooledConnection;
+import javax.sql.StatementEvent;
+import javax.sql.StatementEventListener;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link PooledConnection} around a physical {@link Connection} obtained from a {@link java.sql.Driver}.
+ * <p>
+ * {@link #getConnection()} returns a logical connection handle. Closing the handle doesn't close the
+ * physical connection, but notifies {@link ConnectionEventListener}s, so a pool can recycle it. Fatal
+ * (connection related) {@link SQLException}s are reported with
+ * {@link ConnectionEventListener#connectionErrorOccurred(ConnectionEvent)}. Closing or failing
+ * {@link PreparedStatement}s is reported to {@link StatementEventListener}s. Statements, metadata and result sets
+ * of a handle lead back to the handle, never to the physical connection.
+ */
+public class DriverPooledConnection implements PooledConnection {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DriverPooledConnection.class);
+
+    /**
+     * SQLState class for connection exceptions.
+     */
+    private static final String CONNECTION_EXCEPTION_CLASS = "08";
+
+    private final Connection physicalConnection;
+    private final List<ConnectionEventListener> connectionEventListeners = new CopyOnWriteArrayList<>();
+    private final List<StatementEventListener> statementEventListeners = new CopyOnWriteArrayList<>();
+
+    private ConnectionHandle handle;
+    private boolean closed;
+
+    public DriverPooledConnection(Connection physicalConnection) {
+        this.physicalConnection = physicalConnection;
+    }
+
+    /**
+     * Returns a new logical handle for the physical connection. A handle returned previously is closed
+     * without notifying the listeners.
+     */
+    @Override
+    public synchronized Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("PooledConnection is closed");
+        }
+        if (handle != null) {
+            handle.invalidate();
+        }
+        handle = new ConnectionHandle();
+        return (Connection) Proxy.newProxyInstance(DriverPooledConnection.class.getClassLoader(),
+                new Class<?>[] { Connection.class }, handle);
+    }
+
+    @Override
+    public void close() throws SQLException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (handle != null) {
+                handle.invalidate();
+                handle = null;
+            }
+        }
+        physicalConnection.close();
+    }
+
+    @Override
+    public void addConnectionEventListener(ConnectionEventListener listener) {
+        connectionEventListeners.add(listener);
+    }
+
+    @Override
+    public void removeConnectionEventListener(ConnectionEventListener listener) {
+        connectionEventListeners.remove(listener);
+    }
+
+    @Override
+    public void addStatementEventListener(StatementEventListener listener) {
+        statementEventListeners.add(listener);
+    }
+
+    @Override
+    public void removeStatementEventListener(StatementEventListener listener) {
+        statementEventListeners.remove(listener);
+    }
+
+    private void fireConnectionClosed() {
+        ConnectionEvent event = new ConnectionEvent(this);
+        for (ConnectionEventListener listener : connectionEventListeners) {
+            listener.connectionClosed(event);
+        }
+    }
+
+    private void fireConnectionError(SQLException e) {
+        ConnectionEvent event = new ConnectionEvent(this, e);
+        for (ConnectionEventListener listener : connectionEventListeners) {
+            listener.connectionErrorOccurred(event);
+        }
+    }
+
+    private void fireStatementClosed(PreparedStatement statement) {
+        StatementEvent event = new StatementEvent(this, statement);
+        for (StatementEventListener listener : statementEventListeners) {
+            listener.statementClosed(event);
+        }
+    }
+
+    private void fireStatementError(PreparedStatement statement, SQLException e) {
+        StatementEvent event = new StatementEvent(this, statement, e);
+        for (StatementEventListener listener : statementEventListeners) {
+            listener.statementErrorOccurred(event);
+        }
+    }
+
+    /**
+     * Checks whether the exception means the physical connection is unusable.
+     */
+    static boolean isFatal(SQLException e) {
+        if (e instanceof SQLNonTransientConnectionException) {
+            return true;
+        }
+        String state = e.getSQLState();
+        return state != null && state.startsWith(CONNECTION_EXCEPTION_CLASS);
+    }
+
+    private void reportIfFatal(Throwable t) {
+        if (t instanceof SQLException && isFatal((SQLException) t)) {
+            LOG.debug("Fatal connection error: " + t.getMessage());
+            fireConnectionError((SQLException) t);
+        }
+    }
+
+    /**
+     * Logical connection handed out by {@link #getConnection()}.
+     */
+    private final class ConnectionHandle implements InvocationHandler {
+
+        private volatile boolean handleClosed;
+
+        void invalidate() {
+            handleClosed = true;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return "Logical connection to " + physicalConnection;
+            case "isClosed":
+                return handleClosed || physicalConnection.isClosed();
+            case "close":
+                if (!handleClosed) {
+                    handleClosed = true;
+                    fireConnectionClosed();
+                }
+                return null;
+            default:
+                break;
+            }
+            if (handleClosed) {
+                throw new SQLException("Connection is closed");
+            }
+            if (isUnwrapToProxy(proxy, method, args)) {
+                return "unwrap".equals(method.getName()) ? proxy : Boolean.TRUE;
+            }
+            Object result;
+            try {
+                result = method.invoke(physicalConnection, args);
+            } catch (InvocationTargetException e) {
+                reportIfFatal(e.getCause());
+                throw e.getCause();
+            }
+            return wrapResult(result, method.getReturnType(), proxy, proxy);
+        }
+    }
+
+    /**
+     * Checks for {@code unwrap} or {@code isWrapperFor} of an interface the proxy implements itself.
+     */
+    private static boolean isUnwrapToProxy(Object proxy, Method method, Object[] args) {
+        String name = method.getName();
+        return ("unwrap".equals(name) || "isWrapperFor".equals(name)) && args != null && args.length == 1
+                && args[0] instanceof Class && ((Class<?>) args[0]).isInstance(proxy);
+    }
+
+    /**
+     * Wraps statements, metadata and result sets, so they return the logical connection.
+     *
+     * @param parentProxy statement returned by {@link ResultSet#getStatement()}
+     */
+    private Object wrapResult(Object result, Class<?> type, Object connectionProxy, Object parentProxy) {
+        if (result instanceof Statement) {
+            return wrapStatement((Statement) result, type, connectionProxy);
+        }
+        if (result != null && (type == DatabaseMetaData.class || type == ResultSet.class)) {
+            return Proxy.newProxyInstance(DriverPooledConnection.class.getClassLoader(), new Class<?>[] { type },
+                    new ChildHandle(result, connectionProxy, parentProxy));
+        }
+        return result;
+    }
+
+    private Object wrapStatement(Statement statement, Class<?> type, Object connectionProxy) {
+        Class<?> iface = type == CallableStatement.class || type == PreparedStatement.class ? type : Statement.class;
+        return Proxy.newProxyInstance(DriverPooledConnection.class.getClassLoader(), new Class<?>[] { iface },
+                new StatementHandle(statement, connectionProxy));
+    }
+
+    /**
+     * Statement created through a logical connection. Reports statement events for prepared statements and
+     * returns the logical connection from {@link Statement#getConnection()}.
+     */
+    private final class StatementHandle implements InvocationHandler {
+
+        private final Statement statement;
+        private final Object connectionProxy;
+
+        StatementHandle(Statement statement, Object connectionProxy) {
+            this.statement = statement;
+            this.connectionProxy = connectionProxy;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return statement.toString();
+            case "getConnection":
+                return connectionProxy;
+            default:
+                break;
+            }
+            if (isUnwrapToProxy(proxy, method, args)) {
+                return "unwrap".equals(method.getName()) ? proxy : Boolean.TRUE;
+            }
+            try {
+                Object result = method.invoke(statement, args);
+                if ("close".equals(method.getName()) && proxy instanceof PreparedStatement) {
+                    fireStatementClosed((PreparedStatement) proxy);
+                }
+                return wrapResult(result, method.getReturnType(), connectionProxy, proxy);
+            } catch (InvocationTargetException e) {
+                if (e.getCause() instanceof SQLException && proxy instanceof PreparedStatement) {
+                    fireStatementError((PreparedStatement) proxy, (SQLException) e.getCause());
+                }
+                reportIfFatal(e.getCause());
+                throw e.getCause();
+            }
+        }
+    }
+
+    /**
+     * Metadata or result set of a logical connection, returning the logical connection and the statement it came
+     * from.
+     */
+    private final class ChildHandle implements InvocationHandler {
+
+        private final Object target;
+        private final Object connectionProxy;
+        private final Object parentProxy;
+
+        ChildHandle(Object target, Object connectionProxy, Object parentProxy) {
+            this.target = target;
+            this.connectionProxy = connectionProxy;
+            this.parentProxy = parentProxy;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return target.toString();
+            case "getConnection":
+                return connectionProxy;
+            case "getStatement":
+                if (parentProxy instanceof Statement) {
+                    return parentProxy;
+                }
+                break;
+            default:
+                break;
+            }
+            if (isUnwrapToProxy(proxy, method, args)) {
+                return "unwrap".equals(method.getName()) ? proxy : Boolean.TRUE;
+            }
+            try {
+                return wrapResult(method.invoke(target, args), method.getReturnType(), connectionProxy, proxy);
+            } catch (InvocationTargetException e) {
+                reportIfFatal(e.getCause());
+                throw e.getCause();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.impl;
+
+import java.sql.Driver;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.ServiceFactory;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.jdbc.DataSourceFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link ServiceFactory} for {@link DriverDataSourceFactory} services. The {@link Driver} class is loaded and
+ * instantiated only when the service is requested for the first time. All consumers share the same
+ * {@link DriverDataSourceFactory}.
+ */
+public class DriverServiceFactory implements ServiceFactory<DataSourceFactory> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DriverServiceFactory.class);
+
+    private final Bundle driverBundle;
+    private final String driverClassName;
+
+    private DriverDataSourceFactory dsf;
+
+    /**
+     * @param driverBundle bundle containing the driver
+     * @param driverClassName name of the {@link Driver} implementation, as listed in
+     *        {@code META-INF/services/java.sql.Driver}
+     */
+    public DriverServiceFactory(Bundle driverBundle, String driverClassName) {
+        this.driverBundle = driverBundle;
+        this.driverClassName = driverClassName;
+    }
+
+    @Override
+    public synchronized DataSourceFactory getService(Bundle bundle, ServiceRegistration<DataSourceFactory> registration) {
+        if (dsf == null) {
+            try {
+                LOG.debug("Loading driver {} from bundle {}", driverClassName, driverBundle.getSymbolicName());
+                Class<?> driverClass = driverBundle.loadClass(driverClassName);
+                Driver driver = (Driver) driverClass.getConstructor().newInstance();
+                dsf = new DriverDataSourceFactory(driver);
+            } catch (Exception | LinkageError e) {
+                LOG.error("Unable to instantiate driver " + driverClassName + ": " + e.getMessage(), e);
+                return null;
+            }
+        }
+        return dsf;
+    }
+
+    @Override
+    public void ungetService(Bundle bundle, ServiceRegistration<DataSourceFactory> registration, DataSourceFactory service) {
+        // the factory stays cached for the next consumer, it's released with the registration
+    }
+
+}
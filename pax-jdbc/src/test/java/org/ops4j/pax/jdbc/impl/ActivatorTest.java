@@ -0,0 +1,245 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverPropertyInfo;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceFactory;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.framework.Version;
+import org.osgi.framework.namespace.HostNamespace;
+import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.framework.wiring.BundleWire;
+import org.osgi.framework.wiring.BundleWiring;
+import org.osgi.service.jdbc.DataSourceFactory;
+
+public class ActivatorTest {
+
+    @Test
+    public void testDriverClassNamesFromServiceMetadata() throws Exception {
+        Bundle bundle = driverBundle("# comment\n" + TestDriver.class.getName() + "  # trailing comment\n\n"
+                + "org.example.OtherDriver\n");
+        assertEquals(Arrays.asList(TestDriver.class.getName(), "org.example.OtherDriver"),
+                Arrays.asList(Activator.getDriverClassNames(bundle).toArray()));
+    }
+
+    @Test
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public void testDriverLoadedOnFirstUse() throws Exception {
+        Bundle bundle = driverBundle(TestDriver.class.getName() + "\n");
+        BundleContext context = mock(BundleContext.class);
+        when(bundle.getBundleContext()).thenReturn(context);
+        ServiceRegistration<DataSourceFactory> reg = mock(ServiceRegistration.class);
+        ArgumentCaptor<ServiceFactory> factory = ArgumentCaptor.forClass(ServiceFactory.class);
+        ArgumentCaptor<Dictionary> props = ArgumentCaptor.forClass(Dictionary.class);
+        when(context.registerService(eq(DataSourceFactory.class), factory.capture(), props.capture())).thenReturn(reg);
+
+        List<ServiceRegistration<DataSourceFactory>> regs = new Activator().addingBundle(bundle, null);
+
+        assertEquals(Collections.singletonList(reg), regs);
+        assertEquals(TestDriver.class.getName(), props.getValue().get(DataSourceFactory.OSGI_JDBC_DRIVER_CLASS));
+        assertEquals("test.driver-native", props.getValue().get(DataSourceFactory.OSGI_JDBC_DRIVER_NAME));
+        verify(bundle, never()).loadClass(anyString());
+
+        DataSourceFactory dsf = (DataSourceFactory) factory.getValue().getService(bundle, reg);
+        assertTrue(dsf.createDriver(null) instanceof TestDriver);
+        assertSame(dsf, factory.getValue().getService(mock(Bundle.class), reg));
+        verify(bundle).loadClass(TestDriver.class.getName());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testBrokenDriver() throws Exception {
+        Bundle bundle = driverBundle("org.example.MissingDriver\n");
+        when(bundle.loadClass("org.example.MissingDriver")).thenThrow(new ClassNotFoundException());
+        DriverServiceFactory factory = new DriverServiceFactory(bundle, "org.example.MissingDriver");
+        assertNull(factory.getService(bundle, mock(ServiceRegistration.class)));
+    }
+
+    @Test
+    public void testNoServiceMetadata() throws Exception {
+        Bundle bundle = mock(Bundle.class);
+        when(bundle.getBundleId()).thenReturn(1L);
+        assertNull(new Activator().addingBundle(bundle, null));
+        verify(bundle, never()).getBundleContext();
+    }
+
+    @Test
+    public void testNegativeResultCached() throws Exception {
+        Bundle bundle = mock(Bundle.class);
+        when(bundle.getBundleId()).thenReturn(1L);
+        when(bundle.getLastModified()).thenReturn(100L);
+        Activator activator = new Activator();
+
+        assertNull(activator.addingBundle(bundle, null));
+        assertNull(activator.addingBundle(bundle, null));
+        verify(bundle, times(1)).findEntries(Activator.SERVICES_DIR, Driver.class.getName(), false);
+        verify(bundle, never()).getResources(anyString());
+
+        // updated bundle is checked again
+        when(bundle.getLastModified()).thenReturn(200L);
+        assertNull(activator.addingBundle(bundle, null));
+        verify(bundle, times(2)).findEntries(Activator.SERVICES_DIR, Driver.class.getName(), false);
+
+        // so is a bundle that got a fragment attached
+        Bundle fragment = mock(Bundle.class);
+        when(fragment.getLastModified()).thenReturn(300L);
+        attach(bundle, fragment);
+        assertNull(activator.addingBundle(bundle, null));
+        verify(bundle, times(3)).findEntries(Activator.SERVICES_DIR, Driver.class.getName(), false);
+    }
+
+    @Test
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public void testDriverFromFragment() throws Exception {
+        Bundle bundle = driverBundle(TestDriver.class.getName() + "\n");
+        // the host has no metadata of its own, getEntry does not see the one of its fragment
+        when(bundle.getEntry(Activator.DRIVER_SERVICES)).thenReturn(null);
+        BundleContext context = mock(BundleContext.class);
+        when(bundle.getBundleContext()).thenReturn(context);
+        ServiceRegistration<DataSourceFactory> reg = mock(ServiceRegistration.class);
+        when(context.registerService(eq(DataSourceFactory.class), any(ServiceFactory.class), any(Dictionary.class)))
+                .thenReturn(reg);
+
+        assertEquals(Collections.singletonList(reg), new Activator().addingBundle(bundle, null));
+    }
+
+    @Test
+    public void testEmbeddedClassPath() throws Exception {
+        Bundle bundle = mock(Bundle.class);
+        Hashtable<String, String> headers = new Hashtable<>();
+        when(bundle.getHeaders("")).thenReturn(headers);
+        assertFalse(Activator.mayContainDrivers(bundle));
+        headers.put(Constants.BUNDLE_CLASSPATH, ".");
+        assertFalse(Activator.mayContainDrivers(bundle));
+        headers.put(Constants.BUNDLE_CLASSPATH, ".,lib/driver.jar;foo=bar");
+        assertTrue(Activator.mayContainDrivers(bundle));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testAlreadyRegisteredDriverSkipped() throws Exception {
+        Bundle bundle = driverBundle(TestDriver.class.getName() + "\n");
+        ServiceReference<DataSourceFactory> ref = mock(ServiceReference.class);
+        when(ref.getProperty(Constants.OBJECTCLASS)).thenReturn(new String[] { DataSourceFactory.class.getName() });
+        when(ref.getProperty(DataSourceFactory.OSGI_JDBC_DRIVER_CLASS)).thenReturn(TestDriver.class.getName());
+        when(bundle.getRegisteredServices()).thenReturn(new ServiceReference<?>[] { ref });
+
+        assertNull(new Activator().addingBundle(bundle, null));
+        verify(bundle, never()).getBundleContext();
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private Bundle driverBundle(String services) throws Exception {
+        File file = File.createTempFile("java.sql.Driver", "");
+        file.deleteOnExit();
+        Files.write(file.toPath(), services.getBytes(StandardCharsets.UTF_8));
+        Bundle bundle = mock(Bundle.class);
+        when(bundle.getBundleId()).thenReturn(42L);
+        when(bundle.getSymbolicName()).thenReturn("test.driver");
+        when(bundle.getVersion()).thenReturn(new Version(1, 0, 0));
+        when(bundle.getEntry(Activator.DRIVER_SERVICES)).thenReturn(file.toURI().toURL());
+        when(bundle.findEntries(Activator.SERVICES_DIR, Driver.class.getName(), false))
+                .thenAnswer(invocation -> Collections.enumeration(Collections.singletonList(file.toURI().toURL())));
+        when(bundle.getResources(Activator.DRIVER_SERVICES))
+                .thenReturn(Collections.enumeration(Collections.singletonList(file.toURI().toURL())));
+        when(bundle.loadClass(TestDriver.class.getName())).thenReturn((Class) TestDriver.class);
+        return bundle;
+    }
+
+    private static void attach(Bundle host, Bundle fragment) {
+        BundleRevision revision = mock(BundleRevision.class);
+        when(revision.getBundle()).thenReturn(fragment);
+        BundleWire wire = mock(BundleWire.class);
+        when(wire.getRequirer()).thenReturn(revision);
+        BundleWiring wiring = mock(BundleWiring.class);
+        when(wiring.getProvidedWires(HostNamespace.HOST_NAMESPACE)).thenReturn(Collections.singletonList(wire));
+        when(host.adapt(BundleWiring.class)).thenReturn(wiring);
+    }
+
+    public static class TestDriver implements Driver {
+
+        @Override
+        public Connection connect(String url, Properties info) throws SQLException {
+            return null;
+        }
+
+        @Override
+        public boolean acceptsURL(String url) throws SQLException {
+            return false;
+        }
+
+        @Override
+        public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) throws SQLException {
+            return new DriverPropertyInfo[0];
+        }
+
+        @Override
+        public int getMajorVersion() {
+            return 1;
+        }
+
+        @Override
+        public int getMinorVersion() {
+            return 0;
+        }
+
+        @Override
+        public boolean jdbcCompliant() {
+            return false;
+        }
+
+        @Override
+        public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+            throw new SQLFeatureNotSupportedException();
+        }
+    }
+
+}
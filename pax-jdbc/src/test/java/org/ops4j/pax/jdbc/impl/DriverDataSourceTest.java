@@ -0,0 +1,253 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.osgi.service.jdbc.DataSourceFactory;
+
+public class DriverDataSourceTest {
+
+    private static final String URL = "jdbc:test:mem";
+
+    @Test
+    public void testDriverPropertiesPassedThrough() throws Exception {
+        Driver driver = mock(Driver.class);
+        Connection connection = mock(Connection.class);
+        ArgumentCaptor<Properties> captured = ArgumentCaptor.forClass(Properties.class);
+        when(driver.connect(eq(URL), captured.capture())).thenReturn(connection);
+
+        Properties config = new Properties();
+        config.setProperty(DataSourceFactory.JDBC_URL, URL);
+        config.setProperty(DataSourceFactory.JDBC_USER, "user");
+        config.setProperty(DataSourceFactory.JDBC_PASSWORD, "secret");
+        config.setProperty(DataSourceFactory.JDBC_DATASOURCE_NAME, "myDs");
+        config.setProperty("ssl", "true");
+        DataSource ds = new DriverDataSourceFactory(driver).createDataSource(config);
+
+        assertSame(connection, ds.getConnection());
+        Properties props = captured.getValue();
+        assertEquals("user", props.getProperty(DataSourceFactory.JDBC_USER));
+        assertEquals("secret", props.getProperty(DataSourceFactory.JDBC_PASSWORD));
+        assertEquals("true", props.getProperty("ssl"));
+        assertFalse(props.containsKey(DataSourceFactory.JDBC_URL));
+        assertFalse(props.containsKey(DataSourceFactory.JDBC_DATASOURCE_NAME));
+    }
+
+    @Test
+    public void testConnectPropertiesCopiedPerConnect() throws Exception {
+        Driver driver = mock(Driver.class);
+        ArgumentCaptor<Properties> captured = ArgumentCaptor.forClass(Properties.class);
+        when(driver.connect(eq(URL), captured.capture())).thenReturn(mock(Connection.class));
+
+        DataSource ds = new DriverDataSource(driver, URL, "user", "secret");
+        ds.getConnection();
+        ds.getConnection("user", "secret");
+        ds.getConnection("other", "password");
+
+        List<Properties> props = captured.getAllValues();
+        assertNotSame(props.get(0), props.get(1));
+        assertEquals(props.get(0), props.get(1));
+        assertEquals("other", props.get(2).getProperty(DataSourceFactory.JDBC_USER));
+        assertEquals("password", props.get(2).getProperty(DataSourceFactory.JDBC_PASSWORD));
+        verify(driver, times(3)).connect(eq(URL), any(Properties.class));
+    }
+
+    @Test
+    public void testLoginTimeout() throws Exception {
+        Driver driver = mock(Driver.class);
+        Connection late = mock(Connection.class);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch returned = new CountDownLatch(1);
+        when(driver.connect(eq(URL), any(Properties.class))).thenAnswer(invocation -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                // the abandoned attempt is interrupted - keep "connecting" until released
+                release.await();
+            }
+            returned.countDown();
+            return late;
+        });
+
+        Properties config = new Properties();
+        config.setProperty(DataSourceFactory.JDBC_URL, URL);
+        config.setProperty(DriverDataSourceFactory.LOGIN_TIMEOUT, "1");
+        DriverDataSource ds = (DriverDataSource) new DriverDataSourceFactory(driver).createDataSource(config);
+        assertEquals(1, ds.getLoginTimeout());
+
+        long start = System.nanoTime();
+        try {
+            ds.getConnection();
+            fail("Expected SQLTimeoutException");
+        } catch (SQLTimeoutException e) {
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5000);
+        }
+        assertEquals(1, ds.getTimedOutConnectAttempts());
+
+        // connection arriving after the deadline is closed
+        release.countDown();
+        assertTrue(returned.await(5, TimeUnit.SECONDS));
+        verify(late, timeout(5000)).close();
+    }
+
+    @Test
+    public void testLoginTimeoutPropagatesFailure() throws Exception {
+        Driver driver = mock(Driver.class);
+        when(driver.connect(eq(URL), any(Properties.class))).thenThrow(new SQLException("refused"));
+
+        DriverDataSource ds = new DriverDataSource(driver, URL, null, null);
+        ds.setLoginTimeout(5);
+        try {
+            ds.getConnection();
+            fail("Expected SQLException");
+        } catch (SQLException e) {
+            assertEquals("refused", e.getMessage());
+        }
+        assertEquals(0, ds.getTimedOutConnectAttempts());
+    }
+
+    @Test
+    public void testHangingConnectsDoNotDelayOtherDataSources() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        Driver hanging = mock(Driver.class);
+        when(hanging.connect(eq(URL), any(Properties.class))).thenAnswer(invocation -> {
+            release.await();
+            return null;
+        });
+        DriverDataSource blackHoled = new DriverDataSource(hanging, URL, null, null);
+        blackHoled.setLoginTimeout(10);
+        ExecutorService callers = Executors.newCachedThreadPool();
+        try {
+            // occupy more connect threads than a shared executor would have
+            for (int i = 0; i < 4 * Runtime.getRuntime().availableProcessors(); i++) {
+                callers.execute(() -> {
+                    try {
+                        blackHoled.getConnection();
+                    } catch (SQLException e) {
+                        // expected once released or timed out
+                    }
+                });
+            }
+            Driver healthy = mock(Driver.class);
+            Connection connection = mock(Connection.class);
+            when(healthy.connect(eq(URL), any(Properties.class))).thenReturn(connection);
+            DriverDataSource ds = new DriverDataSource(healthy, URL, null, null);
+            ds.setLoginTimeout(5);
+
+            long start = System.nanoTime();
+            assertSame(connection, ds.getConnection());
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 2000);
+        } finally {
+            release.countDown();
+            callers.shutdown();
+        }
+    }
+
+    @Test
+    public void testConnectRefusedAfterShutdown() throws Exception {
+        Driver driver = mock(Driver.class);
+        when(driver.connect(eq(URL), any(Properties.class))).thenReturn(mock(Connection.class));
+        DriverDataSource ds = new DriverDataSource(driver, URL, null, null);
+        ds.setLoginTimeout(5);
+        ds.getConnection();
+
+        ConnectExecutor.shutdown();
+        try {
+            ds.getConnection();
+            fail("Expected SQLException");
+        } catch (SQLException e) {
+            assertTrue(e.getMessage().contains("shut down"));
+        } finally {
+            ConnectExecutor.start();
+        }
+        verify(driver, times(1)).connect(eq(URL), any(Properties.class));
+    }
+
+    @Test
+    public void testDriverMayChangeConnectProperties() throws Exception {
+        Driver driver = mock(Driver.class);
+        List<Properties> seen = new ArrayList<>();
+        when(driver.connect(eq(URL), any(Properties.class))).thenAnswer(invocation -> {
+            Properties info = invocation.getArgument(1, Properties.class);
+            seen.add((Properties) info.clone());
+            // like drivers consuming the settings they understand
+            info.remove(DataSourceFactory.JDBC_PASSWORD);
+            info.putIfAbsent("changed", "true");
+            return null;
+        });
+        DriverDataSource ds = new DriverDataSource(driver, URL, "user", "secret");
+
+        ds.getConnection();
+        ds.getConnection();
+        assertEquals(2, seen.size());
+        for (Properties info : seen) {
+            // read with keySet() and get() like H2 does
+            assertEquals(2, info.keySet().size());
+            assertEquals("secret", info.get(DataSourceFactory.JDBC_PASSWORD));
+            assertFalse(info.containsKey("changed"));
+        }
+    }
+
+    @Test
+    public void testClonedConnectPropertiesMutable() throws Exception {
+        Driver driver = mock(Driver.class);
+        Connection connection = mock(Connection.class);
+        when(driver.connect(eq(URL), any(Properties.class))).thenAnswer(invocation -> {
+            // like drivers adding their defaults to a copy of the connect properties
+            Properties copy = (Properties) invocation.getArgument(1, Properties.class).clone();
+            copy.setProperty("defaultFetchSize", "100");
+            assertEquals("user", copy.getProperty(DataSourceFactory.JDBC_USER));
+            return connection;
+        });
+        DriverDataSource ds = new DriverDataSource(driver, URL, "user", "secret");
+
+        assertSame(connection, ds.getConnection());
+        assertSame(connection, ds.getConnection());
+        ArgumentCaptor<Properties> captured = ArgumentCaptor.forClass(Properties.class);
+        verify(driver, times(2)).connect(eq(URL), captured.capture());
+        assertFalse(captured.getValue().containsKey("defaultFetchSize"));
+    }
+
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.jdbc.impl;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.Driver;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+
+import javax.sql.ConnectionEvent;
+import javax.sql.ConnectionEventListener;
+import javax.sql.ConnectionPoolDataSource;
+import javax.sql.PooledConnection;
+import javax.sql.StatementEvent;
+import javax.sql.StatementEventListener;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.osgi.service.jdbc.DataSourceFactory;
+
+public class DriverPooledConnectionTest {
+
+    @Test
+    public void testLogicalCloseKeepsPhysicalConnection() throws Exception {
+        Connection physical = mock(Connection.class);
+        Driver driver = mock(Driver.class);
+        when(driver.connect(anyString(), any(Properties.class))).thenReturn(physical);
+        Properties config = new Properties();
+        config.setProperty(DataSourceFactory.JDBC_URL, "jdbc:test:mem");
+        ConnectionPoolDataSource cpds = new DriverDataSourceFactory(driver).createConnectionPoolDataSource(config);
+
+        PooledConnection pc = cpds.getPooledConnection();
+        ConnectionEventListener listener = mock(ConnectionEventListener.class);
+        pc.addConnectionEventListener(listener);
+
+        Connection handle = pc.getConnection();
+        handle.setAutoCommit(false);
+        verify(physical).setAutoCommit(false);
+        handle.close();
+        assertTrue(handle.isClosed());
+        verify(physical, never()).close();
+        ArgumentCaptor<ConnectionEvent> event = ArgumentCaptor.forClass(ConnectionEvent.class);
+        verify(listener).connectionClosed(event.capture());
+        assertSame(pc, event.getValue().getSource());
+
+        try {
+            handle.commit();
+            fail("Closed handle must not be usable");
+        } catch (SQLException expected) {
+        }
+
+        Connection second = pc.getConnection();
+        assertFalse(second.isClosed());
+        pc.close();
+        verify(physical).close();
+    }
+
+    @Test
+    public void testFatalErrorReported() throws Exception {
+        Connection physical = mock(Connection.class);
+        SQLException broken = new SQLException("connection reset", "08S01");
+        doThrow(broken).when(physical).commit();
+        PooledConnection pc = new DriverPooledConnection(physical);
+        ConnectionEventListener listener = mock(ConnectionEventListener.class);
+        pc.addConnectionEventListener(listener);
+
+        try {
+            pc.getConnection().commit();
+            fail("Expected SQLException");
+        } catch (SQLException e) {
+            assertSame(broken, e);
+        }
+        ArgumentCaptor<ConnectionEvent> event = ArgumentCaptor.forClass(ConnectionEvent.class);
+        verify(listener).connectionErrorOccurred(event.capture());
+        assertSame(broken, event.getValue().getSQLException());
+    }
+
+    @Test
+    public void testStatementEvents() throws Exception {
+        Connection physical = mock(Connection.class);
+        PreparedStatement ps = mock(PreparedStatement.class);
+        when(physical.prepareStatement("select 1")).thenReturn(ps);
+        SQLException syntax = new SQLException("syntax", "42000");
+        when(ps.executeQuery()).thenThrow(syntax);
+        PooledConnection pc = new DriverPooledConnection(physical);
+        StatementEventListener listener = mock(StatementEventListener.class);
+        ConnectionEventListener connectionListener = mock(ConnectionEventListener.class);
+        pc.addStatementEventListener(listener);
+        pc.addConnectionEventListener(connectionListener);
+
+        Connection handle = pc.getConnection();
+        PreparedStatement statement = handle.prepareStatement("select 1");
+        assertSame(handle, statement.getConnection());
+        try {
+            statement.executeQuery();
+            fail("Expected SQLException");
+        } catch (SQLException e) {
+            assertSame(syntax, e);
+        }
+        statement.close();
+        verify(ps).close();
+
+        ArgumentCaptor<StatementEvent> event = ArgumentCaptor.forClass(StatementEvent.class);
+        verify(listener).statementErrorOccurred(event.capture());
+        assertSame(statement, event.getValue().getStatement());
+        verify(listener).statementClosed(any(StatementEvent.class));
+        verify(connectionListener, never()).connectionErrorOccurred(any(ConnectionEvent.class));
+    }
+
+    @Test
+    public void testUnwrapReturnsHandle() throws Exception {
+        Connection physical = mock(Connection.class);
+        PooledConnection pc = new DriverPooledConnection(physical);
+        ConnectionEventListener listener = mock(ConnectionEventListener.class);
+        pc.addConnectionEventListener(listener);
+
+        Connection handle = pc.getConnection();
+        assertTrue(handle.isWrapperFor(Connection.class));
+        Connection unwrapped = handle.unwrap(Connection.class);
+        assertSame(handle, unwrapped);
+        unwrapped.close();
+        verify(physical, never()).close();
+        verify(listener).connectionClosed(any(ConnectionEvent.class));
+    }
+
+    @Test
+    public void testMetaDataReturnsHandle() throws Exception {
+        Connection physical = mock(Connection.class);
+        DatabaseMetaData metaData = mock(DatabaseMetaData.class);
+        when(physical.getMetaData()).thenReturn(metaData);
+        when(metaData.getConnection()).thenReturn(physical);
+        PooledConnection pc = new DriverPooledConnection(physical);
+        ConnectionEventListener listener = mock(ConnectionEventListener.class);
+        pc.addConnectionEventListener(listener);
+
+        Connection handle = pc.getConnection();
+        assertSame(handle, handle.getMetaData().getConnection());
+        handle.getMetaData().getConnection().close();
+        verify(physical, never()).close();
+        verify(listener).connectionClosed(any(ConnectionEvent.class));
+    }
+
+    @Test
+    public void testResultSetReturnsStatementOfHandle() throws Exception {
+        Connection physical = mock(Connection.class);
+        Statement stmt = mock(Statement.class);
+        ResultSet resultSet = mock(ResultSet.class);
+        when(physical.createStatement()).thenReturn(stmt);
+        when(stmt.getResultSet()).thenReturn(resultSet);
+        when(stmt.getConnection()).thenReturn(physical);
+        when(resultSet.getStatement()).thenReturn(stmt);
+        PooledConnection pc = new DriverPooledConnection(physical);
+        ConnectionEventListener listener = mock(ConnectionEventListener.class);
+        pc.addConnectionEventListener(listener);
+
+        Connection handle = pc.getConnection();
+        Statement statement = handle.createStatement();
+        assertSame(statement, statement.getResultSet().getStatement());
+        statement.getResultSet().getStatement().getConnection().close();
+        verify(physical, never()).close();
+        verify(listener).connectionClosed(any(ConnectionEvent.class));
+    }
+
+    @Test
+    public void testNewHandleClosesPrevious() throws Exception {
+        Connection physical = mock(Connection.class);
+        PooledConnection pc = new DriverPooledConnection(physical);
+        ConnectionEventListener listener = mock(ConnectionEventListener.class);
+        pc.addConnectionEventListener(listener);
+
+        Connection first = pc.getConnection();
+        pc.getConnection();
+        assertTrue(first.isClosed());
+        verify(listener, never()).connectionClosed(any(ConnectionEvent.class));
+    }
+
+}